@@ -0,0 +1,48 @@
+package io.knifer.freebox.util.catvod;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 爬虫方法调用基准测试
+ * 对比每次调用都查找方法并反射调用（旧实现）与SpiderInvokeUtil缓存的MethodHandle
+ * 运行：gradle jmh --args="SpiderInvokeBenchmark"
+ *
+ * @author Knifer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpiderInvokeBenchmark {
+
+    private static final String URL = "https://example.com/hls/seg0.ts";
+
+    private final Object spider = new BenchmarkSpider();
+
+    @Benchmark
+    public boolean reflectiveLookupAndInvoke() throws Exception {
+        Method method = spider.getClass().getMethod("isVideoFormat", String.class);
+
+        return (boolean) method.invoke(spider, URL);
+    }
+
+    @Benchmark
+    public boolean methodHandleDispatch() {
+        return SpiderInvokeUtil.isVideoFormat(spider, URL);
+    }
+
+    /**
+     * 只实现isVideoFormat的爬虫
+     */
+    public static class BenchmarkSpider {
+
+        public boolean isVideoFormat(String url) {
+            return url.endsWith(".ts");
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package io.knifer.freebox.component.factory;
 
+import com.google.common.cache.Cache;
 import io.knifer.freebox.component.node.EmojiableLabel;
 import io.knifer.freebox.constant.BaseResources;
 import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.constant.ImageLoadPriority;
 import io.knifer.freebox.constant.VideoPlaybackTrigger;
+import io.knifer.freebox.helper.CacheHelper;
 import io.knifer.freebox.helper.ConfigHelper;
 import io.knifer.freebox.helper.ImageHelper;
 import io.knifer.freebox.model.common.tvbox.Movie;
@@ -31,15 +34,15 @@ import org.controlsfx.control.GridCell;
 import org.controlsfx.control.GridView;
 import org.controlsfx.control.InfoOverlay;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import javax.annotation.Nullable;
+import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * 影片单元格工厂
+ * 海报按可见范围加载：绑定到单元格的影片优先加载，并沿滚动方向预加载一屏；
+ * 滚出可见范围（及预加载范围）的影片，其未完成的海报加载会被取消，再次可见时重新加载
  *
  * @author Knifer
  */
@@ -52,14 +55,43 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
 
     private final BooleanProperty showSourceName = new SimpleBooleanProperty(false);
 
-    private static final Map<String, String> SOURCE_KEY_AND_NAME_MAP = new HashMap<>();
+    /**
+     * 缓存的影片结点数量上限
+     */
+    private static final int MAX_CACHED_CONTAINERS = 300;
 
-    private static final Map<String, StackPane> ITEM_ID_AND_CONTAINER_MAP = new HashMap<>();
+    private final Map<String, String> sourceKeyAndNameMap = new HashMap<>();
+
+    /**
+     * 影片ID -> 影片结点。使用软引用，并限制数量，避免长时间浏览后内存持续增长
+     */
+    private final Cache<String, StackPane> itemIdAndContainerCache = CacheHelper.newSoftValueCache(
+            MAX_CACHED_CONTAINERS
+    );
 
     private static final double CELL_WIDTH = 150;
 
     private static final double CELL_HEIGHT = 200;
 
+    private static final String PIC_IMAGE_VIEW_PROPERTY = "picImageView";
+
+    /**
+     * 可见的单元格 -> 单元格中影片的索引
+     */
+    private final Map<VideoGridCell, Integer> visibleCellIndexes = new HashMap<>();
+
+    /**
+     * 可见的单元格 -> 单元格中影片的海报
+     */
+    private final Map<VideoGridCell, String> visiblePicUrls = new HashMap<>();
+
+    /**
+     * 预加载中的海报
+     */
+    private Set<String> prefetchPicUrls = Set.of();
+
+    private boolean scrollingDown = true;
+
     public VideoGridCellFactory(Consumer<Movie.Video> onVideoOpen, Consumer<VideoGridCell> onLoadMoreMovie) {
         this.onVideoOpen = onVideoOpen;
         this.onLoadMoreMovie = onLoadMoreMovie;
@@ -70,8 +102,8 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
 
             return;
         }
-        SOURCE_KEY_AND_NAME_MAP.clear();
-        SOURCE_KEY_AND_NAME_MAP.putAll(sourceBeans.stream().collect(Collectors.toUnmodifiableMap(SourceBean::getKey, SourceBean::getName, (v1, v2) -> v2)));
+        sourceKeyAndNameMap.clear();
+        sourceKeyAndNameMap.putAll(sourceBeans.stream().collect(Collectors.toUnmodifiableMap(SourceBean::getKey, SourceBean::getName, (v1, v2) -> v2)));
     }
 
     public void setShowSourceName(boolean flag) {
@@ -80,17 +112,126 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
 
     @Override
     public GridCell<Movie.Video> call(GridView<Movie.Video> view) {
-        VideoGridCell cell = new VideoGridCell(onVideoOpen, onLoadMoreMovie, showSourceName);
+        VideoGridCell cell = new VideoGridCell(this, onVideoOpen, onLoadMoreMovie, showSourceName);
 
         cell.setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
 
         return cell;
     }
 
+    /**
+     * 单元格绑定了影片
+     * @param cell 单元格
+     * @param picUrl 影片海报，为null表示无需加载海报
+     */
+    private void onCellBound(VideoGridCell cell, @Nullable String picUrl) {
+        int index = cell.getIndex();
+        int minIndex = Integer.MAX_VALUE;
+        int maxIndex = Integer.MIN_VALUE;
+        String oldPicUrl;
+
+        for (Map.Entry<VideoGridCell, Integer> cellAndIndex : visibleCellIndexes.entrySet()) {
+            if (cellAndIndex.getKey() != cell) {
+                minIndex = Math.min(minIndex, cellAndIndex.getValue());
+                maxIndex = Math.max(maxIndex, cellAndIndex.getValue());
+            }
+        }
+        // 新进入可见范围的影片在已有影片之后，说明正在向下滚动，反之向上
+        if (index > maxIndex && maxIndex != Integer.MIN_VALUE) {
+            scrollingDown = true;
+        } else if (index < minIndex && minIndex != Integer.MAX_VALUE) {
+            scrollingDown = false;
+        }
+        visibleCellIndexes.put(cell, index);
+        oldPicUrl = picUrl == null ? visiblePicUrls.remove(cell) : visiblePicUrls.put(cell, picUrl);
+        if (oldPicUrl != null && !oldPicUrl.equals(picUrl)) {
+            cancelIfUnused(oldPicUrl);
+        }
+        updatePrefetch();
+    }
+
+    /**
+     * 单元格不再显示影片
+     * @param cell 单元格
+     */
+    private void onCellUnbound(VideoGridCell cell) {
+        String oldPicUrl;
+
+        visibleCellIndexes.remove(cell);
+        oldPicUrl = visiblePicUrls.remove(cell);
+        if (oldPicUrl != null) {
+            cancelIfUnused(oldPicUrl);
+        }
+    }
+
+    /**
+     * 沿滚动方向预加载一屏海报，取消已离开预加载范围的海报
+     */
+    private void updatePrefetch() {
+        GridView<Movie.Video> gridView;
+        List<Movie.Video> items;
+        int screenSize = visibleCellIndexes.size();
+        int anchorIndex;
+        int fromIndex;
+        int toIndex;
+        Set<String> newPrefetchPicUrls;
+        Movie.Video item;
+        String picUrl;
+
+        if (screenSize == 0) {
+
+            return;
+        }
+        gridView = visibleCellIndexes.keySet().iterator().next().getGridView();
+        items = gridView == null ? null : gridView.getItems();
+        if (items == null) {
+
+            return;
+        }
+        if (scrollingDown) {
+            anchorIndex = Collections.max(visibleCellIndexes.values());
+            fromIndex = anchorIndex + 1;
+            toIndex = Math.min(items.size(), anchorIndex + 1 + screenSize);
+        } else {
+            anchorIndex = Collections.min(visibleCellIndexes.values());
+            fromIndex = Math.max(0, anchorIndex - screenSize);
+            toIndex = Math.min(items.size(), anchorIndex);
+        }
+        newPrefetchPicUrls = new HashSet<>();
+        for (int i = fromIndex; i < toIndex; i++) {
+            item = items.get(i);
+            if (item == null || item.getId() == null || BaseValues.LOAD_MORE_ITEM_ID.equals(item.getId())) {
+                continue;
+            }
+            picUrl = item.getPic();
+            if (StringUtils.isNotBlank(picUrl) && !visiblePicUrls.containsValue(picUrl)) {
+                newPrefetchPicUrls.add(picUrl);
+            }
+        }
+        for (String newPicUrl : newPrefetchPicUrls) {
+            if (!prefetchPicUrls.contains(newPicUrl)) {
+                ImageHelper.loadAsync(newPicUrl, CELL_WIDTH, CELL_HEIGHT, ImageLoadPriority.PREFETCH, this);
+            }
+        }
+        for (String oldPicUrl : prefetchPicUrls) {
+            if (!newPrefetchPicUrls.contains(oldPicUrl) && !visiblePicUrls.containsValue(oldPicUrl)) {
+                ImageHelper.cancelLoading(oldPicUrl, CELL_WIDTH, CELL_HEIGHT, this);
+            }
+        }
+        prefetchPicUrls = newPrefetchPicUrls;
+    }
+
+    private void cancelIfUnused(String picUrl) {
+        if (!visiblePicUrls.containsValue(picUrl) && !prefetchPicUrls.contains(picUrl)) {
+            ImageHelper.cancelLoading(picUrl, CELL_WIDTH, CELL_HEIGHT, this);
+        }
+    }
+
     @RequiredArgsConstructor
     public static class VideoGridCell extends GridCell<Movie.Video> {
 
         private EventHandler<MouseEvent> eventFilter = null;
+        private final VideoGridCellFactory factory;
         private final Consumer<Movie.Video> onVideoOpen;
         private final Consumer<VideoGridCell> onLoadMoreMovie;
         private final BooleanProperty showSourceName;
@@ -124,6 +265,7 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
                 root = (StackPane) rootNode;
             }
             if (item == null || empty) {
+                factory.onCellUnbound(this);
 
                 return;
             }
@@ -133,7 +275,7 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
                 setCursor(Cursor.DEFAULT);
             }
             itemId = item.getId();
-            container = ITEM_ID_AND_CONTAINER_MAP.get(itemId);
+            container = itemId == null ? null : factory.itemIdAndContainerCache.getIfPresent(itemId);
             if (container == null) {
                 // 缓存中找不到container结点，进行初始化
                 container = new StackPane();
@@ -142,7 +284,7 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
                 tagContainer = new AnchorPane();
                 tagContainerChildren = tagContainer.getChildren();
                 // 影片左上角源名称
-                sourceName = SOURCE_KEY_AND_NAME_MAP.get(item.getSourceKey());
+                sourceName = factory.sourceKeyAndNameMap.get(item.getSourceKey());
                 if (StringUtils.isNotBlank(sourceName)) {
                     sourceNameLabel = new EmojiableLabel();
                     sourceNameLabel.getStyleClass().add("movie-source-label");
@@ -173,13 +315,7 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
                 } else {
                     moviePicImageView.setImage(BaseResources.PICTURE_PLACEHOLDER_IMG);
                     if (itemId != null) {
-                        picUrl = item.getPic();
-                        ImageHelper.loadAsync(picUrl)
-                                .thenAccept(result -> {
-                                    if (result.isSuccess()) {
-                                        Platform.runLater(() -> moviePicImageView.setImage(result.getImage()));
-                                    }
-                                });
+                        container.getProperties().put(PIC_IMAGE_VIEW_PROPERTY, moviePicImageView);
                     }
                 }
                 moviePicImageView.setFitWidth(CELL_WIDTH);
@@ -188,8 +324,19 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
                 movieInfoOverlay.getStyleClass().add("movie-info-overlay");
                 containerChildren.add(movieInfoOverlay);
                 containerChildren.add(tagContainer);
-                ITEM_ID_AND_CONTAINER_MAP.put(itemId, container);
+                if (itemId != null) {
+                    factory.itemIdAndContainerCache.put(itemId, container);
+                }
             }
+            // 海报未加载完成（从未加载，或滚出可见范围时被取消）时，重新加载
+            picUrl = null;
+            if (container.getProperties().get(PIC_IMAGE_VIEW_PROPERTY) instanceof ImageView picImageView) {
+                if (picImageView.getImage() == BaseResources.PICTURE_PLACEHOLDER_IMG) {
+                    picUrl = item.getPic();
+                    loadPic(picImageView, picUrl);
+                }
+            }
+            factory.onCellBound(this, picUrl);
             rootChildren = root.getChildren();
             if (rootChildren.contains(container)) {
                 // 根结点中已添加了对应的container结点，无需重复添加
@@ -220,10 +367,29 @@ public class VideoGridCellFactory implements Callback<GridView<Movie.Video>, Gri
             addEventFilter(MouseEvent.MOUSE_CLICKED, eventFilter);
             setId(itemId);
         }
+
+        private void loadPic(ImageView picImageView, String picUrl) {
+            ImageHelper.loadAsync(picUrl, CELL_WIDTH, CELL_HEIGHT, ImageLoadPriority.VISIBLE, factory)
+                    .thenAccept(result -> {
+                        if (result.isSuccess()) {
+                            Platform.runLater(() -> picImageView.setImage(result.getImage()));
+                        }
+                    });
+        }
     }
 
     public void destroy() {
-        SOURCE_KEY_AND_NAME_MAP.clear();
-        ITEM_ID_AND_CONTAINER_MAP.clear();
+        for (String picUrl : visiblePicUrls.values()) {
+            ImageHelper.cancelLoading(picUrl, CELL_WIDTH, CELL_HEIGHT, this);
+        }
+        for (String picUrl : prefetchPicUrls) {
+            ImageHelper.cancelLoading(picUrl, CELL_WIDTH, CELL_HEIGHT, this);
+        }
+        visibleCellIndexes.clear();
+        visiblePicUrls.clear();
+        prefetchPicUrls = Set.of();
+        CacheHelper.logStats("video grid container", itemIdAndContainerCache);
+        sourceKeyAndNameMap.clear();
+        itemIdAndContainerCache.invalidateAll();
     }
 }
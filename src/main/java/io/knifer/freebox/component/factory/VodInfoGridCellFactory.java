@@ -135,7 +135,7 @@ public class VodInfoGridCellFactory implements Callback<GridView<VodInfo>, GridC
                     moviePicImageView.setImage(BaseResources.PICTURE_PLACEHOLDER_IMG);
                     if (itemId != null) {
                         picUrl = item.getPic();
-                        ImageHelper.loadAsync(picUrl)
+                        ImageHelper.loadAsync(picUrl, CELL_WIDTH, CELL_HEIGHT)
                                 .thenAccept(result -> {
                                     if (result.isSuccess()) {
                                         Platform.runLater(() -> moviePicImageView.setImage(result.getImage()));
@@ -14,27 +14,25 @@ import org.kordamp.ikonli.javafx.FontIcon;
 
 /**
  * EPG界面 - 表中节目块
+ * 节目块会被复用，通过setProgramData切换展示的节目
  *
  * @author Knifer
  */
-@Getter
 public class EPGProgramBlockPane extends StackPane {
 
-    private final EPG.Data programData;
+    @Getter
+    private EPG.Data programData;
+
+    private final Tooltip programInfoTooltip = new Tooltip();
+    private final Label titleLabel = new Label();
+    private final Label timeLabel = new Label();
 
     public EPGProgramBlockPane(EPG.Data programData) {
         super();
-        this.programData = programData;
         getStyleClass().add("epg-program-block-pane");
 
         VBox programInfo = new VBox(5);
         ObservableList<Node> programInfoChildren = programInfo.getChildren();
-        String programTitle = programData.getTitle();
-        String programTimeRange = programData.getStart() + " ~ " + programData.getEnd();
-        String programInfoTooltipText = programTitle + "\n\n" + programTimeRange;
-        Tooltip programInfoTooltip = new Tooltip(programInfoTooltipText);
-        Label titleLabel = new Label(programTitle);
-        Label timeLabel = new Label(programTimeRange);
         FontIcon clockIcon = FontIcon.of(FontAwesome.CLOCK_O);
 
         programInfo.setAlignment(Pos.TOP_LEFT);
@@ -47,5 +45,16 @@ public class EPGProgramBlockPane extends StackPane {
         programInfoChildren.add(titleLabel);
         programInfoChildren.add(timeLabel);
         getChildren().add(programInfo);
+        setProgramData(programData);
+    }
+
+    public void setProgramData(EPG.Data programData) {
+        String programTitle = programData.getTitle();
+        String programTimeRange = programData.getStart() + " ~ " + programData.getEnd();
+
+        this.programData = programData;
+        titleLabel.setText(programTitle);
+        timeLabel.setText(programTimeRange);
+        programInfoTooltip.setText(programTitle + "\n\n" + programTimeRange);
     }
 }
@@ -0,0 +1,206 @@
+package io.knifer.freebox.component.node;
+
+import io.knifer.freebox.model.common.diyp.EPG;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * EPG界面 - 表中一个频道的节目行
+ * 1. 节目块按时间绝对定位，窗口大小、时间轴改变时只重新定位，不重新创建
+ * 2. 只为可见区域内的节目显示节目块，移出可见区域的节目块会被回收，供其他节目复用
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class EPGProgramRowPane extends Pane {
+
+    @Getter
+    private final EPGChannelHBox channelHBox;
+    private final Consumer<EPGProgramBlockPane> onProgramBlockPressed;
+    /**
+     * 节目（开始、结束时间已解析为一天中的分钟数）
+     */
+    private final List<Program> programs = new ArrayList<>();
+    /**
+     * 节目下标 -> 正在显示的节目块
+     */
+    private final List<EPGProgramBlockPane> activeBlocks = new ArrayList<>();
+    private final Deque<EPGProgramBlockPane> idleBlocks = new ArrayDeque<>();
+
+    private int timelineStartMinute;
+    private int timelineEndMinute;
+    private double minuteWidth;
+    private double viewportMinX;
+    private double viewportMaxX;
+    private boolean shown;
+
+    public EPGProgramRowPane(EPGChannelHBox channelHBox, Consumer<EPGProgramBlockPane> onProgramBlockPressed) {
+        super();
+        this.channelHBox = channelHBox;
+        this.onProgramBlockPressed = onProgramBlockPressed;
+        minHeightProperty().bind(channelHBox.heightProperty());
+        prefHeightProperty().bind(channelHBox.heightProperty());
+        maxHeightProperty().bind(channelHBox.heightProperty());
+    }
+
+    /**
+     * 设置节目数据
+     * @param epgDataList 节目数据
+     */
+    public void setEpgData(List<EPG.Data> epgDataList) {
+        String start;
+        String end;
+        int startMinute;
+        int endMinute;
+
+        for (EPGProgramBlockPane block : activeBlocks) {
+            if (block != null) {
+                recycleBlock(block);
+            }
+        }
+        activeBlocks.clear();
+        programs.clear();
+        for (EPG.Data programData : epgDataList) {
+            start = programData.getStart();
+            end = programData.getEnd();
+            if (start == null || end == null) {
+                log.warn("epg time is null, programData={}", programData);
+                continue;
+            }
+            try {
+                startMinute = LocalTime.parse(start).toSecondOfDay() / 60;
+                endMinute = LocalTime.parse(end).toSecondOfDay() / 60;
+            } catch (DateTimeParseException e) {
+                log.warn("Invalid epg time format, programData={}", programData);
+                continue;
+            }
+            if (startMinute >= endMinute) {
+                log.warn("epg time range is invalid, programData={}", programData);
+                continue;
+            }
+            programs.add(new Program(programData, startMinute, endMinute));
+            activeBlocks.add(null);
+        }
+        requestLayout();
+    }
+
+    /**
+     * 更新时间轴及可见区域，只在有变化时重新布局
+     * @param timelineStartTime 时间轴的开始时间
+     * @param timelineEndTime 时间轴的结束时间
+     * @param minuteWidth 一分钟对应的宽度
+     * @param viewportMinX 可见区域左边界（相对于本行）
+     * @param viewportMaxX 可见区域右边界（相对于本行）
+     * @param shown 本行是否在可见区域内
+     */
+    public void updateViewport(
+            LocalTime timelineStartTime,
+            LocalTime timelineEndTime,
+            double minuteWidth,
+            double viewportMinX,
+            double viewportMaxX,
+            boolean shown
+    ) {
+        int startMinute = timelineStartTime.toSecondOfDay() / 60;
+        int endMinute = timelineEndTime.toSecondOfDay() / 60;
+        double width;
+
+        if (
+                startMinute == timelineStartMinute &&
+                endMinute == timelineEndMinute &&
+                minuteWidth == this.minuteWidth &&
+                viewportMinX == this.viewportMinX &&
+                viewportMaxX == this.viewportMaxX &&
+                shown == this.shown
+        ) {
+
+            return;
+        }
+        timelineStartMinute = startMinute;
+        timelineEndMinute = endMinute;
+        this.minuteWidth = minuteWidth;
+        this.viewportMinX = viewportMinX;
+        this.viewportMaxX = viewportMaxX;
+        this.shown = shown;
+        width = (endMinute - startMinute) * minuteWidth;
+        if (getPrefWidth() != width) {
+            setMinWidth(width);
+            setPrefWidth(width);
+            setMaxWidth(width);
+        }
+        requestLayout();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double height = getHeight();
+        Program program;
+        int startMinute;
+        int endMinute;
+        double x;
+        double width;
+        EPGProgramBlockPane block;
+
+        for (int i = 0; i < programs.size(); i++) {
+            program = programs.get(i);
+            // 超出时间轴的部分截断到时间轴范围内
+            startMinute = Math.max(program.startMinute(), timelineStartMinute);
+            endMinute = Math.min(program.endMinute(), timelineEndMinute);
+            x = (startMinute - timelineStartMinute) * minuteWidth;
+            width = (endMinute - startMinute) * minuteWidth;
+            block = activeBlocks.get(i);
+            if (!shown || endMinute <= startMinute || x + width < viewportMinX || x > viewportMaxX) {
+                if (block != null) {
+                    recycleBlock(block);
+                    activeBlocks.set(i, null);
+                }
+                continue;
+            }
+            if (block == null) {
+                block = obtainBlock(program.data());
+                activeBlocks.set(i, block);
+            }
+            block.resizeRelocate(x, 0, width, height);
+        }
+    }
+
+    private EPGProgramBlockPane obtainBlock(EPG.Data programData) {
+        EPGProgramBlockPane block = idleBlocks.poll();
+
+        if (block == null) {
+            block = new EPGProgramBlockPane(programData);
+            EPGProgramBlockPane finalBlock = block;
+            block.setOnMousePressed(evt -> {
+                if (evt.getButton() != MouseButton.PRIMARY) {
+
+                    return;
+                }
+                onProgramBlockPressed.accept(finalBlock);
+            });
+            getChildren().add(block);
+        } else {
+            block.setProgramData(programData);
+            block.setVisible(true);
+        }
+
+        return block;
+    }
+
+    private void recycleBlock(EPGProgramBlockPane block) {
+        // 只隐藏不移除，避免频繁增删子节点
+        block.setVisible(false);
+        idleBlocks.push(block);
+    }
+
+    private record Program(EPG.Data data, int startMinute, int endMinute) {}
+}
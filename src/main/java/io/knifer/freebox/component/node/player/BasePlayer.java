@@ -8,15 +8,13 @@ import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.constant.Views;
 import io.knifer.freebox.controller.EPGOverviewController;
-import io.knifer.freebox.handler.EpgFetchingHandler;
-import io.knifer.freebox.handler.impl.ParameterizedEpgFetchingHandler;
 import io.knifer.freebox.helper.*;
 import io.knifer.freebox.model.bo.EPGOverviewBO;
 import io.knifer.freebox.model.bo.TVPlayBO;
 import io.knifer.freebox.model.common.diyp.EPG;
 import io.knifer.freebox.model.domain.LiveChannel;
 import io.knifer.freebox.model.domain.LiveChannelGroup;
-import io.knifer.freebox.util.AsyncUtil;
+import io.knifer.freebox.model.domain.LiveLineProbeResult;
 import io.knifer.freebox.util.CastUtil;
 import io.knifer.freebox.util.CollectionUtil;
 import io.knifer.freebox.util.FXMLUtil;
@@ -50,8 +48,6 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.MutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.controlsfx.control.ToggleSwitch;
@@ -62,16 +58,14 @@ import javax.annotation.Nullable;
 import javax.swing.*;
 import java.io.File;
 import java.net.URL;
-import java.time.LocalDateTime;
+import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -128,8 +122,11 @@ public abstract class BasePlayer<T extends Node> {
     private final Label epgOpenLabel;
     private final LiveChannelBanner liveChannelBanner;
     private final LiveDrawer liveChannelDrawer;
-    private final EpgFetchingHandler epgFetchingHandler;
     private final DateTimeFormatter LOCAL_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    /**
+     * 切换频道时，预加载前后各多少个频道的节目单
+     */
+    private static final int EPG_PREFETCH_ADJACENT_CHANNEL_COUNT = 2;
     private final FontIcon pauseIcon = FontIcon.of(FontAwesome.PAUSE, 32, Color.WHITE);
     private final FontIcon playIcon = FontIcon.of(FontAwesome.PLAY, 32, Color.WHITE);
     private final FontIcon stepBackwardIcon = FontIcon.of(FontAwesome.STEP_BACKWARD, 32, Color.WHITE);
@@ -235,7 +232,6 @@ public abstract class BasePlayer<T extends Node> {
         stepForwardLabel = new Label();
         stepForwardLabel.setGraphic(stepForwardIcon);
         if (liveMode) {
-            epgFetchingHandler = ParameterizedEpgFetchingHandler.getInstance();
             selectedLive = new LiveInfoBO();
             playingLive = new LiveInfoBO();
             stepBackwardLabel.setOnMouseClicked(evt -> {
@@ -307,7 +303,6 @@ public abstract class BasePlayer<T extends Node> {
             subtitleSettingPopOver = null;
             subtitleAndDanMaKuHBox = null;
         } else {
-            epgFetchingHandler = null;
             stepBackwardLabel.setOnMouseClicked(evt -> {
                 if (evt.getButton() == MouseButton.PRIMARY) {
                     stepBackwardRunnable.run();
@@ -922,7 +917,19 @@ public abstract class BasePlayer<T extends Node> {
             LiveChannelGroup liveChannelGroup, LiveChannel liveChannel, LiveChannel.Line liveChannelLine
     ) {
         LiveChannel lastPlayingLiveChannel = playingLive.getLiveChannel();
-
+        Map<LiveChannel.Line, LiveLineProbeResult> probeResults = null;
+        LiveChannel.Line bestLine;
+
+        if (lastPlayingLiveChannel != liveChannel && liveChannel.getLines().size() > 1) {
+            probeResults = LiveLineProbeHelper.getIfProbed(liveChannel);
+            if (probeResults != null) {
+                // 切换频道时，如果已有线路探测结果，直接播放最快的可用线路
+                bestLine = LiveLineProbeHelper.rank(liveChannel.getLines(), probeResults).get(0);
+                if (probeResults.get(bestLine).isHealthy()) {
+                    liveChannelLine = bestLine;
+                }
+            }
+        }
         playingLive.setLiveChannelGroup(liveChannelGroup);
         playingLive.setLiveChannel(liveChannel);
         playingLive.setLiveChannelLine(liveChannelLine);
@@ -935,6 +942,29 @@ public abstract class BasePlayer<T extends Node> {
             showLiveChannelBanner(liveChannel, liveChannelLine);
         }
         updateLiveChannelLinesHBox(lastPlayingLiveChannel, liveChannel, liveChannelLine);
+        if (lastPlayingLiveChannel != liveChannel && liveChannel.getLines().size() > 1) {
+            if (probeResults == null) {
+                probeLiveChannelLinesAsync(liveChannel);
+            } else {
+                liveChannelLinesWithPaginator.applyProbeResults(probeResults);
+            }
+        }
+    }
+
+    /**
+     * 在后台探测频道的所有线路，完成后对线路排序（正在播放的线路不可用时自动切换）
+     * @param liveChannel 频道
+     */
+    private void probeLiveChannelLinesAsync(LiveChannel liveChannel) {
+        // 之前频道的探测结果已经不需要了
+        LiveLineProbeHelper.cancelAll();
+        LiveLineProbeHelper.probe(liveChannel).thenAccept(results -> Platform.runLater(() -> {
+            if (playingLive.getLiveChannel() != liveChannel) {
+
+                return;
+            }
+            liveChannelLinesWithPaginator.applyProbeResults(results);
+        }));
     }
 
     private void updateLiveChannelLinesHBox(
@@ -964,80 +994,119 @@ public abstract class BasePlayer<T extends Node> {
     }
 
     private void fetchAndApplyEpgAsync(String channelTitle) {
-        AsyncUtil.execute(() -> {
-            EPG epg = null;
-            LocalDateTime now = LocalDateTime.now();
-            LocalTime nowTime;
-            String epgStartTimeStr;
-            String epgEndTimeStr;
-            LocalTime epgStartTime;
-            LocalTime epgEndTime;
-            MutableTriple<String, String, String> currentProgramTitleAndStartTimeAndEndTimeTriple;
-            MutablePair<String, String> nextProgramTitleAndStartTimeAndEndTime;
-            EPG.Data epgData;
+        String epgServiceUrl = epgServiceUrlProperty.get();
+        LocalDate today = LocalDate.now();
+        EPG cachedEpg = EpgCacheHelper.getIfPresent(epgServiceUrl, channelTitle, today);
 
+        if (cachedEpg == null) {
+            EpgCacheHelper.get(epgServiceUrl, channelTitle, today).whenComplete((epg, e) -> {
+                if (e != null) {
+                    log.warn(
+                            "Exception while fetching epg, channelTitle={}, epgServiceUrl={}",
+                            channelTitle,
+                            epgServiceUrl,
+                            e
+                    );
+
+                    return;
+                }
+                if (epg != null) {
+                    Platform.runLater(() -> applyEpg(channelTitle, epg));
+                }
+            });
+        } else {
+            // 重复查看的频道直接使用缓存，不需要等待
+            applyEpg(channelTitle, cachedEpg);
+        }
+        prefetchAdjacentChannelEpg(epgServiceUrl, today);
+    }
+
+    /**
+     * 预加载当前频道组中相邻频道的节目单，切换频道时可以直接显示
+     * @param epgServiceUrl 节目单地址
+     * @param date 日期
+     */
+    private void prefetchAdjacentChannelEpg(String epgServiceUrl, LocalDate date) {
+        LiveChannelGroup liveChannelGroup = playingLive.getLiveChannelGroup();
+        List<LiveChannel> liveChannels;
+        int channelIdx;
+        List<String> channelTitles;
+
+        if (liveChannelGroup == null) {
+
+            return;
+        }
+        liveChannels = liveChannelGroup.getChannels();
+        channelIdx = liveChannels.indexOf(playingLive.getLiveChannel());
+        if (channelIdx == -1) {
+
+            return;
+        }
+        channelTitles = new ArrayList<>(EPG_PREFETCH_ADJACENT_CHANNEL_COUNT * 2);
+        for (int i = 1; i <= EPG_PREFETCH_ADJACENT_CHANNEL_COUNT; i++) {
+            if (channelIdx + i < liveChannels.size()) {
+                channelTitles.add(liveChannels.get(channelIdx + i).getTitle());
+            }
+            if (channelIdx - i >= 0) {
+                channelTitles.add(liveChannels.get(channelIdx - i).getTitle());
+            }
+        }
+        EpgCacheHelper.prefetch(epgServiceUrl, channelTitles, date);
+    }
+
+    /**
+     * 在频道横幅上显示当前、下一个节目
+     * @param channelTitle 频道名称
+     * @param epg 节目单
+     */
+    private void applyEpg(String channelTitle, EPG epg) {
+        LiveChannel playingLiveChannel = playingLive.getLiveChannel();
+        LocalTime nowTime;
+        List<EPG.Data> data;
+        EPG.Data epgData;
+        EPG.Data nextEpgData;
+        String epgStartTimeStr;
+        String epgEndTimeStr;
+        LocalTime epgStartTime;
+        LocalTime epgEndTime;
+
+        if (playingLiveChannel == null || !channelTitle.equals(playingLiveChannel.getTitle())) {
+            // 已切换到其他频道
+
+            return;
+        }
+        nowTime = LocalTime.now();
+        data = epg.getEpgData();
+        if (data == null) {
+
+            return;
+        }
+        for (int i = 0; i < data.size(); i++) {
+            epgData = data.get(i);
+            epgStartTimeStr = epgData.getStart();
+            epgEndTimeStr = epgData.getEnd();
+            if (epgStartTimeStr == null || epgEndTimeStr == null) {
+                break;
+            }
             try {
-                epg = epgFetchingHandler.handle(epgServiceUrlProperty.get(), channelTitle, now.toLocalDate())
-                        .get(4, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                Platform.runLater(() -> ToastHelper.showException(e));
-            } catch (ExecutionException | TimeoutException e) {
+                epgStartTime = LocalTime.parse(epgStartTimeStr, LOCAL_TIME_FORMATTER);
+                epgEndTime = LocalTime.parse(epgEndTimeStr, LOCAL_TIME_FORMATTER);
+            } catch (DateTimeParseException e) {
                 log.warn(
-                        "Exception while fetching epg, channelTitle={}, epgServiceUrl={}",
-                        channelTitle,
-                        epgServiceUrlProperty.get(),
-                        e
+                        "Invalid epg time format, channelTitle={}, epgServiceUrl={}, epgData={}",
+                        channelTitle, epgServiceUrlProperty.get(), epgData
                 );
+                break;
             }
-            if (epg == null) {
-
-                return;
-            }
-            nowTime = now.toLocalTime();
-            currentProgramTitleAndStartTimeAndEndTimeTriple = MutableTriple.of(null, null, null);
-            nextProgramTitleAndStartTimeAndEndTime = MutablePair.of(null, null);
-            List<EPG.Data> data = epg.getEpgData();
-            for (int i = 0; i < data.size(); i++) {
-                epgData = data.get(i);
-                epgStartTimeStr = epgData.getStart();
-                epgEndTimeStr = epgData.getEnd();
-                if (epgStartTimeStr == null || epgEndTimeStr == null) {
-                    break;
-                }
-                try {
-                    epgStartTime = LocalTime.parse(epgData.getStart(), LOCAL_TIME_FORMATTER);
-                    epgEndTime = LocalTime.parse(epgData.getEnd(), LOCAL_TIME_FORMATTER);
-                } catch (DateTimeParseException e) {
-                    log.warn(
-                            "Invalid epg time format, channelTitle={}, epgServiceUrl={}, epgData={}",
-                            channelTitle, epgServiceUrlProperty.get(), epgData
-                    );
-                    break;
-                }
-                if (!nowTime.isBefore(epgStartTime) && nowTime.isBefore(epgEndTime)) {
-                    currentProgramTitleAndStartTimeAndEndTimeTriple.setLeft(epgData.getTitle());
-                    currentProgramTitleAndStartTimeAndEndTimeTriple.setMiddle(epgStartTimeStr);
-                    currentProgramTitleAndStartTimeAndEndTimeTriple.setRight(epgEndTimeStr);
-                    if (i < data.size() - 1) {
-                        epgData = data.get(i + 1);
-                        nextProgramTitleAndStartTimeAndEndTime.setLeft(epgData.getTitle());
-                        nextProgramTitleAndStartTimeAndEndTime.setRight(epgData.getStart());
-                    }
-                    Platform.runLater(() -> {
-                        liveChannelBanner.setCurrentProgram(
-                                currentProgramTitleAndStartTimeAndEndTimeTriple.getLeft(),
-                                currentProgramTitleAndStartTimeAndEndTimeTriple.getMiddle(),
-                                currentProgramTitleAndStartTimeAndEndTimeTriple.getRight()
-                        );
-                        liveChannelBanner.setNextProgram(
-                                nextProgramTitleAndStartTimeAndEndTime.getLeft(),
-                                nextProgramTitleAndStartTimeAndEndTime.getRight()
-                        );
-                    });
-                    break;
+            if (!nowTime.isBefore(epgStartTime) && nowTime.isBefore(epgEndTime)) {
+                liveChannelBanner.setCurrentProgram(epgData.getTitle(), epgStartTimeStr, epgEndTimeStr);
+                if (i < data.size() - 1) {
+                    nextEpgData = data.get(i + 1);
+                    liveChannelBanner.setNextProgram(nextEpgData.getTitle(), nextEpgData.getStart());
                 }
+                break;
             }
-        });
+        }
     }
 
     /**
@@ -1,12 +1,16 @@
 package io.knifer.freebox.component.node.player;
 
+import io.knifer.freebox.constant.LiveLineProbeStatus;
+import io.knifer.freebox.helper.LiveLineProbeHelper;
 import io.knifer.freebox.model.domain.LiveChannel;
+import io.knifer.freebox.model.domain.LiveLineProbeResult;
 import io.knifer.freebox.util.CollectionUtil;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.collections.ObservableList;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
@@ -15,6 +19,7 @@ import org.kordamp.ikonli.javafx.FontIcon;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -26,6 +31,11 @@ public class PlayerLiveChannelLinesWithPaginator extends HBox {
 
     private LiveChannel.Line playingLiveChannelLine;
 
+    /**
+     * 用户是否手动选择过线路（手动选择后不再自动切换线路）
+     */
+    private boolean lineManuallySelected = false;
+
     private final SimpleIntegerProperty currentPage = new SimpleIntegerProperty(-1);
     private final SimpleIntegerProperty totalPage = new SimpleIntegerProperty(-1);
     private final HBox linesHBox = new HBox(8);
@@ -50,42 +60,18 @@ public class PlayerLiveChannelLinesWithPaginator extends HBox {
         previousLabel.visibleProperty().bind(currentPage.greaterThan(1));
         nextLabel.visibleProperty().bind(currentPage.lessThan(totalPage));
         previousLabel.setOnMouseClicked(evt -> {
-            int nowCurrentPage;
-            List<Node> linesHBoxChildren;
-
             if (evt.getButton() != MouseButton.PRIMARY || currentPage.get() <= 1) {
 
                 return;
             }
-            nowCurrentPage = currentPage.get() - 1;
-            currentPage.set(nowCurrentPage);
-            linesHBoxChildren = linesHBox.getChildren();
-            linesHBoxChildren.clear();
-            for (int i = (nowCurrentPage - 1) * PAGE_SIZE; i < nowCurrentPage * PAGE_SIZE; i++) {
-                if (i >= lineLabels.size()) {
-                    break;
-                }
-                linesHBoxChildren.add(lineLabels.get(i));
-            }
+            showPage(currentPage.get() - 1);
         });
         nextLabel.setOnMouseClicked(evt -> {
-            int nowCurrentPage;
-            List<Node> linesHBoxChildren;
-
             if (evt.getButton() != MouseButton.PRIMARY || currentPage.get() >= totalPage.get()) {
 
                 return;
             }
-            nowCurrentPage = currentPage.get() + 1;
-            currentPage.set(nowCurrentPage);
-            linesHBoxChildren = linesHBox.getChildren();
-            linesHBoxChildren.clear();
-            for (int i = (nowCurrentPage - 1) * PAGE_SIZE; i < nowCurrentPage * PAGE_SIZE; i++) {
-                if (i >= lineLabels.size()) {
-                    break;
-                }
-                linesHBoxChildren.add(lineLabels.get(i));
-            }
+            showPage(currentPage.get() + 1);
         });
         children = getChildren();
         children.add(previousLabel);
@@ -99,6 +85,7 @@ public class PlayerLiveChannelLinesWithPaginator extends HBox {
         currentPage.set(-1);
         totalPage.set(-1);
         playingLiveChannelLine = null;
+        lineManuallySelected = false;
     }
 
     public void addLine(LiveChannel.Line line) {
@@ -111,15 +98,8 @@ public class PlayerLiveChannelLinesWithPaginator extends HBox {
 
                 return;
             }
-            for (PlayerLiveChannelLineLabel lineLabel : lineLabels) {
-                // 为正在播放的线路标签添加样式，移除其他线路标签的样式
-                setLineLabelStyle(
-                        lineLabel,
-                        playingLiveChannelLine == null || lineLabel.getLiveChannelLine() == line
-                );
-            }
-            playingLiveChannelLine = line;
-            onLiveChannelLineChanged.accept(line);
+            lineManuallySelected = true;
+            select(line);
         });
         lineLabels.add(newLineLabel);
         if (currentPage.get() == -1) {
@@ -173,6 +153,87 @@ public class PlayerLiveChannelLinesWithPaginator extends HBox {
         playingLiveChannelLine = line;
     }
 
+    /**
+     * 应用线路探测结果：按结果重新排列线路，并在正在播放的线路不可用时自动切换到最快的可用线路
+     * @param results 线路 -> 探测结果
+     */
+    public void applyProbeResults(Map<LiveChannel.Line, LiveLineProbeResult> results) {
+        List<LiveChannel.Line> rankedLines;
+        LiveLineProbeResult result;
+        LiveLineProbeResult playingResult;
+        LiveChannel.Line bestLine;
+        PlayerLiveChannelLineLabel lineLabel;
+        int playingLineIdx = 0;
+
+        if (lineLabels.isEmpty()) {
+
+            return;
+        }
+        rankedLines = LiveLineProbeHelper.rank(
+                lineLabels.stream().map(PlayerLiveChannelLineLabel::getLiveChannelLine).toList(), results
+        );
+        lineLabels.sort((l1, l2) -> Integer.compare(
+                rankedLines.indexOf(l1.getLiveChannelLine()), rankedLines.indexOf(l2.getLiveChannelLine())
+        ));
+        for (int i = 0; i < lineLabels.size(); i++) {
+            lineLabel = lineLabels.get(i);
+            result = results.get(lineLabel.getLiveChannelLine());
+            if (result == null || result.getStatus() == LiveLineProbeStatus.UNKNOWN) {
+                lineLabel.setOpacity(1);
+                lineLabel.setTooltip(null);
+            } else if (result.isHealthy()) {
+                lineLabel.setOpacity(1);
+                lineLabel.setTooltip(new Tooltip(result.getTtfbMillis() + " ms"));
+            } else {
+                lineLabel.setOpacity(0.4);
+                lineLabel.setTooltip(null);
+            }
+            if (lineLabel.getLiveChannelLine() == playingLiveChannelLine) {
+                playingLineIdx = i;
+            }
+        }
+        playingResult = playingLiveChannelLine == null ? null : results.get(playingLiveChannelLine);
+        bestLine = CollectionUtil.getFirst(rankedLines);
+        if (
+                !lineManuallySelected &&
+                        bestLine != null &&
+                        bestLine != playingLiveChannelLine &&
+                        results.get(bestLine).isHealthy() &&
+                        playingResult != null &&
+                        playingResult.getStatus() == LiveLineProbeStatus.UNHEALTHY
+        ) {
+            // 正在播放的线路不可用，自动切换到最快的可用线路
+            select(bestLine);
+            playingLineIdx = 0;
+        }
+        showPage(playingLineIdx / PAGE_SIZE + 1);
+    }
+
+    private void select(LiveChannel.Line line) {
+        for (PlayerLiveChannelLineLabel lineLabel : lineLabels) {
+            // 为正在播放的线路标签添加样式，移除其他线路标签的样式
+            setLineLabelStyle(
+                    lineLabel,
+                    playingLiveChannelLine == null || lineLabel.getLiveChannelLine() == line
+            );
+        }
+        playingLiveChannelLine = line;
+        onLiveChannelLineChanged.accept(line);
+    }
+
+    private void showPage(int page) {
+        List<Node> linesHBoxChildren = linesHBox.getChildren();
+
+        currentPage.set(page);
+        linesHBoxChildren.clear();
+        for (int i = (page - 1) * PAGE_SIZE; i < page * PAGE_SIZE; i++) {
+            if (i >= lineLabels.size()) {
+                break;
+            }
+            linesHBoxChildren.add(lineLabels.get(i));
+        }
+    }
+
     private void setLineLabelStyle(PlayerLiveChannelLineLabel lineLabel, boolean focused) {
         List<String> styleClasses = lineLabel.getStyleClass();
 
@@ -1,9 +1,12 @@
 package io.knifer.freebox.constant;
 
 import io.knifer.freebox.model.domain.ClientInfo;
+import io.knifer.freebox.model.domain.LiveChannelGroup;
 import io.knifer.freebox.net.websocket.server.KebSocketServer;
 import lombok.experimental.UtilityClass;
 
+import java.util.List;
+
 /**
  * FreeBox事件
  * 对于无需传参的事件类型，在post时可以直接使用AppEvents下的静态实例或类模板
@@ -35,4 +38,6 @@ public class AppEvents {
     public record ClientUnregisteredEvent(ClientInfo clientInfo) implements Event {}
 
     public record UsageFontChangedEvent(String fontFamily) implements Event {}
+
+    public record LiveChannelGroupsUpdatedEvent(String liveUrl, List<LiveChannelGroup> liveChannelGroups) implements Event {}
 }
@@ -34,6 +34,24 @@ public class BaseValues {
      * KebSocket通信超时时间
      */
     public static final Long KEB_SOCKET_REQUEST_TIMEOUT = 12L;
+    /**
+     * 支持压缩二进制帧的KebSocket协议版本号
+     * 服务端自身的协议版本号（x.properties中的keb-socket-protocol-version-code）及客户端注册时的协议版本号都不低于该值，
+     * 且客户端在注册信息中声明了compressedFrameSupported时，才使用压缩二进制帧
+     */
+    public static final int KEB_SOCKET_COMPRESSED_FRAME_PROTOCOL_VERSION_CODE = 2;
+    /**
+     * 消息长度（字符数）达到该值时才使用压缩二进制帧发送
+     */
+    public static final int KEB_SOCKET_COMPRESSED_FRAME_THRESHOLD = 8 * 1024;
+    /**
+     * 本地爬虫调用超时时间（秒）
+     */
+    public static final Long SPIDER_REQUEST_TIMEOUT = 30L;
+    /**
+     * 本地爬虫搜索超时时间（秒）
+     */
+    public static final Long SPIDER_SEARCH_TIMEOUT = 15L;
     /**
      * “获取更多”项ID
      */
@@ -46,6 +64,7 @@ public class BaseValues {
     public static final String X_APP_VERSION_CODE = "app-version-code";
     public static final String X_SUPPORTED_KEB_SOCKET_PROTOCOL_VERSION_CODE =
             "supported-keb-socket-protocol-version-code";
+    public static final String X_KEB_SOCKET_PROTOCOL_VERSION_CODE = "keb-socket-protocol-version-code";
     public static final String X_UPGRADE_CONFIG_URL = "upgrade-config-url";
     public static final String X_DEBUG = "debug";
 
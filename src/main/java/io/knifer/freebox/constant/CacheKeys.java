@@ -1,14 +0,0 @@
-package io.knifer.freebox.constant;
-
-import lombok.experimental.UtilityClass;
-
-/**
- * 用于CacheHelper的缓存键
- * @author Knifer
- */
-@UtilityClass
-public class CacheKeys {
-
-    public static final String AD_FILTERED_M3U8 = "ad_filtered.m3u8";
-    public static final String PROXY_CACHE_HTTP_HEADERS = "proxy_cache_http_headers:";
-}
@@ -0,0 +1,18 @@
+package io.knifer.freebox.constant;
+
+/**
+ * 图片加载优先级（越靠前越优先）
+ *
+ * @author Knifer
+ */
+public enum ImageLoadPriority {
+
+    /**
+     * 可见的图片
+     */
+    VISIBLE,
+    /**
+     * 预加载即将可见的图片
+     */
+    PREFETCH
+}
@@ -0,0 +1,22 @@
+package io.knifer.freebox.constant;
+
+/**
+ * 直播线路探测状态（越靠前排序越优先）
+ *
+ * @author Knifer
+ */
+public enum LiveLineProbeStatus {
+
+    /**
+     * 可用
+     */
+    HEALTHY,
+    /**
+     * 未知（不支持探测的协议）
+     */
+    UNKNOWN,
+    /**
+     * 不可用
+     */
+    UNHEALTHY
+}
@@ -14,6 +14,11 @@ public class MessageCodes {
      * 注册
      */
     public static final int REGISTER = 100;
+    /**
+     * 注册结果（仅发送给声明支持压缩二进制帧、且协议版本号支持的客户端，携带协商后的协议版本号）
+     * 客户端收到该消息后才可以发送压缩二进制帧
+     */
+    public static final int REGISTER_RESULT = 101;
     /**
      * 获取源列表
      */
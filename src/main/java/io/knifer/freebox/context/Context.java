@@ -202,6 +202,10 @@ public enum Context {
         eventBus.register(listener);
     }
 
+    public void unregisterEventListener(EventListener<?> listener) {
+        eventBus.unregister(listener);
+    }
+
     public void pushStage(Stage stage) {
         if (stageStack.contains(stage)) {
             return;
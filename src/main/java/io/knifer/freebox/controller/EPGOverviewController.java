@@ -1,14 +1,12 @@
 package io.knifer.freebox.controller;
 
-import cn.hutool.core.map.multi.RowKeyTable;
-import cn.hutool.core.map.multi.Table;
 import io.knifer.freebox.component.node.EPGChannelHBox;
 import io.knifer.freebox.component.node.EPGChannelProgramDataPopOver;
-import io.knifer.freebox.component.node.EPGProgramBlockPane;
+import io.knifer.freebox.component.node.EPGProgramRowPane;
 import io.knifer.freebox.component.node.EPGProgramBlockPopOver;
 import io.knifer.freebox.constant.EPGTimelineMode;
 import io.knifer.freebox.constant.I18nKeys;
-import io.knifer.freebox.handler.impl.ParameterizedEpgFetchingHandler;
+import io.knifer.freebox.helper.EpgCacheHelper;
 import io.knifer.freebox.helper.I18nHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.helper.WindowHelper;
@@ -16,7 +14,6 @@ import io.knifer.freebox.model.bo.EPGOverviewBO;
 import io.knifer.freebox.model.common.diyp.EPG;
 import io.knifer.freebox.model.domain.LiveChannel;
 import io.knifer.freebox.model.domain.LiveChannelGroup;
-import io.knifer.freebox.util.AsyncUtil;
 import io.knifer.freebox.util.CollectionUtil;
 import javafx.application.Platform;
 import javafx.beans.binding.DoubleBinding;
@@ -24,12 +21,12 @@ import javafx.beans.property.ReadOnlyDoubleProperty;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.geometry.Insets;
+import javafx.geometry.Bounds;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
-import javafx.scene.input.MouseButton;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
@@ -42,20 +39,15 @@ import org.controlsfx.control.SearchableComboBox;
 import org.controlsfx.control.SegmentedButton;
 import org.controlsfx.control.textfield.CustomTextField;
 
-import javax.annotation.Nullable;
 import javax.swing.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 /**
@@ -99,15 +91,23 @@ public class EPGOverviewController extends BaseController implements Destroyable
     private LocalDateTime now;
     private Timer datetimeUpdateTimer;
     private Set<LiveChannel> addedChannels;
-    private ParameterizedEpgFetchingHandler epgFetchingHandler;
     private List<LiveChannelGroup> liveChannelGroups;
     private String epgServiceUrl;
-    private Table<LocalDate, LiveChannel, EPG> epgDataTable;
+    private Scene scene;
+    /**
+     * 节目行的可见区域需要更新（同一帧内的多次窗口大小、滚动变化合并为一次更新）
+     */
+    private boolean programRowsViewportDirty = false;
+    private final Runnable programRowsViewportUpdater = this::updateProgramRowsViewportIfDirty;
 
     private EPGTimelineMode timelineMode = EPGTimelineMode.COMMON;
 
     private final static DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy年MM月dd日 EEEE");
     private final static DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    /**
+     * 可见区域之外额外显示节目块的范围（相对于可见区域的大小），避免滚动时出现空白
+     */
+    private final static double PROGRAM_ROWS_OVERSCAN_RATIO = 0.5;
 
     @FXML
     private void initialize() {
@@ -116,8 +116,6 @@ public class EPGOverviewController extends BaseController implements Destroyable
         ReadOnlyDoubleProperty timelineScrollPaneHeightProp;
         DoubleBinding searchAddChannelComboBoxWidthProp;
 
-        epgFetchingHandler = ParameterizedEpgFetchingHandler.getInstance();
-        epgDataTable = new RowKeyTable<>();
         addedChannels = new HashSet<>();
         now = LocalDateTime.now();
 
@@ -163,12 +161,18 @@ public class EPGOverviewController extends BaseController implements Destroyable
                     }
                     timelineStartLabel.setText(timelineMode.getStartTime().format(TIME_FORMATTER));
                     timelineEndLabel.setText(timelineMode.getEndTime().format(TIME_FORMATTER));
-                    // 因为改变了时间轴，所以要重新加载所有节目块
-                    refreshProgramBlocks();
+                    // 因为改变了时间轴，所以要重新定位所有节目块
+                    requestProgramRowsViewportUpdate();
                     // 将滚动条拉到最开始
                     timelineScrollPane.setHvalue(0);
                 });
 
+        timelineScrollPane.hvalueProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+        timelineScrollPane.viewportBoundsProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+        programScrollPane.vvalueProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+        programScrollPane.viewportBoundsProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+        programBlockVBox.heightProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+
         epgDataViewPopOver = new EPGChannelProgramDataPopOver();
         epgProgramBlockPopOver = new EPGProgramBlockPopOver();
 
@@ -244,9 +248,9 @@ public class EPGOverviewController extends BaseController implements Destroyable
                         .forEach(searchAddChannelComboBoxItems::add);
             }
             stage = WindowHelper.getStage(root);
-            stage.widthProperty().addListener(
-                    (ob, oldVal, newVal) -> refreshProgramBlocks()
-            );
+            stage.widthProperty().addListener(evt -> requestProgramRowsViewportUpdate());
+            scene = stage.getScene();
+            scene.addPreLayoutPulseListener(programRowsViewportUpdater);
             stage.setOnCloseRequest(evt -> destroy());
 
             // 数据加载
@@ -271,14 +275,15 @@ public class EPGOverviewController extends BaseController implements Destroyable
     @Override
     public void destroy() {
         datetimeUpdateTimer.stop();
-        epgDataTable.clear();
         addedChannels.clear();
+        if (scene != null) {
+            scene.removePreLayoutPulseListener(programRowsViewportUpdater);
+        }
     }
 
     private void addLiveChannel(LiveChannel liveChannel, LocalDate date) {
         EPGChannelHBox channelHBox;
         ObservableList<Node> channelInfoVBoxChildren;
-        int idx;
         EPG epg;
 
         if (addedChannels.contains(liveChannel)) {
@@ -297,14 +302,18 @@ public class EPGOverviewController extends BaseController implements Destroyable
         );
         channelInfoVBoxChildren = channelInfoVBox.getChildren();
         channelInfoVBoxChildren.add(channelHBox);
-        idx = channelInfoVBoxChildren.size() - 1;
-        epg = epgDataTable.get(date, liveChannel);
-
+        // 节目行与频道同时添加，保证与左侧频道一一对应
+        programBlockVBox.getChildren().add(new EPGProgramRowPane(
+                channelHBox,
+                programBlockPane -> epgProgramBlockPopOver.show(programBlockPane, programBlockPane.getProgramData())
+        ));
+        epg = StringUtils.isBlank(epgServiceUrl) ?
+                null : EpgCacheHelper.getIfPresent(epgServiceUrl, liveChannel.getTitle(), date);
         if (epg == null) {
-            loadEpgByLiveChannel(date, channelHBox, liveChannel, idx);
+            loadEpgByLiveChannel(date, channelHBox, liveChannel);
         } else {
             channelHBox.setEpgData(epg.getEpgData());
-            fillEPGChannelHBox(idx, channelHBox);
+            fillEPGChannelHBox(channelHBox);
         }
 
     }
@@ -313,94 +322,45 @@ public class EPGOverviewController extends BaseController implements Destroyable
             LiveChannel liveChannel,
             LocalDate date,
             Consumer<EPG> successCallback,
-            Runnable failCallback,
-            Consumer<Throwable> errorCallback
+            Runnable failCallback
     ) {
-        AsyncUtil.execute(() -> {
-            EPG epg = epgDataTable.get(date, liveChannel);
-
-            if (epg == null) {
-                try {
-                    epg = epgFetchingHandler.handle(
-                            epgServiceUrl, liveChannel.getTitle(), date
-                    ).get(10, TimeUnit.SECONDS);
-                } catch (InterruptedException e) {
-                    errorCallback.accept(e);
-
-                    return;
-                } catch (ExecutionException | TimeoutException e) {
-                    log.warn("epg loading timeout: {}", liveChannel, e);
-                    failCallback.run();
-
-                    return;
-                }
-                if (epg == null || CollectionUtil.isEmpty(epg.getEpgData())) {
-                    log.warn("epg data invalid, channel={}, epg={}", liveChannel, epg);
-                    failCallback.run();
+        // 不占用线程池等待，多个频道的节目单可以同时请求
+        EpgCacheHelper.get(epgServiceUrl, liveChannel.getTitle(), date)
+                .whenComplete((epg, e) -> {
+                    if (e != null) {
+                        log.warn("epg loading timeout: {}", liveChannel, e);
+                        failCallback.run();
 
-                    return;
-                }
-            }
-            successCallback.accept(epg);
-        });
+                        return;
+                    }
+                    if (epg == null || CollectionUtil.isEmpty(epg.getEpgData())) {
+                        log.warn("epg data invalid, channel={}, epg={}", liveChannel, epg);
+                        failCallback.run();
+
+                        return;
+                    }
+                    successCallback.accept(epg);
+                });
     }
 
-    private void fillEPGChannelHBox(int idx, EPGChannelHBox channelHBox) {
+    private void fillEPGChannelHBox(EPGChannelHBox channelHBox) {
         ObservableList<Node> programBlockVBoxChildren = programBlockVBox.getChildren();
-        HBox programBlockHBox;
-        EPG.Data lastEpgData;
-        List<EPG.Data> epgDataList;
-        Pair<Double, Double> programBlockLeftMarginAndWidth;
-        EPGProgramBlockPane programBlockPane;
-
-        programBlockVBoxChildren.removeIf(node -> {
-            // 删除旧的节目块
-            if (node instanceof HBox blockHBox) {
+        EPGProgramRowPane programRowPane = null;
 
-                return blockHBox.getUserData() == channelHBox;
-            }
-
-            return false;
-        });
-        programBlockHBox = new HBox();
-        programBlockHBox.minHeightProperty().bind(channelHBox.heightProperty());
-        programBlockHBox.maxHeightProperty().bind(channelHBox.heightProperty());
-        // 为了能关联节目块box和左侧频道box，设置一个userData
-        programBlockHBox.setUserData(channelHBox);
-        lastEpgData = null;
-        epgDataList = channelHBox.getEpgData();
-        for (EPG.Data programData : epgDataList) {
-            programBlockLeftMarginAndWidth = calculateProgramBlockLeftMarginAndWidth(
-                    lastEpgData == null ? null : lastEpgData.getEnd(),
-                    programData,
-                    timelineMode.getStartTime(),
-                    timelineMode.getEndTime()
-            );
-            if (programBlockLeftMarginAndWidth == null) {
-                continue;
+        for (Node node : programBlockVBoxChildren) {
+            if (node instanceof EPGProgramRowPane rowPane && rowPane.getChannelHBox() == channelHBox) {
+                programRowPane = rowPane;
+                break;
             }
-            programBlockPane = new EPGProgramBlockPane(programData);
-            EPGProgramBlockPane finalProgramBlockPane = programBlockPane;
-            programBlockPane.setOnMousePressed(evt -> {
-                if (evt.getButton() != MouseButton.PRIMARY) {
-
-                    return;
-                }
-                epgProgramBlockPopOver.show(finalProgramBlockPane, programData);
-            });
-            HBox.setMargin(
-                    programBlockPane,
-                    new Insets(0, 0, 0, programBlockLeftMarginAndWidth.getLeft())
-            );
-            programBlockPane.setPrefWidth(programBlockLeftMarginAndWidth.getValue());
-            programBlockPane.setMinWidth(programBlockLeftMarginAndWidth.getValue());
-            programBlockPane.setMaxWidth(programBlockLeftMarginAndWidth.getValue());
-            programBlockHBox.maxHeightProperty().bind(channelHBox.heightProperty());
-            programBlockHBox.getChildren().add(programBlockPane);
-            lastEpgData = programData;
         }
-        programBlockVBoxChildren.add(idx, programBlockHBox);
         channelHBox.setLoading(false);
+        if (programRowPane == null) {
+            // 频道已被删除
+
+            return;
+        }
+        programRowPane.setEpgData(channelHBox.getEpgData());
+        requestProgramRowsViewportUpdate();
     }
 
     private void removeEPGNodesByLiveChannel(LiveChannel liveChannel) {
@@ -421,96 +381,66 @@ public class EPGOverviewController extends BaseController implements Destroyable
             return;
         }
         for (Node item : programBlockVBoxChildren) {
-            if (item instanceof HBox blockHBox) {
-                if (blockHBox.getUserData() == epgChannelHBox) {
-                    programBlockVBoxChildren.remove(item);
-                    break;
-                }
+            if (item instanceof EPGProgramRowPane rowPane && rowPane.getChannelHBox() == epgChannelHBox) {
+                programBlockVBoxChildren.remove(item);
+                break;
             }
         }
     }
 
-    private void refreshProgramBlocks() {
-        ObservableList<Node> programBlockVBoxChildren = programBlockVBox.getChildren();
-        ObservableList<Node> channelInfoVBoxChildren;
-        Node epgChannelHBoxNode;
-        EPGChannelHBox epgChannelHBox;
+    private void requestProgramRowsViewportUpdate() {
+        if (programRowsViewportDirty) {
 
-        // 按照当前列表中所有的频道，重新加载（创建）所有节目块组件
-        programBlockVBoxChildren.clear();
-        channelInfoVBoxChildren = channelInfoVBox.getChildren();
-        for (int i = 0; i < channelInfoVBoxChildren.size(); i++) {
-            epgChannelHBoxNode = channelInfoVBoxChildren.get(i);
-            epgChannelHBox = (EPGChannelHBox) epgChannelHBoxNode;
-            fillEPGChannelHBox(i, epgChannelHBox);
+            return;
         }
+        programRowsViewportDirty = true;
+        Platform.requestNextPulse();
     }
 
-    /**
-     * 根据上一个节目结束的时间点，计算出节目块的左边距和宽度
-     * @param lastProgramEndTimeStr 上一个节目结束的时间点（eg. 12:00）
-     * @param programData EPG节目数据
-     * @param timelineStartTime 时间轴的开始时间
-     * @param timelineEndTime 时间轴的结束时间
-     * @return 节目的左边距和宽度，如果返回null，则表示无需添加该节目块
-     */
-    @Nullable
-    private Pair<Double, Double> calculateProgramBlockLeftMarginAndWidth(
-            @Nullable String lastProgramEndTimeStr,
-            EPG.Data programData,
-            LocalTime timelineStartTime,
-            LocalTime timelineEndTime
-    ) {
-        String start = programData.getStart();
-        String end = programData.getEnd();
-        LocalTime startTime;
-        LocalTime endTime;
-        double oneMinuteLength;
-        LocalTime lastProgramEndTime;
-
-        if (start == null || end == null) {
-            log.warn("epg time is null, programData={}", programData);
-
-            return null;
-        }
-        try {
-            startTime = LocalTime.parse(start);
-            endTime = LocalTime.parse(programData.getEnd());
-        } catch (DateTimeParseException e) {
-            log.warn("Invalid epg time format, programData={}", programData);
-
-            return null;
-        }
-        if (startTime.isAfter(endTime) || startTime.equals(endTime)) {
-            log.warn("epg time range is invalid, programData={}", programData);
+    private void updateProgramRowsViewportIfDirty() {
+        if (!programRowsViewportDirty) {
 
-            return null;
+            return;
         }
-        oneMinuteLength = WindowHelper.getStage(timelineScrollPane).getWidth() / 300;
-        if (!endTime.isAfter(timelineStartTime) || !startTime.isBefore(timelineEndTime)) {
-            // 节目结束时间点不在时间轴开头，或开始时间点不在时间轴结尾，无需添加该节目
+        programRowsViewportDirty = false;
+        updateProgramRowsViewport();
+    }
 
-            return null;
-        }
-        if (startTime.isBefore(timelineStartTime)) {
-            // 节目开始的时间点在时间轴之前，则将开始时间设置为时间轴起点
-            startTime = timelineStartTime;
-        }
-        if (endTime.isAfter(timelineEndTime)) {
-            // 节目结束时间点在时间轴之后，则将结束时间设置为时间轴终点
-            endTime = timelineEndTime;
-        }
-        if (lastProgramEndTimeStr == null) {
-            // 设置首个节目时，没有上个节目的结束时间，将上个节目结束时间设置为时间轴起点
-            lastProgramEndTime = timelineStartTime;
-        } else {
-            lastProgramEndTime = LocalTime.parse(lastProgramEndTimeStr);
+    /**
+     * 根据窗口宽度、时间轴及滚动位置，计算每个节目行的可见区域
+     */
+    private void updateProgramRowsViewport() {
+        LocalTime timelineStartTime = timelineMode.getStartTime();
+        LocalTime timelineEndTime = timelineMode.getEndTime();
+        double oneMinuteLength = WindowHelper.getStage(timelineScrollPane).getWidth() / 300;
+        double contentWidth = timelineStartTime.until(timelineEndTime, ChronoUnit.MINUTES) * oneMinuteLength;
+        Bounds timelineViewportBounds = timelineScrollPane.getViewportBounds();
+        Bounds programViewportBounds = programScrollPane.getViewportBounds();
+        double viewportWidth = timelineViewportBounds.getWidth();
+        double viewportHeight = programViewportBounds.getHeight();
+        double viewportMinX = Math.max(0, contentWidth - viewportWidth) * timelineScrollPane.getHvalue();
+        double viewportMinY = Math.max(0, programBlockVBox.getHeight() - viewportHeight) *
+                programScrollPane.getVvalue();
+        double overscanX = viewportWidth * PROGRAM_ROWS_OVERSCAN_RATIO;
+        double overscanY = viewportHeight * PROGRAM_ROWS_OVERSCAN_RATIO;
+        double rowMinY;
+        boolean shown;
+
+        for (Node node : programBlockVBox.getChildren()) {
+            if (node instanceof EPGProgramRowPane rowPane) {
+                rowMinY = rowPane.getLayoutY();
+                shown = rowMinY + rowPane.getHeight() >= viewportMinY - overscanY &&
+                        rowMinY <= viewportMinY + viewportHeight + overscanY;
+                rowPane.updateViewport(
+                        timelineStartTime,
+                        timelineEndTime,
+                        oneMinuteLength,
+                        viewportMinX - overscanX,
+                        viewportMinX + viewportWidth + overscanX,
+                        shown
+                );
+            }
         }
-
-        return Pair.of(
-                lastProgramEndTime.until(startTime, ChronoUnit.MINUTES) * oneMinuteLength,
-                startTime.until(endTime, ChronoUnit.MINUTES) * oneMinuteLength
-        );
     }
 
     @FXML
@@ -530,18 +460,14 @@ public class EPGOverviewController extends BaseController implements Destroyable
     }
 
     private void loadEpgForAllAddedChannel(LocalDate date) {
-        ObservableList<Node> channelInfoVBoxChildren = channelInfoVBox.getChildren();
-        Node channelHBoxNode;
-
-        for (int i = 0; i < channelInfoVBoxChildren.size(); i++) {
-            channelHBoxNode = channelInfoVBoxChildren.get(i);
+        for (Node channelHBoxNode : channelInfoVBox.getChildren()) {
             if (channelHBoxNode instanceof EPGChannelHBox channelHBox) {
-                loadEpgByLiveChannel(date, channelHBox, channelHBox.getLiveChannel(), i);
+                loadEpgByLiveChannel(date, channelHBox, channelHBox.getLiveChannel());
             }
         }
     }
 
-    private void loadEpgByLiveChannel(LocalDate date, EPGChannelHBox channelHBox, LiveChannel channel, int idx) {
+    private void loadEpgByLiveChannel(LocalDate date, EPGChannelHBox channelHBox, LiveChannel channel) {
         if (StringUtils.isBlank(epgServiceUrl)) {
 
             return;
@@ -552,19 +478,13 @@ public class EPGOverviewController extends BaseController implements Destroyable
                 channel,
                 date,
                 (fetchedEpg) -> Platform.runLater(() -> {
-                    epgDataTable.put(date, channel, fetchedEpg);
                     channelHBox.setEpgData(fetchedEpg.getEpgData());
-                    fillEPGChannelHBox(idx, channelHBox);
+                    fillEPGChannelHBox(channelHBox);
                     channelHBox.setLoading(false);
                 }),
                 () -> Platform.runLater(() -> {
                     channelHBox.setLoading(false);
                     channelHBox.setError(true);
-                }),
-                (e) -> Platform.runLater(() -> {
-                        channelHBox.setLoading(false);
-                        channelHBox.setError(true);
-                        ToastHelper.showException(e);
                 })
         );
     }
@@ -12,6 +12,7 @@ import io.knifer.freebox.model.domain.*;
 import io.knifer.freebox.net.websocket.core.ClientManager;
 import io.knifer.freebox.service.LoadNetworkInterfaceDataService;
 import io.knifer.freebox.service.UpgradeCheckService;
+import io.knifer.freebox.spider.storage.MovieRecordStores;
 import io.knifer.freebox.util.CollectionUtil;
 import io.knifer.freebox.util.FXMLUtil;
 import javafx.beans.property.BooleanProperty;
@@ -354,6 +355,7 @@ public class HomeController {
                 StorageHelper.delete(clientId, SourceBeanBlockList.class);
                 StorageHelper.delete(clientId, MovieHistory.class);
                 StorageHelper.delete(clientId, MovieCollection.class);
+                MovieRecordStores.delete(clientId);
                 StorageHelper.delete(clientId, ClientTVProperties.class);
                 StorageHelper.delete(clientId, ClientLiveProperties.class);
                 StorageHelper.delete(clientInfo);
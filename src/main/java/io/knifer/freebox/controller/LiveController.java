@@ -1,12 +1,16 @@
 package io.knifer.freebox.controller;
 
 import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.io.FileUtil;
+import io.knifer.freebox.component.event.EventListener;
 import io.knifer.freebox.component.node.player.BasePlayer;
+import io.knifer.freebox.constant.AppEvents;
 import io.knifer.freebox.constant.ClientType;
 import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.context.Context;
+import io.knifer.freebox.handler.EpgFetchingHandler;
+import io.knifer.freebox.helper.EpgCacheHelper;
 import io.knifer.freebox.helper.ImageHelper;
+import io.knifer.freebox.helper.LiveConfigCacheHelper;
 import io.knifer.freebox.helper.StorageHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.helper.WindowHelper;
@@ -34,7 +38,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Triple;
 
-import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -67,7 +70,13 @@ public class LiveController implements Destroyable {
     private ClientLiveProperties clientLiveProperties;
     private ClientLiveProperties clientLivePropertiesBackup;
 
-    private final static Path LIVE_CONFIG_CACHE_PATH = StorageHelper.getLiveConfigCachePath();
+    /**
+     * 当前直播源
+     */
+    private FreeBoxLive currentLive;
+
+    private final EventListener<AppEvents.LiveChannelGroupsUpdatedEvent> liveChannelGroupsUpdatedListener =
+            this::onLiveChannelGroupsUpdated;
 
     @FXML
     private void initialize() {
@@ -83,6 +92,9 @@ public class LiveController implements Destroyable {
         loadingLabel.visibleProperty().bind(loadingProperty);
         playerHBox.visibleProperty().bind(loadingProperty.not());
         switchLiveSourceMenu.disableProperty().bind(loadingProperty);
+        Context.INSTANCE.registerEventListener(
+                AppEvents.LiveChannelGroupsUpdatedEvent.class, liveChannelGroupsUpdatedListener
+        );
         Context.INSTANCE.getClientManager().getCurrentClient().thenAccept(clientInfo ->
             Platform.runLater(() -> {
                 ClientType clientType;
@@ -231,17 +243,19 @@ public class LiveController implements Destroyable {
 
     @Override
     public void destroy() {
+        Context.INSTANCE.unregisterEventListener(liveChannelGroupsUpdatedListener);
         if (loadLiveChannelGroupService != null && loadLiveChannelGroupService.isRunning()) {
             loadLiveChannelGroupService.cancel();
         }
         if (player != null) {
             saveClientProperties();
             AsyncUtil.execute(() -> {
-                FileUtil.clean(LIVE_CONFIG_CACHE_PATH.toFile());
+                LiveConfigCacheHelper.prune();
                 player.destroy();
             });
         }
         ImageHelper.clearCache();
+        EpgCacheHelper.logStats();
         Context.INSTANCE.popAndShowLastStage();
     }
 
@@ -290,7 +304,8 @@ public class LiveController implements Destroyable {
      * @param tryApplyClientPropertiesFlag 是否尝试应用客户端属性（仅在初始化阶段可能为true）
      */
     private void switchLiveSource(FreeBoxLive live, boolean tryApplyClientPropertiesFlag) {
-        loadLiveChannelGroupService = new LoadLiveChannelGroupService(live, LIVE_CONFIG_CACHE_PATH);
+        currentLive = live;
+        loadLiveChannelGroupService = new LoadLiveChannelGroupService(live);
         loadingProperty.set(true);
         loadLiveChannelGroupService.setOnSucceeded(evt -> {
             List<LiveChannelGroup> liveChannelGroups = loadLiveChannelGroupService.getValue();
@@ -326,11 +341,34 @@ public class LiveController implements Destroyable {
         loadLiveChannelGroupService.start();
     }
 
+    /**
+     * 直播源在后台更新后，替换频道列表（不打断当前播放）
+     * @param evt 事件
+     */
+    private void onLiveChannelGroupsUpdated(AppEvents.LiveChannelGroupsUpdatedEvent evt) {
+        if (
+                player == null ||
+                        loadingProperty.get() ||
+                        currentLive == null ||
+                        !evt.liveUrl().equals(currentLive.getUrl())
+        ) {
+
+            return;
+        }
+        log.info("live channel groups updated, liveChannelGroup count: {}", evt.liveChannelGroups().size());
+        player.setLiveChannelGroups(evt.liveChannelGroups());
+    }
+
     private boolean validEpgServiceUrl(String epgServiceUrl) {
         return epgServiceUrl != null &&
                 epgServiceUrl.startsWith("http") &&
-                StringUtils.countMatches(epgServiceUrl, "{name}") == 1 &&
-                StringUtils.countMatches(epgServiceUrl, "{date}") == 1;
+                (
+                        EpgFetchingHandler.isXmltvUrl(epgServiceUrl) ||
+                                (
+                                        StringUtils.countMatches(epgServiceUrl, "{name}") == 1 &&
+                                                StringUtils.countMatches(epgServiceUrl, "{date}") == 1
+                                )
+                );
     }
 
     /**
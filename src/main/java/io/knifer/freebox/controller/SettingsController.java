@@ -98,6 +98,8 @@ public class SettingsController {
     @FXML
     private CheckBox wsAutoStartCheckBox;
     @FXML
+    private CheckBox multiClientFanOutCheckBox;
+    @FXML
     private Label applicationDataLabel;
     @FXML
     private Label applicationVersionLabel;
@@ -235,6 +237,7 @@ public class SettingsController {
         }
         httpAutoStartCheckBox.setSelected(BooleanUtils.toBoolean(ConfigHelper.getAutoStartHttp()));
         wsAutoStartCheckBox.setSelected(BooleanUtils.toBoolean(ConfigHelper.getAutoStartWs()));
+        multiClientFanOutCheckBox.setSelected(BooleanUtils.toBoolean(ConfigHelper.getMultiClientFanOut()));
         // 服务状态显示
         if (httpServer.isRunning()) {
             showServiceStatus(
@@ -486,6 +489,17 @@ public class SettingsController {
         ConfigHelper.markToUpdate();
     }
 
+    @FXML
+    private void onMultiClientFanOutCheckBoxAction() {
+        boolean multiClientFanOut = multiClientFanOutCheckBox.isSelected();
+
+        if (Objects.equals(ConfigHelper.getMultiClientFanOut(), multiClientFanOut)) {
+            return;
+        }
+        ConfigHelper.setMultiClientFanOut(multiClientFanOut);
+        ConfigHelper.markToUpdate();
+    }
+
     private void onWsPortTextFieldChange() {
         Platform.runLater(() -> {
             int newPort;
@@ -1,6 +1,7 @@
 package io.knifer.freebox.controller;
 
 import cn.hutool.core.collection.CollUtil;
+import com.google.common.cache.Cache;
 import io.knifer.freebox.component.factory.VideoGridCellFactory;
 import io.knifer.freebox.component.node.MovieInfoListPopOver;
 import io.knifer.freebox.component.node.MovieRankPopOver;
@@ -114,7 +115,22 @@ public class TVController implements Destroyable {
 
     private final String HOME_SORT_DATA_ID = "ztx*1RcW6%Ep";
 
-    private final Map<String, MutablePair<Movie, List<Movie.Video>>> MOVIE_CACHE = new HashMap<>();
+    /**
+     * 缓存的影片类别数量上限
+     */
+    private final int MAX_CACHED_SORTS = 16;
+
+    /**
+     * 类别ID -> 已加载的影片数据，按最近使用淘汰
+     */
+    private final Cache<String, MutablePair<Movie, List<Movie.Video>>> MOVIE_CACHE =
+            CacheHelper.newLruCache(MAX_CACHED_SORTS);
+
+    /**
+     * 首页推荐影片，无法重新获取，不参与淘汰
+     */
+    @Nullable
+    private MutablePair<Movie, List<Movie.Video>> homeMovieCache = null;
 
     @FXML
     private void initialize() {
@@ -189,7 +205,7 @@ public class TVController implements Destroyable {
             // 影片过滤条件弹出框
             movieSortFilterPopOver = new MovieSortFilterPopOver(sortData -> {
                 // 影片过滤条件更新，应用最新过滤条件，重新加载影片列表
-                MOVIE_CACHE.remove(sortData.getId());
+                MOVIE_CACHE.invalidate(sortData.getId());
                 loadMovieBySortData(sortData);
             });
             // 影片搜索相关
@@ -346,7 +362,7 @@ public class TVController implements Destroyable {
             loadMoreCell.setDisable(false);
             return;
         }
-        movieAndVideoCached = MOVIE_CACHE.get(sortData.getId());
+        movieAndVideoCached = getMovieCache(sortData.getId());
         if (movieAndVideoCached == null) {
             loadMoreCell.setDisable(false);
             return;
@@ -623,7 +639,7 @@ public class TVController implements Destroyable {
                 if (movie != null && CollectionUtil.isNotEmpty(list = movie.getVideoList())) {
                     // 该源带有首页推荐影片，新增一个首页推荐类别，并且将影片数据缓存起来
                     items.add(new MovieSort.SortData(HOME_SORT_DATA_ID, I18nHelper.get(I18nKeys.TV_HOME)));
-                    MOVIE_CACHE.put(HOME_SORT_DATA_ID, MutablePair.of(movie, list));
+                    homeMovieCache = MutablePair.of(movie, list);
                 }
                 items.addAll(sortList);
                 sortsLoadingProperty.set(false);
@@ -686,7 +702,7 @@ public class TVController implements Destroyable {
             items.clear();
         }
         setVideoGridShowSourceName(false);
-        movieAndVideosCached = MOVIE_CACHE.get(sortData.getId());
+        movieAndVideosCached = getMovieCache(sortData.getId());
         filterSelectMap = sortData.getFilterSelect();
         if (movieAndVideosCached == null) {
             // 拉取影片数据
@@ -729,6 +745,8 @@ public class TVController implements Destroyable {
     private void resetMovieSearchService() {
         movieSearchService.cancel();
         movieSearchService.reset();
+        // 搜索请求是异步执行的，服务结束后仍可能有未完成的请求，需要一并取消
+        template.cancelSearchContent();
         searchLoadingProperty.set(false);
     }
 
@@ -820,9 +838,16 @@ public class TVController implements Destroyable {
         }
     }
 
+    @Nullable
+    private MutablePair<Movie, List<Movie.Video>> getMovieCache(String sortId) {
+        return HOME_SORT_DATA_ID.equals(sortId) ? homeMovieCache : MOVIE_CACHE.getIfPresent(sortId);
+    }
+
     private void clearMovieData() {
         videosGridView.getItems().clear();
-        MOVIE_CACHE.clear();
+        CacheHelper.logStats("movie", MOVIE_CACHE);
+        MOVIE_CACHE.invalidateAll();
+        homeMovieCache = null;
         resetMovieSearchService();
     }
 
@@ -8,12 +8,12 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import io.knifer.freebox.component.node.player.BasePlayer;
 import io.knifer.freebox.constant.BaseValues;
-import io.knifer.freebox.constant.CacheKeys;
 import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.context.Context;
 import io.knifer.freebox.handler.M3u8AdFilterHandler;
 import io.knifer.freebox.handler.M3u8TsProxyHandler;
 import io.knifer.freebox.handler.impl.BadM3u8TsProxyHandler;
+import io.knifer.freebox.handler.impl.LiveM3u8AdFilterHandler;
 import io.knifer.freebox.handler.impl.SmartM3u8AdFilterHandler;
 import io.knifer.freebox.helper.*;
 import io.knifer.freebox.model.bo.TVPlayBO;
@@ -23,6 +23,7 @@ import io.knifer.freebox.model.common.tvbox.Movie;
 import io.knifer.freebox.model.common.tvbox.SourceBean;
 import io.knifer.freebox.model.common.tvbox.VodInfo;
 import io.knifer.freebox.model.domain.M3u8AdFilterResult;
+import io.knifer.freebox.model.domain.ProxyCacheEntry;
 import io.knifer.freebox.model.s2c.DeleteMovieCollectionDTO;
 import io.knifer.freebox.model.s2c.GetMovieCollectedStatusDTO;
 import io.knifer.freebox.model.s2c.GetPlayerContentDTO;
@@ -31,6 +32,8 @@ import io.knifer.freebox.spider.template.SpiderTemplate;
 import io.knifer.freebox.util.AsyncUtil;
 import io.knifer.freebox.util.CollectionUtil;
 import io.knifer.freebox.util.HttpUtil;
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8PlaylistResolver;
 import io.knifer.freebox.util.json.GsonUtil;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
@@ -60,6 +63,8 @@ import java.net.URLDecoder;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -102,6 +107,10 @@ public class VideoController extends BaseController implements Destroyable {
     private Movie.Video.UrlBean.UrlInfo playingUrlInfo;
     private Movie.Video.UrlBean.UrlInfo.InfoBean playingInfoBean;
     public final BooleanProperty operationLoading = new SimpleBooleanProperty(true);
+    /**
+     * 本控制器创建的代理缓存ID，关闭时释放
+     */
+    private final Set<String> proxyCacheIds = ConcurrentHashMap.newKeySet();
 
     private static final Set<String> HTTP_HEADERS_PROXY_EXCLUDE = Set.of(
             "content-length",
@@ -526,10 +535,11 @@ public class VideoController extends BaseController implements Destroyable {
             String playUrl, Map<String, String> headers, Consumer<Pair<Boolean, String>> callback
     ) {
         AsyncUtil.execute(() -> {
-            HttpRequest.Builder requestBuilder;
             M3u8AdFilterResult result;
-            String content;
             HttpResponse<String> resp;
+            M3u8Playlist playlist;
+            M3u8Playlist liveVariant;
+            M3u8Playlist playlistForTsProxy;
             Map<String, List<String>> proxyHeaders = null;
             boolean isAdFiltered = false;
             String playUrlForTsProxy;
@@ -537,17 +547,8 @@ public class VideoController extends BaseController implements Destroyable {
             Pair<Boolean, String> proxyTsFlagAndProxiedM3u8Content;
             String resultPlayUrl;
 
-            requestBuilder = HttpRequest.newBuilder()
-                    .GET()
-                    .headers(HttpHeaders.USER_AGENT, BaseValues.USER_AGENT)
-                    .uri(HttpUtil.parseUrl(playUrl));
-            if (!headers.isEmpty()) {
-                headers.forEach(requestBuilder::header);
-            }
             try {
-                resp = HttpUtil.getClient()
-                        .sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofString())
-                        .get(6, TimeUnit.SECONDS);
+                resp = fetchM3u8(playUrl, headers).get(6, TimeUnit.SECONDS);
             } catch (Exception e) {
                 // 下载m3u8失败，直接返回原地址
                 callback.accept(Pair.of(false, playUrl));
@@ -555,41 +556,57 @@ public class VideoController extends BaseController implements Destroyable {
                 return;
             }
             proxyUrlPrefix = createProxyUrlPrefix();
+            playlist = M3u8Playlist.parse(playUrl, resp.body());
+            if (playlist.isLive()) {
+                // 直播/事件类型的播放列表，需要随播放器轮询不断刷新
+                callback.accept(proxyLiveM3u8(playUrl, headers, resp, playlist, proxyUrlPrefix));
+
+                return;
+            }
+            // 如果是主播放列表，并发下载所有子播放列表，供广告过滤和ts代理共用
+            playlist = M3u8PlaylistResolver.resolve(playlist, headers, M3u8PlaylistResolver.DEFAULT_TIMEOUT_SECONDS);
+            liveVariant = playlist.getLiveVariant();
+            if (liveVariant != null) {
+                // 直播流的主播放列表，只代理选中的子播放列表，不能合并为点播列表
+                callback.accept(proxyLiveM3u8(liveVariant.getUrl(), headers, resp, liveVariant, proxyUrlPrefix));
+
+                return;
+            }
+            playlistForTsProxy = playlist;
             // 处理m3u8广告过滤
             try {
-                content = resp.body();
                 result = m3u8AdFilterHandler.handle(
-                        playUrl,
-                        content,
+                        playlist,
                         Map.of(SmartM3u8AdFilterHandler.EXTRA_KEY_DTF, ConfigHelper.getAdFilterDynamicThresholdFactor())
                 );
                 isAdFiltered = result.getAdLineCount() > 0;
                 if (isAdFiltered) {
-                    content = result.getContent();
                     proxyHeaders = Maps.filterKeys(
                             resp.headers().map(), key -> !HTTP_HEADERS_PROXY_EXCLUDE.contains(key)
                     );
+                    playUrlForTsProxy = proxyM3u8(result.getContent(), proxyUrlPrefix, proxyHeaders);
+                    // 过滤后的内容已合并为单个媒体播放列表，且均为绝对路径
+                    playlistForTsProxy = M3u8Playlist.parse(playUrlForTsProxy, result.getContent());
+                } else {
+                    playUrlForTsProxy = playUrl;
                 }
-                playUrlForTsProxy = isAdFiltered ? proxyM3u8(content, proxyUrlPrefix, proxyHeaders) : playUrl;
             } catch (Exception e) {
                 log.warn("filter ad exception", e);
-                content = resp.body();
                 playUrlForTsProxy = playUrl;
             }
             // 处理损坏文件头的ts代理
             try {
                 proxyTsFlagAndProxiedM3u8Content =
-                        m3u8TsProxyHandler.handle(
-                                playUrlForTsProxy, content, proxyUrlPrefix + "/proxy/ts/"
-                        );
+                        m3u8TsProxyHandler.handle(playlistForTsProxy, proxyUrlPrefix + "/proxy/ts/");
                 if (proxyTsFlagAndProxiedM3u8Content.getLeft()) {
-                    content = proxyTsFlagAndProxiedM3u8Content.getRight();
                     if (proxyHeaders == null) {
                         proxyHeaders = Maps.filterKeys(
                                 resp.headers().map(), key -> !HTTP_HEADERS_PROXY_EXCLUDE.contains(key)
                         );
                     }
-                    resultPlayUrl = proxyM3u8(content, proxyUrlPrefix, proxyHeaders);
+                    resultPlayUrl = proxyM3u8(
+                            proxyTsFlagAndProxiedM3u8Content.getRight(), proxyUrlPrefix, proxyHeaders
+                    );
                 } else {
                     resultPlayUrl = playUrlForTsProxy;
                 }
@@ -601,6 +618,59 @@ public class VideoController extends BaseController implements Destroyable {
         });
     }
 
+    /**
+     * 直播m3u8广告过滤并创建本地代理链接
+     * 代理链接每次被请求时，会重新拉取上游播放列表，只过滤新追加的片段
+     * @param playUrl 播放链接
+     * @param headers 请求源m3u8需要携带的请求头
+     * @param resp 首次请求源m3u8的响应
+     * @param playlist 首次请求源m3u8的解析结果
+     * @param proxyUrlPrefix 代理前缀
+     * @return 过滤广告成功标志和代理链接
+     */
+    private Pair<Boolean, String> proxyLiveM3u8(
+            String playUrl,
+            Map<String, String> headers,
+            HttpResponse<String> resp,
+            M3u8Playlist playlist,
+            String proxyUrlPrefix
+    ) {
+        LiveM3u8Refresher refresher = new LiveM3u8Refresher(
+                playUrl, headers, proxyUrlPrefix, m3u8TsProxyHandler
+        );
+        M3u8AdFilterResult result;
+        String proxyCacheId;
+
+        try {
+            result = refresher.process(playlist);
+        } catch (Exception e) {
+            log.warn("filter live ad exception", e);
+
+            return Pair.of(false, playUrl);
+        }
+        proxyCacheId = ProxyCacheHelper.putM3u8(
+                result.getContent(),
+                Maps.filterKeys(resp.headers().map(), key -> !HTTP_HEADERS_PROXY_EXCLUDE.contains(key)),
+                refresher
+        );
+        proxyCacheIds.add(proxyCacheId);
+
+        return Pair.of(result.getAdLineCount() > 0, proxyUrlPrefix + "/proxy-cache/" + proxyCacheId);
+    }
+
+    private static CompletableFuture<HttpResponse<String>> fetchM3u8(String playUrl, Map<String, String> headers) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .GET()
+                .headers(HttpHeaders.USER_AGENT, BaseValues.USER_AGENT)
+                .uri(HttpUtil.parseUrl(playUrl));
+
+        if (!headers.isEmpty()) {
+            headers.forEach(requestBuilder::header);
+        }
+
+        return HttpUtil.getClient().sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
     private String createProxyUrlPrefix() {
         return "http://127.0.0.1:" + ConfigHelper.getHttpPort();
     }
@@ -613,13 +683,10 @@ public class VideoController extends BaseController implements Destroyable {
      * @return 代理链接
      */
     private String proxyM3u8(String m3u8Content, String proxyUrlPrefix, Map<String, List<String>> proxyHeaders) {
-        String proxyUrl = proxyUrlPrefix + "/proxy-cache/" + CacheKeys.AD_FILTERED_M3U8;
+        String proxyCacheId = ProxyCacheHelper.putM3u8(m3u8Content, proxyHeaders);
+        String proxyUrl = proxyUrlPrefix + "/proxy-cache/" + proxyCacheId;
 
-        CacheHelper.put(CacheKeys.AD_FILTERED_M3U8, m3u8Content);
-        CacheHelper.put(
-                CacheKeys.PROXY_CACHE_HTTP_HEADERS + CacheKeys.AD_FILTERED_M3U8,
-                proxyHeaders
-        );
+        proxyCacheIds.add(proxyCacheId);
 
         return proxyUrl;
     }
@@ -630,6 +697,7 @@ public class VideoController extends BaseController implements Destroyable {
             updatePlayInfo();
             onClose.accept(playInfo);
             player.destroy();
+            proxyCacheIds.forEach(ProxyCacheHelper::del);
         });
         Context.INSTANCE.popAndShowLastStage();
     }
@@ -699,4 +767,67 @@ public class VideoController extends BaseController implements Destroyable {
             operationLoading.set(false);
         });
     }
+
+    /**
+     * 直播m3u8刷新器
+     * 刷新间隔为#EXT-X-TARGETDURATION的一半，播放器轮询过于频繁时直接返回已缓存的窗口
+     */
+    private static class LiveM3u8Refresher implements ProxyCacheEntry.Refresher {
+
+        private final String playUrl;
+        private final Map<String, String> headers;
+        private final String proxyUrlPrefix;
+        private final M3u8TsProxyHandler m3u8TsProxyHandler;
+        private final LiveM3u8AdFilterHandler adFilterHandler = new LiveM3u8AdFilterHandler();
+
+        public LiveM3u8Refresher(
+                String playUrl,
+                Map<String, String> headers,
+                String proxyUrlPrefix,
+                M3u8TsProxyHandler m3u8TsProxyHandler
+        ) {
+            this.playUrl = playUrl;
+            this.headers = headers;
+            this.proxyUrlPrefix = proxyUrlPrefix;
+            this.m3u8TsProxyHandler = m3u8TsProxyHandler;
+        }
+
+        @Override
+        public long getRefreshIntervalMillis() {
+            return adFilterHandler.isEnded() ? Long.MAX_VALUE : adFilterHandler.getTargetDuration() * 500L;
+        }
+
+        @Override
+        public byte[] refresh() throws Exception {
+            String content = fetchM3u8(playUrl, headers).get(6, TimeUnit.SECONDS).body();
+
+            if (StringUtils.isBlank(content)) {
+
+                return null;
+            }
+
+            return process(M3u8Playlist.parse(playUrl, content)).getContent().getBytes(Charsets.UTF_8);
+        }
+
+        /**
+         * 过滤广告并处理损坏文件头的ts代理
+         * @param playlist 上游m3u8
+         * @return 处理后的结果
+         */
+        public M3u8AdFilterResult process(M3u8Playlist playlist) {
+            M3u8AdFilterResult result = adFilterHandler.handle(
+                    playlist,
+                    Map.of(SmartM3u8AdFilterHandler.EXTRA_KEY_DTF, ConfigHelper.getAdFilterDynamicThresholdFactor())
+            );
+            Pair<Boolean, String> proxyTsFlagAndProxiedM3u8Content = m3u8TsProxyHandler.handle(
+                    M3u8Playlist.parse(playUrl, result.getContent()), proxyUrlPrefix + "/proxy/ts/"
+            );
+
+            if (proxyTsFlagAndProxiedM3u8Content.getLeft()) {
+                result.setContent(proxyTsFlagAndProxiedM3u8Content.getRight());
+            }
+
+            return result;
+        }
+    }
 }
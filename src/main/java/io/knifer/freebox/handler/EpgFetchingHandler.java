@@ -1,6 +1,9 @@
 package io.knifer.freebox.handler;
 
+import io.knifer.freebox.handler.impl.ParameterizedEpgFetchingHandler;
+import io.knifer.freebox.handler.impl.XmltvEpgFetchingHandler;
 import io.knifer.freebox.model.common.diyp.EPG;
+import org.apache.commons.lang3.StringUtils;
 
 import java.time.LocalDate;
 import java.util.concurrent.CompletableFuture;
@@ -11,4 +14,21 @@ import java.util.concurrent.CompletableFuture;
 public interface EpgFetchingHandler {
 
     CompletableFuture<EPG> handle(String epgServiceUrl, String channelName, LocalDate date);
+
+    /**
+     * 根据节目单地址选择实现：XMLTV文件（.xml/.xml.gz）或参数化url（{name}/{date}）
+     * @param epgServiceUrl 节目单地址
+     * @return 实现
+     */
+    static EpgFetchingHandler of(String epgServiceUrl) {
+        return isXmltvUrl(epgServiceUrl) ?
+                XmltvEpgFetchingHandler.getInstance() : ParameterizedEpgFetchingHandler.getInstance();
+    }
+
+    static boolean isXmltvUrl(String epgServiceUrl) {
+        String path = StringUtils.substringBefore(epgServiceUrl, "?");
+
+        return !epgServiceUrl.contains("{name}") &&
+                (StringUtils.endsWithIgnoreCase(path, ".xml") || StringUtils.endsWithIgnoreCase(path, ".xml.gz"));
+    }
 }
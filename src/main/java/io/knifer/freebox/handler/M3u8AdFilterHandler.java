@@ -1,6 +1,8 @@
 package io.knifer.freebox.handler;
 
 import io.knifer.freebox.model.domain.M3u8AdFilterResult;
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8PlaylistResolver;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Map;
@@ -10,6 +12,14 @@ import java.util.Map;
  */
 public interface M3u8AdFilterHandler {
 
+    /**
+     * 过滤切片广告
+     * @param playlist m3u8播放列表（如果是主播放列表，需已下载好子播放列表）
+     * @param extraData 扩展数据
+     * @return 过滤后的m3u8文件内容（如果文件含有多个子播放列表，则返回合并后的结果；如果读取m3u8失败，返回null）
+     */
+    M3u8AdFilterResult handle(M3u8Playlist playlist, @Nullable Map<String, Object> extraData);
+
     /**
      * 过滤切片广告
      * @param url m3u8源地址（用于拼接绝对路径）
@@ -17,7 +27,9 @@ public interface M3u8AdFilterHandler {
      * @param extraData 扩展数据
      * @return 过滤后的m3u8文件内容（如果文件含有多个子播放列表，则返回合并后的结果；如果读取m3u8失败，返回null）
      */
-    M3u8AdFilterResult handle(
+    default M3u8AdFilterResult handle(
             String url, String content, @Nullable Map<String, Object> extraData
-    ) throws Exception;
+    ) {
+        return handle(M3u8PlaylistResolver.resolve(url, content), extraData);
+    }
 }
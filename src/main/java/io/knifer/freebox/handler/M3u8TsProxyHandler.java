@@ -1,5 +1,7 @@
 package io.knifer.freebox.handler;
 
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8PlaylistResolver;
 import org.apache.commons.lang3.tuple.Pair;
 
 /**
@@ -9,6 +11,14 @@ import org.apache.commons.lang3.tuple.Pair;
  */
 public interface M3u8TsProxyHandler {
 
+    /**
+     * 处理m3u8 ts代理
+     * @param playlist m3u8播放列表（如果是主播放列表，需已下载好子播放列表）
+     * @param proxyUrlPrefix 代理地址前缀
+     * @return 是否成功处理, 成功处理后的m3u8内容
+     */
+    Pair<Boolean, String> handle(M3u8Playlist playlist, String proxyUrlPrefix);
+
     /**
      * 处理m3u8 ts代理
      * @param m3u8Url m3u8源地址（用于拼接绝对路径）
@@ -16,5 +26,7 @@ public interface M3u8TsProxyHandler {
      * @param proxyUrlPrefix 代理地址前缀
      * @return 是否成功处理, 成功处理后的m3u8内容
      */
-    Pair<Boolean, String> handle(String m3u8Url, String content, String proxyUrlPrefix);
+    default Pair<Boolean, String> handle(String m3u8Url, String content, String proxyUrlPrefix) {
+        return handle(M3u8PlaylistResolver.resolve(m3u8Url, content), proxyUrlPrefix);
+    }
 }
@@ -1,20 +1,13 @@
 package io.knifer.freebox.handler.impl;
 
-import cn.hutool.core.text.StrPool;
-import com.google.common.net.HttpHeaders;
-import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.handler.M3u8TsProxyHandler;
-import io.knifer.freebox.util.HttpUtil;
-import io.knifer.freebox.util.UrlUtil;
-import io.knifer.freebox.util.hls.HLSUtil;
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8Tag;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 非标准m3u8 ts代理处理器
@@ -26,18 +19,18 @@ import java.util.concurrent.TimeUnit;
 public class BadM3u8TsProxyHandler implements M3u8TsProxyHandler {
 
     @Override
-    public Pair<Boolean, String> handle(String m3u8Url, String content, String proxyUrlPrefix) {
-        List<String> lines = List.of(content.split("\n"));
-        String baseUrl = UrlUtil.getParent(m3u8Url);
+    public Pair<Boolean, String> handle(M3u8Playlist playlist, String proxyUrlPrefix) {
         Pair<Boolean, String> result;
+        StringBuilder processed;
 
-        if (HLSUtil.isMasterPlaylist(lines)) {
-            result = processMasterPlaylist(lines, baseUrl, proxyUrlPrefix);
+        if (playlist.isMaster()) {
+            result = processMasterPlaylist(playlist, proxyUrlPrefix);
             if (!result.getLeft()) {
-                result.setValue(content);
+                result.setValue(playlist.getContent());
             }
         } else {
-            result = processSinglePlaylist(lines, baseUrl, proxyUrlPrefix);
+            processed = new StringBuilder(playlist.getContent().length() + 1024);
+            result = Pair.of(processSinglePlaylist(playlist, proxyUrlPrefix, processed, true), processed.toString());
         }
         log.info("fixed bad m3u8: {}", result.getLeft());
 
@@ -45,125 +38,79 @@ public class BadM3u8TsProxyHandler implements M3u8TsProxyHandler {
     }
 
     /**
-     * 处理主播放列表
+     * 处理主播放列表，所有子播放列表直接合并输出
      */
-    private Pair<Boolean, String> processMasterPlaylist(List<String> lines, String baseUrl, String proxyUrlPrefix) {
-        List<String> subPlaylistUrls = HLSUtil.getSubPlaylistUrls(lines, baseUrl);
-        List<String> processedSubPlaylistContents = new ArrayList<>(subPlaylistUrls.size());
+    private Pair<Boolean, String> processMasterPlaylist(M3u8Playlist master, String proxyUrlPrefix) {
+        List<M3u8Playlist> variants = master.getVariants();
+        StringBuilder merged;
         boolean hasModified = false;
-        String subPlaylistFullUrl;
-        String subPlaylistContent;
-        Pair<Boolean, String> result;
+        boolean isFirstPlaylist = true;
+
+        if (variants.isEmpty()) {
 
-        for (String subPlaylistUrl : subPlaylistUrls) {
+            return MutablePair.of(false, null);
+        }
+        merged = new StringBuilder(
+                variants.stream().mapToInt(v -> v.getContent().length()).sum() + 1024 * variants.size()
+        );
+        for (M3u8Playlist variant : variants) {
             try {
-                subPlaylistFullUrl = UrlUtil.resolveRelative(subPlaylistUrl, baseUrl);
-                subPlaylistContent = HttpUtil.getAsync(
-                        subPlaylistFullUrl,
-                        HttpHeaders.USER_AGENT,
-                        BaseValues.USER_AGENT
-                ).get(6, TimeUnit.SECONDS);
-                if (StringUtils.isBlank(subPlaylistContent)) {
-                    log.warn("subPlaylist is empty, url={}", subPlaylistUrl);
-                    continue;
-                }
-                result = processSinglePlaylist(
-                        List.of(subPlaylistContent.split("\n")),
-                        UrlUtil.getParent(subPlaylistFullUrl),
-                        proxyUrlPrefix
-                );
-                if (result.getLeft() && !hasModified) {
+                if (processSinglePlaylist(variant, proxyUrlPrefix, merged, isFirstPlaylist)) {
                     hasModified = true;
                 }
-                processedSubPlaylistContents.add(result.getRight());
+                isFirstPlaylist = false;
             } catch (Exception e) {
-                log.error("process subPlaylist failed, url={}", subPlaylistUrl, e);
+                log.error("process subPlaylist failed, url={}", variant.getUrl(), e);
             }
         }
-        return hasModified ?
-                Pair.of(true, mergeSubPlaylists(processedSubPlaylistContents)) :
-                MutablePair.of(false, null);
+
+        return hasModified ? Pair.of(true, merged.toString()) : MutablePair.of(false, null);
     }
 
     /**
-     * 处理单个播放列表
+     * 处理单个播放列表，结果直接写入output
+     * @param playlist 播放列表
+     * @param proxyUrlPrefix 代理地址前缀
+     * @param output 输出
+     * @param withHeader 是否输出头部信息（第一个#EXTINF之前的行）
+     * @return 是否有修改
      */
-    private Pair<Boolean, String> processSinglePlaylist(List<String> lines, String baseUrl, String proxyUrlPrefix) {
-        List<String> processedLines = new ArrayList<>(lines.size());
+    private boolean processSinglePlaylist(
+            M3u8Playlist playlist, String proxyUrlPrefix, StringBuilder output, boolean withHeader
+    ) {
+        int lineSize = playlist.size();
+        boolean inHeader = true;
         boolean hasModified = false;
-        String processedLine;
 
-        for (String line : lines) {
-            processedLine = processLine(line, baseUrl, proxyUrlPrefix);
-            if (!processedLine.equals(line) && !hasModified) {
+        for (int i = 0; i < lineSize; i++) {
+            if (inHeader && playlist.is(i, M3u8Tag.EXTINF)) {
+                inHeader = false;
+            }
+            if (inHeader && !withHeader) {
+                continue;
+            }
+            if (!isUrlLine(playlist, i)) {
+                playlist.appendLine(output, i);
+                continue;
+            }
+            if (playlist.isRelativeUri(i)) {
                 hasModified = true;
             }
-            processedLines.add(processedLine);
-        }
-
-        return Pair.of(hasModified, StringUtils.join(processedLines, StrPool.LF));
-    }
-
-    /**
-     * 处理单行内容
-     */
-    private String processLine(String line, String baseUrl, String proxyUrlPrefix) {
-        String url;
-
-        if (!isUrlLine(line)) {
-
-            return line;
+            if (!playlist.containsIgnoreCase(i, ".ts")) {
+                output.append(proxyUrlPrefix);
+                hasModified = true;
+            }
+            playlist.appendResolvedLine(output, i);
         }
-        url = UrlUtil.resolveRelative(line, baseUrl);
 
-        return url.toLowerCase().contains(".ts") ? url : proxyUrlPrefix + url;
+        return hasModified;
     }
 
     /**
      * 判断是否为URL行
      */
-    private boolean isUrlLine(String line) {
-        return StringUtils.isNotBlank(line) &&
-                !line.startsWith("#") &&
-                (line.contains("://") || line.contains("/"));
-    }
-
-    /**
-     * 合并子播放列表
-     */
-    private String mergeSubPlaylists(List<String> subPlaylistContents) {
-        List<String> mergedLines;
-        boolean isFirstPlaylist;
-        List<String> lines;
-        boolean inHeader;
-
-        if (subPlaylistContents.isEmpty()) {
-
-            return StringUtils.EMPTY;
-        }
-        mergedLines = new ArrayList<>();
-        isFirstPlaylist = true;
-        for (String content : subPlaylistContents) {
-            if (StringUtils.isBlank(content)) {
-                continue;
-            }
-            lines = List.of(content.split("\n"));
-            inHeader = true;
-            for (String line : lines) {
-                if (inHeader && line.startsWith("#EXTINF:")) {
-                    inHeader = false;
-                }
-                if (inHeader) {
-                    if (isFirstPlaylist) {
-                        mergedLines.add(line);
-                    }
-                    continue;
-                }
-                mergedLines.add(line);
-            }
-            isFirstPlaylist = false;
-        }
-
-        return StringUtils.join(mergedLines, StrPool.LF);
+    private boolean isUrlLine(M3u8Playlist playlist, int lineIdx) {
+        return playlist.is(lineIdx, M3u8Tag.URI) &&
+                (playlist.contains(lineIdx, "://") || playlist.contains(lineIdx, "/"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,458 @@
+package io.knifer.freebox.handler.impl;
+
+import cn.hutool.core.text.StrPool;
+import io.knifer.freebox.handler.M3u8AdFilterHandler;
+import io.knifer.freebox.model.domain.M3u8AdFilterResult;
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8Tag;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 直播m3u8广告过滤器
+ * 直播/事件类型的播放列表（没有#EXT-X-ENDLIST）会不断在末尾追加新的ts片段，播放器需要定期重新请求。
+ * 该过滤器是有状态的，每个直播播放列表对应一个实例：
+ * 1.首次处理时，使用SmartM3u8AdFilterHandler过滤完整窗口（包括正态分布暴力过滤），并从保留下来的片段中学习命名长度、数字序号趋势；
+ * 2.之后每次刷新，只根据已学习的特征过滤新追加的片段，并输出合并后的滑动窗口。
+ *   输出的媒体序号由本过滤器自行分配，保证过滤掉广告片段后，播放器看到的序号依然连续
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class LiveM3u8AdFilterHandler implements M3u8AdFilterHandler {
+
+    /**
+     * 连续出现多少个相同命名长度/递增数字序号的片段后，认为特征学习成功
+     */
+    private static final int LEARN_THRESHOLD = 5;
+    /**
+     * 连续判定为广告的片段数超过此值时，认为正常片段的特征发生了变化，重新学习
+     */
+    private static final int MAX_CONTINUOUS_AD_COUNT = 15;
+    /**
+     * 最小窗口大小
+     */
+    private static final int MIN_WINDOW_SIZE = 3;
+    /**
+     * 默认的#EXT-X-TARGETDURATION
+     */
+    private static final int DEFAULT_TARGET_DURATION = 6;
+
+    private final SmartM3u8AdFilterHandler initialFilterHandler = new SmartM3u8AdFilterHandler();
+
+    /**
+     * 输出窗口中的片段
+     */
+    private final Deque<LiveSegment> window = new ArrayDeque<>();
+    /**
+     * 头部信息（不包含由本过滤器重新生成的标签）
+     */
+    private List<String> headerLines = List.of();
+    /**
+     * 已处理的上游最大媒体序号，-1表示尚未处理过
+     */
+    private long lastSourceSequence = -1;
+    /**
+     * 下一个输出片段的媒体序号
+     */
+    private long nextOutputSequence = 0;
+    /**
+     * 输出的#EXT-X-DISCONTINUITY-SEQUENCE
+     */
+    private long discontinuitySequence = 0;
+    private int windowSize = MIN_WINDOW_SIZE;
+    @Getter
+    private int targetDuration = DEFAULT_TARGET_DURATION;
+    /**
+     * 上游是否已经结束（出现了#EXT-X-ENDLIST）
+     */
+    @Getter
+    private boolean ended = false;
+    /**
+     * 累计过滤的广告片段数
+     */
+    private int adSegmentCount = 0;
+    /**
+     * 被过滤的广告片段带有DISCONTINUITY标签时，需要转移到下一个保留的片段上
+     */
+    private boolean pendingDiscontinuity = false;
+
+    /* 已学习的特征 */
+    @Nullable
+    private Integer benchmarkNameLen;
+    private int streakNameLen = -1;
+    private int nameLenStreak = 0;
+    @Nullable
+    private Long lastDigitName;
+    private int digitStreak = 0;
+    private boolean digitTrendLearned = false;
+    private int continuousAdCount = 0;
+
+    @Override
+    public synchronized M3u8AdFilterResult handle(M3u8Playlist m3u8Playlist, @Nullable Map<String, Object> extraData) {
+        LivePlaylist playlist = parse(m3u8Playlist);
+        long upstreamLastSequence = playlist.getMediaSequence() + playlist.getSegments().size() - 1;
+
+        if (lastSourceSequence < 0 || upstreamLastSequence < lastSourceSequence - windowSize) {
+            // 首次处理，或上游媒体序号发生了回退（如直播流重启），重新过滤完整窗口
+            filterFullWindow(m3u8Playlist, extraData, playlist);
+        } else {
+            filterAppended(playlist);
+        }
+
+        return M3u8AdFilterResult.of(adSegmentCount, serialize());
+    }
+
+    /**
+     * 过滤完整窗口，并从保留的片段中学习特征
+     */
+    private void filterFullWindow(
+            M3u8Playlist m3u8Playlist, @Nullable Map<String, Object> extraData, LivePlaylist playlist
+    ) {
+        M3u8AdFilterResult initialResult = initialFilterHandler.handle(m3u8Playlist, extraData);
+        LivePlaylist filteredPlaylist = parse(M3u8Playlist.parse(m3u8Playlist.getUrl(), initialResult.getContent()));
+        boolean restarted = lastSourceSequence >= 0;
+
+        log.info("live playlist, filter full window, restarted: {}", restarted);
+        resetLearnedFeatures();
+        adSegmentCount += initialResult.getAdLineCount();
+        headerLines = playlist.getHeaderLines();
+        for (LiveSegment segment : filteredPlaylist.getSegments()) {
+            if (restarted) {
+                // 直播流重启后，第一个片段需要标记为不连续
+                segment.setDiscontinuity(true);
+                restarted = false;
+            }
+            learn(segment);
+            appendToWindow(segment);
+        }
+        applyPlaylistInfo(playlist);
+    }
+
+    /**
+     * 只过滤新追加的片段
+     */
+    private void filterAppended(LivePlaylist playlist) {
+        int newSegmentCount = 0;
+
+        for (LiveSegment segment : playlist.getSegments()) {
+            if (segment.getSequence() <= lastSourceSequence) {
+                continue;
+            }
+            newSegmentCount++;
+            if (segment.getSequence() != lastSourceSequence + 1) {
+                // 两次刷新之间有片段滑出了上游窗口，数字序号趋势无法延续
+                lastDigitName = null;
+                digitStreak = 0;
+                digitTrendLearned = false;
+            }
+            lastSourceSequence = segment.getSequence();
+            if (isAdSegment(segment)) {
+                log.info("live, filter ad segment: {}", segment.getUri());
+                adSegmentCount++;
+                if (segment.isDiscontinuity()) {
+                    pendingDiscontinuity = true;
+                }
+                if (++continuousAdCount > MAX_CONTINUOUS_AD_COUNT) {
+                    log.info("live, too many continuous ad segments, relearn features");
+                    resetLearnedFeatures();
+                }
+                continue;
+            }
+            continuousAdCount = 0;
+            if (pendingDiscontinuity) {
+                segment.setDiscontinuity(true);
+                pendingDiscontinuity = false;
+            }
+            learn(segment);
+            appendToWindow(segment);
+        }
+        log.debug("live, new segment count: {}", newSegmentCount);
+        applyPlaylistInfo(playlist);
+    }
+
+    private void applyPlaylistInfo(LivePlaylist playlist) {
+        int upstreamSegmentCount = playlist.getSegments().size();
+
+        if (upstreamSegmentCount > 0) {
+            lastSourceSequence = Math.max(
+                    lastSourceSequence, playlist.getMediaSequence() + upstreamSegmentCount - 1
+            );
+        }
+        windowSize = Math.max(upstreamSegmentCount, MIN_WINDOW_SIZE);
+        if (playlist.getTargetDuration() > 0) {
+            targetDuration = playlist.getTargetDuration();
+        }
+        ended = playlist.isEnded();
+        while (window.size() > windowSize) {
+            if (window.pollFirst().isDiscontinuity()) {
+                discontinuitySequence++;
+            }
+        }
+    }
+
+    private void appendToWindow(LiveSegment segment) {
+        segment.setOutputSequence(nextOutputSequence++);
+        window.addLast(segment);
+    }
+
+    /**
+     * 根据已学习的特征判断是否为广告片段
+     * 数字序号趋势优先：数字序号连续递增的片段不会因为命名长度变化（如9.ts -> 10.ts）被误判
+     */
+    private boolean isAdSegment(LiveSegment segment) {
+        Long digitName;
+
+        if (digitTrendLearned && lastDigitName != null) {
+            digitName = extractDigitName(segment.getRawUri());
+
+            return digitName == null || digitName != lastDigitName + 1;
+        }
+
+        return benchmarkNameLen != null && getNameLen(segment.getRawUri()) != benchmarkNameLen;
+    }
+
+    /**
+     * 从正常片段中学习命名长度、数字序号趋势
+     */
+    private void learn(LiveSegment segment) {
+        String rawUri = segment.getRawUri();
+        int nameLen = getNameLen(rawUri);
+        Long digitName = extractDigitName(rawUri);
+
+        if (nameLen == streakNameLen) {
+            nameLenStreak++;
+        } else {
+            streakNameLen = nameLen;
+            nameLenStreak = 1;
+        }
+        if (nameLenStreak >= LEARN_THRESHOLD && !Objects.equals(benchmarkNameLen, nameLen)) {
+            benchmarkNameLen = nameLen;
+            log.info("live, learned benchmark name length: {}", nameLen);
+        }
+        if (digitName == null) {
+            digitStreak = 0;
+            digitTrendLearned = false;
+        } else if (lastDigitName != null && digitName == lastDigitName + 1) {
+            if (++digitStreak >= LEARN_THRESHOLD && !digitTrendLearned) {
+                digitTrendLearned = true;
+                log.info("live, learned digit trend, last digit name: {}", digitName);
+            }
+        } else {
+            digitStreak = 0;
+        }
+        lastDigitName = digitName;
+    }
+
+    private void resetLearnedFeatures() {
+        benchmarkNameLen = null;
+        streakNameLen = -1;
+        nameLenStreak = 0;
+        lastDigitName = null;
+        digitStreak = 0;
+        digitTrendLearned = false;
+        continuousAdCount = 0;
+    }
+
+    /**
+     * 命名长度（去除查询参数）
+     */
+    private int getNameLen(String rawUri) {
+        int queryIdx = rawUri.indexOf('?');
+
+        return queryIdx == -1 ? rawUri.length() : queryIdx;
+    }
+
+    /**
+     * 提取文件名中的数字（移除数字外的字符）
+     */
+    @Nullable
+    private Long extractDigitName(String rawUri) {
+        String fullName = StringUtils.substringBefore(
+                StringUtils.substringAfterLast(rawUri, StrPool.SLASH), "?"
+        );
+        String name;
+        int nameLen;
+
+        if (fullName.isEmpty()) {
+            fullName = StringUtils.substringBefore(rawUri, "?");
+        }
+        name = StringUtils.getDigits(fullName);
+        if (name.isEmpty()) {
+
+            return null;
+        }
+        nameLen = name.length();
+        try {
+            return Long.parseLong(nameLen > 18 ? name.substring(nameLen - 18) : name);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 生成合并后的窗口内容
+     */
+    private String serialize() {
+        StringBuilder sb = new StringBuilder(256 + window.size() * 128);
+        LiveSegment first = window.peekFirst();
+        String lastKeyLine = null;
+        String lastMapLine = null;
+
+        sb.append("#EXTM3U").append(StrPool.C_LF);
+        for (String headerLine : headerLines) {
+            sb.append(headerLine).append(StrPool.C_LF);
+        }
+        sb.append("#EXT-X-TARGETDURATION:").append(targetDuration).append(StrPool.C_LF);
+        sb.append("#EXT-X-MEDIA-SEQUENCE:")
+                .append(first == null ? nextOutputSequence : first.getOutputSequence())
+                .append(StrPool.C_LF);
+        if (discontinuitySequence > 0) {
+            sb.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append(StrPool.C_LF);
+        }
+        for (LiveSegment segment : window) {
+            if (segment.getKeyLine() != null && !segment.getKeyLine().equals(lastKeyLine)) {
+                lastKeyLine = segment.getKeyLine();
+                sb.append(lastKeyLine).append(StrPool.C_LF);
+            }
+            if (segment.getMapLine() != null && !segment.getMapLine().equals(lastMapLine)) {
+                lastMapLine = segment.getMapLine();
+                sb.append(lastMapLine).append(StrPool.C_LF);
+            }
+            if (segment.isDiscontinuity()) {
+                sb.append("#EXT-X-DISCONTINUITY").append(StrPool.C_LF);
+            }
+            for (String tagLine : segment.getTagLines()) {
+                sb.append(tagLine).append(StrPool.C_LF);
+            }
+            sb.append(segment.getUri()).append(StrPool.C_LF);
+        }
+        if (ended) {
+            sb.append("#EXT-X-ENDLIST").append(StrPool.C_LF);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * 解析媒体播放列表
+     * #EXT-X-KEY、#EXT-X-MAP会记录到其后的每个片段上，以便窗口滑动后依然能输出正确的密钥信息
+     */
+    private static LivePlaylist parse(M3u8Playlist m3u8Playlist) {
+        LivePlaylist playlist = new LivePlaylist();
+        List<String> headerLines = new ArrayList<>();
+        List<LiveSegment> segments = new ArrayList<>();
+        List<String> pendingTagLines = new ArrayList<>();
+        int lineSize = m3u8Playlist.size();
+        boolean discontinuity = false;
+        boolean inHeader = true;
+        String keyLine = null;
+        String mapLine = null;
+        LiveSegment segment;
+
+        for (int i = 0; i < lineSize; i++) {
+            switch (m3u8Playlist.getTag(i)) {
+                case BLANK, EXTM3U, DISCONTINUITY_SEQUENCE, PLAYLIST_TYPE -> {
+                    // 由本过滤器重新生成（滑动窗口不符合EVENT类型的语义，因此不输出PLAYLIST-TYPE）
+                }
+                case MEDIA_SEQUENCE -> playlist.setMediaSequence(m3u8Playlist.getLongTagValue(i, 0));
+                case TARGETDURATION -> playlist.setTargetDuration((int) m3u8Playlist.getLongTagValue(i, 0));
+                case ENDLIST -> playlist.setEnded(true);
+                case DISCONTINUITY -> {
+                    discontinuity = true;
+                    inHeader = false;
+                }
+                case KEY -> keyLine = resolveLine(m3u8Playlist, i);
+                case MAP -> mapLine = resolveLine(m3u8Playlist, i);
+                case URI -> {
+                    segment = new LiveSegment();
+                    segment.setSequence(playlist.getMediaSequence() + segments.size());
+                    segment.setRawUri(m3u8Playlist.getLine(i));
+                    segment.setUri(m3u8Playlist.resolveUri(i));
+                    segment.setTagLines(List.copyOf(pendingTagLines));
+                    segment.setDiscontinuity(discontinuity);
+                    segment.setKeyLine(keyLine);
+                    segment.setMapLine(mapLine);
+                    segments.add(segment);
+                    pendingTagLines.clear();
+                    discontinuity = false;
+                    inHeader = false;
+                }
+                default -> {
+                    if (m3u8Playlist.is(i, M3u8Tag.EXTINF)) {
+                        inHeader = false;
+                    }
+                    if (inHeader) {
+                        headerLines.add(m3u8Playlist.getLine(i));
+                    } else {
+                        pendingTagLines.add(m3u8Playlist.getLine(i));
+                    }
+                }
+            }
+        }
+        playlist.setHeaderLines(headerLines);
+        playlist.setSegments(segments);
+
+        return playlist;
+    }
+
+    /**
+     * 获取行内容，#EXT-X-KEY、#EXT-X-MAP中的相对URI会被转换为绝对路径
+     */
+    private static String resolveLine(M3u8Playlist m3u8Playlist, int lineIdx) {
+        StringBuilder sb = new StringBuilder(m3u8Playlist.length(lineIdx) + 128);
+
+        m3u8Playlist.appendResolvedLine(sb, lineIdx);
+        sb.setLength(sb.length() - 1);
+
+        return sb.toString();
+    }
+
+    @Data
+    private static class LivePlaylist {
+        private List<String> headerLines;
+        private List<LiveSegment> segments;
+        private long mediaSequence;
+        private int targetDuration;
+        private boolean ended;
+    }
+
+    @Data
+    private static class LiveSegment {
+        /**
+         * 上游媒体序号
+         */
+        private long sequence;
+        /**
+         * 输出媒体序号
+         */
+        private long outputSequence;
+        /**
+         * 原始ts行（用于特征学习）
+         */
+        private String rawUri;
+        /**
+         * 绝对路径
+         */
+        private String uri;
+        /**
+         * ts行前的标签（#EXTINF等）
+         */
+        private List<String> tagLines;
+        private boolean discontinuity;
+        @Nullable
+        private String keyLine;
+        @Nullable
+        private String mapLine;
+    }
+}
@@ -1,17 +1,12 @@
 package io.knifer.freebox.handler.impl;
 
-import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.map.MapUtil;
-import cn.hutool.core.text.StrPool;
-import cn.hutool.core.util.StrUtil;
-import com.google.common.net.HttpHeaders;
-import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.exception.FBException;
 import io.knifer.freebox.handler.M3u8AdFilterHandler;
 import io.knifer.freebox.model.domain.M3u8AdFilterResult;
-import io.knifer.freebox.util.HttpUtil;
-import io.knifer.freebox.util.UrlUtil;
-import io.knifer.freebox.util.hls.HLSUtil;
+import io.knifer.freebox.util.hls.M3u8Lines;
+import io.knifer.freebox.util.hls.M3u8Playlist;
+import io.knifer.freebox.util.hls.M3u8Tag;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
@@ -20,8 +15,6 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
 
 /**
  * m3u8广告过滤器，会尝试过滤m3u8中的异常（广告）分段，并把文件中可能存在的子播放列表提取、合并成一个播放列表
@@ -72,49 +65,34 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
      * 正态分布暴力过滤 - 最小分段数，用于判断是否执行过滤
      */
     private int minSegmentCountForStats = 3;
-    /**
-     * 下载子播放列表文件的超时时间
-     */
-    private int downloadTimeout = 6;
 
     /**
      * 是否强制进行分段过滤
      */
     private boolean doForceSegmentFilterFlag = false;
 
-    private static final String[] TAG_PREFIX_WITH_TS_LINE = {
-            "#EXTINF",
-            "#EXT-X-DISCONTINUITY",
-            "#EXT-X-BYTERANGE",
-            "#EXT-X-PROGRAM-DATE-TIME"
-    };
-
     public static final String EXTRA_KEY_DTF = "dynamicThresholdFactor";
 
     /**
      * 主处理方法 - 直接返回处理后的m3u8内容字符串
      */
     @Override
-    public M3u8AdFilterResult handle(
-            String url, String content, Map<String, Object> extraData
-    ) {
-        List<String> lines;
+    public M3u8AdFilterResult handle(M3u8Playlist playlist, Map<String, Object> extraData) {
         M3u8AdFilterResult result;
 
         init(extraData);
-        lines = List.of(content.split("\n"));
-        if (HLSUtil.isMasterPlaylist(lines)) {
+        if (playlist.isMaster()) {
             log.info("start process master play list");
-            result = processMasterPlaylist(url, lines);
+            result = processMasterPlaylist(playlist);
             if (result.getAdLineCount() == 0) {
-                result.setContent(content);
+                result.setContent(playlist.getContent());
             }
 
             return result;
         } else {
             log.info("start process media play list");
 
-            return processSinglePlayList(url, lines);
+            return processSinglePlayList(playlist);
         }
     }
 
@@ -133,125 +111,123 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
     /**
      * 处理主播放列表并返回合并后的内容
      */
-    private M3u8AdFilterResult processMasterPlaylist(String masterUrl, List<String> lines) {
-        String baseUrl = UrlUtil.getParent(masterUrl);
-        List<String> subPlaylistUrls = HLSUtil.getSubPlaylistUrls(lines, baseUrl);
-        List<String> filteredSubPlaylistContents = new ArrayList<>(subPlaylistUrls.size());
-        String subPlaylistContent;
-        Pair<Integer, List<String>> adLineCountAndLinesFiltered;
+    private M3u8AdFilterResult processMasterPlaylist(M3u8Playlist master) {
+        List<M3u8Playlist> variants = master.getVariants();
+        List<Pair<M3u8Playlist, M3u8Lines>> filteredSubPlaylists = new ArrayList<>(variants.size());
+        Pair<Integer, M3u8Lines> adLineCountAndLinesFiltered;
         int adLineCount = 0;
-        String subPlaylistFullUrl;
 
-        for (String subPlaylistUrl : subPlaylistUrls) {
-            log.info("process subPlaylist, subPlaylistUrl={}", subPlaylistUrl);
+        for (M3u8Playlist variant : variants) {
+            log.info("process subPlaylist, subPlaylistUrl={}", variant.getUrl());
             try {
-                subPlaylistFullUrl = UrlUtil.resolveRelative(subPlaylistUrl, baseUrl);
-                subPlaylistContent = HttpUtil.getAsync(
-                        subPlaylistFullUrl, HttpHeaders.USER_AGENT, BaseValues.USER_AGENT
-                ).get(downloadTimeout, TimeUnit.SECONDS);
-                if (StringUtils.isBlank(subPlaylistContent)) {
-                    log.warn("process subPlaylist failed, subPlaylistUrl={}, content is blank", subPlaylistUrl);
-                    continue;
-                }
-                adLineCountAndLinesFiltered =
-                        doFilter(StrUtil.split(subPlaylistContent, StrPool.LF), UrlUtil.getParent(subPlaylistFullUrl));
+                adLineCountAndLinesFiltered = doFilter(variant);
                 adLineCount += adLineCountAndLinesFiltered.getLeft();
-                filteredSubPlaylistContents.add(StringUtils.join(adLineCountAndLinesFiltered.getRight(), StrPool.LF));
+                filteredSubPlaylists.add(Pair.of(variant, adLineCountAndLinesFiltered.getRight()));
             } catch (Exception e) {
-                log.error("process subPlaylist failed, subPlaylistUrl={}", subPlaylistUrl, e);
+                log.error("process subPlaylist failed, subPlaylistUrl={}", variant.getUrl(), e);
             }
         }
 
-        return filteredSubPlaylistContents.isEmpty() ?
+        return filteredSubPlaylists.isEmpty() ?
                 M3u8AdFilterResult.of(0, null) :
-                M3u8AdFilterResult.of(adLineCount, mergeSubPlaylists(filteredSubPlaylistContents));
+                M3u8AdFilterResult.of(adLineCount, mergeSubPlaylists(filteredSubPlaylists));
     }
 
     /**
      * 处理媒体播放列表
      */
-    private M3u8AdFilterResult processSinglePlayList(String mediaPlaylistUrl, List<String> lines) {
-        Pair<Integer, List<String>> adLineCountAndLinesFiltered = doFilter(lines, UrlUtil.getParent(mediaPlaylistUrl));
+    private M3u8AdFilterResult processSinglePlayList(M3u8Playlist playlist) {
+        Pair<Integer, M3u8Lines> adLineCountAndLinesFiltered = doFilter(playlist);
 
         return M3u8AdFilterResult.of(
                 adLineCountAndLinesFiltered.getLeft(),
-                StringUtils.join(adLineCountAndLinesFiltered.getRight(), StrPool.C_LF)
+                playlist.write(adLineCountAndLinesFiltered.getRight())
         );
     }
 
     /**
      * 合并子播放列表为一个大的播放列表
      */
-    private String mergeSubPlaylists(List<String> filteredSubPlaylistContents) {
-        List<String> mergedLines = new ArrayList<>();
+    private String mergeSubPlaylists(List<Pair<M3u8Playlist, M3u8Lines>> filteredSubPlaylists) {
+        StringBuilder merged = new StringBuilder(
+                filteredSubPlaylists.stream().mapToInt(p -> p.getLeft().getContent().length()).sum() + 128
+        );
         boolean isFirstPlaylist = true;
-        double maxTargetDuration = calculateMaxTargetDuration(filteredSubPlaylistContents);
-        String lastLine;
+        double maxTargetDuration = calculateMaxTargetDuration(filteredSubPlaylists);
+        M3u8Tag lastTag = null;
+        M3u8Playlist playlist;
+        M3u8Lines lines;
+        boolean inHeader;
+        int lineIdx;
+        M3u8Tag tag;
 
         // 添加基本头部信息
-        mergedLines.add("#EXTM3U");
-        mergedLines.add("#EXT-X-VERSION:3");
+        merged.append("#EXTM3U\n#EXT-X-VERSION:3\n");
         if (maxTargetDuration > 0) {
-            mergedLines.add("#EXT-X-TARGETDURATION:" + (int) Math.ceil(maxTargetDuration));
+            merged.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxTargetDuration)).append('\n');
         }
-        mergedLines.add("#EXT-X-MEDIA-SEQUENCE:0");
+        merged.append("#EXT-X-MEDIA-SEQUENCE:0\n");
 
         // 合并每个子播放列表的内容
-        for (String content : filteredSubPlaylistContents) {
-            List<String> lines = List.of(content.split("\n"));
-            boolean inHeader = true;
-
-            for (String line : lines) {
+        for (Pair<M3u8Playlist, M3u8Lines> filteredSubPlaylist : filteredSubPlaylists) {
+            playlist = filteredSubPlaylist.getLeft();
+            lines = filteredSubPlaylist.getRight();
+            inHeader = true;
+            for (int i = 0; i < lines.size(); i++) {
+                lineIdx = lines.get(i);
+                tag = playlist.getTag(lineIdx);
                 // 跳过子播放列表的头部信息（除了第一个播放列表）
                 if (inHeader) {
-                    if (line.startsWith("#EXTINF:") || (!line.startsWith("#") && (line.contains(".ts") || line.contains(".png")))) {
+                    if (tag == M3u8Tag.EXTINF || isMediaUriLine(playlist, lineIdx)) {
                         inHeader = false;
                     } else {
                         // 第一个播放列表保留部分关键头部信息
                         if (isFirstPlaylist && (
-                                line.startsWith("#EXT-X-KEY:") ||
-                                        line.startsWith("#EXT-X-MAP:") ||
-                                        line.startsWith("#EXT-X-PLAYLIST-TYPE:")
+                                tag == M3u8Tag.KEY || tag == M3u8Tag.MAP || tag == M3u8Tag.PLAYLIST_TYPE
                         )) {
-                            mergedLines.add(line);
+                            playlist.appendResolvedLine(merged, lineIdx);
+                            lastTag = tag;
                         }
                         continue;
                     }
                 }
                 // 添加内容行
-                if (!isFirstPlaylist && line.startsWith("#EXTINF:")) {
+                if (!isFirstPlaylist && tag == M3u8Tag.EXTINF) {
                     // 在非第一个播放列表的片段前添加DISCONTINUITY标记
-                    mergedLines.add("#EXT-X-DISCONTINUITY");
+                    merged.append("#EXT-X-DISCONTINUITY\n");
                 }
-                mergedLines.add(line);
+                playlist.appendResolvedLine(merged, lineIdx);
+                lastTag = tag;
             }
             isFirstPlaylist = false;
         }
 
         // 添加结束标记
-        lastLine = CollUtil.getLast(mergedLines);
-        if (lastLine != null && !lastLine.startsWith("#EXT-X-ENDLIST")) {
-            mergedLines.add("#EXT-X-ENDLIST");
+        if (lastTag != M3u8Tag.ENDLIST) {
+            merged.append("#EXT-X-ENDLIST\n");
         }
 
-        return StringUtils.join(mergedLines, StrPool.LF);
+        return merged.toString();
     }
 
-    private static double calculateMaxTargetDuration(List<String> filteredSubPlaylistContents) {
+    private static double calculateMaxTargetDuration(List<Pair<M3u8Playlist, M3u8Lines>> filteredSubPlaylists) {
         double maxTargetDuration = 0;
+        M3u8Playlist playlist;
+        M3u8Lines lines;
+        int lineIdx;
 
         // 收集所有必要的头部信息
-        for (String content : filteredSubPlaylistContents) {
-            List<String> lines = List.of(content.split("\n"));
-            for (String line : lines) {
-                if (line.startsWith("#EXT-X-TARGETDURATION:")) {
-                    try {
-                        double duration = Double.parseDouble(line.substring("#EXT-X-TARGETDURATION:".length()));
-                        maxTargetDuration = Math.max(maxTargetDuration, duration);
-                    } catch (NumberFormatException ignored) {}
+        for (Pair<M3u8Playlist, M3u8Lines> filteredSubPlaylist : filteredSubPlaylists) {
+            playlist = filteredSubPlaylist.getLeft();
+            lines = filteredSubPlaylist.getRight();
+            for (int i = 0; i < lines.size(); i++) {
+                lineIdx = lines.get(i);
+                if (playlist.is(lineIdx, M3u8Tag.TARGETDURATION)) {
+                    maxTargetDuration = Math.max(maxTargetDuration, playlist.getLongTagValue(lineIdx, 0));
                 }
             }
         }
+
         return maxTargetDuration;
     }
 
@@ -296,56 +272,48 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
     /**
      * 尝试通过序号、命名长度的方式按行过滤
      * 如果无法过滤，则将m3u8内容分割成多个片段，用于正态分布暴力过滤
-     * @param lines m3u8内容
-     * @param baseUrl m3u8文件地址，用于拼接绝对路径
-     * @return pair, left=是否直接返回过滤结果，right=按行过滤结果（String）或分割片段结果（Segment列表）
+     * @param playlist m3u8播放列表
+     * @return pair, left=过滤的广告数量，right=过滤后保留的行
      */
-    private Pair<Integer, List<String>> doFilter(List<String> lines, String baseUrl) {
+    private Pair<Integer, M3u8Lines> doFilter(M3u8Playlist playlist) {
         int lineSize;
         int recognizeSuccessCount = 0;
         int benchmarkLineIdx = -1;
         int randomStartLineIdx;
-        Pair<Integer, List<String>> result;
+        Pair<Integer, M3u8Lines> result;
         Integer benchmarkTsNameLen;
 
-        lineSize = lines.size();
+        lineSize = playlist.size();
         if (lineSize < minLineCountForFilter) {
             log.info("lineSize < {}, skip filter", minLineCountForFilter);
 
-            return Pair.of(
-                    0,
-                    lines.stream()
-                            .map(l -> StringUtils.isNotBlank(l) && StringUtils.startsWith(l, "#") ?
-                                    l : UrlUtil.resolveRelative(l, baseUrl)
-                            )
-                            .toList()
-            );
+            return Pair.of(0, M3u8Lines.all(playlist));
         }
         // 方式1：识别是否是数字递增型，取样3次：开头、中间随机、结尾
-        if (isDigitTsType(lines, 0, recognizeSampleLineCount)) {
+        if (isDigitTsType(playlist, 0, recognizeSampleLineCount)) {
             recognizeSuccessCount++;
             benchmarkLineIdx = 0;
         }
-        randomStartLineIdx = RandomUtils.nextInt(recognizeSampleLineCount, lineSize - recognizeSampleLineCount * 2 + 1);
-        if (isDigitTsType(lines, randomStartLineIdx, randomStartLineIdx + recognizeSampleLineCount)) {
+        randomStartLineIdx = randomSampleStartLineIdx(lineSize);
+        if (isDigitTsType(playlist, randomStartLineIdx, randomStartLineIdx + recognizeSampleLineCount)) {
             recognizeSuccessCount++;
             benchmarkLineIdx = randomStartLineIdx;
         }
-        if (isDigitTsType(lines, lineSize - recognizeSampleLineCount, lineSize)) {
+        if (isDigitTsType(playlist, lineSize - recognizeSampleLineCount, lineSize)) {
             recognizeSuccessCount++;
             benchmarkLineIdx = lineSize - recognizeSampleLineCount;
         }
         if (recognizeSuccessCount >= needValidRecognizeCount) {
-            result = doDigitFilter(lines, benchmarkLineIdx, baseUrl);
+            result = doDigitFilter(playlist, benchmarkLineIdx);
             if (result.getLeft() > 0) {
 
                 return result;
             }
         }
         // 方式2：识别是否是命名长度型，如果是，返回基准命名长度
-        benchmarkTsNameLen = validHashTypeAndGetBenchmarkTsNameLen(lines);
+        benchmarkTsNameLen = validHashTypeAndGetBenchmarkTsNameLen(playlist);
         if (benchmarkTsNameLen != null) {
-            result = doHashFilter(lines, benchmarkTsNameLen, baseUrl);
+            result = doHashFilter(playlist, benchmarkTsNameLen);
             if (result.getLeft() > 0) {
 
                 return result;
@@ -354,36 +322,64 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
         // 方式1、方式2不适用，或者适用但未能成功过滤任何广告时，考虑基于正态分布算法进行强制过滤
         if (doForceSegmentFilterFlag) {
 
-            return doForceFilter(lines, baseUrl);
+            return doForceFilter(playlist);
         } else {
             // 禁止了强制过滤
             log.info("force filter is disabled, return origin lines");
 
-            return Pair.of(0, lines);
+            return Pair.of(0, M3u8Lines.all(playlist));
         }
     }
 
+    /**
+     * 中间随机取样的开始行索引
+     * 行数不足以在开头、结尾取样区间之外随机取样时，取中间位置
+     * @param lineSize 行数
+     * @return 开始行索引
+     */
+    private int randomSampleStartLineIdx(int lineSize) {
+        int maxStartLineIdx = lineSize - recognizeSampleLineCount * 2 + 1;
+
+        return maxStartLineIdx > recognizeSampleLineCount ?
+                RandomUtils.nextInt(recognizeSampleLineCount, maxStartLineIdx) :
+                Math.max(0, (lineSize - recognizeSampleLineCount) / 2);
+    }
+
+    /**
+     * 是否是ts片段行（.ts、.png结尾的资源行）
+     */
+    private static boolean isTsLine(M3u8Playlist playlist, int lineIdx) {
+        return playlist.is(lineIdx, M3u8Tag.URI) &&
+                (playlist.endsWith(lineIdx, ".ts") || playlist.endsWith(lineIdx, ".png"));
+    }
+
+    /**
+     * 是否是媒体资源行（包含.ts、.png的资源行）
+     */
+    private static boolean isMediaUriLine(M3u8Playlist playlist, int lineIdx) {
+        return playlist.is(lineIdx, M3u8Tag.URI) &&
+                (playlist.contains(lineIdx, ".ts") || playlist.contains(lineIdx, ".png"));
+    }
+
     /**
      * 是否是数字ts类型
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @param startLineIdx 开始行索引
      * @param endLineIdx 结束行索引
      * @return boolean
      */
-    private boolean isDigitTsType(List<String> lines, int startLineIdx, int endLineIdx) {
-        String line;
+    private boolean isDigitTsType(M3u8Playlist playlist, int startLineIdx, int endLineIdx) {
         int totalTsCount = 0;
         Long tsDigitName;
         Long lastTsDigitName = null;
         int diffNum = 0;
 
         for (int i = startLineIdx; i < endLineIdx; i++) {
-            line = lines.get(i);
-            if (StringUtils.isEmpty(line) || line.startsWith("#") || !line.endsWith(".ts") || !line.endsWith(".png")) {
+            if (!isTsLine(playlist, i)) {
                 continue;
             }
             totalTsCount++;
-            tsDigitName = extractNumberBeforeTs(line);
+            tsDigitName = extractNumberBeforeTs(playlist, i);
             if (tsDigitName == null) {
                 if (++diffNum > allowedMaxDeviationCount) {
 
@@ -412,28 +408,28 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
     /**
      * 判断ts是否是命名长度类型并返回基准命名长度
      * 共取样3次：开头、中间随机、结尾，然后拿到汇总结果
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @return 基准命名长度。可依据这个进行广告过滤，如果判断失败，返回null
      */
     @Nullable
-    private Integer validHashTypeAndGetBenchmarkTsNameLen(List<String> lines) {
+    private Integer validHashTypeAndGetBenchmarkTsNameLen(M3u8Playlist playlist) {
         int diffCount = 0;
-        int lineSize = lines.size();
+        int lineSize = playlist.size();
         int randomStartLineIdx;
         Integer benchmarkNameLen;
         Map<Integer, Integer> nameLenAndCountMap = new HashMap<>();
         Integer benchmarkNameLenInMap;
 
-        benchmarkNameLen= validHashTypeAndGetBenchmarkTsNameLen(lines, 0, recognizeSampleLineCount);
+        benchmarkNameLen= validHashTypeAndGetBenchmarkTsNameLen(playlist, 0, recognizeSampleLineCount);
         if (benchmarkNameLen == null && ++diffCount > allowedMaxDeviationCount) {
 
             return null;
         } else {
             nameLenAndCountMap.put(benchmarkNameLen, 1);
         }
-        randomStartLineIdx = RandomUtils.nextInt(recognizeSampleLineCount, lineSize - recognizeSampleLineCount * 2 + 1);
+        randomStartLineIdx = randomSampleStartLineIdx(lineSize);
         benchmarkNameLen = validHashTypeAndGetBenchmarkTsNameLen(
-                lines, randomStartLineIdx, randomStartLineIdx + recognizeSampleLineCount
+                playlist, randomStartLineIdx, randomStartLineIdx + recognizeSampleLineCount
         );
         if (benchmarkNameLen == null && ++diffCount > allowedMaxDeviationCount) {
 
@@ -443,7 +439,7 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
             nameLenAndCountMap.put(benchmarkNameLen, benchmarkNameLenInMap + 1);
         }
         benchmarkNameLen = validHashTypeAndGetBenchmarkTsNameLen(
-                lines, lineSize - recognizeSampleLineCount, lineSize
+                playlist, lineSize - recognizeSampleLineCount, lineSize
         );
         if (benchmarkNameLen == null && ++diffCount > allowedMaxDeviationCount) {
 
@@ -462,14 +458,13 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
 
     /**
      * 取样判断ts是否是命名长度类型并返回基准命名长度
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @param startLineIdx 开始索引
      * @param endLineIdx 结束索引
      * @return 基准命名长度。可依据这个进行广告过滤，如果判断失败，返回null
      */
     @Nullable
-    private Integer validHashTypeAndGetBenchmarkTsNameLen(List<String> lines, int startLineIdx, int endLineIdx) {
-        String line;
+    private Integer validHashTypeAndGetBenchmarkTsNameLen(M3u8Playlist playlist, int startLineIdx, int endLineIdx) {
         int totalTsCount = 0;
         int tsNameLen;
         Map<Integer, Integer> nameLenAndCountMap = new HashMap<>();
@@ -480,11 +475,10 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
         int diffCount;
 
         for (int i = startLineIdx; i < endLineIdx; i++) {
-            line = lines.get(i);
-            if (StringUtils.isEmpty(line) || line.startsWith("#")) {
+            if (!playlist.is(i, M3u8Tag.URI)) {
                 continue;
             }
-            tsNameLen = Math.max(line.indexOf(".ts"), line.indexOf(".png"));
+            tsNameLen = getTsNameLen(playlist, i);
             if (tsNameLen < 1) {
                 continue;
             }
@@ -525,63 +519,57 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
         return benchmarkTsNameLen;
     }
 
+    private static int getTsNameLen(M3u8Playlist playlist, int lineIdx) {
+        return Math.max(playlist.indexOf(lineIdx, ".ts"), playlist.indexOf(lineIdx, ".png"));
+    }
+
     /**
      * 数字递增ts过滤
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @param benchmarkLineIdx 开始索引，会通过该索引获取基准ts名称
-     * @param baseUrl 基础url
-     * @return 过滤ts文件数和过滤后的行
+     * @return 过滤ts文件数和过滤后保留的行
      */
-    private Pair<Integer, List<String>> doDigitFilter(
-            List<String> lines,
-            int benchmarkLineIdx,
-            String baseUrl
-    ) {
-        int lineSize = lines.size();
-        Pair<Integer, List<String>> result0;
-        Pair<Integer, List<String>> result1;
+    private Pair<Integer, M3u8Lines> doDigitFilter(M3u8Playlist playlist, int benchmarkLineIdx) {
+        int lineSize = playlist.size();
+        Pair<Integer, M3u8Lines> result0;
+        Pair<Integer, M3u8Lines> result1;
         Long benchmarkTsDigitName;
 
         log.info("digit filter, start benchmark line: {}", benchmarkLineIdx + 1);
-        benchmarkTsDigitName = getBenchmarkTsDigitName(lines, benchmarkLineIdx);
+        benchmarkTsDigitName = getBenchmarkTsDigitName(playlist, benchmarkLineIdx);
         if (benchmarkLineIdx == 0) {
 
-            return doDigitFilter(lines, benchmarkTsDigitName, benchmarkLineIdx, baseUrl, false);
+            return doDigitFilter(playlist, benchmarkTsDigitName, benchmarkLineIdx, false);
         } else if (benchmarkLineIdx == lineSize - 1) {
 
-            return doDigitFilter(lines, benchmarkTsDigitName, benchmarkLineIdx, baseUrl, true);
+            return doDigitFilter(playlist, benchmarkTsDigitName, benchmarkLineIdx, true);
         } else {
-            result0 = doDigitFilter(lines, benchmarkTsDigitName, benchmarkLineIdx, baseUrl, true);
-            result1 = doDigitFilter(lines, benchmarkTsDigitName, benchmarkLineIdx + 1, baseUrl, false);
+            result0 = doDigitFilter(playlist, benchmarkTsDigitName, benchmarkLineIdx, true);
+            result1 = doDigitFilter(playlist, benchmarkTsDigitName, benchmarkLineIdx + 1, false);
+            result0.getRight().addAll(result1.getRight());
 
-            return Pair.of(
-                    result0.getLeft() + result1.getLeft(),
-                    Stream.concat(result0.getRight().stream(), result1.getRight().stream()).toList()
-            );
+            return Pair.of(result0.getLeft() + result1.getLeft(), result0.getRight());
         }
     }
 
     /**
      * 数字递增ts过滤
      * 方法始终保证startIdx会进入判断逻辑，因此连续调用本方法时要注意startIdx要+1，否则startIdx这行数据会出现重复
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @param benchmarkTsDigitName 基准ts名称
      * @param startIdx 开始索引
-     * @param baseUrl 基础url，用于拼接绝对路径
      * @param reverseFlag 是否倒序进行。倒序是从startIdx往0遍历，正序是从startIdx往lineSize-1遍历
-     * @return 过滤ts文件数和过滤后的行
+     * @return 过滤ts文件数和过滤后保留的行
      */
-    private Pair<Integer, List<String>> doDigitFilter(
-            List<String> lines, Long benchmarkTsDigitName, int startIdx, String baseUrl, boolean reverseFlag
+    private Pair<Integer, M3u8Lines> doDigitFilter(
+            M3u8Playlist playlist, Long benchmarkTsDigitName, int startIdx, boolean reverseFlag
     ) {
-        int lineSize = lines.size();
+        int lineSize = playlist.size();
         int endIdx;
         int stepVal;
-        String line;
         Long tsDigitName;
-        List<String> result = new ArrayList<>(lineSize);
+        M3u8Lines result = new M3u8Lines(lineSize);
         int jumpStep;
-        String lineWithTs;
         int adLineCount = 0;
 
         if (reverseFlag) {
@@ -592,31 +580,28 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
             stepVal = 1;
         }
         for (int i = startIdx; i != endIdx; i += stepVal) {
-            line = lines.get(i);
-            if (StringUtils.isBlank(line)) {
+            if (playlist.is(i, M3u8Tag.BLANK)) {
                 continue;
             }
-            if (line.startsWith("#") || !line.endsWith(".ts") || !line.endsWith(".png")) {
-                result.add(line);
+            if (!isTsLine(playlist, i)) {
+                result.add(i);
                 continue;
             }
-            tsDigitName = extractNumberBeforeTs(line);
+            tsDigitName = extractNumberBeforeTs(playlist, i);
             if (
                     benchmarkTsDigitName.equals(tsDigitName) ||
                     Long.valueOf(benchmarkTsDigitName + stepVal).equals(tsDigitName)
             ) {
                 benchmarkTsDigitName = tsDigitName;
-                line = UrlUtil.resolveRelative(line, baseUrl);
-                result.add(line);
+                result.add(i);
             } else {
-                log.info("digit, filter line {}:\n{}", i + 1, line);
+                log.info("digit, filter line {}:\n{}", i + 1, playlist.getLine(i));
                 if (reverseFlag) {
                     jumpStep = 0;
                     for (int j = i - 1; j >= 0; j--) {
-                        lineWithTs = lines.get(j);
-                        if (StringUtils.startsWithAny(lineWithTs, TAG_PREFIX_WITH_TS_LINE)) {
+                        if (playlist.getTag(j).isSegmentTag()) {
                             jumpStep--;
-                            log.info("digit, filter line {}:\n{}", j + 1, lineWithTs);
+                            log.info("digit, filter line {}:\n{}", j + 1, playlist.getLine(j));
                         } else {
                             break;
                         }
@@ -624,28 +609,26 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
                     i += jumpStep;
                     adLineCount = adLineCount - jumpStep + 1;
                 } else {
-                    adLineCount = adLineCount + 1 + filterBackwardLinesForTs(result, i + 1);
+                    adLineCount = adLineCount + 1 + filterBackwardLinesForTs(playlist, result, i + 1);
                 }
             }
         }
         if (reverseFlag) {
-            Collections.reverse(result);
+            result.reverse();
         }
 
         return Pair.of(adLineCount, result);
     }
 
-    private long getBenchmarkTsDigitName(List<String> lines, int startIdx) {
-        int lineSize = lines.size();
-        String line;
+    private long getBenchmarkTsDigitName(M3u8Playlist playlist, int startIdx) {
+        int lineSize = playlist.size();
         Long result;
 
         for (int i = startIdx; i < lineSize; i++) {
-            line = lines.get(i);
-            if (StringUtils.isBlank(line) || line.startsWith("#") || !line.endsWith(".ts") || !line.endsWith(".png")) {
+            if (!isTsLine(playlist, i)) {
                 continue;
             }
-            result = extractNumberBeforeTs(line);
+            result = extractNumberBeforeTs(playlist, i);
             if (result == null) {
                 continue;
             }
@@ -657,38 +640,34 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
 
     /**
      * 根据给定的ts基准命名长度，进行命名长度过滤
-     * @param lines m3u8行
+     * @param playlist m3u8播放列表
      * @param benchmarkTsNameLen 基准命名长度
-     * @param baseUrl url，用于拼接绝对路径
-     * @return pair, left=过滤的广告数量，right=过滤后的行
+     * @return pair, left=过滤的广告数量，right=过滤后保留的行
      */
-    private Pair<Integer, List<String>> doHashFilter(List<String> lines, int benchmarkTsNameLen, String baseUrl) {
-        int lineSize = lines.size();
-        String line;
+    private Pair<Integer, M3u8Lines> doHashFilter(M3u8Playlist playlist, int benchmarkTsNameLen) {
+        int lineSize = playlist.size();
         int tsNameLen;
-        List<String> result = new ArrayList<>(lineSize);
+        M3u8Lines result = new M3u8Lines(lineSize);
         int adLineCount = 0;
 
         for (int i = 0; i < lineSize; i++) {
-            line = lines.get(i);
-            if (StringUtils.isBlank(line)) {
+            if (playlist.is(i, M3u8Tag.BLANK)) {
                 continue;
             }
-            if (line.startsWith("#") || !line.endsWith(".ts") || !line.endsWith(".png")) {
-                result.add(line);
+            if (!isTsLine(playlist, i)) {
+                result.add(i);
                 continue;
             }
-            tsNameLen = Math.max(line.indexOf(".ts"), line.indexOf(".png"));
+            tsNameLen = getTsNameLen(playlist, i);
             if (tsNameLen < 1) {
                 continue;
             }
             if (tsNameLen != benchmarkTsNameLen) {
-                log.info("hash, filter line {}:\n{}", i + 1, line);
-                adLineCount = adLineCount + 1 + filterBackwardLinesForTs(result, i + 1);
+                log.info("hash, filter line {}:\n{}", i + 1, playlist.getLine(i));
+                adLineCount = adLineCount + 1 + filterBackwardLinesForTs(playlist, result, i + 1);
                 continue;
             }
-            line = UrlUtil.resolveRelative(line, baseUrl);
-            result.add(line);
+            result.add(i);
         }
 
         return Pair.of(adLineCount, result);
@@ -697,29 +676,26 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
     /**
      * 回溯过滤，寻找与ts行有关的标签行，将其移除出列表
      * TODO 有一个小缺陷：此方法只是回溯过滤ts行之前的相关标签，ts行之后的相关标签会残留，但目前影响不大，待后续优化
+     * @param playlist m3u8播放列表
      * @param backwardLines 待过滤的行
      * @param tsLineNo ts行号，用于日志打印
      * @return 过滤的广告行数
      */
-    private int filterBackwardLinesForTs(List<String> backwardLines, int tsLineNo) {
-        ListIterator<String> prevIter = backwardLines.listIterator(backwardLines.size());
-        String prevLine;
+    private int filterBackwardLinesForTs(M3u8Playlist playlist, M3u8Lines backwardLines, int tsLineNo) {
         int adLineCount = 0;
-        int prevCount = 0;
+        int prevLineIdx;
 
-        while (prevIter.hasPrevious()) {
-            prevLine = prevIter.previous();
-            prevCount++;
-            if (StringUtils.startsWithAny(prevLine, TAG_PREFIX_WITH_TS_LINE)) {
-                prevIter.remove();
-                adLineCount++;
-                log.info(
-                        "digit, filter line {}:\n{}",
-                        tsLineNo - prevCount, prevLine
-                );
-            } else {
+        while (!backwardLines.isEmpty()) {
+            prevLineIdx = backwardLines.getLast();
+            if (!playlist.getTag(prevLineIdx).isSegmentTag()) {
                 break;
             }
+            backwardLines.removeLast();
+            adLineCount++;
+            log.info(
+                    "digit, filter line {}:\n{}",
+                    tsLineNo - adLineCount, playlist.getLine(prevLineIdx)
+            );
         }
 
         return adLineCount;
@@ -727,26 +703,46 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
 
     /**
      * 提取.ts前的数字名称（移除数字外的字符）
-     * @param line m3u8行
-     * @return pair, left=过滤的广告数量，right=过滤后的行
+     * 数字不超过18位时直接在原始内容上计算，不创建字符串
+     * @param playlist m3u8播放列表
+     * @param lineIdx 行索引
+     * @return 数字名称，提取失败时返回null
      */
     @Nullable
-    private Long extractNumberBeforeTs(String line) {
-        String fullName = StringUtils.substringAfterLast(line, StrPool.SLASH);
+    private Long extractNumberBeforeTs(M3u8Playlist playlist, int lineIdx) {
+        int lineLen = playlist.length(lineIdx);
+        int nameStart = playlist.lastIndexOf(lineIdx, '/') + 1;
+        long number = 0;
+        int digitCount = 0;
+        char ch;
         String name;
         int nameLen;
 
-        if (fullName.isEmpty()) {
-            fullName = line;
+        if (nameStart >= lineLen) {
+            // 以“/”结尾，使用整行
+            nameStart = 0;
         }
-        name = StringUtils.getDigits(fullName);
-        if (name.isEmpty()) {
+        for (int i = nameStart; i < lineLen; i++) {
+            ch = playlist.charAt(lineIdx, i);
+            if (ch >= '0' && ch <= '9') {
+                digitCount++;
+                if (digitCount <= 18) {
+                    number = number * 10 + (ch - '0');
+                }
+            }
+        }
+        if (digitCount == 0) {
 
             return null;
         }
+        if (digitCount <= 18) {
+
+            return number;
+        }
+        name = StringUtils.getDigits(playlist.getLine(lineIdx).substring(nameStart));
         nameLen = name.length();
         try {
-            return Long.parseLong(nameLen > 19 ? name.substring(nameLen - 19, nameLen) : name);
+            return Long.parseLong(name.substring(nameLen - 19, nameLen));
         } catch (NumberFormatException e) {
             return null;
         }
@@ -754,48 +750,38 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
 
     /**
      * 正态分布强制过滤
-     * @param lines m3u8行
-     * @param baseUrl url，用于拼接绝对路径
-     * @return pair, left=过滤的广告数量，right=过滤后的行
+     * @param playlist m3u8播放列表
+     * @return pair, left=过滤的广告数量，right=过滤后保留的行
      */
-    private Pair<Integer, List<String>> doForceFilter(List<String> lines, String baseUrl) {
-        int lineSize = lines.size();
-        String line;
+    private Pair<Integer, M3u8Lines> doForceFilter(M3u8Playlist playlist) {
+        int lineSize = playlist.size();
         List<Segment> segments = new ArrayList<>();
-        List<String> currentSegmentLines = new ArrayList<>();
+        int currentSegmentStartIdx = 0;
         boolean inFirstSegment = true;
-        List<String> result = new ArrayList<>();
+        M3u8Lines result = new M3u8Lines(lineSize);
         int dynamicThreshold;
         int adLineCount = 0;
 
         for (int i = 0; i < lineSize; i++) {
-            line = lines.get(i);
             // 当遇到DISCONTINUITY时，开始新的片段
-            if (line.startsWith("#EXT-X-DISCONTINUITY")) {
+            if (playlist.is(i, M3u8Tag.DISCONTINUITY) || playlist.is(i, M3u8Tag.DISCONTINUITY_SEQUENCE)) {
                 // 保存当前片段（如果有内容）
-                if (!currentSegmentLines.isEmpty()) {
-                    segments.add(new Segment(
-                            i + 1 - currentSegmentLines.size(), currentSegmentLines, inFirstSegment
-                    ));
-                    currentSegmentLines.clear();
+                if (i > currentSegmentStartIdx) {
+                    segments.add(new Segment(playlist, currentSegmentStartIdx, i, inFirstSegment));
+                    currentSegmentStartIdx = i;
                     inFirstSegment = false;
                 }
             }
-            currentSegmentLines.add(line);
         }
         // 添加最后一个片段
-        if (!currentSegmentLines.isEmpty()) {
-            segments.add(new Segment(
-                    lineSize - currentSegmentLines.size() + 1,
-                    currentSegmentLines,
-                    inFirstSegment
-            ));
+        if (lineSize > currentSegmentStartIdx) {
+            segments.add(new Segment(playlist, currentSegmentStartIdx, lineSize, inFirstSegment));
         }
         if (segments.size() < minSegmentCountForStats) {
             // 片段数量过少，不进行过滤
             log.info("segment count is less than minSegmentCountForStats, skip force filter");
 
-            return Pair.of(0, lines);
+            return Pair.of(0, M3u8Lines.all(playlist));
         }
         // 开始过滤片段，先计算动态阈值
         dynamicThreshold = calculateDynamicThreshold(segments);
@@ -804,15 +790,12 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
             if (isAdSegment(segment, dynamicThreshold)) {
                 log.info(
                         "filter ad segment, start line no: {}, ts count: {}",
-                        segment.getStartLineNo(), segment.getTsCount()
+                        segment.getStartLineIdx() + 1, segment.getTsCount()
                 );
                 adLineCount++;
             } else {
-                for (String l : segment.getLines()) {
-                    if (!l.startsWith("#") && (l.contains(".ts") || l.contains(".png"))) {
-                        l = UrlUtil.resolveRelative(l, baseUrl);
-                    }
-                    result.add(l);
+                for (int i = segment.getStartLineIdx(); i < segment.getEndLineIdx(); i++) {
+                    result.add(i);
                 }
             }
         }
@@ -829,33 +812,30 @@ public class SmartM3u8AdFilterHandler implements M3u8AdFilterHandler {
 
     /**
      * 片段类
-     * 用于正态分布暴力过滤
+     * 用于正态分布暴力过滤，只记录片段在播放列表中的行索引范围
      */
     @Data
     private static class Segment {
-        private final int startLineNo;
-        private final List<String> lines;
+        private final int startLineIdx;
+        private final int endLineIdx;
         private final int tsCount;
-        private final boolean startsWithDiscontinuity;
         private final boolean firstSegment;
 
-        public Segment(int startLineNo, List<String> lines, boolean firstSegment) {
-            this.startLineNo = startLineNo;
-            this.lines = new ArrayList<>(lines);
-            this.tsCount = countTsFiles(lines);
-            this.startsWithDiscontinuity = !lines.isEmpty() &&
-                    lines.get(0).startsWith("#EXT-X-DISCONTINUITY");
+        public Segment(M3u8Playlist playlist, int startLineIdx, int endLineIdx, boolean firstSegment) {
+            this.startLineIdx = startLineIdx;
+            this.endLineIdx = endLineIdx;
+            this.tsCount = countTsFiles(playlist, startLineIdx, endLineIdx);
             this.firstSegment = firstSegment;
         }
 
-        private int countTsFiles(List<String> lines) {
+        private static int countTsFiles(M3u8Playlist playlist, int startLineIdx, int endLineIdx) {
             int count = 0;
-            for (String line : lines) {
-                if (!line.startsWith("#") && (line.contains(".ts") || line.contains(".png"))) {
+            for (int i = startLineIdx; i < endLineIdx; i++) {
+                if (isMediaUriLine(playlist, i)) {
                     count++;
                 }
             }
             return count;
         }
     }
-}
\ No newline at end of file
+}
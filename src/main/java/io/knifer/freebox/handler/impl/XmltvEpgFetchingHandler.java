@@ -0,0 +1,98 @@
+package io.knifer.freebox.handler.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.knifer.freebox.handler.EpgFetchingHandler;
+import io.knifer.freebox.model.common.diyp.EPG;
+import io.knifer.freebox.util.HttpUtil;
+import io.knifer.freebox.util.epg.XmltvEpgParser;
+import io.knifer.freebox.util.epg.XmltvEpgStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 获取电子节目单实现（XMLTV）
+ * 同一个节目单地址下载、解析后缓存一段时间，期间所有频道、日期的查询都在本地完成，过期后重新下载
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class XmltvEpgFetchingHandler implements EpgFetchingHandler {
+
+    private static final XmltvEpgFetchingHandler INSTANCE = new XmltvEpgFetchingHandler();
+
+    /**
+     * 节目单地址 -> 节目单存储
+     * 只保留最近使用的少量节目单，切换节目单地址后旧的节目单会被释放
+     */
+    private final Cache<String, CompletableFuture<XmltvEpgStore>> storeFutures = CacheBuilder.newBuilder()
+            .maximumSize(2)
+            .expireAfterWrite(6, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * 节目单解析（阻塞读取响应流）线程
+     */
+    private final ExecutorService parseExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r);
+
+        t.setName("Xmltv-Parse-Thread");
+        t.setDaemon(true);
+
+        return t;
+    });
+
+    @Override
+    public CompletableFuture<EPG> handle(String epgServiceUrl, String channelName, LocalDate date) {
+        return getStore(epgServiceUrl).thenApply(store -> store.getEpg(channelName, date));
+    }
+
+    private CompletableFuture<XmltvEpgStore> getStore(String epgServiceUrl) {
+        return storeFutures.asMap().computeIfAbsent(epgServiceUrl, url -> {
+            CompletableFuture<XmltvEpgStore> future = HttpUtil.getClient()
+                    .sendAsync(
+                            HttpRequest.newBuilder()
+                                    .GET()
+                                    .uri(HttpUtil.parseUrl(url))
+                                    .build(),
+                            HttpResponse.BodyHandlers.ofInputStream()
+                    )
+                    .thenApplyAsync(resp -> {
+                        try (InputStream in = resp.body()) {
+                            if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+
+                                throw new IOException("fetch xmltv failed, status=" + resp.statusCode());
+                            }
+
+                            return XmltvEpgParser.parse(in);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, parseExecutor);
+
+            future.whenComplete((store, e) -> {
+                if (e != null) {
+                    // 加载失败时不保留，下次查询时重新加载
+                    log.warn("load xmltv failed, url={}", url, e);
+                    storeFutures.asMap().remove(url, future);
+                }
+            });
+
+            return future;
+        });
+    }
+
+    public static XmltvEpgFetchingHandler getInstance() {
+        return INSTANCE;
+    }
+}
@@ -2,6 +2,7 @@ package io.knifer.freebox.helper;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import io.knifer.freebox.util.CastUtil;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
@@ -38,4 +39,48 @@ public class CacheHelper {
     public void del(String key) {
         CACHE.invalidate(key);
     }
+
+    /**
+     * 创建按最近使用淘汰的缓存（记录命中、未命中、淘汰次数）
+     * @param maximumSize 最大条目数
+     * @return 缓存
+     */
+    public <K, V> Cache<K, V> newLruCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 创建软引用缓存，用于缓存界面结点，内存不足时可以被回收（记录命中、未命中、淘汰次数）
+     * @param maximumSize 最大条目数
+     * @return 缓存
+     */
+    public <K, V> Cache<K, V> newSoftValueCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .softValues()
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 输出缓存统计信息
+     * @param name 缓存名称
+     * @param cache 缓存
+     */
+    public void logStats(String name, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+
+        log.info(
+                "cache [{}] size={}, hit={}, miss={}, eviction={}, hitRate={}",
+                name,
+                cache.size(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount(),
+                String.format("%.2f", stats.hitRate())
+        );
+    }
 }
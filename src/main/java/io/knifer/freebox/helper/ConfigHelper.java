@@ -74,6 +74,17 @@ public class ConfigHelper {
         return config.getAutoStartWs();
     }
 
+    public synchronized void setMultiClientFanOut(Boolean multiClientFanOut) {
+        assertIfConfigLoaded();
+        config.setMultiClientFanOut(multiClientFanOut);
+    }
+
+    public Boolean getMultiClientFanOut() {
+        assertIfConfigLoaded();
+
+        return config.getMultiClientFanOut();
+    }
+
     public synchronized void setWsPort(Integer wsPort) {
         assertIfConfigLoaded();
         config.setWsPort(wsPort);
@@ -243,6 +254,7 @@ public class ConfigHelper {
                 configLoaded.setWsPort(BaseValues.DEFAULT_WS_PORT);
                 configLoaded.setAutoStartHttp(true);
                 configLoaded.setAutoStartWs(true);
+                configLoaded.setMultiClientFanOut(false);
                 configLoaded.setUsageFontFamily(Font.getDefault().getFamily());
                 configLoaded.setAdFilter(true);
                 configLoaded.setAdFilterDynamicThresholdFactor(-1D);
@@ -278,6 +290,10 @@ public class ConfigHelper {
             config.setAdFilterDynamicThresholdFactor(-1D);
             needSave = true;
         }
+        if (config.getMultiClientFanOut() == null) {
+            config.setMultiClientFanOut(false);
+            needSave = true;
+        }
         if (config.getPlayerType() == null) {
             config.setPlayerType(PlayerType.VLC);
             needSave = true;
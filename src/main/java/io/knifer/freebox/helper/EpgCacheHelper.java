@@ -0,0 +1,119 @@
+package io.knifer.freebox.helper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.knifer.freebox.handler.EpgFetchingHandler;
+import io.knifer.freebox.model.common.diyp.EPG;
+import io.knifer.freebox.util.CollectionUtil;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 电子节目单缓存
+ * 播放器横幅、EPG概览共用，按（节目单地址、频道名称、日期）缓存，同一节目单同时只请求一次
+ * 请求的超时在这里统一处理，每个调用方拿到的都是请求的副本，调用方对副本的操作（如取消）不会影响其他调用方
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class EpgCacheHelper {
+
+    private static final Cache<EpgKey, EPG> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .recordStats()
+            .build();
+    /**
+     * 请求节目单的超时时间（秒），超时后请求以TimeoutException结束，并从请求中的节目单中移除
+     */
+    private static final long FETCH_TIMEOUT_SECONDS = 10;
+    /**
+     * 请求中的节目单
+     */
+    private static final Map<EpgKey, CompletableFuture<EPG>> FETCHING_FUTURES = new ConcurrentHashMap<>();
+
+    /**
+     * 获取已缓存的节目单
+     * @param epgServiceUrl 节目单地址
+     * @param channelName 频道名称
+     * @param date 日期
+     * @return 节目单，为null表示未缓存
+     */
+    @Nullable
+    public EPG getIfPresent(String epgServiceUrl, String channelName, LocalDate date) {
+        return CACHE.getIfPresent(new EpgKey(epgServiceUrl, channelName, date));
+    }
+
+    /**
+     * 获取节目单（优先使用缓存）
+     * @param epgServiceUrl 节目单地址
+     * @param channelName 频道名称
+     * @param date 日期
+     * @return 节目单，结果可能为null（没有该频道的节目单），超时时以TimeoutException结束
+     */
+    public CompletableFuture<EPG> get(String epgServiceUrl, String channelName, LocalDate date) {
+        EpgKey key = new EpgKey(epgServiceUrl, channelName, date);
+        EPG epg = CACHE.getIfPresent(key);
+        CompletableFuture<EPG> future;
+        CompletableFuture<EPG> fetchingFuture;
+
+        if (epg != null) {
+
+            return CompletableFuture.completedFuture(epg);
+        }
+        future = new CompletableFuture<>();
+        fetchingFuture = FETCHING_FUTURES.putIfAbsent(key, future);
+        if (fetchingFuture != null) {
+
+            return fetchingFuture.copy();
+        }
+        EpgFetchingHandler.of(epgServiceUrl)
+                .handle(epgServiceUrl, channelName, date)
+                .orTimeout(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((fetchedEpg, e) -> {
+                    if (fetchedEpg != null && CollectionUtil.isNotEmpty(fetchedEpg.getEpgData())) {
+                        // 没有节目数据时不缓存，下次重新请求
+                        CACHE.put(key, fetchedEpg);
+                    }
+                    FETCHING_FUTURES.remove(key, future);
+                    if (e == null) {
+                        future.complete(fetchedEpg);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+
+        return future.copy();
+    }
+
+    /**
+     * 预加载多个频道的节目单（已缓存或请求中的会被跳过）
+     * @param epgServiceUrl 节目单地址
+     * @param channelNames 频道名称
+     * @param date 日期
+     */
+    public void prefetch(String epgServiceUrl, Collection<String> channelNames, LocalDate date) {
+        for (String channelName : channelNames) {
+            get(epgServiceUrl, channelName, date).exceptionally(e -> {
+                log.debug("prefetch epg failed, channelName={}, message={}", channelName, e.getMessage());
+
+                return null;
+            });
+        }
+    }
+
+    public void logStats() {
+        CacheHelper.logStats("epg", CACHE);
+    }
+
+    private record EpgKey(String epgServiceUrl, String channelName, LocalDate date) {}
+}
@@ -2,12 +2,13 @@ package io.knifer.freebox.helper;
 
 import cn.hutool.core.net.URLEncodeUtil;
 import cn.hutool.core.text.StrPool;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.net.HttpHeaders;
 import io.knifer.freebox.constant.BaseResources;
 import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.constant.ImageLoadPriority;
 import io.knifer.freebox.model.domain.ImageLoadingResult;
 import io.knifer.freebox.util.ValidationUtil;
 import javafx.scene.image.Image;
@@ -23,18 +24,31 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.IntBuffer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * 图片加载
+ * 1. 内存缓存：已解码的图片，按像素占用的字节数限制总大小。指定了目标尺寸的缩略图在解码时就会缩小，与原图分开缓存
+ * 2. 磁盘缓存：下载的原始图片数据，按最近使用时间淘汰，限制总大小
+ * 3. 加载失败的图片会在一段时间内直接返回占位图，不再重复请求
+ * 4. 网络请求按优先级排队（同优先级时后提交的先执行），并限制同一host的并发数；排队或执行中的请求可以被取消
+ * 5. 同一张图片的多个调用方共享一次加载，只有所有调用方都放弃等待时才会真正取消
  *
  * @author Knifer
  */
@@ -51,28 +65,141 @@ public class ImageHelper {
     private static final Map<String, String> DEFAULT_HEADERS = Map.of(
             HttpHeaders.USER_AGENT, BaseValues.USER_AGENT
     );
-    private static final CacheLoader<String, CompletableFuture<ImageLoadingResult>> CACHE_LOADER = new CacheLoader<>() {
-        @NotNull
-        @Override
-        public CompletableFuture<ImageLoadingResult> load(@NotNull String imageUrl) {
-            return loadImageWithProxyRetry(imageUrl);
+    /**
+     * 内存缓存的最大字节数（按解码后的像素计算）
+     */
+    private static final long MEMORY_CACHE_MAX_BYTES = 128L * 1024 * 1024;
+    /**
+     * 磁盘缓存的最大字节数，超出后淘汰最久未使用的图片，直到降至该值的80%
+     */
+    private static final long DISK_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final Path DISK_CACHE_PATH = StorageHelper.getImageCachePath();
+    private static final Cache<String, ImageLoadingResult> MEMORY_CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(MEMORY_CACHE_MAX_BYTES)
+            .<String, ImageLoadingResult>weigher((imageUrl, result) -> {
+                Image image = result.getImage();
+
+                return (int) Math.min(Integer.MAX_VALUE, (long) image.getWidth() * (long) image.getHeight() * 4);
+            })
+            .build();
+    /**
+     * 加载失败的图片url
+     */
+    private static final Cache<String, Boolean> FAILED_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(2000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+    /**
+     * 加载中的图片，同一张图片（相同尺寸）同时只会加载一次（缓存key -> 加载）
+     */
+    private static final Map<String, ImageLoading> LOADINGS = new HashMap<>();
+    /**
+     * 磁盘缓存的读写、解码
+     */
+    private static final ExecutorService IO_EXECUTOR;
+    /**
+     * 网络请求的总并发数
+     */
+    private static final int MAX_NETWORK_LOADS = 16;
+    /**
+     * 同一host的网络请求并发数
+     */
+    private static final int MAX_NETWORK_LOADS_PER_HOST = 4;
+    private static final Object NETWORK_LOAD_LOCK = new Object();
+    /**
+     * 排队中的网络请求
+     */
+    private static final TreeSet<NetworkLoad> PENDING_NETWORK_LOADS = new TreeSet<>(
+            Comparator.<NetworkLoad>comparingInt(load -> load.priority.ordinal())
+                    .thenComparing(Comparator.<NetworkLoad>comparingLong(load -> load.seq).reversed())
+    );
+    /**
+     * 排队、执行中的网络请求（缓存key -> 请求）
+     */
+    private static final Map<String, NetworkLoad> NETWORK_LOADS = new HashMap<>();
+    /**
+     * 执行中的网络请求数（host -> 请求数）
+     */
+    private static final Map<String, Integer> ACTIVE_NETWORK_LOADS_PER_HOST = new HashMap<>();
+    private static int activeNetworkLoads = 0;
+    private static long networkLoadSeq = 0;
+    private static final Object DISK_CACHE_LOCK = new Object();
+    /**
+     * 磁盘缓存当前的字节数，为-1表示尚未统计
+     */
+    private static long diskCacheBytes = -1;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        IO_EXECUTOR = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r);
+
+            t.setName("ImageHelper-IO-Thread-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+
+            return t;
+        });
+    }
+
+    private CompletableFuture<ImageLoadingResult> loadImageWithCache(
+            ImageRequest imageRequest, ImageLoadPriority priority, @Nullable Object owner
+    ) {
+        String cacheKey = imageRequest.getCacheKey();
+        ImageLoading loading;
+        ImageLoading existingLoading;
+        CompletableFuture<ImageLoadingResult> future;
+
+        synchronized (LOADINGS) {
+            existingLoading = LOADINGS.get(cacheKey);
+            loading = existingLoading == null ? new ImageLoading() : existingLoading;
+            loading.attach(owner);
+            if (existingLoading == null) {
+                LOADINGS.put(cacheKey, loading);
+            }
+        }
+        if (existingLoading != null) {
+            raisePriority(cacheKey, priority);
+
+            return existingLoading.future;
         }
-    };
-    private static final LoadingCache<String, CompletableFuture<ImageLoadingResult>> CACHE =
-            CacheBuilder.newBuilder()
-                    .maximumSize(150)
-                    .build(CACHE_LOADER);
+        future = loading.future;
+        future.whenComplete((result, e) -> {
+            synchronized (LOADINGS) {
+                LOADINGS.remove(cacheKey, loading);
+            }
+            if (result != null && result.isSuccess()) {
+                MEMORY_CACHE.put(cacheKey, result);
+            } else if (!(e instanceof CancellationException)) {
+                FAILED_CACHE.put(imageRequest.imageUrl(), Boolean.TRUE);
+            }
+        });
+        IO_EXECUTOR.execute(() -> {
+            String imageUrl = imageRequest.imageUrl();
+            byte[] imageBytes = readDiskCache(imageUrl);
+            Image image;
 
-    private CompletableFuture<ImageLoadingResult> loadImageWithProxyRetry(String imageUrl) {
-        CompletableFuture<ImageLoadingResult> future = new CompletableFuture<>();
+            if (imageBytes != null) {
+                try {
+                    image = createImage(imageBytes, imageRequest);
+                    future.complete(ImageLoadingResult.of(image, true));
 
-        loadImage(future, imageUrl, DEFAULT_HEADERS, false);
+                    return;
+                } catch (IOException e) {
+                    log.warn("invalid image disk cache: {}", imageUrl, e);
+                    deleteDiskCache(imageUrl);
+                }
+            }
+            loadImage(future, imageRequest, priority, imageUrl, DEFAULT_HEADERS, false);
+        });
 
         return future;
     }
 
     private void loadImage(
             CompletableFuture<ImageLoadingResult> future,
+            ImageRequest imageRequest,
+            ImageLoadPriority priority,
             String imageUrl,
             Map<String, String> headers,
             boolean isRetrying
@@ -80,6 +207,11 @@ public class ImageHelper {
         Pair<String, Map<String, String>> fixedImageUrlAndHeaderMap;
         Request request;
 
+        if (future.isDone()) {
+            // 已被取消
+
+            return;
+        }
         if (!ValidationUtil.isURL(imageUrl)) {
             if (isRetrying) {
                 future.complete(DEFAULT_RESULT);
@@ -92,6 +224,8 @@ public class ImageHelper {
             } else {
                 loadImage(
                         future,
+                        imageRequest,
+                        priority,
                         fixedImageUrlAndHeaderMap.getLeft(),
                         fixedImageUrlAndHeaderMap.getRight(),
                         false
@@ -104,43 +238,101 @@ public class ImageHelper {
                 .url(imageUrl)
                 .headers(Headers.of(headers))
                 .build();
-        CLIENT.newCall(request)
-                .enqueue(new Callback() {
+        scheduleNetworkLoad(new NetworkLoad(imageRequest.getCacheKey(), priority, request, future, new Callback() {
                     @Override
                     public void onResponse(@NotNull Call call, @NotNull Response response) {
                         Image image;
-                        ByteArrayInputStream imageInputStream;
+                        byte[] imageBytes;
 
                         try (response) {
                             if (!response.isSuccessful()) {
                                 log.warn("download image failed, response={}", response);
-                                handleLoadImageFail(future, imageUrl, isRetrying);
+                                handleLoadImageFail(future, imageRequest, priority, imageUrl, isRetrying);
 
                                 return;
                             }
-                            imageInputStream = new ByteArrayInputStream(response.body().bytes());
-                            image = createImage(imageInputStream);
+                            imageBytes = response.body().bytes();
+                            image = createImage(imageBytes, imageRequest);
                         } catch (IOException ex) {
                             log.warn("read image failed: {}", imageUrl, ex);
-                            handleLoadImageFail(future, imageUrl, isRetrying);
+                            handleLoadImageFail(future, imageRequest, priority, imageUrl, isRetrying);
 
                             return;
                         }
                         if (image.getProgress() < 1.0 || image.isError()) {
                             log.warn("load image failed: {}", imageUrl, image.getException());
-                            handleLoadImageFail(future, imageUrl, isRetrying);
+                            handleLoadImageFail(future, imageRequest, priority, imageUrl, isRetrying);
 
                             return;
                         }
                         future.complete(ImageLoadingResult.of(image, true));
+                        IO_EXECUTOR.execute(() -> writeDiskCache(imageRequest.imageUrl(), imageBytes));
                     }
 
                     @Override
                     public void onFailure(@NotNull Call call, @NotNull IOException e) {
                         log.warn("download image failed: {}", imageUrl, e);
-                        handleLoadImageFail(future, imageUrl, true);
+                        handleLoadImageFail(future, imageRequest, priority, imageUrl, isRetrying);
                     }
-                });
+                }));
+    }
+
+    private void scheduleNetworkLoad(NetworkLoad load) {
+        synchronized (NETWORK_LOAD_LOCK) {
+            load.seq = networkLoadSeq++;
+            NETWORK_LOADS.put(load.cacheKey, load);
+            PENDING_NETWORK_LOADS.add(load);
+            drainNetworkLoads();
+        }
+    }
+
+    /**
+     * 在并发数允许的范围内，按优先级启动排队中的网络请求
+     */
+    private void drainNetworkLoads() {
+        Iterator<NetworkLoad> iterator;
+        NetworkLoad load;
+
+        if (activeNetworkLoads >= MAX_NETWORK_LOADS) {
+
+            return;
+        }
+        iterator = PENDING_NETWORK_LOADS.iterator();
+        while (iterator.hasNext() && activeNetworkLoads < MAX_NETWORK_LOADS) {
+            load = iterator.next();
+            if (ACTIVE_NETWORK_LOADS_PER_HOST.getOrDefault(load.host, 0) >= MAX_NETWORK_LOADS_PER_HOST) {
+                continue;
+            }
+            iterator.remove();
+            activeNetworkLoads++;
+            ACTIVE_NETWORK_LOADS_PER_HOST.merge(load.host, 1, Integer::sum);
+            load.start();
+        }
+    }
+
+    private void finishNetworkLoad(NetworkLoad load) {
+        synchronized (NETWORK_LOAD_LOCK) {
+            activeNetworkLoads--;
+            ACTIVE_NETWORK_LOADS_PER_HOST.computeIfPresent(load.host, (host, count) -> count > 1 ? count - 1 : null);
+            NETWORK_LOADS.remove(load.cacheKey, load);
+            drainNetworkLoads();
+        }
+    }
+
+    private void raisePriority(String cacheKey, ImageLoadPriority priority) {
+        NetworkLoad load;
+
+        synchronized (NETWORK_LOAD_LOCK) {
+            load = NETWORK_LOADS.get(cacheKey);
+            if (load == null || load.priority.compareTo(priority) <= 0 || !PENDING_NETWORK_LOADS.remove(load)) {
+
+                return;
+            }
+            load.priority = priority;
+            load.seq = networkLoadSeq++;
+            PENDING_NETWORK_LOADS.add(load);
+            drainNetworkLoads();
+        }
     }
 
     /**
@@ -188,36 +380,193 @@ public class ImageHelper {
      */
     private void handleLoadImageFail(
             CompletableFuture<ImageLoadingResult> future,
+            ImageRequest imageRequest,
+            ImageLoadPriority priority,
             String imageUrl,
             boolean isRetrying
     ) {
         if (isRetrying) {
             future.complete(DEFAULT_RESULT);
         } else {
-            loadImage(future, buildProxyCdnUrl(imageUrl), DEFAULT_HEADERS, true);
+            loadImage(future, imageRequest, priority, buildProxyCdnUrl(imageUrl), DEFAULT_HEADERS, true);
+        }
+    }
+
+    @Nullable
+    private byte[] readDiskCache(String imageUrl) {
+        Path path = DISK_CACHE_PATH.resolve(DigestUtil.md5Hex(imageUrl));
+        byte[] result;
+
+        if (!Files.isRegularFile(path)) {
+
+            return null;
         }
+        try {
+            result = Files.readAllBytes(path);
+            // 以修改时间作为最近使用时间
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("read image disk cache failed: {}", path, e);
+
+            return null;
+        }
+
+        return result;
+    }
+
+    private void writeDiskCache(String imageUrl, byte[] imageBytes) {
+        Path path = DISK_CACHE_PATH.resolve(DigestUtil.md5Hex(imageUrl));
+        Path tempPath;
+        long oldSize;
+
+        synchronized (DISK_CACHE_LOCK) {
+            try {
+                Files.createDirectories(DISK_CACHE_PATH);
+                if (diskCacheBytes < 0) {
+                    diskCacheBytes = sumDiskCacheBytes();
+                }
+                oldSize = Files.isRegularFile(path) ? Files.size(path) : 0;
+                tempPath = Files.createTempFile(DISK_CACHE_PATH, path.getFileName().toString(), ".tmp");
+                Files.write(tempPath, imageBytes);
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+                diskCacheBytes += imageBytes.length - oldSize;
+            } catch (IOException e) {
+                log.warn("write image disk cache failed: {}", path, e);
+
+                return;
+            }
+            if (diskCacheBytes > DISK_CACHE_MAX_BYTES) {
+                evictDiskCache();
+            }
+        }
+    }
+
+    private void deleteDiskCache(String imageUrl) {
+        Path path = DISK_CACHE_PATH.resolve(DigestUtil.md5Hex(imageUrl));
+
+        synchronized (DISK_CACHE_LOCK) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("delete image disk cache failed: {}", path, e);
+            }
+            // 重新统计
+            diskCacheBytes = -1;
+        }
+    }
+
+    private long sumDiskCacheBytes() throws IOException {
+        long result = 0;
+
+        try (Stream<Path> paths = Files.list(DISK_CACHE_PATH)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path)) {
+                    result += Files.size(path);
+                }
+            }
+        }
+
+        return result;
     }
 
-    private Image createImage(ByteArrayInputStream imageInputStream) throws IOException {
-        BufferedImage bufferedImage = ImageIO.read(imageInputStream);
+    /**
+     * 淘汰最久未使用的磁盘缓存
+     */
+    private void evictDiskCache() {
+        List<Pair<Path, BasicFileAttributes>> files = new ArrayList<>();
+        long targetBytes = DISK_CACHE_MAX_BYTES / 10 * 8;
+        int count = 0;
+
+        try (Stream<Path> paths = Files.list(DISK_CACHE_PATH)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                files.add(Pair.of(path, Files.readAttributes(path, BasicFileAttributes.class)));
+            }
+        } catch (IOException e) {
+            log.warn("list image disk cache failed", e);
+
+            return;
+        }
+        files.sort(Comparator.comparing(pathAndAttrs -> pathAndAttrs.getRight().lastModifiedTime()));
+        for (Pair<Path, BasicFileAttributes> pathAndAttrs : files) {
+            if (diskCacheBytes <= targetBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(pathAndAttrs.getLeft());
+                diskCacheBytes -= pathAndAttrs.getRight().size();
+                count++;
+            } catch (IOException e) {
+                log.warn("delete image disk cache failed: {}", pathAndAttrs.getLeft(), e);
+            }
+        }
+        log.info("evicted {} image disk cache file(s), remaining bytes={}", count, diskCacheBytes);
+    }
+
+    /**
+     * 解码图片
+     * 指定了目标尺寸时，解码时按步长隔行采样，再缩放到恰好覆盖目标尺寸，只保留缩放后的像素
+     * @param imageBytes 图片数据
+     * @param imageRequest 图片请求
+     * @return 图片
+     */
+    private Image createImage(byte[] imageBytes, ImageRequest imageRequest) throws IOException {
+        int targetWidth = imageRequest.targetWidth();
+        int targetHeight = imageRequest.targetHeight();
+        Iterator<ImageReader> readers;
+        ImageReader reader;
+        ImageReadParam readParam;
+        BufferedImage bufferedImage;
+        int width;
+        int height;
+        int subsampling;
+        double scale;
         BufferedImage betterImg;
+        Graphics2D graphics;
         int[] bytes;
         IntBuffer buffer;
         PixelFormat<IntBuffer> pixelFormat;
         PixelBuffer<IntBuffer> pixelBuffer;
 
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            readers = imageInputStream == null ? Collections.emptyIterator() : ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                throw new IOException("no image data");
+            }
+            reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                readParam = reader.getDefaultReadParam();
+                if (imageRequest.isThumbnail()) {
+                    // 采样后的尺寸不小于目标尺寸
+                    subsampling = Math.max(
+                            1, Math.min(reader.getWidth(0) / targetWidth, reader.getHeight(0) / targetHeight)
+                    );
+                    readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                bufferedImage = reader.read(0, readParam);
+            } finally {
+                reader.dispose();
+            }
+        }
         if (bufferedImage == null) {
             throw new IOException("no image data");
         }
-        betterImg = new BufferedImage(
-                bufferedImage.getWidth(), bufferedImage.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE
-        );
-        betterImg.createGraphics()
-                .drawImage(bufferedImage, 0, 0, bufferedImage.getWidth(), bufferedImage.getHeight(), null);
+        width = bufferedImage.getWidth();
+        height = bufferedImage.getHeight();
+        if (imageRequest.isThumbnail()) {
+            scale = Math.min(1, Math.max((double) targetWidth / width, (double) targetHeight / height));
+            width = Math.max(1, (int) Math.round(width * scale));
+            height = Math.max(1, (int) Math.round(height * scale));
+        }
+        betterImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        graphics = betterImg.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(bufferedImage, 0, 0, width, height, null);
+        graphics.dispose();
         bytes = ((DataBufferInt) betterImg.getRaster().getDataBuffer()).getData();
         buffer = IntBuffer.wrap(bytes);
         pixelFormat = PixelFormat.getIntArgbPreInstance();
-        pixelBuffer = new PixelBuffer<>(betterImg.getWidth(), betterImg.getHeight(), buffer, pixelFormat);
+        pixelBuffer = new PixelBuffer<>(width, height, buffer, pixelFormat);
 
         return new WritableImage(pixelBuffer);
     }
@@ -227,19 +576,218 @@ public class ImageHelper {
     }
 
     /**
-     * 异步加载图片
+     * 异步加载图片（原图）
      * @param imageUrl 图片url。出于性能考虑，对于非影片海报，传入前需要先校验url的格式
      * @return 图片加载结果
      */
     public CompletableFuture<ImageLoadingResult> loadAsync(String imageUrl) {
-        try {
-            return CACHE.get(imageUrl);
-        } catch (Throwable e) {
+        return loadAsync(imageUrl, 0, 0);
+    }
+
+    /**
+     * 异步加载缩略图
+     * @param imageUrl 图片url。出于性能考虑，对于非影片海报，传入前需要先校验url的格式
+     * @param targetWidth 目标宽度，小于等于0表示加载原图
+     * @param targetHeight 目标高度，小于等于0表示加载原图
+     * @return 图片加载结果
+     */
+    public CompletableFuture<ImageLoadingResult> loadAsync(String imageUrl, double targetWidth, double targetHeight) {
+        return loadAsync(imageUrl, targetWidth, targetHeight, ImageLoadPriority.VISIBLE, null);
+    }
+
+    /**
+     * 按指定优先级异步加载缩略图
+     * @param imageUrl 图片url
+     * @param targetWidth 目标宽度，小于等于0表示加载原图
+     * @param targetHeight 目标高度，小于等于0表示加载原图
+     * @param priority 优先级。如果同一张图片已在加载中，只会提升其优先级
+     * @param owner 调用方，之后可以通过cancelLoading放弃等待。为null表示不会取消，该图片会一直加载到结束
+     * @return 图片加载结果。被取消时以CancellationException结束
+     */
+    public CompletableFuture<ImageLoadingResult> loadAsync(
+            String imageUrl,
+            double targetWidth,
+            double targetHeight,
+            ImageLoadPriority priority,
+            @Nullable Object owner
+    ) {
+        ImageRequest imageRequest;
+        ImageLoadingResult cachedResult;
+
+        if (StringUtils.isBlank(imageUrl) || FAILED_CACHE.getIfPresent(imageUrl) != null) {
+
             return CompletableFuture.completedFuture(DEFAULT_RESULT);
         }
+        imageRequest = ImageRequest.of(imageUrl, targetWidth, targetHeight);
+        cachedResult = MEMORY_CACHE.getIfPresent(imageRequest.getCacheKey());
+        if (cachedResult != null) {
+
+            return CompletableFuture.completedFuture(cachedResult);
+        }
+
+        return loadImageWithCache(imageRequest, priority, owner);
+    }
+
+    /**
+     * 调用方放弃等待加载中的图片（如对应的单元格已滚出可见范围）
+     * 只有所有调用方都放弃等待时才会真正取消：排队中的请求会被移出队列，执行中的请求会被中断，结果以CancellationException结束
+     * @param imageUrl 图片url
+     * @param targetWidth 目标宽度
+     * @param targetHeight 目标高度
+     * @param owner 调用方，与loadAsync时传入的相同
+     */
+    public void cancelLoading(String imageUrl, double targetWidth, double targetHeight, Object owner) {
+        String cacheKey;
+        NetworkLoad load;
+        ImageLoading loading;
+
+        if (StringUtils.isBlank(imageUrl)) {
+
+            return;
+        }
+        cacheKey = ImageRequest.of(imageUrl, targetWidth, targetHeight).getCacheKey();
+        synchronized (LOADINGS) {
+            loading = LOADINGS.get(cacheKey);
+            if (loading == null || !loading.detach(owner)) {
+
+                return;
+            }
+            LOADINGS.remove(cacheKey);
+        }
+        // 先结束future，避免被中断的请求触发代理重试
+        loading.future.cancel(false);
+        synchronized (NETWORK_LOAD_LOCK) {
+            load = NETWORK_LOADS.remove(cacheKey);
+            if (load != null && !PENDING_NETWORK_LOADS.remove(load)) {
+                // 执行中，结束时会释放并发数
+                load.cancel();
+            }
+        }
     }
 
+    /**
+     * 清除内存缓存（磁盘缓存会保留）
+     */
     public void clearCache() {
-        CACHE.invalidateAll();
+        MEMORY_CACHE.invalidateAll();
+        FAILED_CACHE.invalidateAll();
+    }
+
+    /**
+     * 图片请求
+     * @param imageUrl 图片url
+     * @param targetWidth 目标宽度，为0表示原图
+     * @param targetHeight 目标高度，为0表示原图
+     */
+    private record ImageRequest(String imageUrl, int targetWidth, int targetHeight) {
+
+        private static ImageRequest of(String imageUrl, double targetWidth, double targetHeight) {
+            if (targetWidth <= 0 || targetHeight <= 0) {
+
+                return new ImageRequest(imageUrl, 0, 0);
+            }
+
+            return new ImageRequest(imageUrl, (int) Math.ceil(targetWidth), (int) Math.ceil(targetHeight));
+        }
+
+        private boolean isThumbnail() {
+            return targetWidth > 0;
+        }
+
+        private String getCacheKey() {
+            return isThumbnail() ? imageUrl + "#" + targetWidth + "x" + targetHeight : imageUrl;
+        }
+    }
+
+    /**
+     * 加载中的图片及等待它的调用方
+     */
+    private static class ImageLoading {
+
+        private final CompletableFuture<ImageLoadingResult> future = new CompletableFuture<>();
+        private final Set<Object> owners = new HashSet<>();
+        /**
+         * 是否有不会取消的调用方
+         */
+        private boolean pinned = false;
+
+        private void attach(@Nullable Object owner) {
+            if (owner == null) {
+                pinned = true;
+            } else {
+                owners.add(owner);
+            }
+        }
+
+        /**
+         * 调用方放弃等待
+         * @return 是否已没有调用方在等待
+         */
+        private boolean detach(Object owner) {
+            return owners.remove(owner) && owners.isEmpty() && !pinned;
+        }
+    }
+
+    /**
+     * 图片网络请求
+     */
+    private static class NetworkLoad {
+
+        private final String cacheKey;
+        private final String host;
+        private final Request request;
+        private final CompletableFuture<ImageLoadingResult> future;
+        private final Callback callback;
+        private ImageLoadPriority priority;
+        private long seq;
+        @Nullable
+        private Call call;
+
+        private NetworkLoad(
+                String cacheKey,
+                ImageLoadPriority priority,
+                Request request,
+                CompletableFuture<ImageLoadingResult> future,
+                Callback callback
+        ) {
+            this.cacheKey = cacheKey;
+            this.host = request.url().host();
+            this.priority = priority;
+            this.request = request;
+            this.future = future;
+            this.callback = callback;
+        }
+
+        private void start() {
+            call = CLIENT.newCall(request);
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                    finishNetworkLoad(NetworkLoad.this);
+                    if (future.isDone()) {
+                        response.close();
+
+                        return;
+                    }
+                    callback.onResponse(call, response);
+                }
+
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    finishNetworkLoad(NetworkLoad.this);
+                    if (future.isDone()) {
+
+                        return;
+                    }
+                    callback.onFailure(call, e);
+                }
+            });
+        }
+
+        private void cancel() {
+            if (call != null) {
+                call.cancel();
+            }
+        }
     }
 }
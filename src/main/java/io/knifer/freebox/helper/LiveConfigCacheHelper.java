@@ -0,0 +1,338 @@
+package io.knifer.freebox.helper;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.google.common.net.HttpHeaders;
+import io.knifer.freebox.model.domain.LiveConfigCacheEntry;
+import io.knifer.freebox.util.HttpUtil;
+import io.knifer.freebox.util.json.GsonUtil;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 直播源配置缓存
+ * 1. 配置内容存放在{md5(url)}文件中，索引（ETag/Last-Modified/确认时间）存放在{md5(url)}.json中
+ * 2. 有缓存时直接使用缓存，超过有效期后再通过条件请求在后台校验是否有更新
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class LiveConfigCacheHelper {
+
+    /**
+     * 缓存有效期，超过后需要向服务端确认内容是否有变化
+     */
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    /**
+     * 超过该时间未被使用的缓存会在清理时删除
+     */
+    private static final long EXPIRE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    /**
+     * 使用时间的记录精度，只用于清理长时间未使用的缓存，不必每次使用都重写索引
+     */
+    private static final long USED_AT_PRECISION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * 下载的总超时时间（包括读取响应体），超时后请求以异常结束，之后的请求会重新下载
+     */
+    private static final long FETCH_TIMEOUT_SECONDS = 60;
+    private static final String INDEX_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Path CACHE_PATH = StorageHelper.getLiveConfigCachePath();
+    /**
+     * md5(url) -> 索引条目
+     */
+    private static final Map<String, LiveConfigCacheEntry> ENTRIES = new ConcurrentHashMap<>();
+    /**
+     * md5(url) -> 进行中的请求（同一直播源同时只发一个请求）
+     */
+    private static final Map<String, CompletableFuture<Path>> FETCHING_FUTURES = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            Files.createDirectories(CACHE_PATH);
+        } catch (IOException e) {
+            log.error("create live config cache directory failed", e);
+        }
+        loadIndex();
+    }
+
+    /**
+     * 获取直播源对应的缓存配置
+     * @param url 直播源链接
+     * @return 缓存配置文件，为null表示未缓存
+     */
+    @Nullable
+    public Path find(String url) {
+        String key = DigestUtil.md5Hex(url);
+        LiveConfigCacheEntry entry = ENTRIES.get(key);
+        Path path = CACHE_PATH.resolve(key);
+        long now;
+
+        if (entry == null) {
+
+            return null;
+        }
+        if (!Files.isRegularFile(path)) {
+            // 配置文件已被删除，索引失效
+            ENTRIES.remove(key);
+
+            return null;
+        }
+        now = System.currentTimeMillis();
+        if (now - entry.getUsedAt() >= USED_AT_PRECISION_MILLIS) {
+            entry.setUsedAt(now);
+            saveEntry(entry);
+        }
+
+        return path;
+    }
+
+    /**
+     * 缓存是否仍在有效期内
+     * @param url 直播源链接
+     * @return 是否在有效期内
+     */
+    public boolean isFresh(String url) {
+        LiveConfigCacheEntry entry = ENTRIES.get(DigestUtil.md5Hex(url));
+
+        return entry != null && System.currentTimeMillis() - entry.getFetchedAt() < TTL_MILLIS;
+    }
+
+    /**
+     * 下载直播源配置并缓存
+     * @param url 直播源链接
+     * @param ua User-Agent
+     * @return 缓存配置文件
+     */
+    public CompletableFuture<Path> download(String url, @Nullable String ua) {
+        return fetch(url, ua, false);
+    }
+
+    /**
+     * 通过条件请求（If-None-Match/If-Modified-Since）校验缓存的配置是否有更新
+     * @param url 直播源链接
+     * @param ua User-Agent
+     * @return 内容有变化时为更新后的缓存配置文件，无变化时为null
+     */
+    public CompletableFuture<Path> revalidate(String url, @Nullable String ua) {
+        return fetch(url, ua, true);
+    }
+
+    /**
+     * 删除直播源对应的缓存
+     * @param url 直播源链接
+     */
+    public void remove(String url) {
+        String key = DigestUtil.md5Hex(url);
+
+        ENTRIES.remove(key);
+        deleteQuietly(CACHE_PATH.resolve(key + INDEX_SUFFIX));
+        deleteQuietly(CACHE_PATH.resolve(key));
+    }
+
+    /**
+     * 清理长时间未使用的缓存，以及没有索引的配置文件
+     */
+    public void prune() {
+        long expireBefore = System.currentTimeMillis() - EXPIRE_MILLIS;
+
+        ENTRIES.entrySet().removeIf(keyAndEntry -> {
+            String key = keyAndEntry.getKey();
+
+            if (keyAndEntry.getValue().getUsedAt() < expireBefore && !FETCHING_FUTURES.containsKey(key)) {
+                deleteQuietly(CACHE_PATH.resolve(key + INDEX_SUFFIX));
+
+                return true;
+            }
+
+            return false;
+        });
+        try (Stream<Path> files = Files.list(CACHE_PATH)) {
+            files.filter(path -> {
+                String fileName = path.getFileName().toString();
+
+                return !fileName.endsWith(INDEX_SUFFIX) &&
+                        !fileName.endsWith(TEMP_SUFFIX) &&
+                        !ENTRIES.containsKey(fileName);
+            }).forEach(LiveConfigCacheHelper::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("prune live config cache failed", e);
+        }
+    }
+
+    private CompletableFuture<Path> fetch(String url, @Nullable String ua, boolean conditional) {
+        String key = DigestUtil.md5Hex(url);
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> fetchingFuture = FETCHING_FUTURES.putIfAbsent(key, future);
+        LiveConfigCacheEntry entry = conditional ? ENTRIES.get(key) : null;
+        List<String> headers = new ArrayList<>(6);
+        Path tempPath;
+
+        if (fetchingFuture != null) {
+
+            return fetchingFuture;
+        }
+        future.whenComplete((path, ex) -> FETCHING_FUTURES.remove(key, future));
+        if (StringUtils.isNotBlank(ua)) {
+            headers.add(HttpHeaders.USER_AGENT);
+            headers.add(ua);
+        }
+        if (entry != null) {
+            if (entry.getEtag() != null) {
+                headers.add(HttpHeaders.IF_NONE_MATCH);
+                headers.add(entry.getEtag());
+            }
+            if (entry.getLastModified() != null) {
+                headers.add(HttpHeaders.IF_MODIFIED_SINCE);
+                headers.add(entry.getLastModified());
+            }
+        }
+        try {
+            tempPath = Files.createTempFile(CACHE_PATH, key, TEMP_SUFFIX);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+
+            return future;
+        }
+        HttpUtil.getFileAsync(url, tempPath, headers.toArray(String[]::new))
+                .orTimeout(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .thenApply(resp -> {
+                    try {
+                        return store(url, key, entry, resp);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        deleteQuietly(tempPath);
+                    }
+                })
+                .whenComplete((path, ex) -> {
+                    if (ex == null) {
+                        future.complete(path);
+                    } else {
+                        deleteQuietly(tempPath);
+                        future.completeExceptionally(ex);
+                    }
+                });
+
+        return future;
+    }
+
+    /**
+     * 保存响应内容
+     * @return 内容有变化时为缓存配置文件，无变化时为null（仅条件请求）
+     */
+    @Nullable
+    private Path store(
+            String url, String key, @Nullable LiveConfigCacheEntry entry, HttpResponse<Path> resp
+    ) throws IOException {
+        int statusCode = resp.statusCode();
+        Path path = CACHE_PATH.resolve(key);
+        Path tempPath;
+        String md5;
+
+        if (statusCode == 304 && entry != null) {
+            log.info("live config not modified: {}", url);
+            entry.setFetchedAt(System.currentTimeMillis());
+            saveEntry(entry);
+
+            return null;
+        }
+        tempPath = resp.body();
+        if (statusCode < 200 || statusCode >= 300 || Files.size(tempPath) == 0) {
+
+            throw new IOException("download live config failed, url=" + url + ", status=" + statusCode);
+        }
+        md5 = DigestUtil.md5Hex(tempPath.toFile());
+        if (entry != null && md5.equals(entry.getMd5()) && Files.isRegularFile(path)) {
+            // 服务端不支持条件请求，但内容没有变化
+            entry.setFetchedAt(System.currentTimeMillis());
+            entry.setEtag(resp.headers().firstValue(HttpHeaders.ETAG).orElse(null));
+            entry.setLastModified(resp.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null));
+            saveEntry(entry);
+
+            return null;
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        saveEntry(LiveConfigCacheEntry.of(
+                url,
+                md5,
+                resp.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+                resp.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null)
+        ));
+
+        return path;
+    }
+
+    private void loadIndex() {
+        try (Stream<Path> files = Files.list(CACHE_PATH)) {
+            files.filter(path -> path.getFileName().toString().endsWith(INDEX_SUFFIX))
+                    .forEach(path -> {
+                        LiveConfigCacheEntry entry;
+
+                        try {
+                            entry = GsonUtil.fromJson(Files.readString(path), LiveConfigCacheEntry.class);
+                        } catch (IOException | RuntimeException e) {
+                            log.warn("invalid live config cache index: {}", path, e);
+                            deleteQuietly(path);
+
+                            return;
+                        }
+                        if (entry == null || StringUtils.isBlank(entry.getUrl())) {
+                            deleteQuietly(path);
+
+                            return;
+                        }
+                        ENTRIES.put(StringUtils.removeEnd(path.getFileName().toString(), INDEX_SUFFIX), entry);
+                    });
+        } catch (IOException e) {
+            log.warn("load live config cache index failed", e);
+        }
+    }
+
+    private void saveEntry(LiveConfigCacheEntry entry) {
+        String key = DigestUtil.md5Hex(entry.getUrl());
+        Path path = CACHE_PATH.resolve(key + INDEX_SUFFIX);
+        Path tempPath;
+
+        ENTRIES.put(key, entry);
+        try {
+            tempPath = Files.createTempFile(CACHE_PATH, key, TEMP_SUFFIX);
+            Files.writeString(tempPath, GsonUtil.toJson(entry), StandardCharsets.UTF_8);
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("save live config cache index failed, url={}", entry.getUrl(), e);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("delete live config cache file failed: {}", path, e);
+        }
+    }
+}
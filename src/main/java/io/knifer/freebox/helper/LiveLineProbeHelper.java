@@ -0,0 +1,290 @@
+package io.knifer.freebox.helper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.HttpHeaders;
+import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.constant.LiveLineProbeStatus;
+import io.knifer.freebox.model.domain.LiveChannel;
+import io.knifer.freebox.model.domain.LiveLineProbeResult;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import okio.BufferedSource;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直播线路探测
+ * 1. 并发请求频道的所有线路（限制总并发数及同一host的并发数），记录首字节耗时
+ * 2. m3u8线路会校验播放列表内容，其他http线路只要能读到数据即视为可用
+ * 3. 探测结果缓存一段时间，切换频道时可以直接按结果选择线路
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class LiveLineProbeHelper {
+
+    /**
+     * 探测的总并发数
+     */
+    private static final int MAX_PROBES = 16;
+    /**
+     * 同一host的探测并发数
+     */
+    private static final int MAX_PROBES_PER_HOST = 2;
+    /**
+     * m3u8校验时最多读取的行数
+     */
+    private static final int MAX_PLAYLIST_LINES = 200;
+    private static final OkHttpClient CLIENT;
+    private static final Cache<String, LiveLineProbeResult> RESULT_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(2000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+    /**
+     * 探测中的线路（线路地址 -> 探测结果）
+     */
+    private static final Map<String, CompletableFuture<LiveLineProbeResult>> PROBING_FUTURES =
+            new ConcurrentHashMap<>();
+    private static final LiveLineProbeResult UNKNOWN_RESULT = LiveLineProbeResult.of(LiveLineProbeStatus.UNKNOWN, 0);
+    private static final LiveLineProbeResult UNHEALTHY_RESULT =
+            LiveLineProbeResult.of(LiveLineProbeStatus.UNHEALTHY, 0);
+
+    static {
+        Dispatcher dispatcher = new Dispatcher();
+
+        dispatcher.setMaxRequests(MAX_PROBES);
+        dispatcher.setMaxRequestsPerHost(MAX_PROBES_PER_HOST);
+        CLIENT = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(3, TimeUnit.SECONDS)
+                .callTimeout(5, TimeUnit.SECONDS)
+                // 从请求真正开始执行时计时，不包含排队的时间
+                .addInterceptor(chain -> {
+                    AtomicLong startNanos = chain.request().tag(AtomicLong.class);
+
+                    if (startNanos != null) {
+                        startNanos.set(System.nanoTime());
+                    }
+
+                    return chain.proceed(chain.request());
+                })
+                .build();
+    }
+
+    /**
+     * 获取频道线路的探测结果（仅当所有线路都有缓存的结果时）
+     * @param liveChannel 频道
+     * @return 线路 -> 探测结果，为null表示有线路尚未探测
+     */
+    @Nullable
+    public Map<LiveChannel.Line, LiveLineProbeResult> getIfProbed(LiveChannel liveChannel) {
+        List<LiveChannel.Line> lines = liveChannel.getLines();
+        Map<LiveChannel.Line, LiveLineProbeResult> results = new IdentityHashMap<>(lines.size());
+        LiveLineProbeResult result;
+
+        for (LiveChannel.Line line : lines) {
+            result = RESULT_CACHE.getIfPresent(line.getUrl());
+            if (result == null) {
+
+                return null;
+            }
+            results.put(line, result);
+        }
+
+        return results;
+    }
+
+    /**
+     * 探测频道的所有线路
+     * @param liveChannel 频道
+     * @return 线路 -> 探测结果
+     */
+    public CompletableFuture<Map<LiveChannel.Line, LiveLineProbeResult>> probe(LiveChannel liveChannel) {
+        List<LiveChannel.Line> lines = liveChannel.getLines();
+        List<CompletableFuture<LiveLineProbeResult>> futures = new ArrayList<>(lines.size());
+
+        for (LiveChannel.Line line : lines) {
+            futures.add(probe(line.getUrl()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Map<LiveChannel.Line, LiveLineProbeResult> results = new IdentityHashMap<>(lines.size());
+
+                    for (int i = 0; i < lines.size(); i++) {
+                        results.put(lines.get(i), futures.get(i).join());
+                    }
+
+                    return results;
+                });
+    }
+
+    /**
+     * 按探测结果对线路排序：可用的线路按首字节耗时从快到慢，其次是未知的线路，最后是不可用的线路
+     * 状态、耗时相同时保持原顺序
+     * @param lines 线路
+     * @param results 探测结果
+     * @return 排序后的线路
+     */
+    public List<LiveChannel.Line> rank(List<LiveChannel.Line> lines, Map<LiveChannel.Line, LiveLineProbeResult> results) {
+        List<LiveChannel.Line> rankedLines = new ArrayList<>(lines);
+
+        rankedLines.sort(
+                Comparator.<LiveChannel.Line, LiveLineProbeStatus>comparing(
+                        line -> getStatus(results.get(line))
+                ).thenComparingLong(line -> {
+                    LiveLineProbeResult result = results.get(line);
+
+                    return result == null || !result.isHealthy() ? Long.MAX_VALUE : result.getTtfbMillis();
+                })
+        );
+
+        return rankedLines;
+    }
+
+    /**
+     * 取消所有探测（切换频道时，不再需要之前频道的探测结果）
+     */
+    public void cancelAll() {
+        CLIENT.dispatcher().cancelAll();
+    }
+
+    private LiveLineProbeStatus getStatus(@Nullable LiveLineProbeResult result) {
+        return result == null ? LiveLineProbeStatus.UNKNOWN : result.getStatus();
+    }
+
+    private CompletableFuture<LiveLineProbeResult> probe(String url) {
+        LiveLineProbeResult cachedResult = RESULT_CACHE.getIfPresent(url);
+        CompletableFuture<LiveLineProbeResult> future;
+        CompletableFuture<LiveLineProbeResult> probingFuture;
+        HttpUrl httpUrl;
+        AtomicLong startNanos;
+
+        if (cachedResult != null) {
+
+            return CompletableFuture.completedFuture(cachedResult);
+        }
+        // 去掉txt直播源中附带的线路名称
+        httpUrl = HttpUrl.parse(StringUtils.substringBefore(url, "『"));
+        if (httpUrl == null) {
+            // rtmp、rtsp等协议，无法探测
+            RESULT_CACHE.put(url, UNKNOWN_RESULT);
+
+            return CompletableFuture.completedFuture(UNKNOWN_RESULT);
+        }
+        future = new CompletableFuture<>();
+        probingFuture = PROBING_FUTURES.putIfAbsent(url, future);
+        if (probingFuture != null) {
+
+            return probingFuture;
+        }
+        future.whenComplete((result, e) -> PROBING_FUTURES.remove(url, future));
+        startNanos = new AtomicLong(System.nanoTime());
+        CLIENT.newCall(
+                new Request.Builder()
+                        .url(httpUrl)
+                        .header(HttpHeaders.USER_AGENT, BaseValues.USER_AGENT)
+                        .tag(AtomicLong.class, startNanos)
+                        .build()
+        ).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                if (call.isCanceled()) {
+                    // 被取消的探测不缓存结果
+                    future.complete(UNKNOWN_RESULT);
+
+                    return;
+                }
+                log.debug("live line probe failed, url={}, message={}", url, e.getMessage());
+                RESULT_CACHE.put(url, UNHEALTHY_RESULT);
+                future.complete(UNHEALTHY_RESULT);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                LiveLineProbeResult result;
+
+                try (response) {
+                    result = checkResponse(httpUrl, response, startNanos.get());
+                } catch (IOException e) {
+                    if (call.isCanceled()) {
+                        future.complete(UNKNOWN_RESULT);
+
+                        return;
+                    }
+                    log.debug("live line probe failed, url={}, message={}", url, e.getMessage());
+                    result = UNHEALTHY_RESULT;
+                }
+                RESULT_CACHE.put(url, result);
+                future.complete(result);
+            }
+        });
+
+        return future;
+    }
+
+    private LiveLineProbeResult checkResponse(HttpUrl httpUrl, Response response, long startNanos) throws IOException {
+        BufferedSource source;
+        long ttfbMillis;
+        MediaType contentType;
+        boolean playlistFlag;
+
+        if (!response.isSuccessful()) {
+
+            return UNHEALTHY_RESULT;
+        }
+        source = response.body().source();
+        if (!source.request(1)) {
+
+            return UNHEALTHY_RESULT;
+        }
+        ttfbMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        contentType = response.body().contentType();
+        playlistFlag = StringUtils.containsIgnoreCase(httpUrl.encodedPath(), ".m3u8") ||
+                (contentType != null && StringUtils.containsIgnoreCase(contentType.subtype(), "mpegurl"));
+        if (playlistFlag && !isValidPlaylist(source)) {
+
+            return UNHEALTHY_RESULT;
+        }
+
+        return LiveLineProbeResult.of(LiveLineProbeStatus.HEALTHY, ttfbMillis);
+    }
+
+    /**
+     * 校验m3u8播放列表：以#EXTM3U开头，且至少包含一个分片或子播放列表
+     */
+    private boolean isValidPlaylist(BufferedSource source) throws IOException {
+        String line;
+        boolean headerFound = false;
+
+        for (int i = 0; i < MAX_PLAYLIST_LINES && (line = source.readUtf8Line()) != null; i++) {
+            line = StringUtils.strip(line, " \t\uFEFF");
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!headerFound) {
+                if (!line.startsWith("#EXTM3U")) {
+
+                    return false;
+                }
+                headerFound = true;
+            } else if (!line.startsWith("#")) {
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+package io.knifer.freebox.helper;
+
+import cn.hutool.core.util.IdUtil;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.knifer.freebox.model.domain.ProxyCacheEntry;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地代理缓存（/proxy-cache/）
+ * 每个被代理的播放列表都有独立的ID，多个播放器可以同时通过本机代理播放，互不覆盖
+ * 缓存按字节数限制总大小；每个条目有各自的存活时间，超过存活时间未被访问即过期
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class ProxyCacheHelper {
+
+    /**
+     * 缓存总大小上限（字节）
+     */
+    private static final long MAX_WEIGHT = 64L * 1024 * 1024;
+    /**
+     * 内容不会变化的条目的存活时间（点播播放列表，播放器可能长时间暂停后再请求）
+     */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    /**
+     * 带有刷新器的条目的存活时间（直播播放列表，播放器会持续轮询，停止轮询后尽快释放）
+     */
+    private static final long REFRESHABLE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 条目的过期在读取时检查；整体的访问过期只用于清理一直未被读取的条目
+     */
+    private static final Cache<String, ProxyCacheEntry> CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .weigher((String key, ProxyCacheEntry value) -> value.weigh())
+            .expireAfterAccess(DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+    /**
+     * 放入一个m3u8播放列表
+     * @param m3u8Content m3u8内容
+     * @param headers 响应头
+     * @return 缓存ID（可直接拼接到/proxy-cache/之后）
+     */
+    public String putM3u8(String m3u8Content, @Nullable Map<String, List<String>> headers) {
+        return putM3u8(m3u8Content, headers, null);
+    }
+
+    /**
+     * 放入一个m3u8播放列表
+     * @param m3u8Content m3u8内容
+     * @param headers 响应头
+     * @param refresher 刷新器（用于直播播放列表），每次被请求时会按刷新间隔更新内容
+     * @return 缓存ID（可直接拼接到/proxy-cache/之后）
+     */
+    public String putM3u8(
+            String m3u8Content,
+            @Nullable Map<String, List<String>> headers,
+            @Nullable ProxyCacheEntry.Refresher refresher
+    ) {
+        String id = IdUtil.fastSimpleUUID() + ".m3u8";
+
+        CACHE.put(id, ProxyCacheEntry.of(
+                id,
+                m3u8Content.getBytes(Charsets.UTF_8),
+                headers,
+                refresher,
+                refresher == null ? DEFAULT_TTL_MILLIS : REFRESHABLE_TTL_MILLIS
+        ));
+
+        return id;
+    }
+
+    public void put(String id, byte[] body, @Nullable Map<String, List<String>> headers) {
+        put(id, body, headers, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * 放入缓存
+     * @param id 缓存ID
+     * @param body 响应体
+     * @param headers 响应头
+     * @param ttlMillis 存活时间（毫秒），超过该时间未被访问即过期
+     */
+    public void put(String id, byte[] body, @Nullable Map<String, List<String>> headers, long ttlMillis) {
+        CACHE.put(id, ProxyCacheEntry.of(id, body, headers, null, ttlMillis));
+    }
+
+    /**
+     * 获取缓存。如果缓存带有刷新器，且距离上次刷新已超过刷新间隔，会先刷新再返回
+     * @param id 缓存ID
+     * @return 缓存条目
+     */
+    @Nullable
+    public ProxyCacheEntry get(String id) {
+        ProxyCacheEntry entry = CACHE.getIfPresent(id);
+        long now;
+
+        if (entry == null) {
+
+            return null;
+        }
+        now = System.currentTimeMillis();
+        if (entry.isExpired(now)) {
+            CACHE.asMap().remove(id, entry);
+
+            return null;
+        }
+        entry.touch(now);
+        if (entry.getRefresher() != null) {
+            refreshIfNeeded(entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * 刷新缓存内容
+     * 同一时间每个条目只有一个请求负责拉取上游内容，拉取在锁外进行，其他并发请求直接返回当前内容
+     * @param entry 缓存条目
+     */
+    private void refreshIfNeeded(ProxyCacheEntry entry) {
+        ProxyCacheEntry.Refresher refresher = entry.getRefresher();
+        byte[] body;
+
+        synchronized (entry) {
+            if (
+                    entry.isRefreshing() ||
+                    System.currentTimeMillis() - entry.getRefreshedAt() < refresher.getRefreshIntervalMillis()
+            ) {
+
+                return;
+            }
+            entry.setRefreshing(true);
+        }
+        try {
+            body = refresher.refresh();
+        } catch (Exception e) {
+            log.warn("refresh proxy cache failed, id={}", entry.getId(), e);
+            body = null;
+        }
+        synchronized (entry) {
+            entry.setRefreshedAt(System.currentTimeMillis());
+            if (body != null) {
+                entry.setBody(body);
+            }
+            entry.setRefreshing(false);
+        }
+        if (body != null) {
+            // 重新放入，使缓存按新的大小计算权重；条目已被删除时不再放回
+            CACHE.asMap().replace(entry.getId(), entry, entry);
+        }
+    }
+
+    public void del(String id) {
+        CACHE.invalidate(id);
+    }
+}
@@ -23,6 +23,8 @@ public class StorageHelper {
     private final Path TEMP_STORAGE_PATH;
     private final Path LIVE_CONFIG_CACHE_PATH;
     private final Path SPIDER_CACHE_PATH;
+    private final Path MOVIE_RECORD_PATH;
+    private final Path IMAGE_CACHE_PATH;
     private final Filelizer filelizer;
 
     static {
@@ -45,6 +47,8 @@ public class StorageHelper {
         }
         LIVE_CONFIG_CACHE_PATH = LOCAL_STORAGE_PATH.resolve(Path.of("data", "live_cache"));
         SPIDER_CACHE_PATH = LOCAL_STORAGE_PATH.resolve(Path.of("data", "spider_cache"));
+        MOVIE_RECORD_PATH = LOCAL_STORAGE_PATH.resolve(Path.of("data", "movie_record"));
+        IMAGE_CACHE_PATH = LOCAL_STORAGE_PATH.resolve(Path.of("data", "image_cache"));
         filelizer = new Filelizer(
                 LOCAL_STORAGE_PATH.resolve("data").toString()
         );
@@ -74,6 +78,14 @@ public class StorageHelper {
         return SPIDER_CACHE_PATH;
     }
 
+    public Path getMovieRecordPath() {
+        return MOVIE_RECORD_PATH;
+    }
+
+    public Path getImageCachePath() {
+        return IMAGE_CACHE_PATH;
+    }
+
     public <T> String save(T object) {
         return filelizer.save(object);
     }
@@ -30,4 +30,9 @@ public class RegisterInfo {
      * 协议版本号
      */
     private Integer protocolVersionCode;
+
+    /**
+     * 是否支持接收压缩二进制帧（协议版本号2起，需客户端显式声明，未声明时只使用文本帧）
+     */
+    private Boolean compressedFrameSupported;
 }
@@ -62,6 +62,11 @@ public class Config {
      */
     private Boolean autoStartWs;
 
+    /**
+     * 多客户端请求分担（与当前客户端源配置相同的其他客户端也可以处理请求）
+     */
+    private Boolean multiClientFanOut;
+
     /**
      * 字体
      */
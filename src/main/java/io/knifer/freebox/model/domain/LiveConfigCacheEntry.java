@@ -0,0 +1,57 @@
+package io.knifer.freebox.model.domain;
+
+import lombok.Data;
+
+import javax.annotation.Nullable;
+
+/**
+ * 直播源配置缓存索引条目
+ *
+ * @author Knifer
+ */
+@Data
+public class LiveConfigCacheEntry {
+
+    /**
+     * 直播源链接
+     */
+    private String url;
+    /**
+     * 缓存内容的md5，用于判断重新下载的内容是否有变化
+     */
+    private String md5;
+    /**
+     * 服务端返回的ETag，用于条件请求
+     */
+    @Nullable
+    private String etag;
+    /**
+     * 服务端返回的Last-Modified，用于条件请求
+     */
+    @Nullable
+    private String lastModified;
+    /**
+     * 上次从服务端确认内容的时间戳
+     */
+    private long fetchedAt;
+    /**
+     * 上次使用的时间戳
+     */
+    private long usedAt;
+
+    public static LiveConfigCacheEntry of(
+            String url, String md5, @Nullable String etag, @Nullable String lastModified
+    ) {
+        LiveConfigCacheEntry result = new LiveConfigCacheEntry();
+        long now = System.currentTimeMillis();
+
+        result.setUrl(url);
+        result.setMd5(md5);
+        result.setEtag(etag);
+        result.setLastModified(lastModified);
+        result.setFetchedAt(now);
+        result.setUsedAt(now);
+
+        return result;
+    }
+}
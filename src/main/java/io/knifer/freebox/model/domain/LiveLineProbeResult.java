@@ -0,0 +1,36 @@
+package io.knifer.freebox.model.domain;
+
+import io.knifer.freebox.constant.LiveLineProbeStatus;
+import lombok.Data;
+
+/**
+ * 直播线路探测结果
+ *
+ * @author Knifer
+ */
+@Data
+public class LiveLineProbeResult {
+
+    /**
+     * 探测状态
+     */
+    private LiveLineProbeStatus status;
+
+    /**
+     * 首字节耗时（毫秒），仅在可用时有效
+     */
+    private long ttfbMillis;
+
+    public static LiveLineProbeResult of(LiveLineProbeStatus status, long ttfbMillis) {
+        LiveLineProbeResult result = new LiveLineProbeResult();
+
+        result.setStatus(status);
+        result.setTtfbMillis(ttfbMillis);
+
+        return result;
+    }
+
+    public boolean isHealthy() {
+        return status == LiveLineProbeStatus.HEALTHY;
+    }
+}
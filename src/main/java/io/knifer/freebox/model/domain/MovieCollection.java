@@ -9,7 +9,7 @@ import lombok.Data;
 import java.util.Map;
 
 /**
- * 影片收藏数据
+ * 影片收藏数据（旧版本存储格式，现仅用于迁移，见MovieRecordStores）
  *
  * @author Knifer
  */
@@ -0,0 +1,124 @@
+package io.knifer.freebox.model.domain;
+
+import lombok.Data;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地代理缓存条目（/proxy-cache/{id}）
+ *
+ * @author Knifer
+ */
+@Data
+public class ProxyCacheEntry {
+
+    /**
+     * 缓存ID
+     */
+    private String id;
+    /**
+     * 已编码的响应体（刷新时会被替换）
+     */
+    private volatile byte[] body;
+    /**
+     * 响应头
+     */
+    private Map<String, List<String>> headers;
+    /**
+     * 刷新器，为null表示内容不会变化
+     */
+    @Nullable
+    private Refresher refresher;
+    /**
+     * 上次刷新的时间戳
+     */
+    private long refreshedAt;
+    /**
+     * 是否正在刷新
+     */
+    private boolean refreshing;
+    /**
+     * 存活时间（毫秒），每次被访问后重新计算
+     */
+    private long ttlMillis;
+    /**
+     * 过期时间戳
+     */
+    private volatile long expiresAt;
+
+    public static ProxyCacheEntry of(
+            String id,
+            byte[] body,
+            Map<String, List<String>> headers,
+            @Nullable Refresher refresher,
+            long ttlMillis
+    ) {
+        ProxyCacheEntry result = new ProxyCacheEntry();
+        long now = System.currentTimeMillis();
+
+        result.setId(id);
+        result.setBody(body);
+        result.setHeaders(headers == null ? Map.of() : headers);
+        result.setRefresher(refresher);
+        result.setRefreshedAt(now);
+        result.setTtlMillis(ttlMillis);
+        result.setExpiresAt(now + ttlMillis);
+
+        return result;
+    }
+
+    /**
+     * 是否已过期
+     * @param now 当前时间戳
+     * @return bool
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * 记录一次访问，延长过期时间
+     * @param now 当前时间戳
+     */
+    public void touch(long now) {
+        expiresAt = now + ttlMillis;
+    }
+
+    /**
+     * 估算占用的字节数
+     * @return 字节数
+     */
+    public int weigh() {
+        int weight = body.length;
+
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            weight += entry.getKey().length();
+            for (String value : entry.getValue()) {
+                weight += value.length();
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * 缓存内容刷新器，用于直播播放列表等需要定期更新的内容
+     */
+    public interface Refresher {
+
+        /**
+         * 两次刷新之间的最小间隔
+         * @return 毫秒
+         */
+        long getRefreshIntervalMillis();
+
+        /**
+         * 刷新内容
+         * @return 新的响应体，为null表示内容无需更新
+         */
+        @Nullable
+        byte[] refresh() throws Exception;
+    }
+}
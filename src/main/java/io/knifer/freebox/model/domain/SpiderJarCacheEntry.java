@@ -0,0 +1,51 @@
+package io.knifer.freebox.model.domain;
+
+import lombok.Data;
+
+import javax.annotation.Nullable;
+
+/**
+ * 爬虫jar缓存索引条目（jar链接 -> jar内容）
+ *
+ * @author Knifer
+ */
+@Data
+public class SpiderJarCacheEntry {
+
+    /**
+     * jar链接
+     */
+    private String url;
+    /**
+     * jar内容的md5，同时也是缓存文件名
+     */
+    private String md5;
+    /**
+     * 服务端返回的ETag，用于条件请求
+     */
+    @Nullable
+    private String etag;
+    /**
+     * 服务端返回的Last-Modified，用于条件请求
+     */
+    @Nullable
+    private String lastModified;
+    /**
+     * 上次使用的时间戳
+     */
+    private long usedAt;
+
+    public static SpiderJarCacheEntry of(
+            String url, String md5, @Nullable String etag, @Nullable String lastModified
+    ) {
+        SpiderJarCacheEntry result = new SpiderJarCacheEntry();
+
+        result.setUrl(url);
+        result.setMd5(md5);
+        result.setEtag(etag);
+        result.setLastModified(lastModified);
+        result.setUsedAt(System.currentTimeMillis());
+
+        return result;
+    }
+}
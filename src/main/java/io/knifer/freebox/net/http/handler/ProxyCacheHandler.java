@@ -5,8 +5,8 @@ import cn.hutool.core.net.Ipv4Util;
 import cn.hutool.http.HttpStatus;
 import com.sun.net.httpserver.HttpExchange;
 import io.knifer.freebox.constant.BaseValues;
-import io.knifer.freebox.constant.CacheKeys;
-import io.knifer.freebox.helper.CacheHelper;
+import io.knifer.freebox.helper.ProxyCacheHelper;
+import io.knifer.freebox.model.domain.ProxyCacheEntry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
@@ -28,20 +28,20 @@ public class ProxyCacheHandler implements HttpHandler{
     @Override
     public void handle(HttpExchange httpExchange) {
         String pathParam = StringUtils.substringAfter(httpExchange.getRequestURI().getPath(), "/proxy-cache/");
-        String cacheVal = CacheHelper.get(pathParam);
+        ProxyCacheEntry cacheEntry = ProxyCacheHelper.get(pathParam);
         Map<String, List<String>> proxyRespHeaders;
         byte[] respData;
 
         try (httpExchange) {
-            if (cacheVal == null) {
+            if (cacheEntry == null) {
                 httpExchange.sendResponseHeaders(HttpStatus.HTTP_NOT_FOUND, -1);
             } else {
-                respData = cacheVal.getBytes();
-                proxyRespHeaders = CacheHelper.get(CacheKeys.PROXY_CACHE_HTTP_HEADERS + pathParam);
+                respData = cacheEntry.getBody();
+                proxyRespHeaders = cacheEntry.getHeaders();
                 if (CollUtil.isNotEmpty(proxyRespHeaders)) {
                     httpExchange.getResponseHeaders().putAll(proxyRespHeaders);
                 }
-                httpExchange.sendResponseHeaders(HttpStatus.HTTP_OK, respData.length);
+                httpExchange.sendResponseHeaders(HttpStatus.HTTP_OK, respData.length == 0 ? -1 : respData.length);
                 httpExchange.getResponseBody().write(respData);
             }
         } catch (Exception e) {
@@ -17,7 +17,7 @@ public class ProxyCkHandler implements HttpHandler{
     public boolean support(HttpExchange httpExchange) {
         return BaseValues.HTTP_GET.equalsIgnoreCase(httpExchange.getRequestMethod()) &&
                 httpExchange.getRequestURI().getPath().equals("/proxy") &&
-                httpExchange.getRequestURI().getQuery().equals("do=ck");
+                "do=ck".equals(httpExchange.getRequestURI().getQuery());
     }
 
     @Override
@@ -7,13 +7,17 @@ import com.sun.net.httpserver.HttpExchange;
 import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.spider.SpiderJarLoader;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
 import okhttp3.Response;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -29,15 +33,21 @@ public class ProxyHandler implements HttpHandler {
     @Override
     public boolean support(HttpExchange httpExchange) {
         return BaseValues.HTTP_GET.equalsIgnoreCase(httpExchange.getRequestMethod()) &&
-                httpExchange.getRequestURI().getPath().equals("/proxy");
+                httpExchange.getRequestURI().getPath().equals("/proxy") &&
+                // 由ProxyCkHandler处理
+                !"do=ck".equals(httpExchange.getRequestURI().getQuery());
     }
 
     @Override
     public void handle(HttpExchange httpExchange) {
         try (httpExchange) {
             Map<String, String> parameterMap = parseParameterMap(httpExchange);
-            Object[] proxyInvokeResult = SpiderJarLoader.getInstance().proxyInvoke(parameterMap);
+            // jar标识只用于路由，不传给爬虫
+            String token = parameterMap.remove(SpiderJarLoader.PROXY_TOKEN_PARAM);
+            Object[] proxyInvokeResult = SpiderJarLoader.getInstance().proxyInvoke(token, parameterMap);
             int code;
+            long contentLength;
+            MediaType contentType;
 
             log.info("parameters: {}, spider proxyInvoke result: {}", parameterMap, proxyInvokeResult);
             if (ArrayUtils.isEmpty(proxyInvokeResult)) {
@@ -47,29 +57,45 @@ public class ProxyHandler implements HttpHandler {
                     proxyResp.headers().forEach(nameValPair -> {
                         String name = nameValPair.getFirst();
 
-                        if (HttpHeaders.CONTENT_DISPOSITION.equalsIgnoreCase(name)) {
-                            // 移除可能导致错误的响应头
+                        if (
+                                HttpHeaders.CONTENT_DISPOSITION.equalsIgnoreCase(name) ||
+                                HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) ||
+                                HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+                        ) {
+                            // 移除可能导致错误的响应头（长度相关的响应头由HttpExchange设置）
                             return;
                         }
                         httpExchange.getResponseHeaders().put(
                                 name, List.of(nameValPair.getSecond())
                         );
                     });
-                    httpExchange.sendResponseHeaders(proxyResp.code(), proxyResp.body().contentLength());
-                    proxyResp.body().byteStream().transferTo(httpExchange.getResponseBody());
+                    contentType = proxyResp.body().contentType();
+                    if (isTokenPropagationNeeded(token, contentType)) {
+                        sendWithProxyToken(
+                                httpExchange, proxyResp.code(), token, proxyResp.body().byteStream(), contentType
+                        );
+
+                        return;
+                    }
+                    contentLength = proxyResp.body().contentLength();
+                    httpExchange.sendResponseHeaders(proxyResp.code(), toResponseLength(contentLength));
+                    if (contentLength != 0) {
+                        proxyResp.body().byteStream().transferTo(httpExchange.getResponseBody());
+                    }
                 }
             } else {
                 try {
                     code = (int) proxyInvokeResult[0];
                     if (code > 299 && code < 400) {
-                        httpExchange.sendResponseHeaders(code, -1);
+                        // 响应头需要在sendResponseHeaders之前设置
                         httpExchange.getResponseHeaders().add(HttpHeaders.LOCATION, (String) proxyInvokeResult[2]);
+                        httpExchange.sendResponseHeaders(code, -1);
 
                         return;
                     }
                 } catch (ClassCastException ignored) {}
                 if (proxyInvokeResult[2] instanceof InputStream input) {
-                    try {
+                    try (input) {
                         code = (int) proxyInvokeResult[0];
                         if (proxyInvokeResult.length == 4) {
                             if (proxyInvokeResult[3] instanceof Map<?,?> headers) {
@@ -80,8 +106,23 @@ public class ProxyHandler implements HttpHandler {
                                 }
                             }
                         }
-                        httpExchange.sendResponseHeaders(code, 0);
-                        input.transferTo(httpExchange.getResponseBody());
+                        contentLength = parseContentLength(
+                                httpExchange.getResponseHeaders().getFirst(HttpHeaders.CONTENT_LENGTH)
+                        );
+                        // Content-Length、Transfer-Encoding由HttpExchange根据sendResponseHeaders的参数设置
+                        httpExchange.getResponseHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                        httpExchange.getResponseHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+                        contentType = proxyInvokeResult[1] instanceof String mimeType ?
+                                MediaType.parse(mimeType) : null;
+                        if (isTokenPropagationNeeded(token, contentType)) {
+                            sendWithProxyToken(httpExchange, code, token, input, contentType);
+
+                            return;
+                        }
+                        httpExchange.sendResponseHeaders(code, toResponseLength(contentLength));
+                        if (contentLength != 0) {
+                            input.transferTo(httpExchange.getResponseBody());
+                        }
 
                         return;
                     } catch (ClassCastException ignored) {}
@@ -95,13 +136,71 @@ public class ProxyHandler implements HttpHandler {
         }
     }
 
+    /**
+     * 文本类型的代理内容（m3u8、json等）中可能嵌套本地代理链接，需要带上当前请求的jar标识
+     */
+    private boolean isTokenPropagationNeeded(@Nullable String token, @Nullable MediaType contentType) {
+        String subtype;
+
+        if (StringUtils.isBlank(token) || contentType == null) {
+
+            return false;
+        }
+        subtype = contentType.subtype();
+
+        return "text".equalsIgnoreCase(contentType.type()) ||
+                StringUtils.containsIgnoreCase(subtype, "mpegurl") ||
+                StringUtils.containsIgnoreCase(subtype, "json") ||
+                StringUtils.containsIgnoreCase(subtype, "xml");
+    }
+
+    private void sendWithProxyToken(
+            HttpExchange httpExchange, int code, String token, InputStream input, MediaType contentType
+    ) throws IOException {
+        Charset charset = contentType.charset(Charsets.UTF_8);
+        String content = SpiderJarLoader.getInstance()
+                .propagateProxyToken(token, new String(input.readAllBytes(), charset));
+        byte[] body = content == null ? new byte[0] : content.getBytes(charset);
+
+        httpExchange.getResponseHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        httpExchange.getResponseHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+        httpExchange.sendResponseHeaders(code, toResponseLength(body.length));
+        if (body.length != 0) {
+            httpExchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * 转换为sendResponseHeaders的长度参数：长度未知时使用chunked传输，长度为0时不发送响应体
+     */
+    private long toResponseLength(long contentLength) {
+        if (contentLength < 0) {
+
+            return 0;
+        }
+
+        return contentLength == 0 ? -1 : contentLength;
+    }
+
+    private long parseContentLength(@Nullable String contentLength) {
+        if (StringUtils.isBlank(contentLength)) {
+
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private Map<String, String> parseParameterMap(HttpExchange exchange) {
         Map<String, String> result;
         String[] entry;
         String query = exchange.getRequestURI().getQuery();
 
         if (StringUtils.isBlank(query)) {
-            return Map.of();
+            return new HashMap<>();
         }
         result = exchange.getRequestHeaders()
                 .entrySet()
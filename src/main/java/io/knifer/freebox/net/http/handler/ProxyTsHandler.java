@@ -7,17 +7,21 @@ import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.util.HttpUtil;
 import io.knifer.freebox.util.ValidationUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Arrays;
 
 /**
  * ts分片代理
  * 用于ts分片有非标准文件头的情况
+ * 上游只请求一次，仅检查前8个字节，其余内容直接流式转发，不在内存中缓存整个分片
  * @author Knifer
  */
 @Slf4j
@@ -34,22 +38,36 @@ public class ProxyTsHandler implements HttpHandler {
     @Override
     public void handle(HttpExchange httpExchange) {
         String tsUrl = StringUtils.substringAfter(httpExchange.getRequestURI().getPath(), "/proxy/ts/");
-        byte[] data = ValidationUtil.isURL(tsUrl) ? fixTSHeader(tsUrl) : ArrayUtils.EMPTY_BYTE_ARRAY;
+        HttpResponse<InputStream> upstreamResp;
 
         try (httpExchange) {
-            httpExchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "video/MP2T");
-            httpExchange.sendResponseHeaders(HttpStatus.HTTP_OK, data.length);
-            httpExchange.getResponseBody().write(fixTSHeader(tsUrl));
+            if (!ValidationUtil.isURL(tsUrl)) {
+                httpExchange.sendResponseHeaders(HttpStatus.HTTP_BAD_REQUEST, -1);
+
+                return;
+            }
+            upstreamResp = fetchTS(tsUrl);
+            if (upstreamResp == null) {
+                httpExchange.sendResponseHeaders(HttpStatus.HTTP_BAD_GATEWAY, -1);
+
+                return;
+            }
+            try (InputStream upstreamIn = upstreamResp.body()) {
+                pipeFixedTS(upstreamResp, upstreamIn, httpExchange);
+            }
         } catch (Exception e) {
             log.warn("send response failed", e);
         }
     }
 
-    private byte[] fixTSHeader(String tsUrl) {
+    /**
+     * 请求ts分片
+     * @param tsUrl ts分片地址
+     * @return 上游响应（响应体为流），失败时为null
+     */
+    private HttpResponse<InputStream> fetchTS(String tsUrl) {
         HttpRequest request;
-        byte[] data;
-        boolean needFix;
-        byte[] fixedData;
+        HttpResponse<InputStream> resp;
 
         try {
             request = HttpRequest.newBuilder()
@@ -59,34 +77,61 @@ public class ProxyTsHandler implements HttpHandler {
                     .timeout(Duration.ofSeconds(10))
                     .GET()
                     .build();
-            data = HttpUtil.getClient()
-                    .send(request, HttpResponse.BodyHandlers.ofByteArray())
-                    .body();
+            resp = HttpUtil.getClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return null;
         } catch (Exception e) {
             log.info("fetch ts content failed", e);
 
-            return ArrayUtils.EMPTY_BYTE_ARRAY;
+            return null;
         }
-        if (data == null) {
+        if (resp.statusCode() != HttpStatus.HTTP_OK) {
+            log.info("fetch ts content failed, status code: {}", resp.statusCode());
+            try {
+                resp.body().close();
+            } catch (IOException ignored) {}
 
-            return ArrayUtils.EMPTY_BYTE_ARRAY;
+            return null;
         }
-        if (data.length >= 8) {
-            needFix = true;
-            for (int i = 0; i < 8; i++) {
-                if (data[i] != WRONG_HEADER[i]) {
-                    needFix = false;
-                    break;
-                }
-            }
-            if (needFix) {
-                fixedData = new byte[data.length - 8];
-                System.arraycopy(data, 8, fixedData, 0, fixedData.length);
 
-                return fixedData;
-            }
-        }
+        return resp;
+    }
 
-        return data;
+    /**
+     * 检查前8个字节是否为伪造的PNG文件头，若是则去除，然后将剩余内容流式写入响应
+     * 上游提供了Content-Length时按定长响应，否则使用chunked传输
+     */
+    private void pipeFixedTS(
+            HttpResponse<InputStream> upstreamResp, InputStream upstreamIn, HttpExchange httpExchange
+    ) throws IOException {
+        byte[] head = upstreamIn.readNBytes(WRONG_HEADER.length);
+        boolean needFix = Arrays.equals(head, WRONG_HEADER);
+        long upstreamLength = upstreamResp.headers()
+                .firstValueAsLong(HttpHeaders.CONTENT_LENGTH)
+                .orElse(-1);
+        long respLength;
+        boolean chunked = false;
+        OutputStream out;
+
+        if (upstreamLength > 0) {
+            respLength = needFix ? upstreamLength - WRONG_HEADER.length : upstreamLength;
+        } else if (head.length < WRONG_HEADER.length) {
+            // 分片内容不足8个字节，已经全部读取
+            respLength = head.length;
+        } else {
+            // 长度未知，使用chunked传输
+            respLength = 0;
+            chunked = true;
+        }
+        httpExchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "video/MP2T");
+        // HttpExchange中，0表示chunked传输，-1表示无响应体
+        httpExchange.sendResponseHeaders(HttpStatus.HTTP_OK, chunked ? 0 : (respLength == 0 ? -1 : respLength));
+        out = httpExchange.getResponseBody();
+        if (!needFix) {
+            out.write(head);
+        }
+        upstreamIn.transferTo(out);
     }
 }
@@ -7,6 +7,7 @@ import io.knifer.freebox.constant.AppEvents;
 import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.context.Context;
+import io.knifer.freebox.exception.GlobalExceptionHandler;
 import io.knifer.freebox.helper.I18nHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.net.http.handler.*;
@@ -17,6 +18,11 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.net.BindException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HTTP服务
@@ -27,6 +33,12 @@ import java.util.List;
 public class FreeBoxHttpServerHolder {
 
     private volatile SimpleServer server;
+    private volatile ExecutorService executor;
+
+    /**
+     * 请求处理线程数上限。代理请求（爬虫代理、ts代理）会长时间占用线程传输数据，不能在单个分发线程上串行处理
+     */
+    private static final int MAX_HANDLER_THREADS = 64;
 
     private static final List<HttpHandler> HANDLERS = List.of(
             new TVBoxPairingInfoHandler(),
@@ -44,6 +56,8 @@ public class FreeBoxHttpServerHolder {
             } else {
                 server = new SimpleServer(hostname, port);
             }
+            executor = createExecutor();
+            server.setExecutor(executor);
             server.addHandler("/", exchange ->
                 HANDLERS.forEach(handler -> {
                     if (handler.support(exchange)) {
@@ -69,6 +83,8 @@ public class FreeBoxHttpServerHolder {
         }
         if (server != null) {
             stop(BaseValues.EMPTY_RUNNABLE);
+        } else {
+            shutdownExecutor();
         }
 
         return false;
@@ -81,6 +97,7 @@ public class FreeBoxHttpServerHolder {
             service = new ShutdownHttpServerService(server.getRawServer());
             service.setOnSucceeded(evt -> {
                 server = null;
+                shutdownExecutor();
                 callback.run();
             });
             service.start();
@@ -90,6 +107,39 @@ public class FreeBoxHttpServerHolder {
     public synchronized void stopBlocking() {
         if (isRunning()) {
             server.getRawServer().stop(2);
+            shutdownExecutor();
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+                0,
+                MAX_HANDLER_THREADS,
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r);
+
+                    t.setName("FreeBoxHttpServer-Thread-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setUncaughtExceptionHandler(GlobalExceptionHandler.getInstance());
+
+                    return t;
+                },
+                // 线程数达到上限时，由分发线程直接处理
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    private void shutdownExecutor() {
+        ExecutorService executor = this.executor;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            this.executor = null;
         }
     }
 
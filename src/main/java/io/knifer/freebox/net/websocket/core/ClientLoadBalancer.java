@@ -0,0 +1,310 @@
+package io.knifer.freebox.net.websocket.core;
+
+import com.google.gson.reflect.TypeToken;
+import io.knifer.freebox.constant.AppEvents;
+import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.constant.ClientType;
+import io.knifer.freebox.constant.MessageCodes;
+import io.knifer.freebox.context.Context;
+import io.knifer.freebox.exception.FBException;
+import io.knifer.freebox.helper.ConfigHelper;
+import io.knifer.freebox.model.common.tvbox.SourceBean;
+import io.knifer.freebox.model.domain.ClientInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.java_websocket.WebSocket;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 多客户端请求分担
+ * 1. 开启后，与当前客户端持有相同源配置的其他已连接客户端也可以处理该源的请求（如搜索）
+ * 2. 按客户端的进行中请求数及平均耗时选择客户端，每个客户端的进行中请求数有上限
+ * 3. 其他客户端超时或断开时（结果以异常结束，与正常返回null的结果区分），请求交回当前客户端处理
+ * 4. 只统计带有源的请求，不带源的请求直接在当前客户端执行
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class ClientLoadBalancer {
+
+    /**
+     * 每个客户端（当前客户端除外）同时处理的请求数上限
+     */
+    private static final int MAX_IN_FLIGHT_PER_CLIENT = 3;
+    /**
+     * 平均耗时的平滑系数，越大越偏向最近的耗时
+     */
+    private static final double LATENCY_SMOOTHING_FACTOR = 0.3;
+    /**
+     * 尚无耗时记录时使用的耗时（毫秒）
+     */
+    private static final double DEFAULT_LATENCY_MILLIS = 1000;
+    /**
+     * 请求失败（超时、断开）时记录的耗时（毫秒），正常返回的结果（包括null）按实际耗时记录
+     */
+    private static final double FAILED_LATENCY_MILLIS = TimeUnit.SECONDS.toMillis(BaseValues.KEB_SOCKET_REQUEST_TIMEOUT);
+    /**
+     * 其他客户端处理请求的超时时间（毫秒）
+     * 为总超时时间的一半，超时后剩余的时间留给当前客户端重新处理
+     */
+    private static final long PEER_REQUEST_TIMEOUT_MILLIS =
+            TimeUnit.SECONDS.toMillis(BaseValues.KEB_SOCKET_REQUEST_TIMEOUT) / 2;
+
+    private final KebSocketRunner runner;
+    private final ClientManager clientManager;
+    /**
+     * 客户端id -> 请求统计
+     */
+    private final Map<String, ClientStats> clientStatsMap = new ConcurrentHashMap<>();
+    /**
+     * 客户端id -> 源配置（源key -> 源的配置内容）
+     */
+    private final Map<String, Map<String, String>> clientSourceConfigs = new ConcurrentHashMap<>();
+    /**
+     * 正在获取源配置的客户端id
+     */
+    private final Set<String> loadingSourceConfigClientIds = ConcurrentHashMap.newKeySet();
+
+    public ClientLoadBalancer(KebSocketRunner runner, ClientManager clientManager) {
+        this.runner = runner;
+        this.clientManager = clientManager;
+        Context.INSTANCE.registerEventListener(
+                AppEvents.ClientUnregisteredEvent.class,
+                evt -> onClientUnregistered(evt.clientInfo())
+        );
+    }
+
+    /**
+     * 记录客户端的源配置
+     * @param clientInfo 客户端
+     * @param sourceBeans 源列表
+     */
+    public void updateSourceConfig(ClientInfo clientInfo, @Nullable List<SourceBean> sourceBeans) {
+        Map<String, String> sourceConfig;
+
+        if (sourceBeans == null) {
+            return;
+        }
+        sourceConfig = new HashMap<>(sourceBeans.size() * 2);
+        for (SourceBean sourceBean : sourceBeans) {
+            sourceConfig.put(
+                    sourceBean.getKey(),
+                    sourceBean.getApi() + '\n' + sourceBean.getJar() + '\n' + sourceBean.getExt()
+            );
+        }
+        clientSourceConfigs.put(clientInfo.getId(), sourceConfig);
+    }
+
+    /**
+     * 执行请求
+     * @param currentClient 当前客户端
+     * @param sourceKey 请求的源，为null时只在当前客户端执行
+     * @param request 请求（客户端 -> 结果）
+     * @return 结果
+     */
+    public <R> CompletableFuture<R> execute(
+            ClientInfo currentClient,
+            @Nullable String sourceKey,
+            Function<ClientInfo, CompletableFuture<R>> request
+    ) {
+        ClientInfo client;
+
+        if (sourceKey == null) {
+
+            return request.apply(currentClient);
+        }
+        client = select(currentClient, sourceKey);
+        if (client == currentClient) {
+
+            return track(currentClient, request);
+        }
+
+        return track(client, request.andThen(
+                future -> future.orTimeout(PEER_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        )).handle((result, e) -> {
+            if (e == null) {
+
+                return CompletableFuture.completedFuture(result);
+            }
+            if (!currentClient.isOpen()) {
+
+                return CompletableFuture.<R>completedFuture(null);
+            }
+            log.info("client [{}] failed, fall back to current client", client.getName(), e);
+
+            return track(currentClient, request);
+        }).thenCompose(Function.identity());
+    }
+
+    private ClientInfo select(ClientInfo currentClient, @Nullable String sourceKey) {
+        Map<String, String> currentSourceConfig;
+        String sourceConfig;
+        ClientInfo selectedClient;
+        ClientStats stats;
+        double selectedScore;
+        double score;
+
+        if (
+                sourceKey == null ||
+                !BooleanUtils.toBoolean(ConfigHelper.getMultiClientFanOut()) ||
+                (currentSourceConfig = clientSourceConfigs.get(currentClient.getId())) == null ||
+                (sourceConfig = currentSourceConfig.get(sourceKey)) == null
+        ) {
+
+            return currentClient;
+        }
+        selectedClient = currentClient;
+        selectedScore = getStats(currentClient).score();
+        for (ClientInfo client : clientManager.getClients()) {
+            if (
+                    client == currentClient ||
+                    client.getClientType() != ClientType.TVBOX_K ||
+                    !client.isOpen() ||
+                    !hasSameSourceConfig(client, sourceKey, sourceConfig)
+            ) {
+                continue;
+            }
+            stats = getStats(client);
+            if (!stats.isAvailable()) {
+                continue;
+            }
+            score = stats.score();
+            if (score < selectedScore) {
+                selectedClient = client;
+                selectedScore = score;
+            }
+        }
+
+        return selectedClient;
+    }
+
+    private boolean hasSameSourceConfig(ClientInfo client, String sourceKey, String sourceConfig) {
+        Map<String, String> clientSourceConfig = clientSourceConfigs.get(client.getId());
+
+        if (clientSourceConfig == null) {
+            loadSourceConfig(client);
+
+            return false;
+        }
+
+        return Objects.equals(clientSourceConfig.get(sourceKey), sourceConfig);
+    }
+
+    /**
+     * 异步获取客户端的源配置，获取完成前该客户端不参与分担
+     */
+    private void loadSourceConfig(ClientInfo client) {
+        String clientId = client.getId();
+        WebSocket connection = client.getConnection();
+
+        if (connection == null || !loadingSourceConfigClientIds.add(clientId)) {
+            return;
+        }
+        runner.sendTopic(
+                connection,
+                MessageCodes.GET_SOURCE_BEAN_LIST,
+                null,
+                new TypeToken<List<SourceBean>>(){}
+        ).whenComplete((sourceBeans, e) -> {
+            if (clientManager.getClient(connection) == client) {
+                updateSourceConfig(client, sourceBeans);
+            }
+            loadingSourceConfigClientIds.remove(clientId);
+        });
+    }
+
+    private <R> CompletableFuture<R> track(ClientInfo client, Function<ClientInfo, CompletableFuture<R>> request) {
+        ClientStats stats = getStats(client);
+        long startNanos = System.nanoTime();
+        CompletableFuture<R> future;
+
+        stats.begin();
+        try {
+            future = request.apply(client);
+        } catch (RuntimeException e) {
+            stats.end(FAILED_LATENCY_MILLIS);
+
+            throw e;
+        }
+        stats.inFlightFutures.add(future);
+        future.whenComplete((result, e) -> {
+            stats.inFlightFutures.remove(future);
+            stats.end(
+                    e == null ?
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) :
+                            FAILED_LATENCY_MILLIS
+            );
+        });
+
+        return future;
+    }
+
+    private ClientStats getStats(ClientInfo client) {
+        return clientStatsMap.computeIfAbsent(client.getId(), k -> new ClientStats());
+    }
+
+    /**
+     * 客户端断开时，其正在处理的请求立即以异常结束，不必等待超时
+     */
+    private void onClientUnregistered(ClientInfo clientInfo) {
+        String clientId = clientInfo.getId();
+        ClientStats stats;
+
+        clientSourceConfigs.remove(clientId);
+        stats = clientStatsMap.remove(clientId);
+        if (stats == null || stats.inFlightFutures.isEmpty()) {
+            return;
+        }
+        log.info(
+                "client [{}] unregistered, {} requests interrupted",
+                StringUtils.defaultString(clientInfo.getClientName()),
+                stats.inFlightFutures.size()
+        );
+        stats.inFlightFutures.forEach(
+                future -> future.completeExceptionally(new FBException("client unregistered"))
+        );
+    }
+
+    /**
+     * 客户端请求统计
+     */
+    private static class ClientStats {
+
+        private final Set<CompletableFuture<?>> inFlightFutures = ConcurrentHashMap.newKeySet();
+        private int inFlight = 0;
+        private double latencyMillis = -1;
+
+        private synchronized void begin() {
+            inFlight++;
+        }
+
+        private synchronized void end(double latencyMillis) {
+            inFlight--;
+            this.latencyMillis = this.latencyMillis < 0 ?
+                    latencyMillis :
+                    this.latencyMillis + LATENCY_SMOOTHING_FACTOR * (latencyMillis - this.latencyMillis);
+        }
+
+        private synchronized boolean isAvailable() {
+            return inFlight < MAX_IN_FLIGHT_PER_CLIENT;
+        }
+
+        /**
+         * 预计完成一个新请求需要的时间，越小越优先
+         */
+        private synchronized double score() {
+            return (inFlight + 1) * (latencyMillis < 0 ? DEFAULT_LATENCY_MILLIS : latencyMillis);
+        }
+    }
+}
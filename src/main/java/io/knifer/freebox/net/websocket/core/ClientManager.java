@@ -10,8 +10,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.java_websocket.WebSocket;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -25,6 +27,12 @@ public class ClientManager {
 
     private final Map<String, ClientInfo> clients = new ConcurrentHashMap<>();
 
+    /**
+     * 远程地址 -> 客户端（同一地址下可能有多个客户端）
+     * 连接 -> 客户端的对应关系保存在连接的附加信息中，见KebSocketAttachment
+     */
+    private final Map<String, Set<ClientInfo>> hostClients = new ConcurrentHashMap<>();
+
     private final AtomicReference<ClientInfo> currentClient = new AtomicReference<>();
 
     private final CyclicBarrier currentClientBarrier = new CyclicBarrier(2);
@@ -32,7 +40,18 @@ public class ClientManager {
     private ThreadPoolExecutor connectingExecutor = null;
 
     public void register(ClientInfo clientInfo) {
-        clients.put(clientInfo.getId(), clientInfo);
+        ClientInfo oldClientInfo = clients.put(clientInfo.getId(), clientInfo);
+        WebSocket connection = clientInfo.getConnection();
+
+        if (oldClientInfo != null) {
+            // 同一客户端重新注册（如重连），旧连接不再对应该客户端
+            removeIndex(oldClientInfo);
+        }
+        if (connection != null) {
+            KebSocketAttachment.of(connection).setClientInfo(clientInfo);
+            hostClients.computeIfAbsent(getHostString(connection), k -> ConcurrentHashMap.newKeySet())
+                    .add(clientInfo);
+        }
         log.info("register client: {}", clientInfo);
     }
 
@@ -43,6 +62,7 @@ public class ClientManager {
         if (result == null) {
             return null;
         }
+        removeIndex(result);
         connection = result.getConnection();
         if (connection != null && connection.isOpen()) {
             connection.close();
@@ -53,25 +73,17 @@ public class ClientManager {
     }
 
     public ClientInfo unregister(WebSocket connection) {
-        Optional<Map.Entry<String, ClientInfo>> entryOptional;
+        ClientInfo clientInfo = getClient(connection);
 
         if (connection.isOpen()) {
             connection.close();
         }
-        entryOptional = clients.entrySet()
-                .stream()
-                .filter(entry -> {
-                    WebSocket conn = entry.getValue().getConnection();
-
-                    return conn != null && conn.equals(connection);
-                })
-                .findFirst();
-
-        return entryOptional.map(
-                stringClientInfoEntry ->
-                        clients.remove(stringClientInfoEntry.getValue().getId())
-        ).orElse(null);
+        if (clientInfo == null || !clients.remove(clientInfo.getId(), clientInfo)) {
+            return null;
+        }
+        removeIndex(clientInfo);
 
+        return clientInfo;
     }
 
     public boolean isRegistered(ClientInfo clientInfo) {
@@ -79,15 +91,62 @@ public class ClientManager {
     }
 
     public boolean isRegistered(WebSocket connection) {
-        String hostName = connection.getRemoteSocketAddress().getHostString();
+        ClientInfo clientInfo = getClient(connection);
+
+        return clientInfo != null && clients.get(clientInfo.getId()) == clientInfo;
+    }
+
+    /**
+     * 获取连接对应的客户端
+     * @param connection 连接
+     * @return 客户端，为null表示连接未注册
+     */
+    @Nullable
+    public ClientInfo getClient(WebSocket connection) {
+        KebSocketAttachment attachment = connection.getAttachment();
 
-        return clients.values()
-                .stream()
-                .anyMatch(clientInfo -> {
-                    WebSocket conn = clientInfo.getConnection();
+        return attachment == null ? null : attachment.getClientInfo();
+    }
+
+    /**
+     * 获取所有已注册的客户端
+     * @return 客户端
+     */
+    public Collection<ClientInfo> getClients() {
+        return List.copyOf(clients.values());
+    }
+
+    /**
+     * 获取指定远程地址下的所有客户端
+     * @param hostString 远程地址
+     * @return 客户端
+     */
+    public Set<ClientInfo> getClients(String hostString) {
+        Set<ClientInfo> result = hostClients.get(hostString);
+
+        return result == null ? Set.of() : Set.copyOf(result);
+    }
+
+    private void removeIndex(ClientInfo clientInfo) {
+        WebSocket connection = clientInfo.getConnection();
+        KebSocketAttachment attachment;
+
+        if (connection == null) {
+            return;
+        }
+        attachment = connection.getAttachment();
+        if (attachment != null && attachment.getClientInfo() == clientInfo) {
+            attachment.setClientInfo(null);
+        }
+        hostClients.computeIfPresent(getHostString(connection), (host, hostClientSet) -> {
+            hostClientSet.remove(clientInfo);
+
+            return hostClientSet.isEmpty() ? null : hostClientSet;
+        });
+    }
 
-                    return conn != null && conn.getRemoteSocketAddress().getHostString().equals(hostName);
-                });
+    private String getHostString(WebSocket connection) {
+        return connection.getRemoteSocketAddress().getHostString();
     }
 
     public CompletableFuture<ClientInfo> getCurrentClient() {
@@ -0,0 +1,47 @@
+package io.knifer.freebox.net.websocket.core;
+
+import io.knifer.freebox.model.domain.ClientInfo;
+import lombok.Getter;
+import lombok.Setter;
+import org.java_websocket.WebSocket;
+
+import javax.annotation.Nullable;
+
+/**
+ * KebSocket连接附加信息
+ * 通过WebSocket.setAttachment绑定到连接上，按连接查询客户端、协议版本时无需遍历
+ *
+ * @author Knifer
+ */
+@Getter
+@Setter
+public class KebSocketAttachment {
+
+    /**
+     * 连接对应的客户端，为null表示未注册
+     */
+    @Nullable
+    private volatile ClientInfo clientInfo;
+
+    /**
+     * 协商后的协议版本号，为null表示不使用压缩二进制帧
+     */
+    @Nullable
+    private volatile Integer protocolVersionCode;
+
+    /**
+     * 获取连接的附加信息，没有时创建
+     * @param connection 连接
+     * @return 附加信息
+     */
+    public static KebSocketAttachment of(WebSocket connection) {
+        KebSocketAttachment attachment = connection.getAttachment();
+
+        if (attachment == null) {
+            attachment = new KebSocketAttachment();
+            connection.setAttachment(attachment);
+        }
+
+        return attachment;
+    }
+}
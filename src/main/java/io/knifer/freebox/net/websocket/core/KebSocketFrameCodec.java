@@ -0,0 +1,150 @@
+package io.knifer.freebox.net.websocket.core;
+
+import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.model.c2s.RegisterInfo;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.lang3.BooleanUtils;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * KebSocket消息帧编解码
+ * 1. 服务端与客户端的协议版本号都支持压缩二进制帧，且客户端注册时声明了compressedFrameSupported，
+ * 则该连接可以使用gzip压缩的JSON作为二进制帧收发消息，服务端以REGISTER_RESULT告知客户端协商结果
+ * 2. 握手时已协商permessage-deflate的连接，消息在传输层已经压缩，不再额外压缩
+ * 3. 其他客户端只使用JSON文本帧
+ *
+ * @author Knifer
+ */
+@UtilityClass
+public class KebSocketFrameCodec {
+
+    /**
+     * 解压后的消息最大字节数
+     */
+    private static final int MAX_DECOMPRESSED_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 协商是否使用压缩二进制帧
+     * @param connection 连接
+     * @param protocolVersionCode 服务端的协议版本号
+     * @param registerInfo 客户端的注册信息
+     * @return 协商后的协议版本号，为null表示不使用压缩二进制帧
+     */
+    @Nullable
+    public Integer negotiate(WebSocket connection, int protocolVersionCode, RegisterInfo registerInfo) {
+        Integer clientProtocolVersionCode = registerInfo.getProtocolVersionCode();
+        int negotiatedProtocolVersionCode;
+
+        if (
+                clientProtocolVersionCode == null ||
+                !BooleanUtils.isTrue(registerInfo.getCompressedFrameSupported())
+        ) {
+
+            return null;
+        }
+        negotiatedProtocolVersionCode = Math.min(protocolVersionCode, clientProtocolVersionCode);
+        if (negotiatedProtocolVersionCode < BaseValues.KEB_SOCKET_COMPRESSED_FRAME_PROTOCOL_VERSION_CODE) {
+
+            return null;
+        }
+        KebSocketAttachment.of(connection).setProtocolVersionCode(negotiatedProtocolVersionCode);
+
+        return negotiatedProtocolVersionCode;
+    }
+
+    /**
+     * 连接是否可以使用压缩二进制帧
+     * @param connection 连接
+     * @return bool
+     */
+    public boolean isCompressedFrameSupported(WebSocket connection) {
+        KebSocketAttachment attachment = connection.getAttachment();
+        Integer protocolVersionCode = attachment == null ? null : attachment.getProtocolVersionCode();
+
+        return protocolVersionCode != null &&
+                protocolVersionCode >= BaseValues.KEB_SOCKET_COMPRESSED_FRAME_PROTOCOL_VERSION_CODE;
+    }
+
+    /**
+     * 发送消息，较大的消息在连接支持时使用压缩二进制帧
+     * @param connection 连接
+     * @param text 消息文本
+     */
+    public void send(WebSocket connection, String text) {
+        if (
+                text.length() < BaseValues.KEB_SOCKET_COMPRESSED_FRAME_THRESHOLD ||
+                !isCompressedFrameSupported(connection) ||
+                isPerMessageDeflateEnabled(connection)
+        ) {
+            connection.send(text);
+
+            return;
+        }
+        connection.send(compress(text));
+    }
+
+    /**
+     * 解码压缩二进制帧
+     * @param buffer 帧数据
+     * @return 消息文本
+     * @throws IOException 不是gzip数据，或解压后的数据过大
+     */
+    public String decode(ByteBuffer buffer) throws IOException {
+        byte[] bytes;
+
+        try (InputStream in = new GZIPInputStream(toInputStream(buffer))) {
+            bytes = in.readNBytes(MAX_DECOMPRESSED_BYTES + 1);
+        }
+        if (bytes.length > MAX_DECOMPRESSED_BYTES) {
+            throw new IOException("decompressed message too large");
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isPerMessageDeflateEnabled(WebSocket connection) {
+        return connection.getDraft() instanceof Draft_6455 draft &&
+                draft.getExtension() instanceof PerMessageDeflateExtension;
+    }
+
+    private byte[] compress(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            // 内存中压缩，不会发生
+            throw new IllegalStateException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    private InputStream toInputStream(ByteBuffer buffer) {
+        byte[] bytes;
+
+        if (buffer.hasArray()) {
+
+            return new ByteArrayInputStream(
+                    buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()
+            );
+        }
+        bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return new ByteArrayInputStream(bytes);
+    }
+}
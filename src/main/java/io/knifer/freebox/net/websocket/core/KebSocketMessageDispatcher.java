@@ -2,7 +2,6 @@ package io.knifer.freebox.net.websocket.core;
 
 import com.google.common.collect.ImmutableList;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.model.common.tvbox.Message;
 import io.knifer.freebox.net.websocket.exception.ForbiddenException;
@@ -11,7 +10,7 @@ import io.knifer.freebox.net.websocket.handler.impl.ClientRegisterHandler;
 import io.knifer.freebox.net.websocket.handler.impl.CommonTopicHandler;
 import io.knifer.freebox.net.websocket.handler.impl.ValidationHandler;
 import io.knifer.freebox.util.CastUtil;
-import io.knifer.freebox.util.json.GsonUtil;
+import io.knifer.freebox.util.json.RawJson;
 import javafx.application.Platform;
 import lombok.extern.slf4j.Slf4j;
 import org.java_websocket.WebSocket;
@@ -37,12 +36,13 @@ public class KebSocketMessageDispatcher {
     }
 
     public void dispatch(String message, WebSocket connection) {
-        Message<Object> msgUnResolved;
+        Message<RawJson> msgUnResolved;
         Message<?> msg;
         Integer code;
 
         try {
-            msgUnResolved = GsonUtil.fromJson(message, new TypeToken<>(){});
+            // 只解析消息头，data由处理器绑定为目标类型
+            msgUnResolved = KebSocketMessageReader.read(message);
         } catch (JsonSyntaxException e) {
             connection.close();
             log.warn("ip [{}] send wrong message, closed", connection.getRemoteSocketAddress().getHostString());
@@ -56,10 +56,17 @@ public class KebSocketMessageDispatcher {
 
             return;
         }
+        log.info(
+                "received message from {}, code={}, topicId={}, length={}",
+                connection.getRemoteSocketAddress(),
+                code,
+                msgUnResolved.getTopicId(),
+                message.length()
+        );
         try {
             for (KebSocketMessageHandler<?> handler : handlers) {
                 if (handler.support(msgUnResolved)) {
-                    msg = handler.resolve(message);
+                    msg = handler.resolve(msgUnResolved);
                     handler.handle(CastUtil.cast(msg), connection);
                 }
             }
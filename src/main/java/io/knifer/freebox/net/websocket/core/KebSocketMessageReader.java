@@ -0,0 +1,177 @@
+package io.knifer.freebox.net.websocket.core;
+
+import com.google.gson.JsonSyntaxException;
+import io.knifer.freebox.model.common.tvbox.Message;
+import io.knifer.freebox.util.json.RawJson;
+import lombok.experimental.UtilityClass;
+
+/**
+ * 消息读取
+ * 一次扫描消息文本，只解析消息头（code、topicFlag、topicId），data保留为原文本中的片段，
+ * 由最终使用方直接绑定为目标类型，整条消息只需完整解析一次
+ *
+ * @author Knifer
+ */
+@UtilityClass
+public class KebSocketMessageReader {
+
+    /**
+     * 读取消息
+     * @param text 消息文本
+     * @return 消息（data未解析）
+     * @throws JsonSyntaxException 消息格式错误
+     */
+    public Message<RawJson> read(String text) {
+        Message<RawJson> message = new Message<>();
+        int idx = skipWhitespace(text, 0);
+        int keyEndIdx;
+        int valueStartIdx;
+        String key;
+        RawJson value;
+
+        expect(text, idx, '{');
+        idx = skipWhitespace(text, idx + 1);
+        if (charAt(text, idx) == '}') {
+
+            return checkEnd(text, idx + 1, message);
+        }
+        while (true) {
+            expect(text, idx, '"');
+            keyEndIdx = skipString(text, idx);
+            key = text.substring(idx + 1, keyEndIdx - 1);
+            if (key.indexOf('\\') >= 0) {
+                key = RawJson.of(text, idx, keyEndIdx).bind(String.class);
+            }
+            idx = skipWhitespace(text, keyEndIdx);
+            expect(text, idx, ':');
+            valueStartIdx = skipWhitespace(text, idx + 1);
+            idx = skipValue(text, valueStartIdx);
+            value = RawJson.of(text, valueStartIdx, idx);
+            switch (key) {
+                case "code" -> message.setCode(value.bind(Integer.class));
+                case "data" -> message.setData(value);
+                case "topicFlag" -> message.setTopicFlag(value.bind(Boolean.class));
+                case "topicId" -> message.setTopicId(value.bind(String.class));
+                default -> {}
+            }
+            idx = skipWhitespace(text, idx);
+            if (charAt(text, idx) == ',') {
+                idx = skipWhitespace(text, idx + 1);
+                continue;
+            }
+            expect(text, idx, '}');
+
+            return checkEnd(text, idx + 1, message);
+        }
+    }
+
+    private Message<RawJson> checkEnd(String text, int idx, Message<RawJson> message) {
+        if (skipWhitespace(text, idx) != text.length()) {
+            throw syntaxError(idx);
+        }
+
+        return message;
+    }
+
+    /**
+     * 跳过一个JSON值（不校验对象、数组内部的格式，由绑定时的解析负责）
+     * @return 值之后的位置
+     */
+    private int skipValue(String text, int idx) {
+        int length = text.length();
+        int depth;
+        int start;
+        char c;
+
+        c = charAt(text, idx);
+        if (c == '"') {
+
+            return skipString(text, idx);
+        }
+        if (c == '{' || c == '[') {
+            depth = 0;
+            while (idx < length) {
+                c = text.charAt(idx);
+                if (c == '"') {
+                    idx = skipString(text, idx);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+
+                    return idx + 1;
+                }
+                idx++;
+            }
+            throw syntaxError(idx);
+        }
+        // 数字、true、false、null
+        start = idx;
+        while (idx < length && (c = text.charAt(idx)) != ',' && c != '}' && !isWhitespace(c)) {
+            idx++;
+        }
+        if (idx == start) {
+            throw syntaxError(idx);
+        }
+
+        return idx;
+    }
+
+    /**
+     * 跳过一个字符串
+     * @param idx 开头引号的位置
+     * @return 结尾引号之后的位置
+     */
+    private int skipString(String text, int idx) {
+        int length = text.length();
+        char c;
+
+        idx++;
+        while (idx < length) {
+            c = text.charAt(idx);
+            if (c == '\\') {
+                idx += 2;
+                continue;
+            }
+            if (c == '"') {
+
+                return idx + 1;
+            }
+            idx++;
+        }
+        throw syntaxError(idx);
+    }
+
+    private int skipWhitespace(String text, int idx) {
+        int length = text.length();
+
+        while (idx < length && isWhitespace(text.charAt(idx))) {
+            idx++;
+        }
+
+        return idx;
+    }
+
+    private boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(String text, int idx, char expected) {
+        if (charAt(text, idx) != expected) {
+            throw syntaxError(idx);
+        }
+    }
+
+    private char charAt(String text, int idx) {
+        if (idx >= text.length()) {
+            throw syntaxError(idx);
+        }
+
+        return text.charAt(idx);
+    }
+
+    private JsonSyntaxException syntaxError(int idx) {
+        return new JsonSyntaxException("malformed message at position " + idx);
+    }
+}
@@ -1,12 +1,13 @@
 package io.knifer.freebox.net.websocket.core;
 
 import com.google.gson.reflect.TypeToken;
+import io.knifer.freebox.exception.FBException;
 import io.knifer.freebox.model.common.tvbox.Message;
 import io.knifer.freebox.util.json.GsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.java_websocket.WebSocket;
 
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 通信执行器
@@ -36,24 +37,30 @@ public class KebSocketRunner {
         send(connection, Message.oneWay(code, data, topicId));
     }
 
-    public <T, R> Future<R> sendTopic(WebSocket connection, Integer code, T data, TypeToken<R> resultData) {
-        Message<T> topic = Message.topic(code, data);
-
-        send(connection, topic);
+    public <T, R> CompletableFuture<R> sendTopic(WebSocket connection, Integer code, T data, TypeToken<R> resultData) {
+        return sendTopic(connection, Message.topic(code, data), resultData);
+    }
 
-        return topicKeeper.getTopic(topic.getTopicId(), resultData, code);
+    public <T, R> CompletableFuture<R> sendTopic(WebSocket connection, Integer code, T data, String topicId, TypeToken<R> resultData) {
+        return sendTopic(connection, Message.topic(code, data, topicId), resultData);
     }
 
-    public <T, R> Future<R> sendTopic(WebSocket connection, Integer code, T data, String topicId, TypeToken<R> resultData) {
-        Message<T> topic = Message.topic(code, data, topicId);
+    private <T, R> CompletableFuture<R> sendTopic(WebSocket connection, Message<T> topic, TypeToken<R> resultData) {
+        // 先登记topic再发送，避免响应先于登记到达
+        CompletableFuture<R> result = topicKeeper.getTopic(topic.getTopicId(), resultData, topic.getCode());
+
+        if (result == null) {
+            // topicId已有请求在等待，不发送，避免响应被交给另一个等待方
 
+            return CompletableFuture.failedFuture(new FBException("duplicate topic id: " + topic.getTopicId()));
+        }
         send(connection, topic);
 
-        return topicKeeper.getTopic(topic.getTopicId(), resultData, code);
+        return result;
     }
 
     public <T> void send(WebSocket connection, Message<T> message) {
         log.info("send message: {}", message);
-        connection.send(GsonUtil.toJson(message));
+        KebSocketFrameCodec.send(connection, GsonUtil.toJson(message));
     }
 }
@@ -1,28 +1,35 @@
 package io.knifer.freebox.net.websocket.core;
 
-import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
 import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.constant.MessageCodes;
 import io.knifer.freebox.exception.GlobalExceptionHandler;
 import io.knifer.freebox.model.common.tvbox.Message;
-import io.knifer.freebox.util.json.GsonUtil;
+import io.knifer.freebox.util.json.RawJson;
 import lombok.extern.slf4j.Slf4j;
-import org.thavam.util.concurrent.blockingMap.BlockingHashMap;
-import org.thavam.util.concurrent.blockingMap.BlockingMap;
 
+import javax.annotation.Nullable;
+
+import java.util.Map;
 import java.util.concurrent.*;
 
 /**
  * Topic保管
- * 接收来的Topic消息都会在这里保管和取用
+ * 1. 发送topic前先登记（topicId -> Future），收到响应时在WebSocket线程中直接完成对应的Future，等待响应时不占用线程
+ * 2. 超时未响应的topic由定时任务清理，迟到或无人等待的响应直接丢弃
+ * 3. 响应数据在线程池中绑定为目标类型，不占用WebSocket线程
  *
  * @author Knifer
  */
 @Slf4j
 public class KebSocketTopicKeeper {
 
-    private final BlockingMap<String, Message<JsonElement>> DATA_MAP = new BlockingHashMap<>();
+    /**
+     * 等待响应的topic（topicId -> 响应消息）
+     */
+    private final Map<String, CompletableFuture<Message<RawJson>>> PENDING_TOPICS = new ConcurrentHashMap<>();
+
+    private final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER;
 
     private final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
             1,
@@ -58,32 +65,77 @@ public class KebSocketTopicKeeper {
 
     private final static KebSocketTopicKeeper INSTANCE = new KebSocketTopicKeeper();
 
-    private KebSocketTopicKeeper() {}
+    private KebSocketTopicKeeper() {
+        TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r);
+
+            t.setName("KebSocket-Timeout-Thread");
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(GlobalExceptionHandler.getInstance());
+
+            return t;
+        });
+        // 收到响应后取消的超时任务立即移出队列，避免大量请求时堆积
+        TIMEOUT_SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
 
     public static KebSocketTopicKeeper getInstance() {
         return INSTANCE;
     }
 
-    public void addTopic(Message<JsonElement> message) {
-        DATA_MAP.put(message.getTopicId(), message);
+    /**
+     * 收到topic响应
+     * @param message 响应消息
+     */
+    public void addTopic(Message<RawJson> message) {
+        String topicId = message.getTopicId();
+        CompletableFuture<Message<RawJson>> replyFuture = topicId == null ? null : PENDING_TOPICS.remove(topicId);
+
+        if (replyFuture == null) {
+            log.warn("discard late or unknown topic, code={}, topicId={}", message.getCode(), topicId);
+
+            return;
+        }
+        replyFuture.complete(message);
     }
 
-    public <T> Future<T> getTopic(String topicId, TypeToken<T> typeToken, Integer code) {
-        return CompletableFuture.supplyAsync(() -> {
-            Message<JsonElement> message;
-            JsonElement jsonData;
+    /**
+     * 登记topic，获取响应数据（需要在发送topic之前调用）
+     * @param topicId topic id
+     * @param typeToken 响应数据类型
+     * @param code 消息码
+     * @return 响应数据，超时或出错时为null。topicId已被登记时返回null，调用方不应再发送该topic
+     */
+    @Nullable
+    public <T> CompletableFuture<T> getTopic(String topicId, TypeToken<T> typeToken, Integer code) {
+        CompletableFuture<Message<RawJson>> replyFuture = new CompletableFuture<>();
+        ScheduledFuture<?> timeoutFuture;
+
+        if (PENDING_TOPICS.putIfAbsent(topicId, replyFuture) != null) {
+            log.warn("duplicate topic id, code={}, topicId={}", code, topicId);
 
+            return null;
+        }
+        timeoutFuture = TIMEOUT_SCHEDULER.schedule(() -> {
+            if (PENDING_TOPICS.remove(topicId, replyFuture)) {
+                log.warn("topic timeout, code={}, topicId={}", code, topicId);
+                replyFuture.complete(null);
+            }
+        }, BaseValues.KEB_SOCKET_REQUEST_TIMEOUT, TimeUnit.SECONDS);
+        replyFuture.whenComplete((message, e) -> timeoutFuture.cancel(false));
+
+        return replyFuture.thenApplyAsync(message -> {
+            RawJson jsonData;
+
+            if (message == null) {
+                return null;
+            }
+            jsonData = message.getData();
+            if (jsonData == null) {
+                return null;
+            }
             try {
-                message = DATA_MAP.take(topicId, BaseValues.KEB_SOCKET_REQUEST_TIMEOUT, TimeUnit.SECONDS);
-                if (message == null) {
-                    return null;
-                }
-                jsonData = message.getData();
-                if (jsonData == null) {
-                    return null;
-                }
-
-                return GsonUtil.fromJson(jsonData, typeToken);
+                return jsonData.bind(typeToken);
             } catch (Exception e) {
                 log.error("getTopic error", e);
             }
@@ -94,7 +146,8 @@ public class KebSocketTopicKeeper {
 
     public void destroy() {
         log.info("destroy KebSocketTopicKeeper......");
-        DATA_MAP.clear();
+        PENDING_TOPICS.clear();
+        TIMEOUT_SCHEDULER.shutdownNow();
         EXECUTOR.shutdownNow();
         SEARCH_EXECUTOR.shutdownNow();
     }
@@ -1,6 +1,7 @@
 package io.knifer.freebox.net.websocket.handler;
 
 import io.knifer.freebox.model.common.tvbox.Message;
+import io.knifer.freebox.util.json.RawJson;
 import org.java_websocket.WebSocket;
 
 /**
@@ -19,11 +20,11 @@ public interface KebSocketMessageHandler<T> {
     boolean support(Message<?> message);
 
     /**
-     * 解析Message对象
-     * @param messageString 消息字符串
+     * 将消息中的数据绑定为处理器需要的类型
+     * @param message 消息（data未解析）
      * @return Message对象
      */
-    Message<T> resolve(String messageString);
+    Message<T> resolve(Message<RawJson> message);
 
     /**
      * 处理消息
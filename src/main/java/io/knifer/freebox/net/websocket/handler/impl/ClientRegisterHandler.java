@@ -1,6 +1,5 @@
 package io.knifer.freebox.net.websocket.handler.impl;
 
-import com.google.gson.reflect.TypeToken;
 import io.knifer.freebox.constant.*;
 import io.knifer.freebox.context.Context;
 import io.knifer.freebox.helper.ToastHelper;
@@ -8,9 +7,11 @@ import io.knifer.freebox.model.c2s.RegisterInfo;
 import io.knifer.freebox.model.common.tvbox.Message;
 import io.knifer.freebox.model.domain.ClientInfo;
 import io.knifer.freebox.net.websocket.core.ClientManager;
+import io.knifer.freebox.net.websocket.core.KebSocketFrameCodec;
+import io.knifer.freebox.net.websocket.core.KebSocketRunner;
 import io.knifer.freebox.net.websocket.exception.ForbiddenException;
 import io.knifer.freebox.net.websocket.handler.KebSocketMessageHandler;
-import io.knifer.freebox.util.json.GsonUtil;
+import io.knifer.freebox.util.json.RawJson;
 import javafx.application.Platform;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
@@ -27,12 +28,21 @@ public class ClientRegisterHandler implements KebSocketMessageHandler<RegisterIn
 
     private final ClientManager clientManager;
 
+    /**
+     * 最低支持的客户端协议版本号
+     */
     private final static int SUPPORTED_KEB_SOCKET_PROTOCOL_VERSION_CODE;
+    /**
+     * 服务端自身的协议版本号
+     */
+    private final static int KEB_SOCKET_PROTOCOL_VERSION_CODE;
 
     static {
         String code = BaseResources.X_PROPERTIES.getProperty(BaseValues.X_SUPPORTED_KEB_SOCKET_PROTOCOL_VERSION_CODE);
 
         SUPPORTED_KEB_SOCKET_PROTOCOL_VERSION_CODE = NumberUtils.toInt(code, 1);
+        code = BaseResources.X_PROPERTIES.getProperty(BaseValues.X_KEB_SOCKET_PROTOCOL_VERSION_CODE);
+        KEB_SOCKET_PROTOCOL_VERSION_CODE = NumberUtils.toInt(code, SUPPORTED_KEB_SOCKET_PROTOCOL_VERSION_CODE);
     }
 
     @Override
@@ -41,14 +51,22 @@ public class ClientRegisterHandler implements KebSocketMessageHandler<RegisterIn
     }
 
     @Override
-    public Message<RegisterInfo> resolve(String messageString) {
-        return GsonUtil.fromJson(messageString, new TypeToken<>(){});
+    public Message<RegisterInfo> resolve(Message<RawJson> message) {
+        RawJson data = message.getData();
+
+        return new Message<>(
+                message.getCode(),
+                data == null ? null : data.bind(RegisterInfo.class),
+                message.getTopicFlag(),
+                message.getTopicId()
+        );
     }
 
     @Override
     public void handle(Message<RegisterInfo> registerInfoMsg, WebSocket connection) throws ForbiddenException {
         RegisterInfo registerInfo = registerInfoMsg.getData();
         ClientInfo clientInfo;
+        Integer negotiatedProtocolVersionCode;
 
         if (registerInfo == null || StringUtils.isBlank(registerInfo.getClientId())) {
             throw new ForbiddenException(connection);
@@ -59,6 +77,15 @@ public class ClientRegisterHandler implements KebSocketMessageHandler<RegisterIn
         }
         clientInfo = ClientInfo.of(registerInfo, connection);
         clientManager.register(clientInfo);
+        negotiatedProtocolVersionCode = KebSocketFrameCodec.negotiate(
+                connection, KEB_SOCKET_PROTOCOL_VERSION_CODE, registerInfo
+        );
+        if (negotiatedProtocolVersionCode != null) {
+            // 告知客户端可以使用压缩二进制帧，未声明支持的客户端不会收到该消息
+            KebSocketRunner.getInstance().send(
+                    connection, MessageCodes.REGISTER_RESULT, negotiatedProtocolVersionCode
+            );
+        }
         Platform.runLater(() -> {
             ToastHelper.showSuccessI18n(
                     I18nKeys.MESSAGE_CLIENT_REGISTERED,
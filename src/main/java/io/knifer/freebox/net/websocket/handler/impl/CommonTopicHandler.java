@@ -1,11 +1,9 @@
 package io.knifer.freebox.net.websocket.handler.impl;
 
-import com.google.gson.JsonElement;
-import com.google.gson.reflect.TypeToken;
 import io.knifer.freebox.model.common.tvbox.Message;
 import io.knifer.freebox.net.websocket.core.KebSocketTopicKeeper;
 import io.knifer.freebox.net.websocket.handler.KebSocketMessageHandler;
-import io.knifer.freebox.util.json.GsonUtil;
+import io.knifer.freebox.util.json.RawJson;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.BooleanUtils;
 import org.java_websocket.WebSocket;
@@ -16,7 +14,7 @@ import org.java_websocket.WebSocket;
  * @author Knifer
  */
 @AllArgsConstructor
-public class CommonTopicHandler implements KebSocketMessageHandler<JsonElement> {
+public class CommonTopicHandler implements KebSocketMessageHandler<RawJson> {
 
     private final KebSocketTopicKeeper topicKeeper;
 
@@ -26,12 +24,13 @@ public class CommonTopicHandler implements KebSocketMessageHandler<JsonElement>
     }
 
     @Override
-    public Message<JsonElement> resolve(String messageString) {
-        return GsonUtil.fromJson(messageString, new TypeToken<>(){});
+    public Message<RawJson> resolve(Message<RawJson> message) {
+        // 保持未解析，由等待该topic的一方直接绑定为需要的类型
+        return message;
     }
 
     @Override
-    public void handle(Message<JsonElement> message, WebSocket connection) {
+    public void handle(Message<RawJson> message, WebSocket connection) {
         topicKeeper.addTopic(message);
     }
 }
@@ -5,6 +5,7 @@ import io.knifer.freebox.model.common.tvbox.Message;
 import io.knifer.freebox.net.websocket.core.ClientManager;
 import io.knifer.freebox.net.websocket.exception.ForbiddenException;
 import io.knifer.freebox.net.websocket.handler.KebSocketMessageHandler;
+import io.knifer.freebox.util.json.RawJson;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.java_websocket.WebSocket;
@@ -26,7 +27,7 @@ public class ValidationHandler implements KebSocketMessageHandler<Void> {
     }
 
     @Override
-    public Message<Void> resolve(String messageString) {
+    public Message<Void> resolve(Message<RawJson> message) {
         return null;
     }
 
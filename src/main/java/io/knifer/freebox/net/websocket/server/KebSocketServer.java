@@ -7,17 +7,22 @@ import io.knifer.freebox.helper.I18nHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.model.domain.ClientInfo;
 import io.knifer.freebox.net.websocket.core.ClientManager;
+import io.knifer.freebox.net.websocket.core.KebSocketFrameCodec;
 import io.knifer.freebox.net.websocket.core.KebSocketMessageDispatcher;
 import javafx.application.Platform;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
+import java.io.IOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * KebSocket服务
@@ -33,7 +38,8 @@ public class KebSocketServer extends WebSocketServer {
 	private final KebSocketMessageDispatcher messageDispatcher;
 
 	public KebSocketServer(InetSocketAddress address, ClientManager clientManager) {
-		super(address);
+		// 客户端在握手时提供permessage-deflate扩展则启用，否则使用不压缩的标准协议
+		super(address, List.of(new Draft_6455(new PerMessageDeflateExtension())));
 		this.clientManager = clientManager;
 		this.messageDispatcher = new KebSocketMessageDispatcher(clientManager);
 	}
@@ -65,14 +71,28 @@ public class KebSocketServer extends WebSocketServer {
 
 	@Override
 	public void onMessage(WebSocket conn, String message) {
-        log.info("received message from {}: {}", conn.getRemoteSocketAddress(), message);
 		messageDispatcher.dispatch(message, conn);
 	}
 
 	@Override
 	public void onMessage(WebSocket conn, ByteBuffer message) {
-        log.info("received ByteBuffer from {}", conn.getRemoteSocketAddress());
-		conn.close();
+		String text;
+
+		if (!KebSocketFrameCodec.isCompressedFrameSupported(conn)) {
+			log.info("received ByteBuffer from {}", conn.getRemoteSocketAddress());
+			conn.close();
+
+			return;
+		}
+		try {
+			text = KebSocketFrameCodec.decode(message);
+		} catch (IOException e) {
+			log.warn("ip [{}] send wrong binary message, closed", conn.getRemoteSocketAddress().getHostString(), e);
+			conn.close();
+
+			return;
+		}
+		messageDispatcher.dispatch(text, conn);
 	}
 
 	@Override
@@ -1,43 +1,34 @@
 package io.knifer.freebox.service;
 
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.map.multi.RowKeyTable;
-import cn.hutool.core.map.multi.Table;
-import cn.hutool.crypto.digest.DigestUtil;
-import com.google.common.base.Charsets;
-import com.google.common.net.HttpHeaders;
+import io.knifer.freebox.constant.AppEvents;
 import io.knifer.freebox.constant.I18nKeys;
-import io.knifer.freebox.helper.I18nHelper;
+import io.knifer.freebox.context.Context;
+import io.knifer.freebox.helper.LiveConfigCacheHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.model.c2s.FreeBoxLive;
-import io.knifer.freebox.model.domain.LiveChannel;
 import io.knifer.freebox.model.domain.LiveChannelGroup;
-import io.knifer.freebox.util.HttpUtil;
+import io.knifer.freebox.util.LiveListParser;
 import io.knifer.freebox.util.ValidationUtil;
 import javafx.application.Platform;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import net.bjoernpetersen.m3u.M3uParser;
-import net.bjoernpetersen.m3u.model.M3uEntry;
-import net.bjoernpetersen.m3u.model.M3uMetadata;
-import org.apache.commons.lang3.ObjectUtils;
-import org.apache.commons.lang3.StringUtils;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 加载直播频道分组服务
+ * 有缓存时直接使用缓存，缓存过期后在后台校验更新，内容有变化时发布LiveChannelGroupsUpdatedEvent
  *
  * @author Knifer
  */
@@ -45,8 +36,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 @AllArgsConstructor
 public class LoadLiveChannelGroupService extends Service<List<LiveChannelGroup>> {
 
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private final FreeBoxLive live;
-    private final Path liveConfigCachePath;
 
     @Override
     protected Task<List<LiveChannelGroup>> createTask() {
@@ -54,12 +46,8 @@ public class LoadLiveChannelGroupService extends Service<List<LiveChannelGroup>>
             @Override
             protected List<LiveChannelGroup> call() {
                 String url = live.getUrl();
-                String liveMd5;
                 Path livePath;
-                String ua;
-                String filePath;
-                String liveConfigContent;
-                List<LiveChannelGroup> liveChannelGroups;
+                boolean cachedFlag;
 
                 if (!ValidationUtil.isURL(url)) {
                     Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.LIVE_MESSAGE_INVALID_LIVE_URL));
@@ -71,20 +59,16 @@ public class LoadLiveChannelGroupService extends Service<List<LiveChannelGroup>>
 
                     return List.of();
                 }
-                liveMd5 = DigestUtil.md5Hex(url);
-                livePath = liveConfigCachePath.resolve(liveMd5);
-                if (Files.exists(livePath)) {
-                    liveConfigContent = FileUtil.readString(livePath.toFile(), Charsets.UTF_8);
+                if (url.startsWith("file:///")) {
+                    // 本地文件直接读取，不做缓存
+                    livePath = Path.of(url.substring(7));
+                    cachedFlag = false;
                 } else {
-                    ua = live.getUa();
-                    if (url.startsWith("file:///")) {
-                        filePath = url.substring(7);
-                        liveConfigContent = FileUtil.readString(filePath, Charsets.UTF_8);
-                    } else {
+                    livePath = LiveConfigCacheHelper.find(url);
+                    cachedFlag = livePath != null;
+                    if (livePath == null) {
                         try {
-                            liveConfigContent = StringUtils.isBlank(ua) ?
-                                    HttpUtil.getAsync(url).get(10, TimeUnit.SECONDS) :
-                                    HttpUtil.getAsync(url, HttpHeaders.USER_AGENT, ua).get(10, TimeUnit.SECONDS);
+                            livePath = LiveConfigCacheHelper.download(url, live.getUa()).get(10, TimeUnit.SECONDS);
                         } catch (TimeoutException | ExecutionException e) {
                             if (!isCancelled()) {
                                 Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.LIVE_MESSAGE_INVALID_LIVE));
@@ -98,158 +82,117 @@ public class LoadLiveChannelGroupService extends Service<List<LiveChannelGroup>>
 
                             return List.of();
                         }
+                        if (livePath == null) {
+                            // 与进行中的后台校验合并，且内容没有变化
+                            livePath = LiveConfigCacheHelper.find(url);
+                        }
                     }
-                    if (isCancelled()) {
+                }
+                if (isCancelled()) {
 
-                        return List.of();
-                    }
-                    if (StringUtils.isBlank(liveConfigContent)) {
+                    return List.of();
+                }
+                try {
+                    if (livePath == null || readFirstChar(livePath) == -1) {
+                        LiveConfigCacheHelper.remove(url);
                         Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.LIVE_MESSAGE_INVALID_LIVE));
 
                         return List.of();
                     }
-                    liveConfigContent = liveConfigContent.trim();
-                    FileUtil.writeString(liveConfigContent, livePath.toFile(), Charsets.UTF_8);
+                    if (cachedFlag && !LiveConfigCacheHelper.isFresh(url)) {
+                        revalidateInBackground(url);
+                    }
+
+                    return parse(url, livePath);
+                } catch (IOException e) {
+                    log.error("load live channel groups failed, url={}", url, e);
+                    if (!isCancelled()) {
+                        Platform.runLater(() -> ToastHelper.showException(e));
+                    }
+
+                    return List.of();
                 }
-                if (url.contains(".m3u") || liveConfigContent.startsWith("#")) {
-                    liveChannelGroups = parseM3uLive(liveConfigContent);
-                } else {
-                    liveChannelGroups = parseGenreLive(liveConfigContent);
+            }
+        };
+    }
+
+    /**
+     * 在后台校验缓存的直播源配置，内容有变化时重新解析并发布事件
+     * @param url 直播源链接
+     */
+    private void revalidateInBackground(String url) {
+        LiveConfigCacheHelper.revalidate(url, live.getUa()).whenComplete((livePath, ex) -> {
+            List<LiveChannelGroup> liveChannelGroups;
+
+            if (ex != null) {
+                log.warn("revalidate live config failed, url={}", url, ex);
+
+                return;
+            }
+            if (livePath == null) {
+
+                return;
+            }
+            try {
+                if (readFirstChar(livePath) == -1) {
+
+                    return;
                 }
+                liveChannelGroups = parse(url, livePath);
+            } catch (IOException e) {
+                log.warn("parse updated live config failed, url={}", url, e);
 
-                return ObjectUtils.defaultIfNull(liveChannelGroups, List.of());
+                return;
             }
+            if (liveChannelGroups.isEmpty()) {
 
-            private List<LiveChannelGroup> parseM3uLive(String liveConfigContent) {
-                List<M3uEntry> m3uEntries = M3uParser.parse(liveConfigContent);
-                Map<String, LiveChannelGroup> groupTitleAndLiveChannelGroupMap;
-                Table<String, String, LiveChannel> groupTitleAndTitleAndLiveChannelMap;
-                AtomicInteger unTitledChannelIdx;
+                return;
+            }
+            log.info("live config updated, url={}, liveChannelGroup count: {}", url, liveChannelGroups.size());
+            Platform.runLater(() -> Context.INSTANCE.postEvent(
+                    new AppEvents.LiveChannelGroupsUpdatedEvent(url, liveChannelGroups)
+            ));
+        });
+    }
 
-                if (m3uEntries.isEmpty()) {
+    private List<LiveChannelGroup> parse(String url, Path livePath) throws IOException {
+        int firstChar = readFirstChar(livePath);
 
-                    return List.of();
-                }
-                groupTitleAndLiveChannelGroupMap = new HashMap<>();
-                groupTitleAndTitleAndLiveChannelMap = new RowKeyTable<>();
-                unTitledChannelIdx = new AtomicInteger(0);
-                m3uEntries.forEach(m3uEntry -> {
-                    M3uMetadata metadata;
-                    String groupTitle;
-                    LiveChannelGroup group;
-                    LiveChannel channel;
-                    String title;
-                    List<LiveChannel> groupChannels;
-                    String logoUrl;
-                    List<LiveChannel.Line> lines;
-
-                    metadata = m3uEntry.getMetadata();
-                    groupTitle = metadata.get("group-title");
-                    if (StringUtils.isBlank(groupTitle)) {
-                        groupTitle = I18nHelper.get(I18nKeys.LIVE_UNGROUPED);
-                    }
-                    group = groupTitleAndLiveChannelGroupMap.get(groupTitle);
-                    if (group == null) {
-                        group = LiveChannelGroup.from(groupTitle);
-                        groupTitleAndLiveChannelGroupMap.put(groupTitle, group);
-                    }
-                    groupChannels = group.getChannels();
-                    title = m3uEntry.getTitle();
-                    if (StringUtils.isBlank(title)) {
-                        title = I18nHelper.get(I18nKeys.LIVE_UNTITLED) + unTitledChannelIdx.getAndIncrement();
-                    }
-                    channel = groupTitleAndTitleAndLiveChannelMap.get(groupTitle, title);
-                    if (channel == null) {
-                        channel = LiveChannel.of(groupTitle, title);
-                        groupTitleAndTitleAndLiveChannelMap.put(groupTitle, title, channel);
-                        groupChannels.add(channel);
-                    }
-                    logoUrl = metadata.get("tvg-logo");
-                    lines = channel.getLines();
-                    if (StringUtils.isBlank(logoUrl)) {
-                        // 如果logoUrl为空，则尝试使用相同频道的不同线路的logoUrl
-                        logoUrl = lines.stream()
-                                .map(LiveChannel.Line::getLogoUrl)
-                                .filter(StringUtils::isNotBlank)
-                                .findFirst()
-                                .orElse(null);
-                    }
-                    channel.getLines().add(LiveChannel.Line.of(
-                            I18nHelper.get(I18nKeys.LIVE_LINE) + (lines.size() + 1),
-                            logoUrl,
-                            m3uEntry.getLocation().toString()
-                    ));
-                });
-
-                return new ArrayList<>(groupTitleAndLiveChannelGroupMap.values());
+        try (BufferedReader reader = newReader(livePath)) {
+            if (url.contains(".m3u") || firstChar == '#') {
+
+                return LiveListParser.parseM3u(reader);
             }
 
-            private List<LiveChannelGroup> parseGenreLive(String liveConfigContent) {
-                String[] txtLines = liveConfigContent.split("\\r?\\n");
-                String[] txtLineSplit;
-                Map<String, LiveChannelGroup> groupTitleAndLiveChannelGroupMap;
-                Map<String, LiveChannel> titleAndLiveChannelMap;
-                String groupTitle = I18nHelper.get(I18nKeys.LIVE_UNGROUPED);
-                LiveChannelGroup group = null;
-                String channelTitle;
-                LiveChannel channel;
-                List<LiveChannelGroup> groups;
-                List<LiveChannel.Line> channelLines;
-                String[] channelLineTitleSplit;
-                String channelLineTitle;
-
-                if (txtLines.length < 2) {
+            return LiveListParser.parseTxt(reader);
+        }
+    }
 
-                    return List.of();
-                }
-                groupTitleAndLiveChannelGroupMap = new HashMap<>();
-                titleAndLiveChannelMap = new HashMap<>();
-                groups = new ArrayList<>();
-                for (String line : txtLines) {
-                    txtLineSplit = line.split(",");
-                    if (txtLineSplit.length != 2) {
-
-                        continue;
-                    }
-                    if (txtLineSplit[1].strip().equals("#genre#")) {
-                        // 频道分组
-                        groupTitle = txtLineSplit[0];
-                        group = groupTitleAndLiveChannelGroupMap.get(groupTitle);
-                        if (group == null) {
-                            group = LiveChannelGroup.from(groupTitle);
-                            groupTitleAndLiveChannelGroupMap.put(groupTitle, group);
-                            groups.add(group);
-                        }
-                    } else {
-                        // 频道
-                        if (group == null) {
-                            // 频道没有分组信息，创建一个默认的“未分组”频道分组
-                            group = LiveChannelGroup.from(groupTitle);
-                            groupTitleAndLiveChannelGroupMap.put(groupTitle, group);
-                            groups.add(group);
-                        }
-                        channelTitle = txtLineSplit[0];
-                        channel = titleAndLiveChannelMap.get(channelTitle);
-                        if (channel == null) {
-                            channel = LiveChannel.of(groupTitle, channelTitle);
-                            titleAndLiveChannelMap.put(channelTitle, channel);
-                            group.getChannels().add(channel);
-                        }
-                        channelLines = channel.getLines();
-                        // 解析线路名称
-                        channelLineTitleSplit = txtLineSplit[1].split("『");
-                        if (channelLineTitleSplit.length == 2) {
-                            channelLineTitle = channelLineTitleSplit[1]
-                                    .substring(0, channelLineTitleSplit[1].length() - 1);
-                        } else {
-                            channelLineTitle = I18nHelper.get(I18nKeys.LIVE_LINE) + (channelLines.size() + 1);
-                        }
-                        channelLines.add(LiveChannel.Line.of(channelLineTitle, null, txtLineSplit[1]));
-                    }
-                }
+    /**
+     * 读取第一个非空白字符，用于判断直播列表格式
+     * @param path 直播列表文件
+     * @return 第一个非空白字符，为-1表示没有有效内容
+     */
+    private int readFirstChar(Path path) throws IOException {
+        int c;
 
-                return groups;
+        try (BufferedReader reader = newReader(path)) {
+            while ((c = reader.read()) != -1) {
+                // 跳过空白字符及BOM
+                if (!Character.isWhitespace(c) && c != '\uFEFF') {
+
+                    return c;
+                }
             }
-        };
+        }
+
+        return -1;
+    }
+
+    private BufferedReader newReader(Path path) throws IOException {
+        // InputStreamReader会替换无法解码的字节，不会因个别错误字符导致整个列表解析失败
+        return new BufferedReader(
+                new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8), READ_BUFFER_SIZE
+        );
     }
 }
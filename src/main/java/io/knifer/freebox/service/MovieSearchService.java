@@ -70,8 +70,8 @@ public class MovieSearchService extends Service<Void> {
                 AtomicInteger completedCount = new AtomicInteger(0);
                 int totalSources = sourceKeys.size();
 
-                // 并行执行所有搜索请求
-                sourceKeys.parallelStream().forEach(sourceKey -> {
+                // 搜索请求均为异步执行（不同源之间并发），这里只需依次提交
+                for (String sourceKey : sourceKeys) {
                     if (isCancelled()) {
                         return;
                     }
@@ -96,7 +96,7 @@ public class MovieSearchService extends Service<Void> {
                                 }
                             }
                     );
-                });
+                }
             }
         };
     }
@@ -0,0 +1,231 @@
+package io.knifer.freebox.spider;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.knifer.freebox.exception.GlobalExceptionHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 爬虫任务执行器
+ * 1. 同一个源（爬虫实例）的任务串行执行，避免非线程安全的爬虫被并发调用；不同源之间并发执行
+ * 2. 所有源共用一个线程池，线程数即全局并发上限
+ * 3. 每个任务可以设置超时时间，超时后会中断任务并以null回调
+ * 4. 任务可以按分组取消（如用户发起新搜索时，取消上一次搜索中未完成的任务），被取消的任务不会回调
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class SpiderExecutor {
+
+    /**
+     * 默认的全局并发上限
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final Map<String, Executor> laneExecutors = new ConcurrentHashMap<>();
+    private final Set<SpiderTask<?>> pendingTasks = ConcurrentHashMap.newKeySet();
+
+    public SpiderExecutor() {
+        this(DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public SpiderExecutor(int maxConcurrency) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(
+                maxConcurrency,
+                maxConcurrency,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r);
+
+                    t.setName("SpiderExecutor-Thread-" + threadCount.incrementAndGet());
+                    t.setUncaughtExceptionHandler(GlobalExceptionHandler.getInstance());
+
+                    return t;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+
+            t.setName("SpiderExecutor-Timeout-Thread");
+            t.setDaemon(true);
+
+            return t;
+        });
+    }
+
+    /**
+     * 执行任务
+     * @param lane 串行通道（一般为源的key），同一通道内的任务按提交顺序串行执行
+     * @param group 任务分组，用于批量取消，为null表示不分组
+     * @param timeoutSeconds 超时时间（从提交时开始计算），小于等于0表示不超时
+     * @param callable 任务
+     * @param callback 回调。任务异常或超时时，回调null；任务被取消时，不会回调
+     */
+    public <T> void execute(
+            String lane,
+            @Nullable String group,
+            long timeoutSeconds,
+            Callable<T> callable,
+            Consumer<T> callback
+    ) {
+        SpiderTask<T> task = new SpiderTask<>(lane, group, callable, callback);
+
+        pendingTasks.add(task);
+        if (timeoutSeconds > 0) {
+            task.timeoutFuture = timeoutScheduler.schedule(task::timeout, timeoutSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            laneExecutors.computeIfAbsent(lane, key -> MoreExecutors.newSequentialExecutor(executor))
+                    .execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("spider task rejected, lane={}", lane);
+            task.cancel();
+        }
+    }
+
+    /**
+     * 执行无返回值的任务
+     * @param lane 串行通道
+     * @param runnable 任务
+     */
+    public void execute(String lane, Runnable runnable) {
+        execute(lane, null, 0, () -> {
+            runnable.run();
+
+            return null;
+        }, ignored -> {});
+    }
+
+    /**
+     * 取消分组中所有未完成的任务
+     * @param group 任务分组
+     */
+    public void cancel(String group) {
+        int count = 0;
+
+        for (SpiderTask<?> task : pendingTasks) {
+            if (group.equals(task.group) && task.cancel()) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.info("cancelled {} spider task(s), group={}", count, group);
+        }
+    }
+
+    public void shutdown() {
+        for (SpiderTask<?> task : pendingTasks) {
+            task.cancel();
+        }
+        executor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+    }
+
+    private class SpiderTask<T> implements Runnable {
+
+        private final String lane;
+        @Nullable
+        private final String group;
+        private final Callable<T> callable;
+        private final Consumer<T> callback;
+        /**
+         * 任务是否已结束（完成、超时或取消），保证回调最多执行一次
+         */
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        @Nullable
+        private Thread runner;
+        @Nullable
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        private SpiderTask(String lane, @Nullable String group, Callable<T> callable, Consumer<T> callback) {
+            this.lane = lane;
+            this.group = group;
+            this.callable = callable;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            T result = null;
+
+            if (done.get()) {
+                // 排队期间已超时或被取消
+
+                return;
+            }
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                result = callable.call();
+            } catch (Exception e) {
+                if (!done.get()) {
+                    log.error("spider task failed, lane={}", lane, e);
+                }
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // 清除可能残留的中断标记，避免影响同一线程上的后续任务
+                    Thread.interrupted();
+                }
+            }
+            if (finish()) {
+                callback.accept(result);
+            }
+        }
+
+        private void timeout() {
+            if (finish()) {
+                log.warn("spider task timeout, lane={}", lane);
+                interrupt();
+                callback.accept(null);
+            }
+        }
+
+        private boolean cancel() {
+            if (finish()) {
+                interrupt();
+
+                return true;
+            }
+
+            return false;
+        }
+
+        private boolean finish() {
+            ScheduledFuture<?> timeoutFuture;
+
+            if (!done.compareAndSet(false, true)) {
+
+                return false;
+            }
+            pendingTasks.remove(this);
+            timeoutFuture = this.timeoutFuture;
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+
+            return true;
+        }
+
+        private synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+}
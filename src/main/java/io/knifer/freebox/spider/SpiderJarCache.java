@@ -0,0 +1,390 @@
+package io.knifer.freebox.spider;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import io.knifer.freebox.model.domain.SpiderJarCacheEntry;
+import io.knifer.freebox.util.HttpUtil;
+import io.knifer.freebox.util.json.GsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 爬虫jar持久化缓存
+ * 1. jar按内容的md5存储（jars/{md5}.jar），内容相同的jar只存一份
+ * 2. 每个jar链接对应一个索引文件（index/{md5(url)}.json），记录内容md5及ETag/Last-Modified
+ * 3. 已缓存的jar可以直接加载，再通过条件请求在后台校验是否有更新
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class SpiderJarCache {
+
+    /**
+     * 超过该时间未被使用的缓存会在清理时删除
+     */
+    private static final long EXPIRE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String INDEX_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * 旧版本缓存清理完成后写入的标记文件，存在时不再扫描根目录
+     */
+    private static final String LEGACY_PRUNED_MARKER = ".legacy-pruned";
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+
+    private final Path rootPath;
+    private final Path jarPath;
+    private final Path indexPath;
+    /**
+     * md5(url) -> 索引条目
+     */
+    private final Map<String, SpiderJarCacheEntry> entries = new ConcurrentHashMap<>();
+    /**
+     * 写入jar与索引、清理jar时持有，避免清理掉已写入但尚未记录索引的jar
+     */
+    private final Object jarLock = new Object();
+
+    public SpiderJarCache(Path rootPath) {
+        this.rootPath = rootPath;
+        this.jarPath = rootPath.resolve("jars");
+        this.indexPath = rootPath.resolve("index");
+        try {
+            Files.createDirectories(jarPath);
+            Files.createDirectories(indexPath);
+        } catch (IOException e) {
+            log.error("create spider jar cache directory failed", e);
+        }
+        loadIndex();
+    }
+
+    /**
+     * 获取链接对应的缓存jar
+     * @param url jar链接
+     * @return 缓存jar，为null表示未缓存
+     */
+    @Nullable
+    public Path find(String url) {
+        SpiderJarCacheEntry entry = findEntry(url);
+
+        return entry == null ? null : jarPath.resolve(entry.getMd5() + JAR_SUFFIX);
+    }
+
+    /**
+     * 获取指定内容md5的缓存jar
+     * @param url jar链接
+     * @param md5 配置中声明的jar内容md5（来自远程配置，不是32位十六进制字符串时视为未缓存）
+     * @return 缓存jar，为null表示未缓存
+     */
+    @Nullable
+    public Path find(String url, String md5) {
+        Path path;
+        SpiderJarCacheEntry entry;
+
+        if (!isValidMd5(md5)) {
+            log.warn("invalid spider jar md5: {}", md5);
+
+            return null;
+        }
+        path = jarPath.resolve(md5.toLowerCase() + JAR_SUFFIX);
+        if (!Files.isRegularFile(path)) {
+
+            return null;
+        }
+        entry = findEntry(url);
+        if (entry == null || !md5.equalsIgnoreCase(entry.getMd5())) {
+            // 其他链接缓存过相同内容的jar，记录到当前链接下，避免清理时被删除
+            synchronized (jarLock) {
+                if (!Files.isRegularFile(path)) {
+
+                    return null;
+                }
+                saveEntry(SpiderJarCacheEntry.of(url, md5.toLowerCase(), null, null));
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * 判断配置中声明的jar md5是否有效
+     * @param md5 配置中声明的jar内容md5
+     * @return 是否为32位十六进制字符串
+     */
+    public static boolean isValidMd5(String md5) {
+        return MD5_PATTERN.matcher(md5).matches();
+    }
+
+    /**
+     * 下载jar并缓存
+     * @param url jar链接
+     * @param md5 配置中声明的jar内容md5，不为null时下载内容的md5不一致视为下载失败，不会缓存
+     * @return 缓存jar
+     */
+    public Path download(String url, @Nullable String md5) throws IOException {
+        try {
+            return fetch(url, null, md5).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("download interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+
+                throw uncheckedIOException.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 在后台校验缓存的jar是否有更新（携带If-None-Match/If-Modified-Since）
+     * @param url jar链接
+     * @return 内容有变化时为新的缓存jar，无变化时为null
+     */
+    public CompletableFuture<Path> revalidate(String url) {
+        SpiderJarCacheEntry entry = entries.get(DigestUtil.md5Hex(url));
+        String oldMd5 = entry == null ? null : entry.getMd5();
+
+        return fetch(url, entry, null).thenApply(path -> {
+            if (oldMd5 != null && path.getFileName().toString().equals(oldMd5 + JAR_SUFFIX)) {
+
+                return null;
+            }
+
+            return path;
+        });
+    }
+
+    /**
+     * 清理过期的索引、不再被引用的jar，以及旧版本遗留的缓存文件
+     */
+    public void prune() {
+        long expireBefore = System.currentTimeMillis() - EXPIRE_MILLIS;
+        Set<String> referencedJars = new HashSet<>();
+
+        entries.entrySet().removeIf(keyAndEntry -> {
+            if (keyAndEntry.getValue().getUsedAt() < expireBefore) {
+                deleteQuietly(indexPath.resolve(keyAndEntry.getKey() + INDEX_SUFFIX));
+
+                return true;
+            }
+
+            return false;
+        });
+        synchronized (jarLock) {
+            for (SpiderJarCacheEntry entry : entries.values()) {
+                referencedJars.add(entry.getMd5() + JAR_SUFFIX);
+            }
+            try (Stream<Path> jars = Files.list(jarPath)) {
+                jars.filter(path -> {
+                    String fileName = path.getFileName().toString();
+
+                    // 临时文件由writeAtomically自行清理
+                    return !fileName.endsWith(TEMP_SUFFIX) && !referencedJars.contains(fileName);
+                }).forEach(this::deleteQuietly);
+            } catch (IOException e) {
+                log.warn("prune spider jar cache failed", e);
+            }
+        }
+        pruneLegacy();
+    }
+
+    /**
+     * 旧版本直接以md5(url)为文件名（无后缀）存放在根目录下，只需清理一次
+     */
+    private void pruneLegacy() {
+        Path markerPath = rootPath.resolve(LEGACY_PRUNED_MARKER);
+
+        if (Files.exists(markerPath)) {
+
+            return;
+        }
+        try (Stream<Path> files = Files.list(rootPath)) {
+            files.filter(path -> Files.isRegularFile(path) && isValidMd5(path.getFileName().toString()))
+                    .forEach(this::deleteQuietly);
+            Files.createFile(markerPath);
+        } catch (IOException e) {
+            log.warn("prune legacy spider jar cache failed", e);
+        }
+    }
+
+    private CompletableFuture<Path> fetch(
+            String url, @Nullable SpiderJarCacheEntry entry, @Nullable String expectedMd5
+    ) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .GET()
+                .uri(HttpUtil.parseUrl(url))
+                .timeout(REQUEST_TIMEOUT);
+
+        if (entry != null) {
+            if (entry.getEtag() != null) {
+                requestBuilder.header("If-None-Match", entry.getEtag());
+            }
+            if (entry.getLastModified() != null) {
+                requestBuilder.header("If-Modified-Since", entry.getLastModified());
+            }
+        }
+
+        return HttpUtil.getClient()
+                .sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    try {
+                        return store(url, entry, expectedMd5, resp);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private Path store(
+            String url,
+            @Nullable SpiderJarCacheEntry entry,
+            @Nullable String expectedMd5,
+            HttpResponse<byte[]> resp
+    ) throws IOException {
+        int statusCode = resp.statusCode();
+        byte[] body;
+        String md5;
+        Path path;
+
+        if (statusCode == 304 && entry != null) {
+            log.info("spider jar not modified: {}", url);
+            entry.setUsedAt(System.currentTimeMillis());
+            saveEntry(entry);
+
+            return jarPath.resolve(entry.getMd5() + JAR_SUFFIX);
+        }
+        body = resp.body();
+        if (statusCode < 200 || statusCode >= 300 || body == null || body.length == 0) {
+
+            throw new IOException("download spider jar failed, url=" + url + ", status=" + statusCode);
+        }
+        md5 = DigestUtil.md5Hex(body);
+        if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(md5)) {
+
+            throw new IOException(
+                    "spider jar md5 mismatch, url=" + url + ", expected=" + expectedMd5 + ", actual=" + md5
+            );
+        }
+        path = jarPath.resolve(md5 + JAR_SUFFIX);
+        synchronized (jarLock) {
+            if (!Files.isRegularFile(path)) {
+                writeAtomically(path, body);
+            }
+            saveEntry(SpiderJarCacheEntry.of(
+                    url,
+                    md5,
+                    resp.headers().firstValue("ETag").orElse(null),
+                    resp.headers().firstValue("Last-Modified").orElse(null)
+            ));
+        }
+
+        return path;
+    }
+
+    @Nullable
+    private SpiderJarCacheEntry findEntry(String url) {
+        SpiderJarCacheEntry entry = entries.get(DigestUtil.md5Hex(url));
+
+        if (entry == null) {
+
+            return null;
+        }
+        if (!Files.isRegularFile(jarPath.resolve(entry.getMd5() + JAR_SUFFIX))) {
+            // jar文件已被删除，索引失效
+            entries.remove(DigestUtil.md5Hex(url));
+
+            return null;
+        }
+        entry.setUsedAt(System.currentTimeMillis());
+        saveEntry(entry);
+
+        return entry;
+    }
+
+    private void loadIndex() {
+        try (Stream<Path> files = Files.list(indexPath)) {
+            files.filter(path -> path.getFileName().toString().endsWith(INDEX_SUFFIX))
+                    .forEach(path -> {
+                        String fileName = path.getFileName().toString();
+                        SpiderJarCacheEntry entry;
+
+                        try {
+                            entry = GsonUtil.fromJson(Files.readString(path), SpiderJarCacheEntry.class);
+                        } catch (IOException | RuntimeException e) {
+                            log.warn("invalid spider jar cache index: {}", path, e);
+                            deleteQuietly(path);
+
+                            return;
+                        }
+                        if (entry == null || StringUtils.isBlank(entry.getMd5())) {
+                            deleteQuietly(path);
+
+                            return;
+                        }
+                        entries.put(StringUtils.removeEnd(fileName, INDEX_SUFFIX), entry);
+                    });
+        } catch (IOException e) {
+            log.warn("load spider jar cache index failed", e);
+        }
+    }
+
+    private void saveEntry(SpiderJarCacheEntry entry) {
+        String key = DigestUtil.md5Hex(entry.getUrl());
+
+        entries.put(key, entry);
+        try {
+            writeAtomically(
+                    indexPath.resolve(key + INDEX_SUFFIX),
+                    GsonUtil.toJson(entry).getBytes(StandardCharsets.UTF_8)
+            );
+        } catch (IOException e) {
+            log.warn("save spider jar cache index failed, url={}", entry.getUrl(), e);
+        }
+    }
+
+    /**
+     * 先写入临时文件再移动，避免异常退出时留下不完整的文件
+     */
+    private void writeAtomically(Path path, byte[] content) throws IOException {
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_SUFFIX);
+
+        try {
+            Files.write(tempPath, content);
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("delete spider jar cache file failed: {}", path, e);
+        }
+    }
+}
@@ -1,33 +1,35 @@
 package io.knifer.freebox.spider;
 
-import cn.hutool.core.io.FileUtil;
 import cn.hutool.crypto.digest.DigestUtil;
 import com.github.catvod.spider.Spider;
 import io.knifer.freebox.constant.I18nKeys;
+import io.knifer.freebox.helper.ConfigHelper;
 import io.knifer.freebox.helper.StorageHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.model.domain.FreeBoxApiConfig;
 import io.knifer.freebox.util.CastUtil;
-import io.knifer.freebox.util.HttpUtil;
 import io.knifer.freebox.util.catvod.SpiderInvokeUtil;
 import javafx.application.Platform;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -40,60 +42,79 @@ import java.util.jar.JarFile;
 public class SpiderJarLoader {
 
     private final ConcurrentHashMap<String, URLClassLoader> loaders = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Method> methods = new ConcurrentHashMap<>();
+    /**
+     * 代理路由表：jar key -> Proxy.proxy
+     */
+    private final ConcurrentHashMap<String, MethodHandle> proxyHandles = new ConcurrentHashMap<>();
+    /**
+     * jar类加载器 -> jar key，用于根据爬虫实例找到其所在的jar
+     */
+    private final ConcurrentHashMap<ClassLoader, String> loaderKeys = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Object> spiders = new ConcurrentHashMap<>();
-    private String recent = null;
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    /**
+     * 因jar更新而被替换下来的类加载器，其中的爬虫可能仍在执行，在destroy时统一关闭
+     */
+    private final Queue<URLClassLoader> retiredLoaders = new ConcurrentLinkedQueue<>();
+    private final SpiderJarCache jarCache = new SpiderJarCache(StorageHelper.getSpiderCachePath());
+    private volatile String recent = null;
     @Setter
     private FreeBoxApiConfig apiConfig = null;
+    @Nullable
+    private volatile Pair<Integer, Pattern> localProxyUrlPatternCache = null;
+
+    /**
+     * 代理链接中标识爬虫jar的参数名
+     */
+    public final static String PROXY_TOKEN_PARAM = "fbJar";
 
     private final static String SPIDER_PACKAGE_NAME = "com.github.catvod.spider";
     private final static String SPIDER_PROXY_CLASS_NAME = SPIDER_PACKAGE_NAME + ".Proxy";
     private final static String SPIDER_INIT_CLASS_NAME = SPIDER_PACKAGE_NAME + ".Init";
-    private final static Path SPIDER_CACHE_PATH = StorageHelper.getSpiderCachePath();
     private final static SpiderJarLoader INSTANCE = new SpiderJarLoader();
 
-    static {
-        if (!Files.exists(SPIDER_CACHE_PATH)) {
-            try {
-                Files.createDirectories(SPIDER_CACHE_PATH);
-            } catch (IOException e) {
-                ToastHelper.showException(e);
-            }
-        }
-    }
-
     public static SpiderJarLoader getInstance() {
         return INSTANCE;
     }
 
     public Object getSpider(String key, String api, String ext, String jar) {
-        try {
-            String jaKey = DigestUtil.md5Hex(jar);
-            String spKey = jaKey + key;
+        String jaKey = DigestUtil.md5Hex(jar);
+        String spKey = jaKey + key;
+        Object spider = spiders.get(spKey);
 
-            if (spiders.containsKey(spKey)) {
-                return spiders.get(spKey);
+        if (spider != null) {
+            return spider;
+        }
+        // 不同源的爬虫会被并发获取，同一个爬虫（及其所在的jar）只允许加载、初始化一次
+        synchronized (locks.computeIfAbsent(spKey, k -> new Object())) {
+            spider = spiders.get(spKey);
+            if (spider != null) {
+                return spider;
             }
-            if (loaders.get(jaKey) == null) {
-                if (!loadJar(jaKey, jar)) {
+            try {
+                synchronized (locks.computeIfAbsent(jaKey, k -> new Object())) {
+                    if (loaders.get(jaKey) == null) {
+                        if (!loadJar(jaKey, jar)) {
+                            return new Spider();
+                        }
+                    }
+                }
+                recent = jaKey;
+                URLClassLoader loader = loaders.get(jaKey);
+                if (loader == null) {
                     return new Spider();
                 }
-            }
-            recent = jaKey;
-            URLClassLoader loader = loaders.get(jaKey);
-            if (loader == null) {
-                return new Spider();
-            }
-            String classPath = SPIDER_PACKAGE_NAME + api.replace("csp_", ".");
-            Object spider = loader.loadClass(classPath).getDeclaredConstructor().newInstance();
-            SpiderInvokeUtil.init(spider, ext);
-            spiders.put(spKey, spider);
+                String classPath = SPIDER_PACKAGE_NAME + api.replace("csp_", ".");
+                spider = loader.loadClass(classPath).getDeclaredConstructor().newInstance();
+                SpiderInvokeUtil.init(spider, ext);
+                spiders.put(spKey, spider);
 
-            return spider;
-        } catch (Exception e){
-            Platform.runLater(() -> ToastHelper.showException(e));
+                return spider;
+            } catch (Exception e){
+                Platform.runLater(() -> ToastHelper.showException(e));
 
-            return new Spider();
+                return new Spider();
+            }
         }
     }
 
@@ -109,27 +130,82 @@ public class SpiderJarLoader {
         }
         texts = spider.split(";md5;");
         md5 = texts.length > 1 ? texts[1].trim() : StringUtils.EMPTY;
-        jar = texts[0];
-
-        // 可以避免重复下载
-        if(!md5.isEmpty() && Objects.equals(parseJarUrl(jar), md5)){
-
-            return load(key, Paths.get(parseJarUrl(jar)));
-        }else if (jar.startsWith("file")) {
+        jar = parseJarUrl(texts[0]);
+        if (jar.startsWith("file")) {
 
             return load(key, Paths.get(jar.replace("file:///", StringUtils.EMPTY)));
-        } else if (jar.startsWith("http")) {
-            jarPath = download(jar);
+        } else if (!jar.startsWith("http")) {
+
+            return false;
+        }
+        if (!md5.isEmpty() && !SpiderJarCache.isValidMd5(md5)) {
+            log.warn("invalid spider jar md5, ignored, url={}, md5={}", jar, md5);
+            md5 = StringUtils.EMPTY;
+        }
+        if (!md5.isEmpty()) {
+            // 配置中声明了md5，已缓存相同内容的jar时内容不会变化，无需下载、校验
+            jarPath = jarCache.find(jar, md5);
             if (jarPath == null) {
+                // 下载内容与声明的md5不一致时视为下载失败
+                jarPath = download(jar, md5);
+            }
+
+            return jarPath != null && load(key, jarPath);
+        }
+        // 已缓存的jar先直接加载，再在后台校验是否有更新
+        jarPath = jarCache.find(jar);
+        if (jarPath != null) {
+            if (!load(key, jarPath)) {
 
                 return false;
             }
+            revalidateInBackground(key, jar);
 
-            return load(key, jarPath);
-        } else {
+            return true;
+        }
+        jarPath = download(jar, null);
+
+        return jarPath != null && load(key, jarPath);
+    }
 
-            return loadJar(key, convertUrl(apiConfig.getUrl(), jar));
+    private void revalidateInBackground(String key, String jar) {
+        jarCache.revalidate(jar).whenComplete((jarPath, e) -> {
+            if (e != null) {
+                log.warn("revalidate spider jar failed, url={}", jar, e);
+
+                return;
+            }
+            if (jarPath == null) {
+
+                return;
+            }
+            log.info("spider jar changed, reload: {}", jar);
+            synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+                reload(key, jarPath);
+            }
+        });
+    }
+
+    /**
+     * 使用新的jar替换已加载的jar，之后获取的爬虫都来自新的jar
+     * @param key jar key
+     * @param jarPath 新的jar
+     */
+    private void reload(String key, Path jarPath) {
+        URLClassLoader oldLoader = loaders.get(key);
+
+        if (oldLoader == null) {
+            // 已被销毁
+
+            return;
+        }
+        if (!load(key, jarPath)) {
+
+            return;
         }
+        // 正在执行的爬虫仍使用旧的类加载器，旧的代理链接也仍能路由到当前jar
+        retiredLoaders.add(oldLoader);
+        spiders.keySet().removeIf(spKey -> spKey.startsWith(key));
     }
 
     /**
@@ -157,6 +233,8 @@ public class SpiderJarLoader {
     }
 
     private boolean load(String key, Path jar) {
+        URLClassLoader loader;
+
         log.info("load jar {}", jar);
         if (!isJarAvailable(jar)) {
             log.info("invalid jar: {}", jar);
@@ -169,7 +247,9 @@ public class SpiderJarLoader {
             return false;
         }
         try {
-            loaders.put(key, new URLClassLoader(new URL[]{jar.toUri().toURL()}, this.getClass().getClassLoader()));
+            loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, this.getClass().getClassLoader());
+            loaders.put(key, loader);
+            loaderKeys.put(loader, key);
         } catch (MalformedURLException e) {
             Platform.runLater(() -> ToastHelper.showException(e));
 
@@ -209,15 +289,18 @@ public class SpiderJarLoader {
     private void putProxy(String key) {
         URLClassLoader classLoader = loaders.get(key);
         Class<?> clazz;
-        Method method;
+        MethodHandle handle;
 
         if (classLoader == null) {
             throw new AssertionError();
         }
         try {
             clazz = classLoader.loadClass(SPIDER_PROXY_CLASS_NAME);
-            method = clazz.getMethod("proxy", Map.class);
-            methods.put(key, method);
+            // proxy会被每个代理请求调用，转换为MethodHandle缓存起来
+            handle = SpiderInvokeUtil.toGenericHandle(clazz.getMethod("proxy", Map.class));
+            if (handle != null) {
+                proxyHandles.put(key, handle);
+            }
         } catch (ClassNotFoundException | NoSuchMethodException e) {
             Platform.runLater(() -> ToastHelper.showException(e));
         }
@@ -246,10 +329,10 @@ public class SpiderJarLoader {
     }
 
     @Nullable
-    private Path download(String jar) {
+    private Path download(String jar, @Nullable String md5) {
         log.info("download jar: {}", jar);
         try {
-            return Files.write(SPIDER_CACHE_PATH.resolve(DigestUtil.md5Hex(jar)), HttpUtil.getFile(jar));
+            return jarCache.download(jar, md5);
         } catch (IOException e) {
             log.error("download jar error", e);
             Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.TV_ERROR_LOAD_SPIDER_JAR_FAILED));
@@ -258,15 +341,86 @@ public class SpiderJarLoader {
         }
     }
 
-    public Object[] proxyInvoke(Map<String, String> params) {
-        Method proxyMethod = methods.get(recent);
+    /**
+     * 为爬虫返回内容中的本地代理链接加上jar标识，以便代理请求能被路由到对应jar的Proxy.proxy
+     * @param spider 爬虫
+     * @param content 爬虫返回的内容
+     * @return 处理后的内容
+     */
+    @Nullable
+    public String attachProxyToken(Object spider, @Nullable String content) {
+        String jarKey;
+
+        if (content == null || !content.contains("proxy?")) {
+
+            return content;
+        }
+        jarKey = loaderKeys.get(spider.getClass().getClassLoader());
+        if (jarKey == null) {
+
+            return content;
+        }
+
+        return replaceLocalProxyUrls(jarKey, content);
+    }
+
+    /**
+     * 为代理返回内容（如m3u8中的分片、密钥链接）中嵌套的本地代理链接加上父请求的jar标识，
+     * 避免嵌套的代理请求因缺少jar标识而被路由到最近加载的jar
+     * @param token 父请求的jar标识
+     * @param content 代理返回的内容
+     * @return 处理后的内容
+     */
+    @Nullable
+    public String propagateProxyToken(@Nullable String token, @Nullable String content) {
+        if (content == null || !content.contains("proxy?") || token == null || !loaders.containsKey(token)) {
+
+            return content;
+        }
+
+        return replaceLocalProxyUrls(token, content);
+    }
+
+    private String replaceLocalProxyUrls(String jarKey, String content) {
+        return getLocalProxyUrlPattern().matcher(content).replaceAll("$1?" + PROXY_TOKEN_PARAM + "=" + jarKey + "&");
+    }
+
+    private Pattern getLocalProxyUrlPattern() {
+        int port = ConfigHelper.getHttpPort();
+        Pair<Integer, Pattern> cache = localProxyUrlPatternCache;
+
+        if (cache == null || cache.getLeft() != port) {
+            // 匹配本地代理服务的/proxy链接（兼容JSON中转义的斜杠），已带有jar标识的不再处理
+            cache = Pair.of(port, Pattern.compile(
+                    "(https?:(?:\\\\?/){2}[^/\\\\\"'\\s]+:" + port + "\\\\?/proxy)\\?(?!" + PROXY_TOKEN_PARAM + "=)"
+            ));
+            localProxyUrlPatternCache = cache;
+        }
+
+        return cache.getRight();
+    }
+
+    /**
+     * 调用爬虫代理
+     * @param token jar标识（代理链接中的PROXY_TOKEN_PARAM参数），为空时使用最近加载的jar
+     * @param params 代理参数
+     * @return 代理结果
+     */
+    public Object[] proxyInvoke(@Nullable String token, Map<String, String> params) {
+        String jarKey = StringUtils.isBlank(token) ? recent : token;
+        MethodHandle proxyHandle = jarKey == null ? null : proxyHandles.get(jarKey);
         Object[] result;
 
+        if (proxyHandle == null) {
+            log.warn("proxyInvoke error, no proxy method, jarKey={}", jarKey);
+
+            return ArrayUtils.EMPTY_OBJECT_ARRAY;
+        }
         try {
-            result = CastUtil.cast(proxyMethod.invoke(null, params));
-        } catch (IllegalAccessException | InvocationTargetException e) {
+            result = CastUtil.cast((Object) proxyHandle.invokeExact((Object) params));
+        } catch (Throwable e) {
             result = ArrayUtils.EMPTY_OBJECT_ARRAY;
-            log.warn("proxyInvoke error, proxyMethod={}", proxyMethod, e);
+            log.warn("proxyInvoke error, proxyHandle={}", proxyHandle, e);
         }
 
         return result;
@@ -274,11 +428,19 @@ public class SpiderJarLoader {
 
     public void destroy() {
         log.info("destroy SpiderJarLoader......");
-        for (URLClassLoader classLoader : loaders.values()) {
+        recent = null;
+        spiders.clear();
+        loaderKeys.clear();
+        proxyHandles.clear();
+        retiredLoaders.addAll(loaders.values());
+        loaders.clear();
+        for (URLClassLoader classLoader : retiredLoaders) {
             try {
                 classLoader.close();
             } catch (IOException ignored) {}
         }
-        FileUtil.clean(SPIDER_CACHE_PATH.toString());
+        retiredLoaders.clear();
+        // jar缓存会保留，供下次启动使用，这里只清理过期、不再被引用的jar
+        jarCache.prune();
     }
 }
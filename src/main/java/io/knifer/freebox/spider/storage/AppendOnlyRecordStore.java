@@ -0,0 +1,314 @@
+package io.knifer.freebox.spider.storage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.knifer.freebox.util.json.GsonUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 追加写入的记录存储
+ * 1. 所有记录常驻内存（按最近写入排序），查询不读文件
+ * 2. 写入、删除只在日志末尾追加一行（{"k":key,"v":value}，删除时没有v），并合并在一起批量刷盘
+ * 3. 日志中的无效行（被覆盖、删除的记录）过多时，重写为只包含当前记录的快照
+ *
+ * @author Knifer
+ */
+@Slf4j
+public class AppendOnlyRecordStore<V> {
+
+    /**
+     * 写入后延迟刷盘的时间
+     */
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+    /**
+     * 无效行数达到该值，且多于有效记录数时进行压缩
+     */
+    private static final int COMPACT_MIN_GARBAGE = 512;
+    private static final String KEY = "k";
+    private static final String VALUE = "v";
+
+    private final Path path;
+    private final Class<V> valueType;
+    private final ScheduledExecutorService flushScheduler;
+    private final LinkedHashMap<String, V> records = new LinkedHashMap<>();
+    private final StringBuilder pending = new StringBuilder();
+    private int garbage = 0;
+    /**
+     * 日志是否已完整读取（读取失败时不能以内存中的记录重写日志）
+     */
+    private boolean loaded = false;
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private ScheduledFuture<?> flushFuture;
+
+    AppendOnlyRecordStore(Path path, Class<V> valueType, ScheduledExecutorService flushScheduler) {
+        this.path = path;
+        this.valueType = valueType;
+        this.flushScheduler = flushScheduler;
+        load();
+    }
+
+    @Nullable
+    public synchronized V get(String key) {
+        return records.get(key);
+    }
+
+    public synchronized boolean containsKey(String key) {
+        return records.containsKey(key);
+    }
+
+    /**
+     * 获取所有记录
+     * @return 记录列表（按写入时间从早到晚排序）
+     */
+    public synchronized List<V> values() {
+        return records.isEmpty() ? List.of() : new ArrayList<>(records.values());
+    }
+
+    public synchronized void put(String key, V value) {
+        // 重新插入，使最近写入的记录排在最后
+        if (records.remove(key) != null) {
+            garbage++;
+        }
+        records.put(key, value);
+        append(key, value);
+    }
+
+    /**
+     * 合并旧数据，合并后立即压缩（用于数据迁移）
+     * 日志中已有的记录优先，旧数据排在已有记录之前
+     * @param data 旧数据
+     * @return 合并后的记录是否已写入磁盘，为false时调用方应保留旧数据，以便下次重新迁移
+     */
+    public synchronized boolean putAll(Map<String, V> data) {
+        LinkedHashMap<String, V> merged;
+
+        if (!loaded) {
+
+            return false;
+        }
+        merged = new LinkedHashMap<>(data);
+        merged.keySet().removeAll(records.keySet());
+        merged.putAll(records);
+        records.clear();
+        records.putAll(merged);
+
+        return compact();
+    }
+
+    @Nullable
+    public synchronized V remove(String key) {
+        V removed = records.remove(key);
+
+        if (removed != null) {
+            // 删除行本身及被删除的记录都是无效行
+            garbage += 2;
+            append(key, null);
+        }
+
+        return removed;
+    }
+
+    /**
+     * 将未写入的记录写入磁盘
+     */
+    public synchronized void flush() {
+        FileChannel channel;
+        ByteBuffer buffer;
+
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        if (pending.isEmpty()) {
+
+            return;
+        }
+        buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        try {
+            channel = openChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("flush record store failed, path={}", path, e);
+        }
+    }
+
+    /**
+     * 写入未写入的记录并关闭文件
+     */
+    public synchronized void close() {
+        flush();
+        closeChannel();
+    }
+
+    /**
+     * 清空记录并删除文件
+     */
+    public synchronized void delete() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        pending.setLength(0);
+        records.clear();
+        garbage = 0;
+        loaded = true;
+        closeChannel();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("delete record store failed, path={}", path, e);
+        }
+    }
+
+    private void append(String key, @Nullable V value) {
+        JsonObject line = new JsonObject();
+
+        line.addProperty(KEY, key);
+        if (value != null) {
+            line.add(VALUE, GsonUtil.toJsonTree(value));
+        }
+        pending.append(line).append('\n');
+        if (loaded && garbage >= COMPACT_MIN_GARBAGE && garbage > records.size()) {
+            compact();
+        } else if (flushFuture == null) {
+            flushFuture = flushScheduler.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 将当前记录重写为快照，替换原日志
+     * @return 是否压缩成功
+     */
+    private boolean compact() {
+        StringBuilder snapshot = new StringBuilder();
+        JsonObject line;
+        Path tempPath;
+
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        for (Map.Entry<String, V> entry : records.entrySet()) {
+            line = new JsonObject();
+            line.addProperty(KEY, entry.getKey());
+            line.add(VALUE, GsonUtil.toJsonTree(entry.getValue()));
+            snapshot.append(line).append('\n');
+        }
+        closeChannel();
+        try {
+            Files.createDirectories(path.getParent());
+            tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(snapshot.toString().getBytes(StandardCharsets.UTF_8));
+
+                while (buffer.hasRemaining()) {
+                    tempChannel.write(buffer);
+                }
+                tempChannel.force(false);
+            }
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            pending.setLength(0);
+            garbage = 0;
+            log.info("record store compacted, path={}, size={}", path, records.size());
+
+            return true;
+        } catch (IOException e) {
+            // 压缩失败时仍以追加的方式写入
+            log.error("compact record store failed, path={}", path, e);
+            flush();
+
+            return false;
+        }
+    }
+
+    private void load() {
+        String lineStr;
+        JsonObject line;
+        JsonElement value;
+        String key;
+        boolean broken = false;
+
+        if (!Files.isRegularFile(path)) {
+            loaded = true;
+
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            while ((lineStr = reader.readLine()) != null) {
+                if (lineStr.isBlank()) {
+                    continue;
+                }
+                try {
+                    line = JsonParser.parseString(lineStr).getAsJsonObject();
+                    key = line.get(KEY).getAsString();
+                    value = line.get(VALUE);
+                } catch (RuntimeException e) {
+                    // 异常退出时可能留下不完整的行
+                    log.warn("skip broken record line, path={}", path);
+                    broken = true;
+                    continue;
+                }
+                if (records.remove(key) != null) {
+                    garbage++;
+                }
+                if (value == null) {
+                    garbage++;
+                } else {
+                    records.put(key, GsonUtil.fromJson(value, valueType));
+                }
+            }
+        } catch (IOException e) {
+            log.error("load record store failed, path={}", path, e);
+
+            return;
+        }
+        loaded = true;
+        if (broken) {
+            // 不完整的行没有换行符，需要重写，避免后续追加的记录与其连在一起
+            compact();
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(
+                    path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+            );
+        }
+
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.knifer.freebox.spider.storage;
+
+import io.knifer.freebox.helper.StorageHelper;
+import io.knifer.freebox.model.common.tvbox.VodCollect;
+import io.knifer.freebox.model.common.tvbox.VodInfo;
+import io.knifer.freebox.model.domain.MovieCollection;
+import io.knifer.freebox.model.domain.MovieHistory;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 影片历史、收藏存储
+ * 每个客户端的历史、收藏各自存放在一个追加写入的日志中（movie_record/{history|collection}/{clientId}.log），
+ * 记录的key为md5(sourceKey+vodId)
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class MovieRecordStores {
+
+    private final Path HISTORY_PATH = StorageHelper.getMovieRecordPath().resolve("history");
+    private final Path COLLECTION_PATH = StorageHelper.getMovieRecordPath().resolve("collection");
+    private final String LOG_SUFFIX = ".log";
+
+    private final Map<String, AppendOnlyRecordStore<VodInfo>> HISTORY_STORES = new ConcurrentHashMap<>();
+    private final Map<String, AppendOnlyRecordStore<VodCollect>> COLLECTION_STORES = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r);
+
+        t.setName("MovieRecordStores-Flush-Thread");
+        t.setDaemon(true);
+
+        return t;
+    });
+
+    /**
+     * 获取客户端的影片历史存储
+     * @param clientId 客户端ID
+     * @return 影片历史存储
+     */
+    public AppendOnlyRecordStore<VodInfo> getHistoryStore(String clientId) {
+        return HISTORY_STORES.computeIfAbsent(clientId, id -> {
+            Path path = HISTORY_PATH.resolve(id + LOG_SUFFIX);
+            AppendOnlyRecordStore<VodInfo> store = new AppendOnlyRecordStore<>(path, VodInfo.class, FLUSH_SCHEDULER);
+
+            // 迁移旧版本以整个文件存储的历史数据，只有写入日志成功后才删除旧文件，否则下次启动时重新迁移
+            StorageHelper.find(id, MovieHistory.class).ifPresent(movieHistory -> {
+                if (movieHistory.getData() != null && !store.putAll(movieHistory.getData())) {
+                    log.warn("migrate movie history failed, keep legacy data, clientId={}", id);
+
+                    return;
+                }
+                StorageHelper.delete(id, MovieHistory.class);
+                log.info("migrate movie history, clientId={}, size={}", id, store.values().size());
+            });
+
+            return store;
+        });
+    }
+
+    /**
+     * 获取客户端的影片收藏存储
+     * @param clientId 客户端ID
+     * @return 影片收藏存储
+     */
+    public AppendOnlyRecordStore<VodCollect> getCollectionStore(String clientId) {
+        return COLLECTION_STORES.computeIfAbsent(clientId, id -> {
+            Path path = COLLECTION_PATH.resolve(id + LOG_SUFFIX);
+            AppendOnlyRecordStore<VodCollect> store = new AppendOnlyRecordStore<>(
+                    path, VodCollect.class, FLUSH_SCHEDULER
+            );
+
+            // 迁移旧版本以整个文件存储的收藏数据，只有写入日志成功后才删除旧文件，否则下次启动时重新迁移
+            StorageHelper.find(id, MovieCollection.class).ifPresent(movieCollection -> {
+                if (movieCollection.getData() != null && !store.putAll(movieCollection.getData())) {
+                    log.warn("migrate movie collection failed, keep legacy data, clientId={}", id);
+
+                    return;
+                }
+                StorageHelper.delete(id, MovieCollection.class);
+                log.info("migrate movie collection, clientId={}, size={}", id, store.values().size());
+            });
+
+            return store;
+        });
+    }
+
+    /**
+     * 删除客户端的影片历史、收藏
+     * @param clientId 客户端ID
+     */
+    public void delete(String clientId) {
+        getHistoryStore(clientId).delete();
+        getCollectionStore(clientId).delete();
+        HISTORY_STORES.remove(clientId);
+        COLLECTION_STORES.remove(clientId);
+    }
+
+    /**
+     * 将所有未写入的记录写入磁盘
+     */
+    public void flushAll() {
+        HISTORY_STORES.values().forEach(AppendOnlyRecordStore::flush);
+        COLLECTION_STORES.values().forEach(AppendOnlyRecordStore::flush);
+    }
+}
@@ -75,6 +75,11 @@ public interface SpiderTemplate {
      */
     void getSearchContent(GetSearchContentDTO dto, Consumer<AbsXml> callback);
 
+    /**
+     * 取消所有未完成的影视搜索（被取消的搜索不会回调）
+     */
+    default void cancelSearchContent() {}
+
     /**
      * 保存历史记录
      * @param dto 参数
@@ -9,8 +9,6 @@ import com.google.gson.JsonSyntaxException;
 import io.knifer.freebox.constant.BaseValues;
 import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.exception.FBException;
-import io.knifer.freebox.exception.GlobalExceptionHandler;
-import io.knifer.freebox.helper.StorageHelper;
 import io.knifer.freebox.helper.ToastHelper;
 import io.knifer.freebox.model.c2s.FreeBoxLive;
 import io.knifer.freebox.model.common.catvod.Result;
@@ -20,7 +18,9 @@ import io.knifer.freebox.model.s2c.*;
 import io.knifer.freebox.net.websocket.converter.CatVodBeanConverter;
 import io.knifer.freebox.net.websocket.core.ClientManager;
 import io.knifer.freebox.service.FutureWaitingService;
+import io.knifer.freebox.spider.SpiderExecutor;
 import io.knifer.freebox.spider.SpiderJarLoader;
+import io.knifer.freebox.spider.storage.MovieRecordStores;
 import io.knifer.freebox.spider.template.SpiderTemplate;
 import io.knifer.freebox.util.CollectionUtil;
 import io.knifer.freebox.util.HttpUtil;
@@ -34,9 +34,6 @@ import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
@@ -54,26 +51,26 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     private FreeBoxApiConfig apiConfig;
     private List<SourceBean> sourceBeans;
 
-    private final static ThreadPoolExecutor EXECUTOR =  new ThreadPoolExecutor(
-            1,
-            1,
-            0L,
-            TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(),
-            r -> {
-                Thread t = new Thread(r);
-
-                t.setName("FreeBoxSpiderTemplate-Thread");
-                t.setUncaughtExceptionHandler(GlobalExceptionHandler.getInstance());
-
-                return t;
-            }
-    );
+    private final SpiderExecutor executor;
+
+    /**
+     * 配置加载串行通道
+     */
+    private final static String CONFIG_LANE = "#config";
+    /**
+     * 历史记录、收藏读写串行通道（读-改-写需要串行，避免并发覆盖）
+     */
+    private final static String STORAGE_LANE = "#storage";
+    /**
+     * 搜索任务分组
+     */
+    private final static String SEARCH_GROUP = "search";
 
     public FreeBoxSpiderTemplate(ClientManager clientManager) {
         this.clientManager = clientManager;
         this.spiderJarLoader = SpiderJarLoader.getInstance();
         this.sourceBeans = List.of();
+        this.executor = new SpiderExecutor();
         beanConverter = CatVodBeanConverter.getInstance();
     }
 
@@ -81,7 +78,7 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void init(Consumer<Boolean> callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
+        executor.execute(CONFIG_LANE, () -> {
             String configUrl = clientInfo.getConfigUrl();
             FutureWaitingService<String> service;
 
@@ -159,8 +156,9 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
 
     @Override
     public void destroy() {
-        EXECUTOR.shutdownNow();
+        executor.shutdown();
         spiderJarLoader.destroy();
+        MovieRecordStores.flushAll();
     }
 
     @Override
@@ -170,88 +168,114 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
 
     @Override
     public void getHomeContent(SourceBean sourceBean, Consumer<AbsSortXml> callback) {
-        EXECUTOR.execute(() -> {
-            Object spider = getSpider(sourceBean);
-            Result result = GsonUtil.fromJson(SpiderInvokeUtil.homeContent(spider, false), Result.class);
-
-            log.info("getHomeContent: {}", result);
-            callback.accept(
-                    result == null ? null : beanConverter.resultToAbsSortXml(result, sourceBean.getKey())
-            );
-        });
+        executor.execute(
+                sourceBean.getKey(),
+                null,
+                BaseValues.SPIDER_REQUEST_TIMEOUT,
+                () -> {
+                    Object spider = getSpider(sourceBean);
+                    Result result = GsonUtil.fromJson(
+                            spiderJarLoader.attachProxyToken(spider, SpiderInvokeUtil.homeContent(spider, false)),
+                            Result.class
+                    );
+
+                    log.info("getHomeContent: {}", result);
+
+                    return result == null ? null : beanConverter.resultToAbsSortXml(result, sourceBean.getKey());
+                },
+                callback
+        );
     }
 
     @Override
     public void getCategoryContent(GetCategoryContentDTO dto, Consumer<AbsXml> callback) {
-        EXECUTOR.execute(() -> {
-            String sourceKey = dto.getSourceKey();
-            Object spider = getSpider(sourceKey);
-            HashMap<String, String> filterSelect = dto.getExtend();
-            boolean filter = !filterSelect.isEmpty();
-            Result result = GsonUtil.fromJson(
-                    SpiderInvokeUtil.categoryContent(
-                            spider, dto.getTid(), dto.getPage(), filter, filterSelect
-                    ),
-                    Result.class
-            );
-
-            log.info("getCategoryContent: {}", result);
-            callback.accept(result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey()));
-        });
+        executor.execute(
+                dto.getSourceKey(),
+                null,
+                BaseValues.SPIDER_REQUEST_TIMEOUT,
+                () -> {
+                    String sourceKey = dto.getSourceKey();
+                    Object spider = getSpider(sourceKey);
+                    HashMap<String, String> filterSelect = dto.getExtend();
+                    boolean filter = !filterSelect.isEmpty();
+                    Result result = GsonUtil.fromJson(
+                            spiderJarLoader.attachProxyToken(spider, SpiderInvokeUtil.categoryContent(
+                                    spider, dto.getTid(), dto.getPage(), filter, filterSelect
+                            )),
+                            Result.class
+                    );
+
+                    log.info("getCategoryContent: {}", result);
+
+                    return result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey());
+                },
+                callback
+        );
     }
 
     @Override
     public void getDetailContent(GetDetailContentDTO dto, Consumer<AbsXml> callback) {
-        EXECUTOR.execute(() -> {
-            Object spider = getSpider(dto.getSourceKey());
-            Result result = GsonUtil.fromJson(
-                    SpiderInvokeUtil.detailContent(spider, List.of(dto.getVodId())), Result.class
-            );
-
-            log.info("getDetailContent: {}", result);
-            callback.accept(result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey()));
-        });
+        executor.execute(
+                dto.getSourceKey(),
+                null,
+                BaseValues.SPIDER_REQUEST_TIMEOUT,
+                () -> {
+                    Object spider = getSpider(dto.getSourceKey());
+                    Result result = GsonUtil.fromJson(
+                            spiderJarLoader.attachProxyToken(
+                                    spider, SpiderInvokeUtil.detailContent(spider, List.of(dto.getVodId()))
+                            ),
+                            Result.class
+                    );
+
+                    log.info("getDetailContent: {}", result);
+
+                    return result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey());
+                },
+                callback
+        );
     }
 
     @Override
     public void getPlayerContent(GetPlayerContentDTO dto, Consumer<JsonObject> callback) {
-        EXECUTOR.execute(() -> {
-            Object spider = getSpider(dto.getSourceKey());
-            JsonObject sourceResult = GsonUtil.fromJson(
-                    SpiderInvokeUtil.playerContent(spider, dto.getPlayFlag(), dto.getVodId(), List.of()),
-                    JsonObject.class
-            );
-            JsonObject result;
-
-            log.info("getPlayerContent: {}", sourceResult);
-            if (sourceResult == null) {
-                callback.accept(null);
-
-                return;
-            }
-            result = new JsonObject();
-            result.add("nameValuePairs", sourceResult);
-            callback.accept(result);
-        });
+        executor.execute(
+                dto.getSourceKey(),
+                null,
+                BaseValues.SPIDER_REQUEST_TIMEOUT,
+                () -> {
+                    Object spider = getSpider(dto.getSourceKey());
+                    JsonObject sourceResult = GsonUtil.fromJson(
+                            spiderJarLoader.attachProxyToken(
+                                    spider,
+                                    SpiderInvokeUtil.playerContent(spider, dto.getPlayFlag(), dto.getVodId(), List.of())
+                            ),
+                            JsonObject.class
+                    );
+                    JsonObject result;
+
+                    log.info("getPlayerContent: {}", sourceResult);
+                    if (sourceResult == null) {
+
+                        return null;
+                    }
+                    result = new JsonObject();
+                    result.add("nameValuePairs", sourceResult);
+
+                    return result;
+                },
+                callback
+        );
     }
 
     @Override
     public void getPlayHistory(GetPlayHistoryDTO dto, Consumer<List<VodInfo>> callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieHistory movieHistory = StorageHelper.find(clientInfo.getId(), MovieHistory.class)
-                    .orElse(null);
-            Collection<VodInfo> result;
+        executor.execute(STORAGE_LANE, () -> {
+            List<VodInfo> result = MovieRecordStores.getHistoryStore(clientInfo.getId()).values();
 
-            if (movieHistory == null) {
-                log.info("getPlayHistory: null");
-                callback.accept(List.of());
-            } else {
-                result = movieHistory.getData().values();
-                log.info("getPlayHistory: {}", result);
-                callback.accept(result.isEmpty() ? List.of() : new ArrayList<>(result));
-            }
+            log.info("getPlayHistory: {}", result.size());
+            callback.accept(result);
         });
     }
 
@@ -259,59 +283,53 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void getOnePlayHistory(GetOnePlayHistoryDTO dto, Consumer<VodInfo> callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieHistory movieHistory = StorageHelper.find(clientInfo.getId(), MovieHistory.class)
-                    .orElse(null);
-            VodInfo result;
+        executor.execute(STORAGE_LANE, () -> {
+            VodInfo result = MovieRecordStores.getHistoryStore(clientInfo.getId())
+                    .get(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()));
 
-            if (movieHistory == null) {
-                callback.accept(null);
-                log.info("getOnePlayHistory: null");
-            } else {
-                result = movieHistory.getData().get(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()));
-                log.info("getOnePlayHistory: {}", result);
-                callback.accept(result);
-            }
+            log.info("getOnePlayHistory: {}", result);
+            callback.accept(result);
         });
     }
 
     @Override
     public void getSearchContent(GetSearchContentDTO dto, Consumer<AbsXml> callback) {
-        EXECUTOR.execute(() -> {
-            Object spider = getSpider(dto.getSourceKey());
-            Result result = GsonUtil.fromJson(
-                    SpiderInvokeUtil.searchContent(spider, dto.getKeyword(), false),
-                    Result.class
-            );
-
-            log.info("getSearchContent: {}", result);
-            callback.accept(result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey()));
-        });
+        executor.execute(
+                dto.getSourceKey(),
+                SEARCH_GROUP,
+                BaseValues.SPIDER_SEARCH_TIMEOUT,
+                () -> {
+                    Object spider = getSpider(dto.getSourceKey());
+                    Result result = GsonUtil.fromJson(
+                            spiderJarLoader.attachProxyToken(
+                                    spider, SpiderInvokeUtil.searchContent(spider, dto.getKeyword(), false)
+                            ),
+                            Result.class
+                    );
+
+                    log.info("getSearchContent: {}", result);
+
+                    return result == null ? null : beanConverter.resultToAbsXml(result, dto.getSourceKey());
+                },
+                callback
+        );
+    }
+
+    @Override
+    public void cancelSearchContent() {
+        executor.cancel(SEARCH_GROUP);
     }
 
     @Override
     public <T extends RuntimeException> void savePlayHistory(SavePlayHistoryDTO dto, Consumer<T> onError) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieHistory movieHistory = StorageHelper.find(clientInfo.getId(), MovieHistory.class)
-                    .orElse(null);
-            Map<String, VodInfo> data;
-            VodInfo vodInfo;
+        executor.execute(STORAGE_LANE, () -> {
+            VodInfo vodInfo = VodInfo.from(dto);
 
-            if (movieHistory == null) {
-                data = new HashMap<>();
-                movieHistory = MovieHistory.of(clientInfo.getId(), data);
-            } else {
-                data = movieHistory.getData();
-            }
-            vodInfo = VodInfo.from(dto);
-            data.put(
-                    DigestUtil.md5Hex(vodInfo.getSourceKey() + vodInfo.getId()),
-                    vodInfo
-            );
-            StorageHelper.save(movieHistory);
-            log.info("savePlayHistory: {}", movieHistory);
+            MovieRecordStores.getHistoryStore(clientInfo.getId())
+                    .put(DigestUtil.md5Hex(vodInfo.getSourceKey() + vodInfo.getId()), vodInfo);
+            log.info("savePlayHistory: {}", vodInfo);
         });
     }
 
@@ -319,23 +337,12 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void deletePlayHistory(DeletePlayHistoryDTO dto, Runnable callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieHistory movieHistory = StorageHelper.find(clientInfo.getId(), MovieHistory.class)
-                    .orElse(null);
-            VodInfo removed;
+        executor.execute(STORAGE_LANE, () -> {
+            VodInfo removed = MovieRecordStores.getHistoryStore(clientInfo.getId())
+                    .remove(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()));
 
-            if (movieHistory == null) {
-                callback.run();
-            } else {
-                removed = movieHistory.getData().remove(
-                        DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId())
-                );
-                if (removed != null) {
-                    StorageHelper.save(movieHistory);
-                }
-                callback.run();
-            }
-            log.info("deletePlayHistory: {}", movieHistory);
+            callback.run();
+            log.info("deletePlayHistory: {}", removed);
         });
     }
 
@@ -343,24 +350,13 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void saveMovieCollection(SaveMovieCollectionDTO dto, Runnable callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieCollection movieCollection = StorageHelper.find(clientInfo.getId(), MovieCollection.class)
-                    .orElse(null);
-            Map<String, VodCollect> data;
+        executor.execute(STORAGE_LANE, () -> {
+            VodCollect vodCollect = VodCollect.from(dto);
 
-            if (movieCollection == null) {
-                data = new HashMap<>();
-                movieCollection = MovieCollection.of(clientInfo.getId(), data);
-            } else {
-                data = movieCollection.getData();
-            }
-            data.put(
-                    DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()),
-                    VodCollect.from(dto)
-            );
-            StorageHelper.save(movieCollection);
+            MovieRecordStores.getCollectionStore(clientInfo.getId())
+                    .put(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()), vodCollect);
             callback.run();
-            log.info("saveMovieCollection: {}", movieCollection);
+            log.info("saveMovieCollection: {}", vodCollect);
         });
     }
 
@@ -368,23 +364,12 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void deleteMovieCollection(DeleteMovieCollectionDTO dto, Runnable callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieCollection movieCollection = StorageHelper.find(clientInfo.getId(), MovieCollection.class)
-                    .orElse(null);
-            VodCollect removed;
+        executor.execute(STORAGE_LANE, () -> {
+            VodCollect removed = MovieRecordStores.getCollectionStore(clientInfo.getId())
+                    .remove(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()));
 
-            if (movieCollection == null) {
-                callback.run();
-            } else {
-                removed = movieCollection.getData().remove(
-                        DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId())
-                );
-                if (removed != null) {
-                    StorageHelper.save(movieCollection);
-                }
-                callback.run();
-            }
-            log.info("deleteMovieCollection: {}", movieCollection);
+            callback.run();
+            log.info("deleteMovieCollection: {}", removed);
         });
     }
 
@@ -392,19 +377,11 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void getMovieCollection(Consumer<List<VodCollect>> callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieCollection movieCollection = StorageHelper.find(clientInfo.getId(), MovieCollection.class)
-                    .orElse(null);
-            Collection<VodCollect> result;
+        executor.execute(STORAGE_LANE, () -> {
+            List<VodCollect> result = MovieRecordStores.getCollectionStore(clientInfo.getId()).values();
 
-            if (movieCollection == null) {
-                log.info("getMovieCollection: null");
-                callback.accept(List.of());
-            } else {
-                result = movieCollection.getData().values();
-                log.info("getMovieCollection: {}", movieCollection);
-                callback.accept(result.isEmpty() ? List.of() : new ArrayList<>(result));
-            }
+            log.info("getMovieCollection: {}", result.size());
+            callback.accept(result);
         });
     }
 
@@ -412,21 +389,12 @@ public class FreeBoxSpiderTemplate implements SpiderTemplate {
     public void getMovieCollectedStatus(GetMovieCollectedStatusDTO dto, Consumer<Boolean> callback) {
         ClientInfo clientInfo = getClientInfo();
 
-        EXECUTOR.execute(() -> {
-            MovieCollection movieCollection = StorageHelper.find(clientInfo.getId(), MovieCollection.class)
-                    .orElse(null);
-            boolean flag;
+        executor.execute(STORAGE_LANE, () -> {
+            boolean flag = MovieRecordStores.getCollectionStore(clientInfo.getId())
+                    .containsKey(DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId()));
 
-            if (movieCollection == null) {
-                log.info("getMovieCollectedStatus: false");
-                callback.accept(false);
-            } else {
-                flag = movieCollection.getData().containsKey(
-                        DigestUtil.md5Hex(dto.getSourceKey() + dto.getVodId())
-                );
-                log.info("getMovieCollectedStatus: {}", flag);
-                callback.accept(flag);
-            }
+            log.info("getMovieCollectedStatus: {}", flag);
+            callback.accept(flag);
         });
     }
 
@@ -11,6 +11,7 @@ import io.knifer.freebox.model.common.tvbox.*;
 import io.knifer.freebox.model.domain.ClientInfo;
 import io.knifer.freebox.model.s2c.*;
 import io.knifer.freebox.net.websocket.converter.CatVodBeanConverter;
+import io.knifer.freebox.net.websocket.core.ClientLoadBalancer;
 import io.knifer.freebox.net.websocket.core.ClientManager;
 import io.knifer.freebox.net.websocket.core.KebSocketRunner;
 import io.knifer.freebox.service.FutureWaitingService;
@@ -22,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
@@ -42,10 +44,13 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
 
     private final CatVodBeanConverter beanConverter;
 
+    private final ClientLoadBalancer loadBalancer;
+
     public KebSocketSpiderTemplate(KebSocketRunner runner, ClientManager clientManager) {
         this.runner = runner;
         this.clientManager = clientManager;
         this.beanConverter = CatVodBeanConverter.getInstance();
+        this.loadBalancer = new ClientLoadBalancer(runner, clientManager);
     }
 
     @Override
@@ -54,7 +59,15 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
                 MessageCodes.GET_SOURCE_BEAN_LIST,
                 null,
                 new TypeToken<List<SourceBean>>(){},
-                msg -> callback.accept(CastUtil.cast(msg))
+                msg -> {
+                    ClientInfo clientInfo = clientManager.getCurrentClientImmediately();
+
+                    if (clientInfo != null) {
+                        // 记录当前客户端的源配置，用于多客户端请求分担
+                        loadBalancer.updateSourceConfig(clientInfo, msg);
+                    }
+                    callback.accept(CastUtil.cast(msg));
+                }
         );
     }
 
@@ -63,6 +76,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
         execute(
                 MessageCodes.GET_HOME_CONTENT,
                 sourceBean,
+                sourceBean.getKey(),
                 new TypeToken<Result>(){},
                 msg -> callback.accept(
                         msg == null ? null : beanConverter.resultToAbsSortXml(msg, sourceBean.getKey())
@@ -75,6 +89,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
         execute(
                 MessageCodes.GET_CATEGORY_CONTENT,
                 dto,
+                dto.getSourceKey(),
                 new TypeToken<Result>(){},
                 msg -> callback.accept(
                         msg == null ? null : beanConverter.resultToAbsXml(msg, dto.getSourceKey())
@@ -87,6 +102,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
         execute(
                 MessageCodes.GET_DETAIL_CONTENT,
                 dto,
+                dto.getSourceKey(),
                 new TypeToken<Result>(){},
                 msg -> callback.accept(
                         msg == null ? null : beanConverter.resultToAbsXml(msg, dto.getSourceKey())
@@ -144,6 +160,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
         execute(
                 MessageCodes.GET_SEARCH_CONTENT,
                 dto,
+                dto.getSourceKey(),
                 new TypeToken<Result>(){},
                 msg -> callback.accept(
                         msg == null ? null : beanConverter.resultToAbsXml(msg, dto.getSourceKey())
@@ -249,6 +266,16 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
             T data,
             TypeToken<R> typeToken,
             Consumer<R> callback
+    ) {
+        execute(messageCode, data, null, typeToken, callback);
+    }
+
+    private <T, R> void execute(
+            int messageCode,
+            T data,
+            @Nullable String sourceKey,
+            TypeToken<R> typeToken,
+            Consumer<R> callback
     ) {
         FutureWaitingService<ClientInfo> service = new FutureWaitingService<>(
                 clientManager.getCurrentClient(), false
@@ -258,6 +285,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
                 service,
                 messageCode,
                 data,
+                sourceKey,
                 typeToken,
                 callback,
                 null
@@ -267,6 +295,7 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
     private <T, R> void execute(
             int messageCode,
             T data,
+            @Nullable String sourceKey,
             TypeToken<R> typeToken,
             Consumer<R> callback,
             Set<Class<? extends Throwable>> ignoringToastThrowableClasses
@@ -279,16 +308,22 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
                 service,
                 messageCode,
                 data,
+                sourceKey,
                 typeToken,
                 callback,
                 ignoringToastThrowableClasses
         );
     }
 
+    /**
+     * 处理获取当前客户端的结果，并发送请求
+     * 带有sourceKey的请求可能由持有相同源配置的其他客户端处理，见ClientLoadBalancer
+     */
     private <T, R> void dealWithClientInfoFutureWaitingService(
             FutureWaitingService<ClientInfo> service,
             int messageCode,
             T data,
+            @Nullable String sourceKey,
             TypeToken<R> typeToken,
             Consumer<R> callback,
             @Nullable Set<Class<? extends Throwable>> ignoringToastThrowableClasses
@@ -296,29 +331,20 @@ public class KebSocketSpiderTemplate implements SpiderTemplate {
         service.setOnSucceeded(evt -> {
             ClientInfo clientInfo = service.getValue();
             FutureWaitingService<R> processService;
+            CompletableFuture<R> resultFuture;
 
             if (clientInfo == null) {
                 return;
             }
+            resultFuture = loadBalancer.execute(
+                    clientInfo,
+                    sourceKey,
+                    client -> runner.sendTopic(client.getConnection(), messageCode, data, typeToken)
+            );
             if (ignoringToastThrowableClasses == null) {
-                processService = new FutureWaitingService<>(
-                        runner.sendTopic(
-                                clientInfo.getConnection(),
-                                messageCode,
-                                data,
-                                typeToken
-                        )
-                );
+                processService = new FutureWaitingService<>(resultFuture);
             } else {
-                processService = new FutureWaitingService<>(
-                        runner.sendTopic(
-                                clientInfo.getConnection(),
-                                messageCode,
-                                data,
-                                typeToken
-                        ),
-                        ignoringToastThrowableClasses
-                );
+                processService = new FutureWaitingService<>(resultFuture, ignoringToastThrowableClasses);
             }
             processService.setOnSucceeded(event -> callback.accept(processService.getValue()));
             processService.start();
@@ -10,6 +10,7 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 
@@ -62,6 +63,25 @@ public class HttpUtil {
         ).thenApply(HttpResponse::body);
     }
 
+    /**
+     * 下载到文件（响应体直接写入文件，不在内存中保留完整内容）
+     * @param url 链接
+     * @param path 文件路径
+     * @param headers 请求头
+     * @return 响应
+     */
+    public CompletableFuture<HttpResponse<Path>> getFileAsync(String url, Path path, String... headers) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .GET()
+                .uri(parseUrl(url));
+
+        if (headers.length > 0) {
+            requestBuilder.headers(headers);
+        }
+
+        return client.sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofFile(path));
+    }
+
     public URI parseUrl(String url) {
         String[] protocolAndPath = url.split("://", 2);
         String protocol = protocolAndPath[0];
@@ -0,0 +1,253 @@
+package io.knifer.freebox.util;
+
+import io.knifer.freebox.constant.I18nKeys;
+import io.knifer.freebox.helper.I18nHelper;
+import io.knifer.freebox.model.domain.LiveChannel;
+import io.knifer.freebox.model.domain.LiveChannelGroup;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 直播列表解析（M3U / TXT）
+ * 逐行读取，一次遍历直接构建频道分组，不保留完整文本及中间条目
+ *
+ * @author Knifer
+ */
+@UtilityClass
+public class LiveListParser {
+
+    private static final String EXTINF = "#EXTINF:";
+    private static final String EXTGRP = "#EXTGRP:";
+    private static final String GENRE_FLAG = "#genre#";
+
+    /**
+     * 解析M3U直播列表
+     * @param reader 列表内容
+     * @return 频道分组（按首次出现的顺序）
+     */
+    public List<LiveChannelGroup> parseM3u(BufferedReader reader) throws IOException {
+        GroupCollector collector = new GroupCollector();
+        // 频道 -> 首个不为空的logo，用于同一频道中没有logo的线路
+        Map<LiveChannel, String> channelLogoMap = new IdentityHashMap<>();
+        String ungroupedTitle = I18nHelper.get(I18nKeys.LIVE_UNGROUPED);
+        String untitledTitle = I18nHelper.get(I18nKeys.LIVE_UNTITLED);
+        int untitledChannelIdx = 0;
+        String line;
+        Map<String, String> attributes = new HashMap<>();
+        String title = null;
+        String extGroupTitle = null;
+        String groupTitle;
+        String logoUrl;
+        LiveChannel channel;
+
+        skipBom(reader);
+        while ((line = reader.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                if (line.startsWith(EXTINF)) {
+                    attributes.clear();
+                    title = parseExtInf(line, attributes);
+                    extGroupTitle = null;
+                } else if (line.startsWith(EXTGRP)) {
+                    extGroupTitle = line.substring(EXTGRP.length()).strip();
+                }
+                continue;
+            }
+            // 线路地址
+            groupTitle = attributes.get("group-title");
+            if (StringUtils.isBlank(groupTitle)) {
+                groupTitle = StringUtils.isBlank(extGroupTitle) ? ungroupedTitle : extGroupTitle;
+            }
+            if (StringUtils.isBlank(title)) {
+                title = untitledTitle + untitledChannelIdx++;
+            }
+            channel = collector.getChannel(groupTitle, title);
+            logoUrl = attributes.get("tvg-logo");
+            if (StringUtils.isBlank(logoUrl)) {
+                logoUrl = channelLogoMap.get(channel);
+            } else {
+                channelLogoMap.putIfAbsent(channel, logoUrl);
+            }
+            collector.addLine(channel, null, logoUrl, line);
+            attributes.clear();
+            title = null;
+            extGroupTitle = null;
+        }
+
+        return collector.getGroups();
+    }
+
+    /**
+     * 解析TXT直播列表（“分组名,#genre#”与“频道名,线路地址”交替出现）
+     * @param reader 列表内容
+     * @return 频道分组（按首次出现的顺序）
+     */
+    public List<LiveChannelGroup> parseTxt(BufferedReader reader) throws IOException {
+        GroupCollector collector = new GroupCollector();
+        // 同名频道（即使在不同分组下）的线路合并到最先出现的频道中
+        Map<String, LiveChannel> titleAndLiveChannelMap = new HashMap<>();
+        String groupTitle = I18nHelper.get(I18nKeys.LIVE_UNGROUPED);
+        String line;
+        int commaIdx;
+        String name;
+        String value;
+        LiveChannel channel;
+        int lineTitleStartIdx;
+        String lineTitle;
+
+        skipBom(reader);
+        while ((line = reader.readLine()) != null) {
+            commaIdx = line.indexOf(',');
+            // 只处理恰好包含一个逗号的行
+            if (commaIdx < 0 || line.indexOf(',', commaIdx + 1) >= 0) {
+                continue;
+            }
+            name = line.substring(0, commaIdx);
+            value = line.substring(commaIdx + 1);
+            if (name.isEmpty() || value.isEmpty()) {
+                continue;
+            }
+            if (value.strip().equals(GENRE_FLAG)) {
+                // 频道分组
+                groupTitle = collector.getGroup(name).getTitle();
+                continue;
+            }
+            // 频道
+            channel = titleAndLiveChannelMap.get(name);
+            if (channel == null) {
+                channel = collector.getChannel(groupTitle, name);
+                titleAndLiveChannelMap.put(name, channel);
+            }
+            // 解析线路名称（地址『线路名』）
+            lineTitleStartIdx = value.indexOf('『');
+            if (
+                    lineTitleStartIdx >= 0 &&
+                    lineTitleStartIdx < value.length() - 1 &&
+                    value.indexOf('『', lineTitleStartIdx + 1) < 0
+            ) {
+                lineTitle = value.substring(lineTitleStartIdx + 1, value.length() - 1);
+            } else {
+                lineTitle = null;
+            }
+            collector.addLine(channel, lineTitle, null, value);
+        }
+
+        return collector.getGroups();
+    }
+
+    private void skipBom(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') {
+            reader.reset();
+        }
+    }
+
+    /**
+     * 解析EXTINF行：#EXTINF:时长 key="value" ...,标题
+     * @param line EXTINF行
+     * @param attributes 用于接收属性
+     * @return 标题
+     */
+    @Nullable
+    private String parseExtInf(String line, Map<String, String> attributes) {
+        int length = line.length();
+        int idx = EXTINF.length();
+        int keyStartIdx;
+        int keyEndIdx;
+        int valueStartIdx;
+        int valueEndIdx;
+        char c;
+
+        // 跳过时长
+        while (idx < length && (c = line.charAt(idx)) != ' ' && c != '\t' && c != ',') {
+            idx++;
+        }
+        while (idx < length) {
+            c = line.charAt(idx);
+            if (c == ',') {
+
+                return line.substring(idx + 1).strip();
+            }
+            if (c == ' ' || c == '\t') {
+                idx++;
+                continue;
+            }
+            keyStartIdx = idx;
+            while (idx < length && (c = line.charAt(idx)) != '=' && c != ' ' && c != ',') {
+                idx++;
+            }
+            if (idx >= length || line.charAt(idx) != '=') {
+                // 不是key=value格式的内容，忽略
+                continue;
+            }
+            keyEndIdx = idx++;
+            if (idx < length && line.charAt(idx) == '"') {
+                valueStartIdx = idx + 1;
+                valueEndIdx = line.indexOf('"', valueStartIdx);
+                if (valueEndIdx < 0) {
+                    valueEndIdx = length;
+                }
+                idx = valueEndIdx + 1;
+            } else {
+                valueStartIdx = idx;
+                while (idx < length && (c = line.charAt(idx)) != ' ' && c != ',') {
+                    idx++;
+                }
+                valueEndIdx = idx;
+            }
+            attributes.put(line.substring(keyStartIdx, keyEndIdx), line.substring(valueStartIdx, valueEndIdx));
+        }
+
+        return null;
+    }
+
+    /**
+     * 频道分组收集器
+     * 分组名称只保留一份（后续出现的同名分组复用首次出现的字符串），按分组、频道名称直接定位频道
+     */
+    private static class GroupCollector {
+
+        private final Map<String, LiveChannelGroup> groupMap = new LinkedHashMap<>();
+        private final Map<LiveChannelGroup, Map<String, LiveChannel>> groupChannelMap = new IdentityHashMap<>();
+        private final String lineTitlePrefix = I18nHelper.get(I18nKeys.LIVE_LINE);
+
+        private LiveChannelGroup getGroup(String title) {
+            return groupMap.computeIfAbsent(title, LiveChannelGroup::from);
+        }
+
+        private LiveChannel getChannel(String groupTitle, String title) {
+            LiveChannelGroup group = getGroup(groupTitle);
+
+            return groupChannelMap.computeIfAbsent(group, g -> new HashMap<>())
+                    .computeIfAbsent(title, t -> {
+                        LiveChannel channel = LiveChannel.of(group.getTitle(), t);
+
+                        group.getChannels().add(channel);
+
+                        return channel;
+                    });
+        }
+
+        private void addLine(LiveChannel channel, @Nullable String lineTitle, @Nullable String logoUrl, String url) {
+            List<LiveChannel.Line> lines = channel.getLines();
+
+            lines.add(LiveChannel.Line.of(
+                    lineTitle == null ? lineTitlePrefix + (lines.size() + 1) : lineTitle,
+                    logoUrl,
+                    url
+            ));
+        }
+
+        private List<LiveChannelGroup> getGroups() {
+            return new ArrayList<>(groupMap.values());
+        }
+    }
+}
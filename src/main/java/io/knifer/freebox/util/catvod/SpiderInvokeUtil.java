@@ -8,14 +8,16 @@ import lombok.extern.slf4j.Slf4j;
 import okhttp3.OkHttpClient;
 
 import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 /**
  * 爬虫执行工具类
+ * 每个爬虫类的CatVod方法只会被查找一次，并转换为MethodHandle缓存起来（不存在的方法同样会被缓存，不会重复查找、提示）
  *
  * @author Knifer
  */
@@ -23,132 +25,145 @@ import java.util.Optional;
 @UtilityClass
 public class SpiderInvokeUtil {
 
+    /**
+     * 爬虫类 -> 方法表（下标为SpiderMethod的ordinal，null表示方法不存在）
+     * 使用ClassValue，爬虫类卸载后缓存可以被一同回收
+     */
+    private final ClassValue<MethodHandle[]> DISPATCH_TABLES = new ClassValue<>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> type) {
+            SpiderMethod[] spiderMethods = SpiderMethod.values();
+            MethodHandle[] handles = new MethodHandle[spiderMethods.length];
+
+            for (SpiderMethod spiderMethod : spiderMethods) {
+                handles[spiderMethod.ordinal()] = resolve(type, spiderMethod);
+            }
+
+            return handles;
+        }
+    };
+
     public void init(Object spider, @Nullable String extend) {
         if (extend == null) {
-            getMethod(spider, "init").ifPresent(method -> invoke(spider, method));
+            invoke(spider, SpiderMethod.INIT);
         } else {
-            getMethod(spider, "init", String.class)
-                    .ifPresent(method -> invoke(spider, method, extend));
+            invoke(spider, SpiderMethod.INIT_WITH_EXTEND, extend);
         }
     }
 
     @Nullable
     public String homeContent(Object spider, boolean filter) {
-        return getMethod(spider, "homeContent", boolean.class)
-                .map(method -> SpiderInvokeUtil.<String>invoke(spider, method, filter))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.HOME_CONTENT, filter);
     }
 
     @Nullable
     public String homeVideoContent(Object spider) {
-        return getMethod(spider, "homeVideoContent")
-                .map(method -> SpiderInvokeUtil.<String>invoke(spider, method))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.HOME_VIDEO_CONTENT);
     }
 
     @Nullable
     public String categoryContent(
             Object spider, String tid, String pg, boolean filter, @Nullable HashMap<String, String> extend
     ) {
-        return getMethod(spider, "categoryContent", String.class, String.class, boolean.class, HashMap.class)
-                .map(method -> SpiderInvokeUtil.<String>invoke(spider, method, tid, pg, filter, extend))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.CATEGORY_CONTENT, tid, pg, filter, extend);
     }
 
     @Nullable
     public String detailContent(Object spider, List<String> ids) {
-        return getMethod(spider, "detailContent", List.class)
-                .map(method -> SpiderInvokeUtil.<String>invoke(spider, method, ids))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.DETAIL_CONTENT, ids);
     }
 
     @Nullable
     public String searchContent(Object spider, String key, boolean quick) {
-        Class<?> clazz = spider.getClass();
-        Method method;
-        Object result = null;
-
-        try {
-            method = clazz.getMethod("searchContent", String.class, boolean.class);
-            result = method.invoke(spider, key, quick);
-        } catch (Throwable ignored) {}
-
-        return result == null ? null : (String) result;
+        return invokeQuietly(spider, SpiderMethod.SEARCH_CONTENT, key, quick);
     }
 
     @Nullable
     public String searchContent(Object spider, String key, boolean quick, String pg) {
-        Class<?> clazz = spider.getClass();
-        Method method;
-        Object result = null;
-
-        try {
-            method = clazz.getMethod("searchContent", String.class, boolean.class, String.class);
-            result = method.invoke(spider, key, quick, pg);
-        } catch (Throwable ignored) {}
-
-        return result == null ? null : (String) result;
+        return invokeQuietly(spider, SpiderMethod.SEARCH_CONTENT_WITH_PAGE, key, quick, pg);
     }
 
     @Nullable
     public String playerContent(Object spider, String flag, String id, List<String> vipFlags) {
-        return getMethod(spider, "playerContent", String.class, String.class, List.class)
-                .map(method -> SpiderInvokeUtil.<String>invoke(spider, method, flag, id, vipFlags))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.PLAYER_CONTENT, flag, id, vipFlags);
     }
 
     public boolean manualVideoCheck(Object spider) {
-        return (boolean) getMethod(spider, "manualVideoCheck")
-                .map(method -> invoke(spider, method))
-                .orElse(false);
+        Boolean result = invoke(spider, SpiderMethod.MANUAL_VIDEO_CHECK);
+
+        return result != null && result;
     }
 
     public boolean isVideoFormat(Object spider, String url) {
-        return (boolean) getMethod(spider, "isVideoFormat", String.class)
-                .map(method -> invoke(spider, method, url))
-                .orElse(false);
+        Boolean result = invoke(spider, SpiderMethod.IS_VIDEO_FORMAT, url);
+
+        return result != null && result;
     }
 
     @Nullable
     public Object[] proxyLocal(Object spider, Map<String, String> params) {
-        return getMethod(spider, "proxyLocal", Map.class)
-                .map(method -> SpiderInvokeUtil.<Object[]>invoke(spider, method, params))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.PROXY_LOCAL, params);
     }
 
     public void destroy(Object spider) {
-        getMethod(spider, "destroy")
-                .ifPresent(method -> invoke(spider, method));
+        invoke(spider, SpiderMethod.DESTROY);
     }
 
     @Nullable
     public OkHttpClient client(Object spider) {
-        return getMethod(spider, "client")
-                .map(method -> SpiderInvokeUtil.<OkHttpClient>invoke(spider, method))
-                .orElse(null);
+        return invoke(spider, SpiderMethod.CLIENT);
     }
 
-    private Optional<Method> getMethod(Object spider, String methodName, Class<?> ... parameterTypes) {
-        Class<?> clazz = spider.getClass();
+    /**
+     * 将方法转换为参数、返回值均为Object的MethodHandle，以便使用invokeExact调用
+     * @param method 方法
+     * @return MethodHandle，转换失败时返回null
+     */
+    @Nullable
+    public MethodHandle toGenericHandle(Method method) {
+        MethodHandle handle;
 
         try {
-            return Optional.of(clazz.getMethod(methodName, parameterTypes));
-        } catch (Throwable e) {
-            log.error("FreeBox spider exception", e);
-            Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.ERROR_SPIDER_INVOKE_FAILED));
-
-            return Optional.empty();
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            try {
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (RuntimeException | IllegalAccessException e1) {
+                log.warn("unreflect spider method failed, method={}", method, e1);
+
+                return null;
+            }
         }
+
+        return handle.asType(handle.type().generic());
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> T invoke(Object spider, Method method, Object ... args) {
-        Object result;
+    @Nullable
+    private MethodHandle resolve(Class<?> type, SpiderMethod spiderMethod) {
+        Method method;
 
         try {
-            result = method.invoke(spider, args);
+            method = type.getMethod(spiderMethod.methodName, spiderMethod.parameterTypes);
+        } catch (NoSuchMethodException e) {
+            // 只在解析时记录一次
+            log.warn("spider method not found, class={}, method={}", type.getName(), spiderMethod.methodName);
+
+            return null;
+        }
+
+        return toGenericHandle(method);
+    }
 
-            return result == null ? null : (T) result;
+    @Nullable
+    private MethodHandle getHandle(Object spider, SpiderMethod spiderMethod) {
+        return DISPATCH_TABLES.get(spider.getClass())[spiderMethod.ordinal()];
+    }
+
+    @Nullable
+    private <T> T invoke(Object spider, SpiderMethod spiderMethod, Object... args) {
+        try {
+            return doInvoke(spider, spiderMethod, args);
         } catch (Throwable e) {
             log.error("FreeBox spider exception", e);
             Platform.runLater(() -> ToastHelper.showErrorI18n(I18nKeys.ERROR_SPIDER_INVOKE_FAILED));
@@ -156,4 +171,74 @@ public class SpiderInvokeUtil {
 
         return null;
     }
+
+    @Nullable
+    private <T> T invokeQuietly(Object spider, SpiderMethod spiderMethod, Object... args) {
+        try {
+            return doInvoke(spider, spiderMethod, args);
+        } catch (Throwable ignored) {}
+
+        return null;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private <T> T doInvoke(Object spider, SpiderMethod spiderMethod, Object... args) throws Throwable {
+        MethodHandle handle = getHandle(spider, spiderMethod);
+        Object result;
+
+        if (handle == null) {
+
+            return null;
+        }
+        // 按参数数量使用invokeExact调用，避免invokeWithArguments的装箱、适配开销
+        result = switch (args.length) {
+            case 0 -> (Object) handle.invokeExact(spider);
+            case 1 -> (Object) handle.invokeExact(spider, args[0]);
+            case 2 -> (Object) handle.invokeExact(spider, args[0], args[1]);
+            case 3 -> (Object) handle.invokeExact(spider, args[0], args[1], args[2]);
+            case 4 -> (Object) handle.invokeExact(spider, args[0], args[1], args[2], args[3]);
+            default -> handle.invokeWithArguments(prepend(spider, args));
+        };
+
+        return (T) result;
+    }
+
+    private Object[] prepend(Object spider, Object[] args) {
+        Object[] result = new Object[args.length + 1];
+
+        result[0] = spider;
+        System.arraycopy(args, 0, result, 1, args.length);
+
+        return result;
+    }
+
+    /**
+     * CatVod爬虫方法
+     */
+    private enum SpiderMethod {
+
+        INIT("init"),
+        INIT_WITH_EXTEND("init", String.class),
+        HOME_CONTENT("homeContent", boolean.class),
+        HOME_VIDEO_CONTENT("homeVideoContent"),
+        CATEGORY_CONTENT("categoryContent", String.class, String.class, boolean.class, HashMap.class),
+        DETAIL_CONTENT("detailContent", List.class),
+        SEARCH_CONTENT("searchContent", String.class, boolean.class),
+        SEARCH_CONTENT_WITH_PAGE("searchContent", String.class, boolean.class, String.class),
+        PLAYER_CONTENT("playerContent", String.class, String.class, List.class),
+        MANUAL_VIDEO_CHECK("manualVideoCheck"),
+        IS_VIDEO_FORMAT("isVideoFormat", String.class),
+        PROXY_LOCAL("proxyLocal", Map.class),
+        DESTROY("destroy"),
+        CLIENT("client");
+
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+
+        SpiderMethod(String methodName, Class<?>... parameterTypes) {
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+        }
+    }
 }
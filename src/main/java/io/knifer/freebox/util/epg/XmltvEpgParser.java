@@ -0,0 +1,237 @@
+package io.knifer.freebox.util.epg;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * XMLTV节目单解析
+ * 使用StAX流式读取（支持gzip压缩），不构建DOM，直接生成XmltvEpgStore
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class XmltvEpgParser {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+    private static final DateTimeFormatter DATETIME_WITH_OFFSET_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyyMMddHHmmss Z");
+    private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    static {
+        // 节目单来自网络，禁止解析DTD及外部实体
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * 解析XMLTV节目单
+     * @param inputStream 节目单内容（可以是gzip压缩的）
+     * @return 节目单存储
+     */
+    public XmltvEpgStore parse(InputStream inputStream) throws IOException {
+        InputStream in = new BufferedInputStream(inputStream, 64 * 1024);
+        XMLStreamReader reader = null;
+        // 频道id -> 频道名称
+        Map<String, List<String>> channelIdAndNamesMap = new HashMap<>();
+        // 频道id -> 节目
+        Map<String, ProgrammesBuilder> channelIdAndProgrammesMap = new HashMap<>();
+        // 重复的节目标题（如新闻、天气预报）只保留一份
+        Map<String, String> titlePool = new HashMap<>();
+        ZoneId zoneId = ZoneId.systemDefault();
+        String channelId = null;
+        ProgrammesBuilder programmes = null;
+        long start = 0;
+        long stop = 0;
+        String title = null;
+        String desc = null;
+        String localName;
+        Long startTime;
+        Long stopTime;
+
+        in.mark(2);
+        if (in.read() == 0x1f && in.read() == 0x8b) {
+            in.reset();
+            in = new BufferedInputStream(new GZIPInputStream(in, 64 * 1024), 64 * 1024);
+        } else {
+            in.reset();
+        }
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        localName = reader.getLocalName();
+                        switch (localName) {
+                            case "channel" -> channelId = reader.getAttributeValue(null, "id");
+                            case "display-name" -> {
+                                if (channelId != null) {
+                                    channelIdAndNamesMap.computeIfAbsent(channelId, k -> new ArrayList<>(2))
+                                            .add(reader.getElementText());
+                                }
+                            }
+                            case "programme" -> {
+                                startTime = parseTime(reader.getAttributeValue(null, "start"), zoneId);
+                                stopTime = parseTime(reader.getAttributeValue(null, "stop"), zoneId);
+                                channelId = reader.getAttributeValue(null, "channel");
+                                if (startTime == null || stopTime == null || stopTime <= startTime || channelId == null) {
+                                    programmes = null;
+                                } else {
+                                    programmes = channelIdAndProgrammesMap.computeIfAbsent(
+                                            channelId, k -> new ProgrammesBuilder()
+                                    );
+                                    start = startTime;
+                                    stop = stopTime;
+                                    title = null;
+                                    desc = null;
+                                }
+                            }
+                            case "title" -> {
+                                if (programmes != null && title == null) {
+                                    title = titlePool.computeIfAbsent(reader.getElementText().strip(), k -> k);
+                                }
+                            }
+                            case "desc" -> {
+                                if (programmes != null && desc == null) {
+                                    desc = StringUtils.trimToNull(reader.getElementText());
+                                }
+                            }
+                            default -> {}
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        localName = reader.getLocalName();
+                        if (localName.equals("channel")) {
+                            channelId = null;
+                        } else if (localName.equals("programme")) {
+                            if (programmes != null) {
+                                programmes.add(start, stop, StringUtils.defaultString(title), desc);
+                            }
+                            programmes = null;
+                            channelId = null;
+                        }
+                    }
+                    default -> {}
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("invalid xmltv content", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {}
+            }
+        }
+
+        return buildStore(channelIdAndNamesMap, channelIdAndProgrammesMap);
+    }
+
+    private XmltvEpgStore buildStore(
+            Map<String, List<String>> channelIdAndNamesMap, Map<String, ProgrammesBuilder> channelIdAndProgrammesMap
+    ) {
+        Map<String, XmltvEpgStore.Programmes> channelProgrammes = new HashMap<>(channelIdAndProgrammesMap.size() * 4);
+        String id;
+        XmltvEpgStore.Programmes programmes;
+        List<String> names;
+
+        for (Map.Entry<String, ProgrammesBuilder> entry : channelIdAndProgrammesMap.entrySet()) {
+            id = entry.getKey();
+            programmes = entry.getValue().build();
+            channelProgrammes.putIfAbsent(XmltvEpgStore.normalizeChannelName(id), programmes);
+            names = channelIdAndNamesMap.get(id);
+            if (names != null) {
+                for (String name : names) {
+                    channelProgrammes.putIfAbsent(XmltvEpgStore.normalizeChannelName(name), programmes);
+                }
+            }
+        }
+        log.info(
+                "xmltv parsed, channel count: {}, key count: {}",
+                channelIdAndProgrammesMap.size(),
+                channelProgrammes.size()
+        );
+
+        return new XmltvEpgStore(channelProgrammes);
+    }
+
+    /**
+     * 解析XMLTV时间（eg. 20240101120000 +0800），没有时区时使用系统时区
+     * @return epoch秒，为null表示格式错误
+     */
+    @Nullable
+    private Long parseTime(@Nullable String time, ZoneId zoneId) {
+        if (time == null) {
+
+            return null;
+        }
+        time = time.strip();
+        try {
+            if (time.length() > 14) {
+
+                return OffsetDateTime.parse(time, DATETIME_WITH_OFFSET_FORMATTER).toEpochSecond();
+            }
+
+            return LocalDateTime.parse(time, DATETIME_FORMATTER).atZone(zoneId).toEpochSecond();
+        } catch (DateTimeParseException e) {
+
+            return null;
+        }
+    }
+
+    /**
+     * 频道节目收集（解析完成后排序并转换为数组）
+     */
+    private static class ProgrammesBuilder {
+
+        private final List<long[]> times = new ArrayList<>();
+        private final List<String> titles = new ArrayList<>();
+        private final List<String> descs = new ArrayList<>();
+
+        private void add(long start, long stop, String title, @Nullable String desc) {
+            times.add(new long[]{ start, stop, times.size() });
+            titles.add(title);
+            descs.add(desc);
+        }
+
+        private XmltvEpgStore.Programmes build() {
+            int size = times.size();
+            long[] starts = new long[size];
+            long[] stops = new long[size];
+            String[] sortedTitles = new String[size];
+            String[] sortedDescs = new String[size];
+            long[] time;
+            int idx;
+
+            times.sort(Comparator.comparingLong(t -> t[0]));
+            for (int i = 0; i < size; i++) {
+                time = times.get(i);
+                idx = (int) time[2];
+                starts[i] = time[0];
+                stops[i] = time[1];
+                sortedTitles[i] = titles.get(idx);
+                sortedDescs[i] = descs.get(idx);
+            }
+
+            return new XmltvEpgStore.Programmes(starts, stops, sortedTitles, sortedDescs);
+        }
+    }
+}
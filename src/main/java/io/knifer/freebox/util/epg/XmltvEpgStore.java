@@ -0,0 +1,146 @@
+package io.knifer.freebox.util.epg;
+
+import io.knifer.freebox.model.common.diyp.EPG;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.text.Normalizer;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * XMLTV节目单存储
+ * 每个频道的节目按开始时间排序后存放在数组中（时间为epoch秒），按时间查询节目时使用二分查找
+ * 频道以规范化后的频道名称（display-name）及频道id作为key
+ *
+ * @author Knifer
+ */
+public class XmltvEpgStore {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    private static final String DAY_END_TIME = "23:59";
+    private static final Pattern CHANNEL_NAME_IGNORED_CHARS = Pattern.compile("[\\s\\-_·.]");
+
+    /**
+     * 规范化的频道名称/id -> 节目
+     */
+    private final Map<String, Programmes> channelProgrammes;
+
+    XmltvEpgStore(Map<String, Programmes> channelProgrammes) {
+        this.channelProgrammes = channelProgrammes;
+    }
+
+    /**
+     * 获取频道在指定日期（系统时区）内的节目单
+     * @param channelName 频道名称
+     * @param date 日期
+     * @return 节目单，为null表示没有该频道的节目
+     */
+    @Nullable
+    public EPG getEpg(String channelName, LocalDate date) {
+        Programmes programmes = channelProgrammes.get(normalizeChannelName(channelName));
+        ZoneId zoneId = ZoneId.systemDefault();
+        long dayStart;
+        long dayEnd;
+        int idx;
+        List<EPG.Data> epgData;
+        EPG epg;
+
+        if (programmes == null) {
+
+            return null;
+        }
+        dayStart = date.atStartOfDay(zoneId).toEpochSecond();
+        dayEnd = date.plusDays(1).atStartOfDay(zoneId).toEpochSecond();
+        epgData = new ArrayList<>();
+        for (idx = programmes.indexOfFirstEndingAfter(dayStart); idx < programmes.size(); idx++) {
+            if (programmes.starts[idx] >= dayEnd) {
+                break;
+            }
+            epgData.add(new EPG.Data(
+                    // 跨天的节目截断到当天范围内
+                    programmes.starts[idx] <= dayStart ?
+                            "00:00" : formatTime(programmes.starts[idx], zoneId),
+                    programmes.stops[idx] >= dayEnd ?
+                            DAY_END_TIME : formatTime(programmes.stops[idx], zoneId),
+                    programmes.titles[idx],
+                    programmes.descs[idx]
+            ));
+        }
+        epg = new EPG();
+        epg.setChannelName(channelName);
+        epg.setDate(date.toString());
+        epg.setEpgData(epgData);
+
+        return epg;
+    }
+
+    private String formatTime(long epochSecond, ZoneId zoneId) {
+        return TIME_FORMATTER.format(Instant.ofEpochSecond(epochSecond).atZone(zoneId));
+    }
+
+    /**
+     * 规范化频道名称：全角转半角、忽略大小写、空白字符及连接符（CCTV-1 / cctv 1 / ＣＣＴＶ１ 视为相同）
+     * @param channelName 频道名称
+     * @return 规范化后的名称
+     */
+    static String normalizeChannelName(String channelName) {
+        String normalized = Normalizer.normalize(channelName, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+
+        return CHANNEL_NAME_IGNORED_CHARS.matcher(normalized).replaceAll(StringUtils.EMPTY);
+    }
+
+    /**
+     * 单个频道的节目（按开始时间排序）
+     */
+    static class Programmes {
+
+        private final long[] starts;
+        private final long[] stops;
+        /**
+         * 节目结束时间的前缀最大值，用于在节目时间有重叠时仍然可以二分查找
+         */
+        private final long[] maxStops;
+        private final String[] titles;
+        private final String[] descs;
+
+        Programmes(long[] starts, long[] stops, String[] titles, String[] descs) {
+            this.starts = starts;
+            this.stops = stops;
+            this.titles = titles;
+            this.descs = descs;
+            this.maxStops = new long[stops.length];
+            for (int i = 0; i < stops.length; i++) {
+                maxStops[i] = i == 0 ? stops[i] : Math.max(maxStops[i - 1], stops[i]);
+            }
+        }
+
+        int size() {
+            return starts.length;
+        }
+
+        /**
+         * 查找第一个结束时间晚于指定时间的节目
+         * @param epochSecond 时间
+         * @return 节目下标，没有时为size()
+         */
+        int indexOfFirstEndingAfter(long epochSecond) {
+            int low = 0;
+            int high = maxStops.length;
+            int mid;
+
+            while (low < high) {
+                mid = (low + high) >>> 1;
+                if (maxStops[mid] <= epochSecond) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+    }
+}
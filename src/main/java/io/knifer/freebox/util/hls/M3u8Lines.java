@@ -0,0 +1,86 @@
+package io.knifer.freebox.util.hls;
+
+import java.util.Arrays;
+
+/**
+ * m3u8行索引列表
+ * 只记录行在M3u8Playlist中的索引，过滤、合并时无需复制行内容，最终通过M3u8Playlist#write一次性输出
+ *
+ * @author Knifer
+ */
+public class M3u8Lines {
+
+    private int[] indexes;
+    private int size;
+
+    public M3u8Lines() {
+        this(16);
+    }
+
+    public M3u8Lines(int initialCapacity) {
+        indexes = new int[Math.max(initialCapacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * 包含播放列表中的所有行
+     * @param playlist 播放列表
+     * @return 行索引列表
+     */
+    public static M3u8Lines all(M3u8Playlist playlist) {
+        int lineCount = playlist.size();
+        M3u8Lines result = new M3u8Lines(lineCount);
+
+        for (int i = 0; i < lineCount; i++) {
+            result.indexes[i] = i;
+        }
+        result.size = lineCount;
+
+        return result;
+    }
+
+    public void add(int lineIdx) {
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, size << 1);
+        }
+        indexes[size++] = lineIdx;
+    }
+
+    public void addAll(M3u8Lines other) {
+        if (size + other.size > indexes.length) {
+            indexes = Arrays.copyOf(indexes, Math.max(size + other.size, size << 1));
+        }
+        System.arraycopy(other.indexes, 0, indexes, size, other.size);
+        size += other.size;
+    }
+
+    public int get(int i) {
+        return indexes[i];
+    }
+
+    public int getLast() {
+        return indexes[size - 1];
+    }
+
+    public void removeLast() {
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void reverse() {
+        int tmp;
+
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            tmp = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = tmp;
+        }
+    }
+}
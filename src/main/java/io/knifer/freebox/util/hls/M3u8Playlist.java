@@ -0,0 +1,559 @@
+package io.knifer.freebox.util.hls;
+
+import io.knifer.freebox.util.UrlUtil;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * m3u8播放列表
+ * 只解析一次：每一行仅记录在原始内容中的起止位置和行类型（M3u8Tag），不会拆分出行字符串；
+ * 过滤、合并时使用M3u8Lines记录需要保留的行，最终通过write直接从原始内容输出。
+ * 主播放列表的子播放列表由M3u8PlaylistResolver统一下载、解析一次，之后供广告过滤、ts代理等处理器复用
+ *
+ * @author Knifer
+ */
+public class M3u8Playlist {
+
+    /**
+     * 播放列表地址
+     */
+    @Getter
+    private final String url;
+    /**
+     * 播放列表所在目录，用于拼接绝对路径
+     */
+    @Getter
+    @Nullable
+    private final String baseUrl;
+    /**
+     * 播放列表内容
+     */
+    @Getter
+    private final String content;
+    /**
+     * 是否为主播放列表
+     */
+    @Getter
+    private final boolean master;
+    /**
+     * 是否为直播/事件类型的媒体播放列表（没有#EXT-X-ENDLIST，播放器需要定期重新请求）
+     */
+    @Getter
+    private final boolean live;
+    /**
+     * 已下载的子播放列表（仅主播放列表有值）
+     */
+    @Getter
+    @Setter(AccessLevel.PACKAGE)
+    private List<M3u8Playlist> variants = List.of();
+
+    /**
+     * 相对路径拼接前缀，为null表示不拼接
+     */
+    @Nullable
+    private final String resolvePrefix;
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+    private final M3u8Tag[] lineTags;
+    private final int lineCount;
+
+    private M3u8Playlist(String url, String content) {
+        int contentLen = content.length();
+        int capacity = Math.max(16, contentLen / 32);
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        M3u8Tag[] tags = new M3u8Tag[capacity];
+        int count = 0;
+        int pos = 0;
+        int lineEnd;
+        int start;
+        int end;
+        M3u8Tag tag;
+        boolean hasStreamInf = false;
+        boolean hasExtInf = false;
+        boolean hasEndList = false;
+        boolean vod = false;
+
+        while (pos <= contentLen) {
+            lineEnd = content.indexOf('\n', pos);
+            if (lineEnd == -1) {
+                lineEnd = contentLen;
+            }
+            start = pos;
+            end = lineEnd;
+            while (start < end && Character.isWhitespace(content.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(content.charAt(end - 1))) {
+                end--;
+            }
+            if (lineEnd == contentLen && start == end) {
+                // 末尾的空行
+                break;
+            }
+            tag = classify(content, start, end);
+            switch (tag) {
+                case STREAM_INF -> hasStreamInf = true;
+                case EXTINF -> hasExtInf = true;
+                case ENDLIST -> hasEndList = true;
+                case PLAYLIST_TYPE -> vod |= content.startsWith("VOD", start + tag.getPrefix().length() + 1);
+                default -> {}
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count << 1);
+                ends = Arrays.copyOf(ends, count << 1);
+                tags = Arrays.copyOf(tags, count << 1);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            tags[count] = tag;
+            count++;
+            pos = lineEnd + 1;
+        }
+        this.url = url;
+        this.baseUrl = UrlUtil.getParent(url);
+        this.content = content;
+        this.lineStarts = starts;
+        this.lineEnds = ends;
+        this.lineTags = tags;
+        this.lineCount = count;
+        this.master = hasStreamInf;
+        this.live = !hasStreamInf && hasExtInf && !hasEndList && !vod;
+        this.resolvePrefix = StringUtils.isBlank(baseUrl) ?
+                null : StringUtils.removeStart(StringUtils.appendIfMissing(baseUrl, "/"), '/');
+    }
+
+    private static M3u8Tag classify(String content, int start, int end) {
+        if (start == end) {
+
+            return M3u8Tag.BLANK;
+        }
+        if (content.charAt(start) != '#') {
+
+            return M3u8Tag.URI;
+        }
+        for (M3u8Tag tag : M3u8Tag.PREFIXED_TAGS) {
+            if (content.startsWith(tag.getPrefix(), start)) {
+
+                return tag;
+            }
+        }
+
+        return M3u8Tag.COMMENT;
+    }
+
+    /**
+     * 解析播放列表（不会下载子播放列表）
+     * @param url 播放列表地址
+     * @param content 播放列表内容（直接引用，不会复制）
+     * @return 播放列表
+     */
+    public static M3u8Playlist parse(String url, String content) {
+        return new M3u8Playlist(url, content);
+    }
+
+    /**
+     * 行数
+     */
+    public int size() {
+        return lineCount;
+    }
+
+    public M3u8Tag getTag(int lineIdx) {
+        return lineTags[lineIdx];
+    }
+
+    public boolean is(int lineIdx, M3u8Tag tag) {
+        return lineTags[lineIdx] == tag;
+    }
+
+    public int length(int lineIdx) {
+        return lineEnds[lineIdx] - lineStarts[lineIdx];
+    }
+
+    public boolean startsWith(int lineIdx, String prefix) {
+        return length(lineIdx) >= prefix.length() && content.startsWith(prefix, lineStarts[lineIdx]);
+    }
+
+    public boolean endsWith(int lineIdx, String suffix) {
+        int suffixLen = suffix.length();
+
+        return length(lineIdx) >= suffixLen && content.startsWith(suffix, lineEnds[lineIdx] - suffixLen);
+    }
+
+    /**
+     * 在行内查找字符串
+     * @param lineIdx 行索引
+     * @param str 要查找的字符串
+     * @return 相对于行首的位置，未找到时返回-1
+     */
+    public int indexOf(int lineIdx, String str) {
+        int start = lineStarts[lineIdx];
+        int last = lineEnds[lineIdx] - str.length();
+
+        // 只在行内查找，避免扫描到后续内容
+        for (int i = start; i <= last; i++) {
+            if (content.startsWith(str, i)) {
+
+                return i - start;
+            }
+        }
+
+        return -1;
+    }
+
+    public boolean contains(int lineIdx, String str) {
+        return indexOf(lineIdx, str) != -1;
+    }
+
+    public boolean containsIgnoreCase(int lineIdx, String str) {
+        int start = lineStarts[lineIdx];
+        int last = lineEnds[lineIdx] - str.length();
+
+        for (int i = start; i <= last; i++) {
+            if (content.regionMatches(true, i, str, 0, str.length())) {
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 获取行内指定位置的字符
+     * @param lineIdx 行索引
+     * @param offset 相对于行首的位置
+     */
+    public char charAt(int lineIdx, int offset) {
+        return content.charAt(lineStarts[lineIdx] + offset);
+    }
+
+    /**
+     * 在行内反向查找字符
+     * @return 相对于行首的位置，未找到时返回-1
+     */
+    public int lastIndexOf(int lineIdx, char ch) {
+        int start = lineStarts[lineIdx];
+
+        for (int i = lineEnds[lineIdx] - 1; i >= start; i--) {
+            if (content.charAt(i) == ch) {
+
+                return i - start;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * 获取行内容（会创建新的字符串，只在确实需要时使用）
+     */
+    public String getLine(int lineIdx) {
+        return content.substring(lineStarts[lineIdx], lineEnds[lineIdx]);
+    }
+
+    /**
+     * 获取标签值（冒号之后的内容）
+     * @param lineIdx 行索引
+     * @return 标签值，没有值时返回空字符串
+     */
+    public String getTagValue(int lineIdx) {
+        int valueStart = lineStarts[lineIdx] + lineTags[lineIdx].getPrefix().length();
+        int end = lineEnds[lineIdx];
+
+        if (valueStart >= end || content.charAt(valueStart) != ':') {
+
+            return StringUtils.EMPTY;
+        }
+
+        return content.substring(valueStart + 1, end).strip();
+    }
+
+    /**
+     * 获取整数类型的标签值（如#EXT-X-TARGETDURATION、#EXT-X-MEDIA-SEQUENCE）
+     */
+    public long getLongTagValue(int lineIdx, long defaultValue) {
+        try {
+            return (long) Double.parseDouble(getTagValue(lineIdx));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 获取#EXTINF的时长
+     * @param lineIdx 行索引
+     * @return 时长（秒），解析失败时返回-1
+     */
+    public double getExtInfDuration(int lineIdx) {
+        String value;
+        int commaIdx;
+
+        if (lineTags[lineIdx] != M3u8Tag.EXTINF) {
+
+            return -1;
+        }
+        value = getTagValue(lineIdx);
+        commaIdx = value.indexOf(',');
+        try {
+            return Double.parseDouble(commaIdx == -1 ? value : value.substring(0, commaIdx));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 获取#EXT-X-BYTERANGE的值
+     * @param lineIdx 行索引
+     * @return [长度, 偏移量]，偏移量缺省时为-1；解析失败时返回null
+     */
+    @Nullable
+    public long[] getByteRange(int lineIdx) {
+        String value;
+        int atIdx;
+
+        if (lineTags[lineIdx] != M3u8Tag.BYTERANGE) {
+
+            return null;
+        }
+        value = getTagValue(lineIdx);
+        atIdx = value.indexOf('@');
+        try {
+            return atIdx == -1 ?
+                    new long[] { Long.parseLong(value), -1 } :
+                    new long[] { Long.parseLong(value.substring(0, atIdx)), Long.parseLong(value.substring(atIdx + 1)) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取#EXT-X-STREAM-INF的带宽
+     * @param lineIdx 行索引
+     * @return 带宽，解析失败时返回-1
+     */
+    public long getStreamInfBandwidth(int lineIdx) {
+        String bandwidth = lineTags[lineIdx] == M3u8Tag.STREAM_INF ? getAttribute(lineIdx, "BANDWIDTH") : null;
+
+        if (bandwidth == null) {
+
+            return -1;
+        }
+        try {
+            return Long.parseLong(bandwidth);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 获取#EXT-X-STREAM-INF的分辨率（如1920x1080）
+     */
+    @Nullable
+    public String getStreamInfResolution(int lineIdx) {
+        return lineTags[lineIdx] == M3u8Tag.STREAM_INF ? getAttribute(lineIdx, "RESOLUTION") : null;
+    }
+
+    /**
+     * 获取标签的属性值（如#EXT-X-KEY的METHOD、URI），引号会被去除
+     * @param lineIdx 行索引
+     * @param name 属性名
+     * @return 属性值，不存在时返回null
+     */
+    @Nullable
+    public String getAttribute(int lineIdx, String name) {
+        int end = lineEnds[lineIdx];
+        int pos = indexOf(':', lineStarts[lineIdx], end);
+        int nameLen = name.length();
+        int valueStart;
+        int valueEnd;
+        boolean quoted;
+
+        if (pos == -1) {
+
+            return null;
+        }
+        pos++;
+        while (pos < end) {
+            while (pos < end && content.charAt(pos) == ' ') {
+                pos++;
+            }
+            valueStart = pos + nameLen + 1;
+            if (
+                    valueStart <= end &&
+                    content.startsWith(name, pos) &&
+                    content.charAt(pos + nameLen) == '='
+            ) {
+                quoted = valueStart < end && content.charAt(valueStart) == '"';
+                if (quoted) {
+                    valueEnd = indexOf('"', valueStart + 1, end);
+
+                    return content.substring(valueStart + 1, valueEnd == -1 ? end : valueEnd);
+                }
+                valueEnd = indexOf(',', valueStart, end);
+
+                return content.substring(valueStart, valueEnd == -1 ? end : valueEnd);
+            }
+            // 跳到下一个属性（跳过引号中的逗号）
+            quoted = false;
+            while (pos < end && (quoted || content.charAt(pos) != ',')) {
+                if (content.charAt(pos) == '"') {
+                    quoted = !quoted;
+                }
+                pos++;
+            }
+            pos++;
+        }
+
+        return null;
+    }
+
+    private int indexOf(char ch, int fromIdx, int endIdx) {
+        for (int i = fromIdx; i < endIdx; i++) {
+            if (content.charAt(i) == ch) {
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * 是否为相对路径（需要拼接baseUrl）
+     */
+    public boolean isRelativeUri(int lineIdx) {
+        return resolvePrefix != null && !startsWith(lineIdx, "http://") && !startsWith(lineIdx, "https://");
+    }
+
+    /**
+     * 获取资源行的绝对路径
+     */
+    public String resolveUri(int lineIdx) {
+        return isRelativeUri(lineIdx) ? resolvePrefix + getLine(lineIdx) : getLine(lineIdx);
+    }
+
+    /**
+     * 获取所有子播放列表的绝对路径（仅主播放列表有值）
+     */
+    public List<String> getVariantUrls() {
+        List<String> urls = new ArrayList<>();
+
+        for (int i = 0; i < lineCount - 1; i++) {
+            if (lineTags[i] == M3u8Tag.STREAM_INF && lineTags[i + 1] == M3u8Tag.URI) {
+                urls.add(resolveUri(i + 1));
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * 获取带宽最高的直播子播放列表
+     * 直播流的主播放列表本身没有#EXT-X-MEDIA-SEQUENCE、#EXT-X-ENDLIST等标签，需要根据已下载的子播放列表判断
+     * @return 直播子播放列表，不是主播放列表或没有直播子播放列表时返回null
+     */
+    @Nullable
+    public M3u8Playlist getLiveVariant() {
+        Map<String, Long> urlAndBandwidthMap;
+        M3u8Playlist result = null;
+        long resultBandwidth = Long.MIN_VALUE;
+        long bandwidth;
+
+        if (variants.isEmpty()) {
+
+            return null;
+        }
+        urlAndBandwidthMap = new HashMap<>();
+        for (int i = 0; i < lineCount - 1; i++) {
+            if (lineTags[i] == M3u8Tag.STREAM_INF && lineTags[i + 1] == M3u8Tag.URI) {
+                urlAndBandwidthMap.putIfAbsent(resolveUri(i + 1), getStreamInfBandwidth(i));
+            }
+        }
+        for (M3u8Playlist variant : variants) {
+            if (!variant.isLive()) {
+                continue;
+            }
+            bandwidth = urlAndBandwidthMap.getOrDefault(variant.getUrl(), -1L);
+            if (bandwidth > resultBandwidth) {
+                result = variant;
+                resultBandwidth = bandwidth;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 输出一行（原样输出）
+     */
+    public void appendLine(StringBuilder sb, int lineIdx) {
+        sb.append(content, lineStarts[lineIdx], lineEnds[lineIdx]).append('\n');
+    }
+
+    /**
+     * 输出一行，资源行和#EXT-X-KEY、#EXT-X-MAP中的URI属性会被转换为绝对路径
+     */
+    public void appendResolvedLine(StringBuilder sb, int lineIdx) {
+        int start = lineStarts[lineIdx];
+        int end = lineEnds[lineIdx];
+        int uriAttrIdx;
+
+        switch (lineTags[lineIdx]) {
+            case URI -> {
+                if (isRelativeUri(lineIdx)) {
+                    sb.append(resolvePrefix);
+                }
+                sb.append(content, start, end);
+            }
+            case KEY, MAP -> {
+                uriAttrIdx = indexOf(lineIdx, "URI=\"");
+                if (
+                        resolvePrefix == null ||
+                        uriAttrIdx == -1 ||
+                        content.startsWith("http://", start + uriAttrIdx + 5) ||
+                        content.startsWith("https://", start + uriAttrIdx + 5)
+                ) {
+                    sb.append(content, start, end);
+                } else {
+                    sb.append(content, start, start + uriAttrIdx + 5)
+                            .append(resolvePrefix)
+                            .append(content, start + uriAttrIdx + 5, end);
+                }
+            }
+            default -> sb.append(content, start, end);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 输出指定的行，资源路径会被转换为绝对路径
+     * @param lines 行索引列表
+     * @return m3u8内容
+     */
+    public String write(M3u8Lines lines) {
+        StringBuilder sb = new StringBuilder(content.length());
+
+        write(sb, lines);
+
+        return sb.toString();
+    }
+
+    public void write(StringBuilder sb, M3u8Lines lines) {
+        int size = lines.size();
+
+        for (int i = 0; i < size; i++) {
+            appendResolvedLine(sb, lines.get(i));
+        }
+    }
+}
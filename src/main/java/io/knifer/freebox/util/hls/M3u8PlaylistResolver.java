@@ -0,0 +1,127 @@
+package io.knifer.freebox.util.hls;
+
+import com.google.common.net.HttpHeaders;
+import io.knifer.freebox.constant.BaseValues;
+import io.knifer.freebox.util.HttpUtil;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * m3u8播放列表解析
+ * 主播放列表的所有子播放列表会被并发下载，并共用一个总超时时间
+ *
+ * @author Knifer
+ */
+@Slf4j
+@UtilityClass
+public class M3u8PlaylistResolver {
+
+    /**
+     * 默认的子播放列表下载总超时时间（秒）
+     */
+    public static final int DEFAULT_TIMEOUT_SECONDS = 6;
+
+    public M3u8Playlist resolve(String url, String content) {
+        return resolve(url, content, Map.of(), DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * 解析播放列表，如果是主播放列表，会并发下载并解析所有子播放列表
+     * 超时未下载完成的子播放列表会被忽略
+     * @param url 播放列表地址
+     * @param content 播放列表内容
+     * @param headers 下载子播放列表时携带的请求头
+     * @param timeoutSeconds 下载子播放列表的总超时时间
+     * @return 播放列表
+     */
+    public M3u8Playlist resolve(String url, String content, Map<String, String> headers, int timeoutSeconds) {
+        return resolve(M3u8Playlist.parse(url, content), headers, timeoutSeconds);
+    }
+
+    /**
+     * 为已解析的播放列表下载子播放列表（如果是主播放列表）
+     * @param playlist 播放列表
+     * @param headers 下载子播放列表时携带的请求头
+     * @param timeoutSeconds 下载子播放列表的总超时时间
+     * @return 播放列表
+     */
+    public M3u8Playlist resolve(M3u8Playlist playlist, Map<String, String> headers, int timeoutSeconds) {
+        if (playlist.isMaster() && playlist.getVariants().isEmpty()) {
+            playlist.setVariants(fetchVariants(playlist, headers, timeoutSeconds));
+        }
+
+        return playlist;
+    }
+
+    private List<M3u8Playlist> fetchVariants(M3u8Playlist master, Map<String, String> headers, int timeoutSeconds) {
+        List<String> variantUrls = master.getVariantUrls();
+        List<CompletableFuture<M3u8Playlist>> futures = new ArrayList<>(variantUrls.size());
+        List<M3u8Playlist> variants = new ArrayList<>(variantUrls.size());
+        M3u8Playlist variant;
+
+        for (String variantUrl : variantUrls) {
+            futures.add(fetchVariant(variantUrl, headers));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                    .get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("fetch sub playlists timeout, masterUrl={}", master.getUrl());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // 单个子播放列表的异常已在fetchVariant中处理
+        }
+        for (CompletableFuture<M3u8Playlist> future : futures) {
+            if (!future.isDone()) {
+                future.cancel(true);
+                continue;
+            }
+            variant = future.getNow(null);
+            if (variant != null) {
+                variants.add(variant);
+            }
+        }
+        log.info("fetched sub playlists: {}/{}", variants.size(), variantUrls.size());
+
+        return variants;
+    }
+
+    private CompletableFuture<M3u8Playlist> fetchVariant(String variantUrl, Map<String, String> headers) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .GET()
+                .header(HttpHeaders.USER_AGENT, BaseValues.USER_AGENT)
+                .uri(HttpUtil.parseUrl(variantUrl));
+
+        headers.forEach(requestBuilder::setHeader);
+
+        return HttpUtil.getClient()
+                .sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofString())
+                .thenApply(resp -> {
+                    String body = resp.body();
+
+                    if (StringUtils.isBlank(body)) {
+                        log.warn("sub playlist is empty, url={}", variantUrl);
+
+                        return null;
+                    }
+
+                    return M3u8Playlist.parse(variantUrl, body);
+                })
+                .exceptionally(e -> {
+                    log.error("fetch sub playlist failed, url={}", variantUrl, e);
+
+                    return null;
+                });
+    }
+}
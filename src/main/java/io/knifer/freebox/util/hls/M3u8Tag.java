@@ -0,0 +1,55 @@
+package io.knifer.freebox.util.hls;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * m3u8行类型
+ * 解析时按声明顺序匹配前缀，因此前缀更长的标签需要声明在前面（如DISCONTINUITY_SEQUENCE在DISCONTINUITY之前）
+ *
+ * @author Knifer
+ */
+@Getter
+@AllArgsConstructor
+public enum M3u8Tag {
+
+    EXTM3U("#EXTM3U"),
+    EXTINF("#EXTINF"),
+    DISCONTINUITY_SEQUENCE("#EXT-X-DISCONTINUITY-SEQUENCE"),
+    DISCONTINUITY("#EXT-X-DISCONTINUITY"),
+    KEY("#EXT-X-KEY"),
+    MAP("#EXT-X-MAP"),
+    BYTERANGE("#EXT-X-BYTERANGE"),
+    PROGRAM_DATE_TIME("#EXT-X-PROGRAM-DATE-TIME"),
+    STREAM_INF("#EXT-X-STREAM-INF"),
+    TARGETDURATION("#EXT-X-TARGETDURATION"),
+    MEDIA_SEQUENCE("#EXT-X-MEDIA-SEQUENCE"),
+    PLAYLIST_TYPE("#EXT-X-PLAYLIST-TYPE"),
+    VERSION("#EXT-X-VERSION"),
+    ENDLIST("#EXT-X-ENDLIST"),
+    // 其他标签
+    OTHER_TAG("#EXT"),
+    // 注释
+    COMMENT("#"),
+    // 资源地址（ts片段、子播放列表等）
+    URI(""),
+    // 空行
+    BLANK("");
+
+    private final String prefix;
+
+    /**
+     * 需要匹配前缀的标签
+     */
+    static final M3u8Tag[] PREFIXED_TAGS = {
+            EXTINF, DISCONTINUITY_SEQUENCE, DISCONTINUITY, KEY, MAP, BYTERANGE, PROGRAM_DATE_TIME,
+            STREAM_INF, TARGETDURATION, MEDIA_SEQUENCE, PLAYLIST_TYPE, VERSION, ENDLIST, EXTM3U, OTHER_TAG
+    };
+
+    /**
+     * 是否为紧跟ts片段的标签（过滤ts片段时需要一同移除）
+     */
+    public boolean isSegmentTag() {
+        return this == EXTINF || this == DISCONTINUITY || this == BYTERANGE || this == PROGRAM_DATE_TIME;
+    }
+}
@@ -22,21 +22,16 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
 @Slf4j
 public class PlaylistDownloader {
     private URL url;
-    private List<String> playlist;
+    private M3u8Playlist playlist;
     private Crypto crypto;
 
-    private static String EXT_X_KEY = "#EXT-X-KEY";
-    private static final String BANDWIDTH = "BANDWIDTH";
-
     public PlaylistDownloader(String playlistUrl) throws MalformedURLException {
         this.url = new URL(playlistUrl);
-        this.playlist = new ArrayList<String>();
     }
 
     public void download(String outfile) throws IOException {
@@ -48,25 +43,14 @@ public class PlaylistDownloader {
 
         this.crypto = new Crypto(getBaseUrl(this.url), key);
 
-        for (String line : playlist) {
-            line = line.trim();
-
-            if (line.startsWith(EXT_X_KEY)) {
-                crypto.updateKeyString(line);
+        for (int i = 0; i < playlist.size(); i++) {
+            if (playlist.is(i, M3u8Tag.KEY)) {
+                crypto.updateKeyString(playlist.getLine(i));
 
                 log.info("\rCurrent Key: {}", crypto.getCurrentKey());
                 log.info("Current IV: {}", crypto.getCurrentIV());
-            } else if (line.length() > 0 && !line.startsWith("#")) {
-                URL segmentUrl;
-
-                if (!line.startsWith("http")) {
-                    String baseUrl = getBaseUrl(this.url);
-                    segmentUrl = new URL(baseUrl + line);
-                } else {
-                    segmentUrl = new URL(line);
-                }
-
-                downloadInternal(segmentUrl, outfile);
+            } else if (playlist.is(i, M3u8Tag.URI)) {
+                downloadInternal(new URL(playlist.resolveUri(i)), outfile);
             }
         }
 
@@ -110,55 +94,31 @@ public class PlaylistDownloader {
     }
 
     private void fetchPlaylist() throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-        boolean isMaster = false;
-        long maxRate = 0L;
-        int maxRateIndex = 0;
-
-        String line;
-        int index = 0;
-
-        while ((line = reader.readLine()) != null) {
-            playlist.add(line);
-
-            if (line.contains(BANDWIDTH))
-                isMaster = true;
-
-            if (isMaster && line.contains(BANDWIDTH)) {
-                try {
-                    int pos = line.lastIndexOf("=");
-                    long bandwidth = Long.parseLong(line.substring(++pos));
-
-                    maxRate = Math.max(bandwidth, maxRate);
-
-                    if (bandwidth == maxRate)
-                        maxRateIndex = index + 1;
-                } catch (NumberFormatException ignore) {}
-            }
+        String content;
+        long maxRate = -1L;
+        int maxRateIndex = -1;
+        long bandwidth;
 
-            index++;
+        try (InputStream in = url.openStream()) {
+            content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
         }
-
-        reader.close();
-
-        if (isMaster) {
+        playlist = M3u8Playlist.parse(url.toString(), content);
+
+        if (playlist.isMaster()) {
+            for (int i = 0; i < playlist.size() - 1; i++) {
+                bandwidth = playlist.getStreamInfBandwidth(i);
+                if (bandwidth > maxRate && playlist.is(i + 1, M3u8Tag.URI)) {
+                    maxRate = bandwidth;
+                    maxRateIndex = i + 1;
+                }
+            }
+            if (maxRateIndex == -1) {
+                throw new IOException("no sub playlist found in master playlist: " + url);
+            }
             log.info("Found master playlist, fetching highest stream at {}Kb/s", maxRate / 1024);
-            this.url = updateUrlForSubPlaylist(playlist.get(maxRateIndex));
-            this.playlist.clear();
+            this.url = new URL(playlist.resolveUri(maxRateIndex));
 
             fetchPlaylist();
         }
     }
-
-    private URL updateUrlForSubPlaylist(String sub) throws MalformedURLException {
-        String newUrl;
-
-        if (!sub.startsWith("http")) {
-            newUrl = getBaseUrl(this.url) + sub;
-        } else {
-            newUrl = sub;
-        }
-
-        return new URL(newUrl);
-    }
 }
@@ -6,6 +6,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
 import lombok.experimental.UtilityClass;
 
+import java.io.Reader;
 import java.time.LocalDate;
 
 /**
@@ -48,6 +49,14 @@ public class GsonUtil {
         return gson.fromJson(jsonElement, typeToken);
     }
 
+    public <T> T fromJson(Reader reader, Class<T> clazz) {
+        return gson.fromJson(reader, clazz);
+    }
+
+    public <T> T fromJson(Reader reader, TypeToken<T> typeToken) {
+        return gson.fromJson(reader, typeToken);
+    }
+
     public JsonElement toJsonTree(Object object) {
         return gson.toJsonTree(object);
     }
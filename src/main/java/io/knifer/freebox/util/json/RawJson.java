@@ -0,0 +1,81 @@
+package io.knifer.freebox.util.json;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Reader;
+
+/**
+ * 未解析的JSON片段
+ * 只记录片段在原文本中的位置，绑定为目标类型时才解析（直接读取原文本，不复制）
+ *
+ * @author Knifer
+ */
+public class RawJson {
+
+    private final String source;
+    private final int start;
+    private final int end;
+
+    private RawJson(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    public static RawJson of(String source, int start, int end) {
+        return new RawJson(source, start, end);
+    }
+
+    public <T> T bind(Class<T> clazz) {
+        return GsonUtil.fromJson(new SliceReader(source, start, end), clazz);
+    }
+
+    public <T> T bind(TypeToken<T> typeToken) {
+        return GsonUtil.fromJson(new SliceReader(source, start, end), typeToken);
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return source.substring(start, end);
+    }
+
+    /**
+     * 读取字符串中指定范围的Reader
+     */
+    private static class SliceReader extends Reader {
+
+        private final String source;
+        private final int end;
+        private int pos;
+
+        private SliceReader(String source, int start, int end) {
+            this.source = source;
+            this.end = end;
+            this.pos = start;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int count;
+
+            if (pos >= end) {
+
+                return -1;
+            }
+            count = Math.min(len, end - pos);
+            source.getChars(pos, pos + count, cbuf, off);
+            pos += count;
+
+            return count;
+        }
+
+        @Override
+        public void close() {
+            pos = end;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 module io.knifer.freebox {
     requires java.sql;
     requires java.desktop;
+    requires java.xml;
     requires java.net.http;
     requires jdk.httpserver;
 
@@ -15,7 +16,6 @@ module io.knifer.freebox {
     requires jsr305;
     requires org.apache.commons.lang3;
     requires org.java_websocket;
-    requires blockingMap4j;
     requires uk.co.caprica.vlcj;
     requires uk.co.caprica.vlcj.javafx;
     requires uk.co.caprica.vlcj.natives;
@@ -28,7 +28,6 @@ module io.knifer.freebox {
     requires annotations;
     requires org.json;
     requires cn.hutool;
-    requires net.bjoernpetersen.m3u;
     requires mpv;
     requires ipcsocket;
     requires emojiJava;
@@ -4,70 +4,82 @@ import io.knifer.freebox.constant.I18nKeys;
 import io.knifer.freebox.helper.I18nHelper;
 import io.knifer.freebox.model.domain.LiveChannel;
 import io.knifer.freebox.model.domain.LiveChannelGroup;
-import net.bjoernpetersen.m3u.M3uParser;
-import net.bjoernpetersen.m3u.model.M3uEntry;
-import org.apache.commons.lang3.StringUtils;
+import io.knifer.freebox.util.LiveListParser;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.HashMap;
+import java.io.StringReader;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * 直播列表解析测试
+ *
  * @author Knifer
  */
 public class M3u8ParserTest {
 
     @Test
-    void test() throws IOException {
-//        List<M3uEntry> entries = M3uParser.parse(HttpUtil.get("https://ghfast.top/https://raw.githubusercontent.com/YueChan/Live/refs/heads/main/APTV.m3u"));
-        List<M3uEntry> m3uEntries = M3uParser.parse(Path.of("E:\\下载\\APTV.m3u"));
-        Map<String, LiveChannelGroup> groupTitleAndLiveChannelGroupMap;
-        Map<String, LiveChannel> titleAndLiveChannelMap;
-        AtomicInteger unTitledChannelIdx;
-        List<LiveChannelGroup> groups;
+    void testParseM3u() throws IOException {
+        String content = "\uFEFF" + """
+                #EXTM3U
+                #EXTINF:-1 tvg-id="cctv1" tvg-logo="https://example.com/cctv1.png" group-title="央视",CCTV-1
+                https://example.com/cctv1/1.m3u8
+                #EXTINF:-1 group-title="央视",CCTV-1
+                https://example.com/cctv1/2.m3u8
+                #EXTINF:-1,无分组频道
+                #EXTGRP:卫视
+                https://example.com/hunan.m3u8
+                #EXTINF:-1 group-title="央视",
+                https://example.com/unknown.m3u8
+                """;
+        List<LiveChannelGroup> groups = LiveListParser.parseM3u(new BufferedReader(new StringReader(content)));
+        LiveChannelGroup cctvGroup;
+        LiveChannel cctv1;
+        List<LiveChannel.Line> lines;
 
-        if (m3uEntries.isEmpty()) {
-
-            return;
-        }
-        groupTitleAndLiveChannelGroupMap = new HashMap<>();
-        titleAndLiveChannelMap = new HashMap<>();
-        unTitledChannelIdx = new AtomicInteger(0);
-        groups = m3uEntries.stream().map(m3uEntry -> {
-            String groupTitle;
-            LiveChannelGroup group;
-            LiveChannel channel;
-            String title;
-            List<LiveChannel> groupChannels;
+        Assertions.assertEquals(2, groups.size());
+        cctvGroup = groups.get(0);
+        Assertions.assertEquals("央视", cctvGroup.getTitle());
+        Assertions.assertEquals(2, cctvGroup.getChannels().size());
+        cctv1 = cctvGroup.getChannels().get(0);
+        Assertions.assertEquals("CCTV-1", cctv1.getTitle());
+        lines = cctv1.getLines();
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertEquals(I18nHelper.get(I18nKeys.LIVE_LINE) + 1, lines.get(0).getTitle());
+        Assertions.assertEquals("https://example.com/cctv1/2.m3u8", lines.get(1).getUrl());
+        // 同一频道中没有logo的线路沿用首个logo
+        Assertions.assertEquals("https://example.com/cctv1.png", lines.get(1).getLogoUrl());
+        Assertions.assertEquals(
+                I18nHelper.get(I18nKeys.LIVE_UNTITLED) + 0, cctvGroup.getChannels().get(1).getTitle()
+        );
+        Assertions.assertEquals("卫视", groups.get(1).getTitle());
+        Assertions.assertEquals("无分组频道", groups.get(1).getChannels().get(0).getTitle());
+    }
 
-            groupTitle = m3uEntry.getMetadata().get("group-title");
-            if (StringUtils.isBlank(groupTitle)) {
-                groupTitle = I18nHelper.get(I18nKeys.LIVE_UNGROUPED);
-            }
-            group = groupTitleAndLiveChannelGroupMap.get(groupTitle);
-            if (group == null) {
-                group = LiveChannelGroup.from(groupTitle);
-                groupTitleAndLiveChannelGroupMap.put(groupTitle, group);
-            }
-            groupChannels = group.getChannels();
-            title = m3uEntry.getTitle();
-            if (StringUtils.isBlank(title)) {
-                title = I18nHelper.get(I18nKeys.LIVE_UNTITLED) + unTitledChannelIdx.getAndIncrement();
-            }
-            channel = titleAndLiveChannelMap.get(title);
-            if (channel == null) {
-                channel = LiveChannel.of(groupTitle, title);
-                titleAndLiveChannelMap.put(title, channel);
-                groupChannels.add(channel);
-            }
-            channel.getLines().add(LiveChannel.Line.of(m3uEntry.getTitle(), null, m3uEntry.getLocation().toString()));
+    @Test
+    void testParseTxt() throws IOException {
+        String content = """
+                央视,#genre#
+                CCTV-1,https://example.com/cctv1/1.m3u8
+                CCTV-1,https://example.com/cctv1/2.m3u8『高清』
+                无效行
+                卫视,#genre#
+                湖南卫视,https://example.com/hunan.m3u8
+                CCTV-1,https://example.com/cctv1/3.m3u8
+                """;
+        List<LiveChannelGroup> groups = LiveListParser.parseTxt(new BufferedReader(new StringReader(content)));
+        LiveChannel cctv1;
 
-            return group;
-        }).toList();
-        System.out.println(groupTitleAndLiveChannelGroupMap);
+        Assertions.assertEquals(2, groups.size());
+        Assertions.assertEquals("央视", groups.get(0).getTitle());
+        Assertions.assertEquals(1, groups.get(0).getChannels().size());
+        cctv1 = groups.get(0).getChannels().get(0);
+        // 同名频道的线路合并到最先出现的频道中
+        Assertions.assertEquals(3, cctv1.getLines().size());
+        Assertions.assertEquals("高清", cctv1.getLines().get(1).getTitle());
+        Assertions.assertEquals("卫视", groups.get(1).getTitle());
+        Assertions.assertEquals(1, groups.get(1).getChannels().size());
     }
 }
@@ -0,0 +1,101 @@
+package io.knifer.freebox.util.hls;
+
+import io.knifer.freebox.handler.impl.SmartM3u8AdFilterHandler;
+import io.knifer.freebox.model.domain.M3u8AdFilterResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * m3u8播放列表解析测试
+ *
+ * @author Knifer
+ */
+public class M3u8PlaylistTest {
+
+    private static final String BASE_URL = "https://example.com/hls/";
+
+    @Test
+    void testParseMaster() {
+        String content = """
+                #EXTM3U
+                #EXT-X-STREAM-INF:PROGRAM-ID=1,BANDWIDTH=800000,RESOLUTION=1280x720,CODECS="avc1.64001f,mp4a.40.2"
+                720p/index.m3u8
+                #EXT-X-STREAM-INF:BANDWIDTH=2000000,RESOLUTION=1920x1080
+                https://cdn.example.com/1080p/index.m3u8
+                """;
+        M3u8Playlist playlist = M3u8Playlist.parse(BASE_URL + "index.m3u8", content);
+
+        Assertions.assertTrue(playlist.isMaster());
+        Assertions.assertFalse(playlist.isLive());
+        Assertions.assertEquals(5, playlist.size());
+        Assertions.assertEquals(M3u8Tag.STREAM_INF, playlist.getTag(1));
+        Assertions.assertEquals(800000, playlist.getStreamInfBandwidth(1));
+        Assertions.assertEquals("1280x720", playlist.getStreamInfResolution(1));
+        Assertions.assertEquals("avc1.64001f,mp4a.40.2", playlist.getAttribute(1, "CODECS"));
+        Assertions.assertEquals(2000000, playlist.getStreamInfBandwidth(3));
+        Assertions.assertEquals(
+                List.of(BASE_URL + "720p/index.m3u8", "https://cdn.example.com/1080p/index.m3u8"),
+                playlist.getVariantUrls()
+        );
+    }
+
+    @Test
+    void testParseMedia() {
+        String content = "#EXTM3U\r\n" +
+                "#EXT-X-TARGETDURATION:10\r\n" +
+                "#EXT-X-MEDIA-SEQUENCE:7\r\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key.key\"\r\n" +
+                "\r\n" +
+                "#EXTINF:9.5,\r\n" +
+                "seg0.ts\r\n" +
+                "#EXT-X-DISCONTINUITY\r\n" +
+                "#EXTINF:10,\r\n" +
+                "https://cdn.example.com/seg1.ts\r\n";
+        M3u8Playlist playlist = M3u8Playlist.parse(BASE_URL + "index.m3u8", content);
+
+        Assertions.assertFalse(playlist.isMaster());
+        Assertions.assertTrue(playlist.isLive());
+        Assertions.assertEquals(10, playlist.getLongTagValue(1, 0));
+        Assertions.assertEquals(7, playlist.getLongTagValue(2, 0));
+        Assertions.assertEquals("AES-128", playlist.getAttribute(3, "METHOD"));
+        Assertions.assertEquals(M3u8Tag.BLANK, playlist.getTag(4));
+        Assertions.assertEquals(9.5, playlist.getExtInfDuration(5));
+        Assertions.assertEquals(M3u8Tag.DISCONTINUITY, playlist.getTag(7));
+        Assertions.assertEquals(
+                "#EXTM3U\n" +
+                        "#EXT-X-TARGETDURATION:10\n" +
+                        "#EXT-X-MEDIA-SEQUENCE:7\n" +
+                        "#EXT-X-KEY:METHOD=AES-128,URI=\"" + BASE_URL + "key.key\"\n" +
+                        "\n" +
+                        "#EXTINF:9.5,\n" +
+                        BASE_URL + "seg0.ts\n" +
+                        "#EXT-X-DISCONTINUITY\n" +
+                        "#EXTINF:10,\n" +
+                        "https://cdn.example.com/seg1.ts\n",
+                playlist.write(M3u8Lines.all(playlist))
+        );
+    }
+
+    @Test
+    void testDigitAdFilter() {
+        StringBuilder content = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:4\n");
+        M3u8AdFilterResult result;
+
+        for (int i = 0; i < 40; i++) {
+            if (i == 20) {
+                content.append("#EXT-X-DISCONTINUITY\n#EXTINF:3,\nhttps://ad.example.com/ad_99/a.ts\n");
+                content.append("#EXT-X-DISCONTINUITY\n");
+            }
+            content.append("#EXTINF:4,\n").append(String.format("seg%04d.ts", i)).append('\n');
+        }
+        content.append("#EXT-X-ENDLIST\n");
+        result = new SmartM3u8AdFilterHandler().handle(BASE_URL + "index.m3u8", content.toString(), Map.of());
+
+        Assertions.assertTrue(result.getAdLineCount() > 0);
+        Assertions.assertFalse(result.getContent().contains("ad.example.com"));
+        Assertions.assertTrue(result.getContent().contains(BASE_URL + "seg0039.ts"));
+    }
+}